@@ -60,6 +60,7 @@ INTERNAL_DALVIK_MODULES += $(LOCAL_INSTALLED_MODULE)
 # ============================================================
 subdirs := $(addprefix $(LOCAL_PATH)/,$(addsuffix /Android.mk, \
 		src \
+		benchmarks \
 	))
 
 include $(subdirs)
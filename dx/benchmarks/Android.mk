@@ -0,0 +1,14 @@
+# Copyright 2009 The Android Open Source Project
+#
+LOCAL_PATH := $(call my-dir)
+
+# dx benchmarks
+# ============================================================
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := $(call all-subdir-java-files)
+LOCAL_JAVA_LIBRARIES := dx
+
+LOCAL_MODULE := dx-benchmarks
+
+include $(BUILD_HOST_JAVA_LIBRARY)
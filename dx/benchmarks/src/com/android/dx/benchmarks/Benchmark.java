@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmarks;
+
+/**
+ * Base class for benchmarks of a single stage of the dx pipeline. One
+ * run of a benchmark is a pass of its stage over the whole corpus.
+ * Subclasses prepare the input of the stage for each unit of work
+ * (class or method) outside of the timer, and time just the stage
+ * itself, by bracketing it with {@link #startTimer} and {@link
+ * #stopTimer}.
+ */
+abstract class Benchmark {
+    /**
+     * {@code null-ok;} last result of a timed stage, kept so that the
+     * work can't be optimized away
+     */
+    private static volatile Object sink;
+
+    /** {@code non-null;} the name of the benchmark */
+    private final String name;
+
+    /** {@code non-null;} the name of the unit of work */
+    private final String unit;
+
+    /** {@code >= 0;} time spent in the stage during the current run */
+    private long elapsed;
+
+    /** start time of the current timed section */
+    private long startedAt;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param name {@code non-null;} the name of the benchmark
+     * @param unit {@code non-null;} the name of the unit of work
+     */
+    public Benchmark(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Gets the name of the benchmark.
+     *
+     * @return {@code non-null;} the name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name of the unit of work, e.g. {@code "method"}.
+     *
+     * @return {@code non-null;} the unit
+     */
+    public final String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Runs the benchmark once.
+     *
+     * @param corpus {@code non-null;} the input
+     * @return {@code non-null;} the result of the run
+     */
+    public final Result measure(Corpus corpus) {
+        elapsed = 0;
+        int units = run(corpus);
+        return new Result(elapsed, units);
+    }
+
+    /**
+     * Runs the stage over the whole corpus, timing only the stage.
+     *
+     * @param corpus {@code non-null;} the input
+     * @return {@code >= 0;} the number of units of work done
+     */
+    protected abstract int run(Corpus corpus);
+
+    /**
+     * Starts timing the stage.
+     */
+    protected final void startTimer() {
+        startedAt = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the stage, and keeps its result.
+     *
+     * @param result {@code null-ok;} the result of the stage
+     */
+    protected final void stopTimer(Object result) {
+        elapsed += System.nanoTime() - startedAt;
+        sink = result;
+    }
+
+    /**
+     * Result of a single run of a benchmark.
+     */
+    public static final class Result {
+        /** {@code >= 0;} nanoseconds spent in the stage */
+        private final long nanos;
+
+        /** {@code >= 0;} number of units of work done */
+        private final int units;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param nanos {@code >= 0;} nanoseconds spent in the stage
+         * @param units {@code >= 0;} number of units of work done
+         */
+        public Result(long nanos, int units) {
+            this.nanos = nanos;
+            this.units = units;
+        }
+
+        /**
+         * Gets the time spent in the stage.
+         *
+         * @return {@code >= 0;} the time, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Gets the number of units of work done.
+         *
+         * @return {@code >= 0;} the count
+         */
+        public int getUnits() {
+            return units;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmarks;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.LocalVariableExtractor;
+import com.android.dx.rop.code.LocalVariableInfo;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.util.ExceptionWithContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Input of the benchmarks: the classes of a fixed set of archives, along
+ * with the intermediate forms of their methods, each computed once and
+ * on demand. Translation uses the same defaults as {@code dx --dex}.
+ */
+final class Corpus {
+    /** {@code non-null;} translation options */
+    private final CfOptions options;
+
+    /** {@code non-null;} optimizer settings */
+    private final OptimizerContext context;
+
+    /** {@code non-null;} the class files, in processing order */
+    private final ArrayList<ClassInput> classes;
+
+    /** {@code null-ok;} the concrete methods, once computed */
+    private ArrayList<MethodInput> methods;
+
+    /** {@code null-ok;} the whole corpus in dex form, once computed */
+    private byte[] dex;
+
+    /**
+     * Reads the classes of the given archives (or directories, or
+     * single class files).
+     *
+     * @param paths {@code non-null;} the paths to read
+     * @return {@code non-null;} the corpus
+     */
+    public static Corpus read(String[] paths) {
+        final ArrayList<ClassInput> classes = new ArrayList<ClassInput>();
+
+        for (String path : paths) {
+            ClassPathOpener opener = new ClassPathOpener(path, true,
+                    new ClassPathOpener.Consumer() {
+                public boolean processFileBytes(String name, byte[] bytes) {
+                    if (!name.endsWith(".class")) {
+                        return false;
+                    }
+                    classes.add(new ClassInput(name, bytes));
+                    return true;
+                }
+
+                public void onException(Exception ex) {
+                    throw ExceptionWithContext.withContext(
+                            new RuntimeException(ex), "...while reading");
+                }
+
+                public void onProcessArchiveStart(File file) {
+                    // This space intentionally left blank.
+                }
+            });
+
+            if (!opener.process()) {
+                throw new RuntimeException("no classes found in " + path);
+            }
+        }
+
+        return new Corpus(classes);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param classes {@code non-null;} the class files
+     */
+    private Corpus(ArrayList<ClassInput> classes) {
+        this.classes = classes;
+        this.options = new CfOptions();
+        this.options.positionInfo = PositionList.LINES;
+        this.options.localInfo = true;
+        this.options.strictNameCheck = true;
+        this.options.optimize = true;
+        this.context = new OptimizerContext(options.localInfo,
+                DexTranslationAdvice.THE_ONE);
+    }
+
+    /**
+     * Gets the translation options.
+     *
+     * @return {@code non-null;} the options
+     */
+    public CfOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Gets the optimizer settings.
+     *
+     * @return {@code non-null;} the settings
+     */
+    public OptimizerContext getContext() {
+        return context;
+    }
+
+    /**
+     * Gets the class files.
+     *
+     * @return {@code non-null;} the class files
+     */
+    public ArrayList<ClassInput> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Gets the methods with code, along with their intermediate forms.
+     *
+     * @return {@code non-null;} the methods
+     */
+    public ArrayList<MethodInput> getMethods() {
+        if (methods == null) {
+            methods = new ArrayList<MethodInput>();
+            for (ClassInput one : classes) {
+                addMethods(one);
+            }
+        }
+
+        return methods;
+    }
+
+    /**
+     * Gets the whole corpus translated to a dex file.
+     *
+     * @return {@code non-null;} the dex file
+     */
+    public byte[] getDex() {
+        if (dex == null) {
+            DexFile file = new DexFile();
+
+            for (ClassInput one : classes) {
+                file.add(CfTranslator.translate(one.getName(),
+                                one.getBytes(), options));
+            }
+
+            try {
+                dex = file.toDex(null, false);
+            } catch (IOException ex) {
+                // This can't happen, since no human-oriented output is made.
+                throw new RuntimeException(ex);
+            }
+        }
+
+        return dex;
+    }
+
+    /**
+     * Parses a class file the way {@link CfTranslator} does.
+     *
+     * @param one {@code non-null;} the class file
+     * @return {@code non-null;} the parsed class
+     */
+    public DirectClassFile parse(ClassInput one) {
+        DirectClassFile cf = new DirectClassFile(one.getBytes(),
+                one.getName(), options.strictNameCheck);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.getMagic();
+
+        return cf;
+    }
+
+    /**
+     * Helper for {@link #getMethods}, which adds the methods of one class.
+     *
+     * @param one {@code non-null;} the class file
+     */
+    private void addMethods(ClassInput one) {
+        DirectClassFile cf = parse(one);
+        MethodList list = cf.getMethods();
+        int sz = list.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method method = list.get(i);
+            int accessFlags = method.getAccessFlags();
+
+            if (AccessFlags.isNative(accessFlags) ||
+                    AccessFlags.isAbstract(accessFlags)) {
+                continue;
+            }
+
+            boolean isStatic = AccessFlags.isStatic(accessFlags);
+            CstMethodRef ref =
+                new CstMethodRef(cf.getThisClass(), method.getNat());
+            ConcreteMethod concrete = new ConcreteMethod(method, cf,
+                    (options.positionInfo != PositionList.NONE),
+                    options.localInfo);
+            RopMethod rop =
+                Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+            int paramSize = ref.getParameterWordCount(isStatic);
+            RopMethod optimized = Optimizer.optimize(rop, paramSize,
+                    isStatic, context,
+                    EnumSet.allOf(Optimizer.OptionalStep.class));
+            LocalVariableInfo locals = options.localInfo ?
+                LocalVariableExtractor.extract(optimized) : null;
+
+            methods.add(new MethodInput(concrete, rop, optimized, locals,
+                            paramSize, isStatic));
+        }
+    }
+
+    /**
+     * A class file of the corpus.
+     */
+    public static final class ClassInput {
+        /** {@code non-null;} the file name */
+        private final String name;
+
+        /** {@code non-null;} the contents */
+        private final byte[] bytes;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} the file name
+         * @param bytes {@code non-null;} the contents
+         */
+        public ClassInput(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the file name.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the contents.
+         *
+         * @return {@code non-null;} the contents
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * A method of the corpus, along with its intermediate forms.
+     */
+    public static final class MethodInput {
+        /** {@code non-null;} the method as parsed */
+        private final ConcreteMethod concrete;
+
+        /** {@code non-null;} the method as converted by the ropper */
+        private final RopMethod rop;
+
+        /** {@code non-null;} the method as optimized */
+        private final RopMethod optimized;
+
+        /** {@code null-ok;} locals of {@link #optimized}, if kept */
+        private final LocalVariableInfo locals;
+
+        /** {@code >= 0;} width of the parameters, in register units */
+        private final int paramSize;
+
+        /** whether the method is static */
+        private final boolean isStatic;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param concrete {@code non-null;} the method as parsed
+         * @param rop {@code non-null;} the method as converted by the ropper
+         * @param optimized {@code non-null;} the method as optimized
+         * @param locals {@code null-ok;} locals of the optimized method
+         * @param paramSize {@code >= 0;} width of the parameters
+         * @param isStatic whether the method is static
+         */
+        public MethodInput(ConcreteMethod concrete, RopMethod rop,
+                RopMethod optimized, LocalVariableInfo locals,
+                int paramSize, boolean isStatic) {
+            this.concrete = concrete;
+            this.rop = rop;
+            this.optimized = optimized;
+            this.locals = locals;
+            this.paramSize = paramSize;
+            this.isStatic = isStatic;
+        }
+
+        /**
+         * Gets the method as parsed.
+         *
+         * @return {@code non-null;} the method
+         */
+        public ConcreteMethod getConcrete() {
+            return concrete;
+        }
+
+        /**
+         * Gets the method as converted by the ropper.
+         *
+         * @return {@code non-null;} the method
+         */
+        public RopMethod getRop() {
+            return rop;
+        }
+
+        /**
+         * Gets the method as optimized.
+         *
+         * @return {@code non-null;} the method
+         */
+        public RopMethod getOptimized() {
+            return optimized;
+        }
+
+        /**
+         * Gets the locals of the optimized method.
+         *
+         * @return {@code null-ok;} the locals, if kept
+         */
+        public LocalVariableInfo getLocals() {
+            return locals;
+        }
+
+        /**
+         * Gets the width of the parameters.
+         *
+         * @return {@code >= 0;} the width, in register units
+         */
+        public int getParamSize() {
+            return paramSize;
+        }
+
+        /**
+         * Gets whether the method is static.
+         *
+         * @return whether the method is static
+         */
+        public boolean isStatic() {
+            return isStatic;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmarks;
+
+import java.util.ArrayList;
+
+/**
+ * Main class for the dx benchmarks. Each benchmark times one stage of
+ * the pipeline over all the classes (or methods) of the given archives:
+ * first a number of warmup runs, whose times are discarded, then a
+ * number of measured runs, whose mean and standard deviation are
+ * reported.
+ *
+ * <p>Usage: {@code Main [--warmup=<n>] [--iterations=<n>]
+ * [--only=<name>[,<name>...]] <archive>...}</p>
+ */
+public class Main {
+    /** default number of warmup runs */
+    private static final int DEFAULT_WARMUP = 5;
+
+    /** default number of measured runs */
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Run!
+     */
+    public static void main(String[] args) {
+        int warmup = DEFAULT_WARMUP;
+        int iterations = DEFAULT_ITERATIONS;
+        String only = null;
+        int at = 0;
+
+        for (/*at*/; at < args.length; at++) {
+            String arg = args[at];
+            if (arg.equals("--") || !arg.startsWith("--")) {
+                break;
+            } else if (arg.startsWith("--warmup=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                warmup = Integer.parseInt(arg);
+            } else if (arg.startsWith("--iterations=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                iterations = Integer.parseInt(arg);
+            } else if (arg.startsWith("--only=")) {
+                only = "," + arg.substring(arg.indexOf('=') + 1) + ",";
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new RuntimeException("usage");
+            }
+        }
+
+        if ((warmup < 0) || (iterations < 1)) {
+            System.err.println("bad run counts");
+            throw new RuntimeException("usage");
+        }
+
+        if (at == args.length) {
+            System.err.println("no input files specified");
+            throw new RuntimeException("usage");
+        }
+
+        String[] paths = new String[args.length - at];
+        System.arraycopy(args, at, paths, 0, paths.length);
+
+        Corpus corpus = Corpus.read(paths);
+        ArrayList<Benchmark> benchmarks = Stages.all();
+
+        System.out.println(corpus.getClasses().size() + " classes; " +
+                warmup + " warmup and " + iterations + " measured runs");
+        System.out.println(String.format("%-40s %8s %10s %9s %12s",
+                        "benchmark", "units", "ms/run", "+/- ms",
+                        "ns/unit"));
+
+        for (Benchmark one : benchmarks) {
+            if ((only != null) &&
+                    (only.indexOf("," + one.getName() + ",") < 0)) {
+                continue;
+            }
+
+            report(one, run(one, corpus, warmup, iterations));
+        }
+    }
+
+    /**
+     * Runs one benchmark.
+     *
+     * @param benchmark {@code non-null;} the benchmark
+     * @param corpus {@code non-null;} the input
+     * @param warmup {@code >= 0;} number of warmup runs
+     * @param iterations {@code > 0;} number of measured runs
+     * @return {@code non-null;} the results of the measured runs
+     */
+    private static Benchmark.Result[] run(Benchmark benchmark,
+            Corpus corpus, int warmup, int iterations) {
+        Benchmark.Result[] results = new Benchmark.Result[iterations];
+
+        for (int i = 0; i < warmup; i++) {
+            benchmark.measure(corpus);
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            // Keep garbage from earlier runs out of this one.
+            System.gc();
+            results[i] = benchmark.measure(corpus);
+        }
+
+        return results;
+    }
+
+    /**
+     * Prints the summary of one benchmark's results.
+     *
+     * @param benchmark {@code non-null;} the benchmark
+     * @param results {@code non-null;} the results of the measured runs
+     */
+    private static void report(Benchmark benchmark,
+            Benchmark.Result[] results) {
+        int count = results.length;
+        double sum = 0;
+        double sumSquares = 0;
+
+        for (Benchmark.Result one : results) {
+            double ms = one.getNanos() / 1e6;
+            sum += ms;
+            sumSquares += ms * ms;
+        }
+
+        double mean = sum / count;
+        double variance = Math.max(0, (sumSquares / count) - (mean * mean));
+        int units = results[0].getUnits();
+        double perUnit = (units == 0) ? 0 : (mean * 1e6) / units;
+
+        System.out.println(String.format("%-40s %8d %10.2f %9.2f %12.0f",
+                        benchmark.getName() + " (" + benchmark.getUnit() + ")",
+                        units, mean, Math.sqrt(variance), perUnit));
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmarks;
+
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.dex.direct.DirectDexFile;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.type.Type;
+import com.android.dx.ssa.ConstCollector;
+import com.android.dx.ssa.DeadCodeRemover;
+import com.android.dx.ssa.LiteralOpUpgrader;
+import com.android.dx.ssa.MoveParamCombiner;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.PhiTypeResolver;
+import com.android.dx.ssa.RedundantCheckRemover;
+import com.android.dx.ssa.SsaConverter;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.FirstFitLocalCombiningAllocator;
+import com.android.dx.ssa.back.GraphColoringAllocator;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.ssa.back.RegisterAllocator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The benchmarked stages of the dx pipeline, in pipeline order.
+ */
+final class Stages {
+    /**
+     * This class is uninstantiable.
+     */
+    private Stages() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Makes one instance of each benchmark.
+     *
+     * @return {@code non-null;} the benchmarks, in pipeline order
+     */
+    public static ArrayList<Benchmark> all() {
+        ArrayList<Benchmark> result = new ArrayList<Benchmark>();
+
+        result.add(new ParseBenchmark());
+        result.add(new RopperBenchmark());
+        result.add(new SsaConverterBenchmark());
+
+        for (SsaStep step : SsaStep.values()) {
+            result.add(new SsaStepBenchmark(step));
+        }
+
+        for (Optimizer.RegisterAllocatorKind kind :
+                 Optimizer.RegisterAllocatorKind.values()) {
+            result.add(new RegisterAllocatorBenchmark(kind));
+        }
+
+        result.add(new RopTranslatorBenchmark());
+        result.add(new OutputFinisherBenchmark());
+        result.add(new DexFileBenchmark());
+
+        return result;
+    }
+
+    /**
+     * Steps run on methods in SSA form, in the order the optimizer
+     * runs them.
+     */
+    private enum SsaStep {
+        MOVE_PARAM_COMBINER("MoveParamCombiner") {
+            void process(SsaMethod ssaMeth) {
+                MoveParamCombiner.process(ssaMeth);
+            }
+        },
+        REDUNDANT_CHECK_REMOVER("RedundantCheckRemover") {
+            void process(SsaMethod ssaMeth) {
+                RedundantCheckRemover.process(ssaMeth);
+            }
+        },
+        SCCP("SCCP") {
+            void process(SsaMethod ssaMeth) {
+                com.android.dx.ssa.SCCP.process(ssaMeth);
+            }
+        },
+        LITERAL_OP_UPGRADER("LiteralOpUpgrader") {
+            void process(SsaMethod ssaMeth) {
+                LiteralOpUpgrader.process(ssaMeth);
+            }
+        },
+        DEAD_CODE_REMOVER("DeadCodeRemover") {
+            void process(SsaMethod ssaMeth) {
+                DeadCodeRemover.process(ssaMeth);
+            }
+        },
+        GVN("GVN") {
+            void process(SsaMethod ssaMeth) {
+                com.android.dx.ssa.GVN.process(ssaMeth);
+            }
+        },
+        LICM("LICM") {
+            void process(SsaMethod ssaMeth) {
+                com.android.dx.ssa.LICM.process(ssaMeth);
+            }
+        },
+        CONST_COLLECTOR("ConstCollector") {
+            void process(SsaMethod ssaMeth) {
+                ConstCollector.process(ssaMeth);
+                DeadCodeRemover.process(ssaMeth);
+            }
+        };
+
+        /** {@code non-null;} the name of the benchmark */
+        private final String benchmarkName;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param benchmarkName {@code non-null;} the name of the benchmark
+         */
+        private SsaStep(String benchmarkName) {
+            this.benchmarkName = benchmarkName;
+        }
+
+        /**
+         * Runs the step.
+         *
+         * @param ssaMeth {@code non-null;} the method to process
+         */
+        abstract void process(SsaMethod ssaMeth);
+
+        /**
+         * Converts the given method to SSA form, and runs all the steps
+         * up to but not including the given one.
+         *
+         * @param corpus {@code non-null;} the corpus
+         * @param one {@code non-null;} the method
+         * @param stop {@code null-ok;} the first step not to run, or
+         * {@code null} to run them all
+         * @return {@code non-null;} the method in SSA form
+         */
+        static SsaMethod prepare(Corpus corpus, Corpus.MethodInput one,
+                SsaStep stop) {
+            SsaMethod ssaMeth = SsaConverter.convertToSsaMethod(
+                    one.getRop(), one.getParamSize(), one.isStatic(),
+                    corpus.getContext());
+
+            for (SsaStep step : values()) {
+                if (step == stop) {
+                    break;
+                }
+                step.process(ssaMeth);
+            }
+
+            return ssaMeth;
+        }
+    }
+
+    /**
+     * Class file parsing, with {@link DirectClassFile}.
+     */
+    private static final class ParseBenchmark extends Benchmark {
+        ParseBenchmark() {
+            super("DirectClassFile", "class");
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.ClassInput> classes = corpus.getClasses();
+
+            for (Corpus.ClassInput one : classes) {
+                startTimer();
+                DirectClassFile cf = corpus.parse(one);
+                // Force the whole file to be parsed.
+                cf.getAttributes();
+                stopTimer(cf);
+            }
+
+            return classes.size();
+        }
+    }
+
+    /**
+     * Conversion from bytecode to rop form, with {@link Ropper}.
+     */
+    private static final class RopperBenchmark extends Benchmark {
+        RopperBenchmark() {
+            super("Ropper", "method");
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+
+            for (Corpus.MethodInput one : methods) {
+                startTimer();
+                Object result = Ropper.convert(one.getConcrete(),
+                        DexTranslationAdvice.THE_ONE);
+                stopTimer(result);
+            }
+
+            return methods.size();
+        }
+    }
+
+    /**
+     * Conversion from rop to SSA form, with {@link SsaConverter}.
+     */
+    private static final class SsaConverterBenchmark extends Benchmark {
+        SsaConverterBenchmark() {
+            super("SsaConverter", "method");
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+
+            for (Corpus.MethodInput one : methods) {
+                startTimer();
+                Object result = SsaConverter.convertToSsaMethod(one.getRop(),
+                        one.getParamSize(), one.isStatic(),
+                        corpus.getContext());
+                stopTimer(result);
+            }
+
+            return methods.size();
+        }
+    }
+
+    /**
+     * One optimizer step. Each method is converted afresh and run
+     * through the steps preceding this one before the step is timed,
+     * since steps modify the method in place.
+     */
+    private static final class SsaStepBenchmark extends Benchmark {
+        /** {@code non-null;} the step */
+        private final SsaStep step;
+
+        SsaStepBenchmark(SsaStep step) {
+            super(step.benchmarkName, "method");
+            this.step = step;
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+
+            for (Corpus.MethodInput one : methods) {
+                SsaMethod ssaMeth = SsaStep.prepare(corpus, one, step);
+                startTimer();
+                step.process(ssaMeth);
+                stopTimer(ssaMeth);
+            }
+
+            return methods.size();
+        }
+    }
+
+    /**
+     * Register allocation, with {@link FirstFitLocalCombiningAllocator}
+     * or {@link GraphColoringAllocator}. The interference graph is
+     * built outside of the timer.
+     */
+    private static final class RegisterAllocatorBenchmark extends Benchmark {
+        /** {@code non-null;} which allocator to run */
+        private final Optimizer.RegisterAllocatorKind kind;
+
+        RegisterAllocatorBenchmark(Optimizer.RegisterAllocatorKind kind) {
+            super((kind == Optimizer.RegisterAllocatorKind.GRAPH_COLORING)
+                    ? "GraphColoringAllocator"
+                    : "FirstFitLocalCombiningAllocator", "method");
+            this.kind = kind;
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+
+            for (Corpus.MethodInput one : methods) {
+                SsaMethod ssaMeth = SsaStep.prepare(corpus, one, null);
+                PhiTypeResolver.process(ssaMeth);
+                InterferenceGraph interference =
+                    LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+
+                startTimer();
+                RegisterAllocator allocator =
+                    (kind == Optimizer.RegisterAllocatorKind.GRAPH_COLORING)
+                    ? new GraphColoringAllocator(ssaMeth, interference, false)
+                    : new FirstFitLocalCombiningAllocator(ssaMeth,
+                            interference, false);
+                Object result = allocator.allocateRegisters();
+                stopTimer(result);
+            }
+
+            return methods.size();
+        }
+    }
+
+    /**
+     * Translation from rop form to dalvik instructions, with {@link
+     * RopTranslator}, including the {@code OutputFinisher} pass.
+     */
+    private static final class RopTranslatorBenchmark extends Benchmark {
+        /**
+         * {@code non-null;} index callback; real indices are only known
+         * once the whole file is laid out
+         */
+        private static final DalvCode.AssignIndicesCallback FAKE_INDICES =
+            new DalvCode.AssignIndicesCallback() {
+                public int getIndex(Constant cst) {
+                    return 0;
+                }
+            };
+
+        RopTranslatorBenchmark() {
+            super("RopTranslator", "method");
+        }
+
+        protected int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+            int positionInfo = corpus.getOptions().positionInfo;
+
+            for (Corpus.MethodInput one : methods) {
+                startTimer();
+                DalvCode code = RopTranslator.translate(one.getOptimized(),
+                        positionInfo, one.getLocals(), one.getParamSize());
+                // Force the output to be finished.
+                code.assignIndices(FAKE_INDICES);
+                Object result = code.getInsns();
+                stopTimer(result);
+            }
+
+            return methods.size();
+        }
+    }
+
+    /**
+     * Branch fixing and address assignment, with {@link
+     * OutputFinisher#finishProcessingAndGetList}, on generated methods
+     * with thousands of branches. Real methods rarely have enough
+     * branches for the cost of branch fixing to show, so this one
+     * doesn't use the corpus. The methods mix short branches with
+     * branches across the whole method, so that some gotos have to be
+     * widened and some conditional branches have to be reversed. They
+     * are generated outside of the timer, since an {@link
+     * OutputFinisher} can only be finished once.
+     */
+    private static final class OutputFinisherBenchmark extends Benchmark {
+        /** {@code non-null;} number of branches in each generated method */
+        private static final int[] BRANCH_COUNTS = { 1000, 5000, 20000 };
+
+        /** {@code non-null;} the first register */
+        private static final RegisterSpec V0 = RegisterSpec.make(0, Type.INT);
+
+        /** {@code non-null;} the second register */
+        private static final RegisterSpec V1 = RegisterSpec.make(1, Type.INT);
+
+        OutputFinisherBenchmark() {
+            super("OutputFinisher", "branch");
+        }
+
+        protected int run(Corpus corpus) {
+            // The same seed every run, so every run times the same methods.
+            Random random = new Random(BRANCH_COUNTS.length);
+            int total = 0;
+
+            for (int count : BRANCH_COUNTS) {
+                OutputFinisher finisher = makeMethod(random, count);
+                startTimer();
+                Object result = finisher.finishProcessingAndGetList();
+                stopTimer(result);
+                total += count;
+            }
+
+            return total;
+        }
+
+        /**
+         * Generates a method, as a series of blocks which each start
+         * with a label, have a few straight-line instructions, and end
+         * with a branch to the label of another block.
+         *
+         * @param random {@code non-null;} source of the method's shape
+         * @param count {@code > 0;} the number of branches
+         * @return {@code non-null;} the method, ready to be finished
+         */
+        private static OutputFinisher makeMethod(Random random, int count) {
+            SourcePosition pos = SourcePosition.NO_INFO;
+            RegisterSpecList moveRegs = RegisterSpecList.make(V0, V1);
+            RegisterSpecList addRegs = RegisterSpecList.make(V0, V0, V1);
+            RegisterSpecList testRegs = RegisterSpecList.make(V0);
+            CodeAddress[] labels = new CodeAddress[count];
+            OutputFinisher result = new OutputFinisher(count * 6, 2);
+
+            for (int i = 0; i < count; i++) {
+                labels[i] = new CodeAddress(pos);
+            }
+
+            for (int i = 0; i < count; i++) {
+                result.add(labels[i]);
+
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    if (random.nextBoolean()) {
+                        result.add(new SimpleInsn(Dops.MOVE, pos, moveRegs));
+                    } else {
+                        result.add(new SimpleInsn(Dops.ADD_INT, pos, addRegs));
+                    }
+                }
+
+                // Mostly nearby targets, but one in ten anywhere at all.
+                int target;
+                if (random.nextInt(10) == 0) {
+                    target = random.nextInt(count);
+                } else {
+                    target = i - 64 + random.nextInt(128);
+                    target = Math.max(0, Math.min(count - 1, target));
+                }
+
+                if (random.nextBoolean()) {
+                    result.add(new TargetInsn(Dops.IF_EQZ, pos, testRegs,
+                                    labels[target]));
+                } else {
+                    result.add(new TargetInsn(Dops.GOTO, pos,
+                                    RegisterSpecList.EMPTY, labels[target]));
+                }
+            }
+
+            /*
+             * As in translated code, every branch is followed by a
+             * label, which a reversed conditional branch targets.
+             */
+            result.add(new CodeAddress(pos));
+            result.add(new SimpleInsn(Dops.RETURN_VOID, pos,
+                            RegisterSpecList.EMPTY));
+
+            return result;
+        }
+    }
+
+    /**
+     * Writing of a whole dex file, with {@link DexFile#toDex}. The
+     * file's classes are imported from the corpus in dex form outside
+     * of the timer, since a {@link DexFile} can only be written once.
+     */
+    private static final class DexFileBenchmark extends Benchmark {
+        DexFileBenchmark() {
+            super("DexFile.toDex", "file");
+        }
+
+        protected int run(Corpus corpus) {
+            DirectDexFile input = new DirectDexFile(corpus.getDex(), "corpus");
+            DexFile file = new DexFile();
+            int sz = input.getClassCount();
+
+            for (int i = 0; i < sz; i++) {
+                file.add(input.getClass(i));
+            }
+
+            try {
+                startTimer();
+                byte[] result = file.toDex(null, false);
+                stopTimer(result);
+            } catch (IOException ex) {
+                // This can't happen, since no human-oriented output is made.
+                throw new RuntimeException(ex);
+            }
+
+            return 1;
+        }
+    }
+}
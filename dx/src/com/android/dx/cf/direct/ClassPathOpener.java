@@ -202,6 +202,55 @@ public class ClassPathOpener {
      * @throws IOException on i/o problem
      */
     private boolean processArchive(File file) throws IOException {
+        MappedArchive archive = MappedArchive.open(file);
+
+        if (archive == null) {
+            // The archive uses features the fast path doesn't handle.
+            return processZipFile(file);
+        }
+
+        boolean any = false;
+
+        try {
+            ArrayList<MappedArchive.Entry> entriesList = archive.getEntries();
+
+            if (sort) {
+                Collections.sort(entriesList,
+                        new Comparator<MappedArchive.Entry>() {
+                    public int compare(MappedArchive.Entry a,
+                            MappedArchive.Entry b) {
+                        return compareClassNames(a.getName(), b.getName());
+                    }
+                });
+            }
+
+            consumer.onProcessArchiveStart(file);
+
+            for (MappedArchive.Entry one : entriesList) {
+                if (one.isDirectory()) {
+                    continue;
+                }
+
+                byte[] bytes = archive.read(one);
+                any |= consumer.processFileBytes(one.getName(), bytes);
+            }
+        } finally {
+            archive.close();
+        }
+
+        return any;
+    }
+
+    /**
+     * Processes the contents of an archive using {@link ZipFile}. This
+     * is the slow path of {@link #processArchive}, used for archives
+     * that {@link MappedArchive} doesn't handle.
+     *
+     * @param file {@code non-null;} archive file to process
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processZipFile(File file) throws IOException {
         ZipFile zip = new ZipFile(file);
         ByteArrayOutputStream baos = new ByteArrayOutputStream(40000);
         byte[] buf = new byte[20000];
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.direct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of {@code .zip} archives which memory-maps the file and
+ * reads its central directory directly. Each entry is inflated straight
+ * into an array of exactly its size, so the only copy of its data is
+ * the one handed to the caller. Archives using features this class
+ * doesn't handle (zip64, encryption, unusual compression methods) are
+ * rejected by {@link #open}, so that the caller can fall back to
+ * {@link java.util.zip.ZipFile}.
+ */
+final class MappedArchive {
+    /** signature of the end of central directory record */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /** size of the end of central directory record, sans comment */
+    private static final int END_SIZE = 22;
+
+    /** signature of a central directory file header */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /** size of a central directory file header, sans variable parts */
+    private static final int CENTRAL_SIZE = 46;
+
+    /** signature of a local file header */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /** size of a local file header, sans variable parts */
+    private static final int LOCAL_SIZE = 30;
+
+    /** compression method: stored */
+    private static final int STORED = 0;
+
+    /** compression method: deflated */
+    private static final int DEFLATED = 8;
+
+    /** general purpose flag: entry is encrypted */
+    private static final int FLAG_ENCRYPTED = 1;
+
+    /** {@code non-null;} the mapped file */
+    private final MappedByteBuffer data;
+
+    /** {@code non-null;} the entries, in central directory order */
+    private final ArrayList<Entry> entries;
+
+    /** {@code non-null;} inflater, reused for all entries */
+    private final Inflater inflater;
+
+    /** {@code non-null;} buffer for compressed data, reused for all entries */
+    private byte[] compressed;
+
+    /**
+     * Opens the given archive.
+     *
+     * @param file {@code non-null;} the archive
+     * @return {@code null-ok;} the opened archive, or {@code null} if it
+     * uses features this class doesn't handle
+     * @throws IOException on i/o problem
+     */
+    public static MappedArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer data;
+
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            /*
+             * The mapping stays valid after the channel is closed,
+             * and goes away when the buffer is collected.
+             */
+            data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    0, length);
+        } finally {
+            raf.close();
+        }
+
+        data.order(ByteOrder.LITTLE_ENDIAN);
+
+        ArrayList<Entry> entries = readCentralDirectory(data);
+        if (entries == null) {
+            return null;
+        }
+
+        return new MappedArchive(data, entries);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param data {@code non-null;} the mapped file
+     * @param entries {@code non-null;} the entries
+     */
+    private MappedArchive(MappedByteBuffer data, ArrayList<Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+        this.inflater = new Inflater(true);
+        this.compressed = new byte[0];
+    }
+
+    /**
+     * Gets the entries of this archive, in central directory order.
+     * The result may be modified (e.g. sorted) by the caller.
+     *
+     * @return {@code non-null;} the entries
+     */
+    public ArrayList<Entry> getEntries() {
+        return new ArrayList<Entry>(entries);
+    }
+
+    /**
+     * Reads the contents of the given entry.
+     *
+     * @param entry {@code non-null;} an entry of this archive
+     * @return {@code non-null;} the uncompressed contents, in an array
+     * of their exact size which now belongs to the caller
+     * @throws IOException on i/o problem or a malformed entry
+     */
+    public byte[] read(Entry entry) throws IOException {
+        int at = entry.localHeaderOffset;
+
+        if ((at < 0) || (at > data.limit() - LOCAL_SIZE) ||
+                (data.getInt(at) != LOCAL_SIGNATURE)) {
+            throw new IOException("bad local header for " + entry.name);
+        }
+
+        int nameLength = data.getShort(at + 26) & 0xffff;
+        int extraLength = data.getShort(at + 28) & 0xffff;
+        int start = at + LOCAL_SIZE + nameLength + extraLength;
+
+        if ((entry.compressedSize < 0) ||
+                (start > data.limit() - entry.compressedSize)) {
+            throw new IOException("truncated entry " + entry.name);
+        }
+
+        byte[] result = new byte[entry.size];
+
+        if (entry.method == STORED) {
+            if (entry.compressedSize != entry.size) {
+                throw new IOException("bad size for stored entry " +
+                        entry.name);
+            }
+            copy(start, result, entry.size);
+            return result;
+        }
+
+        if (compressed.length < entry.compressedSize) {
+            compressed = new byte[entry.compressedSize];
+        }
+
+        copy(start, compressed, entry.compressedSize);
+        inflater.reset();
+        inflater.setInput(compressed, 0, entry.compressedSize);
+
+        try {
+            int done = 0;
+            while (done < result.length) {
+                int amt = inflater.inflate(result, done, result.length - done);
+                if ((amt == 0) &&
+                        (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                done += amt;
+            }
+
+            if (done != result.length) {
+                throw new IOException("short entry " + entry.name);
+            }
+        } catch (DataFormatException ex) {
+            IOException ioex = new IOException("bad data for entry " +
+                    entry.name);
+            ioex.initCause(ex);
+            throw ioex;
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases the resources of this instance, other than the mapping,
+     * which goes away once this instance is collected.
+     */
+    public void close() {
+        inflater.end();
+    }
+
+    /**
+     * Copies bytes out of the mapped file.
+     *
+     * @param start {@code >= 0;} offset of the first byte in the file
+     * @param dest {@code non-null;} where to copy to
+     * @param length {@code >= 0;} number of bytes to copy
+     */
+    private void copy(int start, byte[] dest, int length) {
+        /*
+         * Position a duplicate, so that the shared buffer's state
+         * never changes.
+         */
+        ByteBuffer source = data.duplicate();
+        source.position(start);
+        source.get(dest, 0, length);
+    }
+
+    /**
+     * Reads the central directory of the given archive.
+     *
+     * @param data {@code non-null;} the mapped archive
+     * @return {@code null-ok;} the entries, or {@code null} if the
+     * archive uses features this class doesn't handle
+     */
+    private static ArrayList<Entry> readCentralDirectory(
+            MappedByteBuffer data) {
+        int end = findEndRecord(data);
+        if (end < 0) {
+            return null;
+        }
+
+        int count = data.getShort(end + 10) & 0xffff;
+        int directorySize = data.getInt(end + 12);
+        int at = data.getInt(end + 16);
+
+        if ((count == 0xffff) || (directorySize < 0) || (at < 0) ||
+                (at > end - directorySize)) {
+            // Zip64, or just broken; let ZipFile sort it out.
+            return null;
+        }
+
+        ArrayList<Entry> result = new ArrayList<Entry>(count);
+
+        for (int i = 0; i < count; i++) {
+            if ((at > end - CENTRAL_SIZE) ||
+                    (data.getInt(at) != CENTRAL_SIGNATURE)) {
+                return null;
+            }
+
+            int flags = data.getShort(at + 8) & 0xffff;
+            int method = data.getShort(at + 10) & 0xffff;
+            int compressedSize = data.getInt(at + 20);
+            int size = data.getInt(at + 24);
+            int nameLength = data.getShort(at + 28) & 0xffff;
+            int extraLength = data.getShort(at + 30) & 0xffff;
+            int commentLength = data.getShort(at + 32) & 0xffff;
+            int localHeaderOffset = data.getInt(at + 42);
+
+            if (((flags & FLAG_ENCRYPTED) != 0) ||
+                    ((method != STORED) && (method != DEFLATED)) ||
+                    (compressedSize < 0) || (size < 0) ||
+                    (localHeaderOffset < 0) ||
+                    (at + CENTRAL_SIZE + nameLength > end)) {
+                // This includes the zip64 markers (-1) for the sizes.
+                return null;
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer source = data.duplicate();
+            source.position(at + CENTRAL_SIZE);
+            source.get(nameBytes);
+
+            String name;
+            try {
+                name = new String(nameBytes, "UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                // This should never happen.
+                throw new RuntimeException(ex);
+            }
+
+            result.add(new Entry(name, method, compressedSize, size,
+                            localHeaderOffset));
+            at += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the end of central directory record, which is somewhere in
+     * the last 64k or so of the file, followed only by the archive
+     * comment.
+     *
+     * @param data {@code non-null;} the mapped archive
+     * @return the offset of the record, or {@code -1} if not found
+     */
+    private static int findEndRecord(MappedByteBuffer data) {
+        int limit = data.limit();
+        int stop = Math.max(0, limit - END_SIZE - 0xffff);
+
+        for (int at = limit - END_SIZE; at >= stop; at--) {
+            if ((data.getInt(at) == END_SIGNATURE) &&
+                    (at + END_SIZE + (data.getShort(at + 20) & 0xffff)
+                            == limit)) {
+                return at;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Entry of an archive.
+     */
+    public static final class Entry {
+        /** {@code non-null;} the name of the entry */
+        private final String name;
+
+        /** the compression method */
+        private final int method;
+
+        /** {@code >= 0;} the size of the stored data */
+        private final int compressedSize;
+
+        /** {@code >= 0;} the uncompressed size */
+        private final int size;
+
+        /** {@code >= 0;} offset of the entry's local header */
+        private final int localHeaderOffset;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} the name of the entry
+         * @param method the compression method
+         * @param compressedSize {@code >= 0;} the size of the stored data
+         * @param size {@code >= 0;} the uncompressed size
+         * @param localHeaderOffset {@code >= 0;} offset of the local header
+         */
+        private Entry(String name, int method, int compressedSize, int size,
+                int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Gets the name of the entry.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets whether the entry is a directory.
+         *
+         * @return whether the entry is a directory
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
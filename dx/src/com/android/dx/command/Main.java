@@ -35,12 +35,65 @@ public class Main {
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
-        "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
+        "  [--num-threads=<n>] [--cache-dir=<directory>] " +
+        "[--statistics-methods=<n>]\n" +
+        "  [--statistics-json=<file>] [--inline] [--keep-list=<file>]\n" +
+        "  [--register-allocator=first-fit|graph-coloring] " +
+        "[--layout-profile=<file>]\n" +
+        "  [--sorted-string-data] [--compact-debug-info]\n" +
+        "  [<file>.class | <file>.dex | <file>.{zip,jar,apk} | " +
+        "<directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
         "    jar/zip. Output name must end with one of: .dex .jar " +
         ".zip .apk. Positions\n" +
-        "    options: none, important, lines.\n" +
+        "    options: none, important, lines. Classes are translated " +
+        "on <n> threads\n" +
+        "    (default 1); the output doesn't depend on the thread " +
+        "count. With\n" +
+        "    --cache-dir, translated classes are kept in <directory> " +
+        "and reused by\n" +
+        "    later runs of the same dx build with the same options. " +
+        "Classes in\n" +
+        "    input dex files are merged into the output as they are, " +
+        "without being\n" +
+        "    retranslated. --statistics\n" +
+        "    also reports time and allocation per phase and the <n> " +
+        "(default 10)\n" +
+        "    slowest methods; --statistics-json writes all of it to " +
+        "<file> as JSON.\n" +
+        "    --register-allocator picks the optimizer's register " +
+        "allocator; graph-coloring\n" +
+        "    coalesces more moves away than the default, first-fit. " +
+        "--inline inlines\n" +
+        "    calls to small private, static and final methods of the " +
+        "input classes\n" +
+        "    when optimizing, and can't be combined with --cache-dir. " +
+        "With\n" +
+        "    --keep-list, classes and members not reachable from the " +
+        "ones named in\n" +
+        "    <file> are left out.\n" +
+        "    --layout-profile places the classes, code and strings " +
+        "used at startup,\n" +
+        "    as listed in <file> in first-use order, together at the " +
+        "front of their\n" +
+        "    sections. --sorted-string-data keeps the string data in " +
+        "sorted order\n" +
+        "    even so, which deflates best, and adds how well it " +
+        "deflates to the\n" +
+        "    statistics. --compact-debug-info encodes debug info\n" +
+        "    in fewer bytes and shares it among methods whose debug " +
+        "info is the same.\n" +
+        "  dx --server [--port=<n>] [--token-file=<file>]\n" +
+        "    Run --dex requests sent over a local socket in one VM, " +
+        "to save on VM\n" +
+        "    startup. Each request is a line with the token the " +
+        "server writes to\n" +
+        "    <file> (default ~/.dx-server-token), then the --dex " +
+        "arguments, one per\n" +
+        "    line, ending with an empty line; a request of just " +
+        "--shutdown stops\n" +
+        "    the server.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
         "  [--print=<print types>]\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--optimize]\n" +
@@ -88,6 +141,9 @@ public class Main {
                 if (arg.equals("--dex")) {
                     com.android.dx.command.dexer.Main.main(without(args, i));
                     break;
+                } else if (arg.equals("--server")) {
+                    com.android.dx.command.server.Main.main(without(args, i));
+                    break;
                 } else if (arg.equals("--dump")) {
                     com.android.dx.command.dump.Main.main(without(args, i));
                     break;
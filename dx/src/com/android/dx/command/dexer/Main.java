@@ -24,15 +24,23 @@ import com.android.dx.command.UsageException;
 import com.android.dx.dex.cf.CfOptions;
 import com.android.dx.dex.cf.CfTranslator;
 import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.Inliner;
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.direct.DirectDexFile;
 import com.android.dx.dex.file.ClassDefItem;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.LayoutProfile;
+import com.android.dx.dex.file.TreeShaker;
 import com.android.dx.rop.annotation.Annotation;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.rop.cst.CstNat;
 import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Profiler;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -41,10 +49,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -102,6 +116,31 @@ public class Main {
      */
     private static TreeMap<String, byte[]> outputResources;
 
+    /**
+     * {@code null-ok;} thread pool used to translate classes, or
+     * {@code null} if translation happens on the calling thread
+     */
+    private static ExecutorService classTranslatorPool;
+
+    /**
+     * {@code null-ok;} pending results of {@link #classTranslatorPool},
+     * in the order the classes were encountered
+     */
+    private static ArrayList<PendingClass> pendingClasses;
+
+    /**
+     * {@code null-ok;} cache of translated classes, or {@code null}
+     * if every class is translated from scratch
+     */
+    private static TranslationCache translationCache;
+
+    /**
+     * {@code null-ok;} contents of the input files, read ahead of time
+     * for the inliner, in the order of {@link Arguments#fileNames}, or
+     * {@code null} if each file is read as it's processed
+     */
+    private static RecordedInput[] recordedInputs;
+
     /**
      * This class is uninstantiable.
      */
@@ -129,33 +168,53 @@ public class Main {
      * @return 0 if success > 0 otherwise.
      */
     public static int run(Arguments arguments) {
-        // Reset the error/warning count to start fresh.
+        // Reset the error/warning count and statistics to start fresh.
         warnings = 0;
         errors = 0;
+        CodeStatistics.reset();
+        Profiler.reset(arguments.statistics, arguments.statisticsMethods);
 
         args = arguments;
         args.makeCfOptions();
 
-        if (!processAllFiles()) {
-            return 1;
-        }
+        try {
+            if (!processAllFiles()) {
+                return 1;
+            }
 
-        byte[] outArray = writeDex();
+            byte[] outArray = writeDex();
 
-        if (outArray == null) {
-            return 2;
-        }
+            if (outArray == null) {
+                return 2;
+            }
 
-        if (args.jarOutput) {
-            // Effectively free up the (often massive) DexFile memory.
-            outputDex = null;
+            if (args.jarOutput) {
+                // Effectively free up the (often massive) DexFile memory.
+                outputDex = null;
 
-            if (!createJar(args.outName, outArray)) {
-                return 3;
+                if (!createJar(args.outName, outArray)) {
+                    return 3;
+                }
             }
-        }
 
-        return 0;
+            if (args.statistics && !dumpStatistics()) {
+                return 4;
+            }
+
+            return 0;
+        } finally {
+            Profiler.reset(false, 0);
+
+            /*
+             * Don't hold on to anything from this run, since the
+             * process may be a long-lived server that goes on to do
+             * other runs.
+             */
+            args = null;
+            outputDex = null;
+            outputResources = null;
+            RegisterSpec.clearInternTable();
+        }
     }
 
     /**
@@ -175,18 +234,49 @@ public class Main {
             outputDex.setDumpWidth(args.dumpWidth);
         }
 
+        if (args.layoutProfileFile != null) {
+            outputDex.setLayoutProfile(
+                    new LayoutProfile(args.layoutProfileFile));
+        }
+
+        outputDex.setSortedStringData(args.sortedStringData);
+        outputDex.setCompactDebugInfo(args.compactDebugInfo);
+
+        if (args.inline) {
+            args.cfOptions.inliner = makeInliner();
+        }
+
+        if (args.cacheDir != null) {
+            translationCache =
+                new TranslationCache(new File(args.cacheDir), args.cfOptions);
+        }
+
+        if (args.numThreads > 1) {
+            classTranslatorPool = Executors.newFixedThreadPool(args.numThreads);
+            pendingClasses = new ArrayList<PendingClass>();
+        }
+
         boolean any = false;
         String[] fileNames = args.fileNames;
 
         try {
             for (int i = 0; i < fileNames.length; i++) {
-                any |= processOne(fileNames[i]);
+                any |= processOne(i);
             }
         } catch (StopProcessing ex) {
             /*
              * Ignore it and just let the warning/error reporting do
              * their things.
              */
+        } finally {
+            if (classTranslatorPool != null) {
+                addPendingClasses();
+                classTranslatorPool.shutdown();
+                classTranslatorPool = null;
+                pendingClasses = null;
+            }
+            translationCache = null;
+            recordedInputs = null;
         }
 
         if (warnings != 0) {
@@ -205,26 +295,92 @@ public class Main {
             return false;
         }
 
-        if (args.optimize && args.statistics) {
+        if (args.keepListFile != null) {
+            TreeShaker shaker = new TreeShaker(outputDex, args.keepListFile);
+
+            shaker.shake();
+
+            if (args.verbose) {
+                DxConsole.out.println("removed " +
+                        shaker.getRemovedClassCount() + " classes and " +
+                        shaker.getRemovedMemberCount() + " members");
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Makes the inliner for the run, with all the classes of the input
+     * files added to it. Classes that can't be parsed are left out;
+     * they're reported when they come to be translated. The input files
+     * are kept in {@link #recordedInputs}, so that they needn't be read
+     * again to be processed.
+     *
+     * @return {@code non-null;} the inliner
+     */
+    private static Inliner makeInliner() {
+        Inliner inliner = new Inliner();
+        String[] fileNames = args.fileNames;
+
+        recordedInputs = new RecordedInput[fileNames.length];
+
+        for (int i = 0; i < fileNames.length; i++) {
+            RecordedInput input = new RecordedInput();
+
+            new ClassPathOpener(fileNames[i], false, input).process();
+            input.addClassesTo(inliner, args.cfOptions);
+            recordedInputs[i] = input;
+        }
+
+        return inliner;
+    }
+
+    /**
+     * Prints out the statistics and profile of the run, and writes
+     * them to the JSON file if one was requested.
+     *
+     * @return whether processing was successful
+     */
+    private static boolean dumpStatistics() {
+        if (args.optimize) {
             CodeStatistics.dumpStatistics(DxConsole.out);
         }
 
+        CodeStatistics.dumpProfile(DxConsole.out);
+
+        if (args.statisticsJsonFile == null) {
+            return true;
+        }
+
+        try {
+            OutputStream stream = openOutput(args.statisticsJsonFile);
+            try {
+                Writer out = new OutputStreamWriter(stream, "UTF-8");
+                CodeStatistics.writeJson(out);
+                out.flush();
+            } finally {
+                closeOutput(stream);
+            }
+        } catch (IOException ex) {
+            DxConsole.err.println("\ntrouble writing statistics: " +
+                    ex.getMessage());
+            return false;
+        }
+
         return true;
     }
 
     /**
      * Processes one pathname element.
      *
-     * @param pathname {@code non-null;} the pathname to process. May
-     * be the path of a class file, a jar file, or a directory
-     * containing class files.
+     * @param index the index of the pathname to process within {@link
+     * Arguments#fileNames}. It may be the path of a class file, a jar
+     * file, or a directory containing class files.
      * @return whether any processing actually happened
      */
-    private static boolean processOne(String pathname) {
-        ClassPathOpener opener;
-
-        opener = new ClassPathOpener(pathname, false,
-                new ClassPathOpener.Consumer() {
+    private static boolean processOne(int index) {
+        ClassPathOpener.Consumer consumer = new ClassPathOpener.Consumer() {
             public boolean processFileBytes(String name, byte[] bytes) {
                 return Main.processFileBytes(name, bytes);
             }
@@ -242,9 +398,16 @@ public class Main {
                             "...");
                 }
             }
-        });
+        };
+
+        if (recordedInputs != null) {
+            return recordedInputs[index].replay(consumer);
+        }
+
+        ClassPathOpener opener =
+            new ClassPathOpener(args.fileNames[index], false, consumer);
 
-        return opener.process();     
+        return opener.process();
     }
 
     /**
@@ -256,9 +419,10 @@ public class Main {
      */
     private static boolean processFileBytes(String name, byte[] bytes) {
         boolean isClass = name.endsWith(".class");
+        boolean isDex = name.endsWith(".dex");
         boolean keepResources = (outputResources != null);
 
-        if (!isClass && !keepResources) {
+        if (!isClass && !isDex && !keepResources) {
             if (args.verbose) {
                 DxConsole.out.println("ignored resource " + name);
             }
@@ -276,6 +440,8 @@ public class Main {
                 outputResources.put(fixedName, bytes);
             }
             return processClass(fixedName, bytes);
+        } else if (isDex) {
+            return processDex(fixedName, bytes);
         } else {
             outputResources.put(fixedName, bytes);
             return true;
@@ -294,25 +460,135 @@ public class Main {
         if (! args.coreLibrary) {
             checkClassName(name);
         }
-        
+
+        if (classTranslatorPool != null) {
+            /*
+             * Translate on the pool; the result is added to the
+             * output in encounter order by addPendingClasses(), so
+             * the output doesn't depend on thread scheduling.
+             */
+            ClassTranslatorTask task = new ClassTranslatorTask(name, bytes);
+            pendingClasses.add(
+                    new PendingClass(name, classTranslatorPool.submit(task)));
+            return true;
+        }
+
         try {
-            ClassDefItem clazz =
-                CfTranslator.translate(name, bytes, args.cfOptions);
+            ClassDefItem clazz = translateClass(name, bytes);
             outputDex.add(clazz);
             return true;
         } catch (ParseException ex) {
-            DxConsole.err.println("\ntrouble processing:");
-            if (args.debug) {
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                ex.printContext(DxConsole.err);
-            }
+            reportParseException(ex);
         }
 
         warnings++;
         return false;
     }
 
+    /**
+     * Processes one dex file, adding the classes it defines to the
+     * output as they are, without retranslating them. The id sections
+     * of the output are built afresh, so the constants of all the
+     * merged files end up deduplicated and sorted together.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return whether processing was successful
+     */
+    private static boolean processDex(String name, byte[] bytes) {
+        DirectDexFile dex;
+
+        try {
+            dex = new DirectDexFile(bytes, name);
+        } catch (ExceptionWithContext ex) {
+            reportParseException(ex);
+            warnings++;
+            return false;
+        }
+
+        int count = dex.getClassCount();
+        boolean result = true;
+
+        for (int i = 0; i < count; i++) {
+            if (classTranslatorPool != null) {
+                // Keep encounter order, as for translated classes.
+                DexClassImportTask task = new DexClassImportTask(dex, i);
+                pendingClasses.add(new PendingClass(name,
+                                classTranslatorPool.submit(task)));
+                continue;
+            }
+
+            try {
+                outputDex.add(dex.getClass(i));
+            } catch (ExceptionWithContext ex) {
+                reportParseException(ex);
+                warnings++;
+                result = false;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Translates one classfile, going through {@link #translationCache}
+     * if there is one.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    private static ClassDefItem translateClass(String name, byte[] bytes) {
+        if (translationCache != null) {
+            return translationCache.translate(name, bytes);
+        }
+
+        return CfTranslator.translate(name, bytes, args.cfOptions);
+    }
+
+    /**
+     * Waits for all the classes submitted to {@link #classTranslatorPool}
+     * and adds them to {@link #outputDex}, in the order in which they
+     * were submitted. Failures are reported the same way as they would
+     * be by a single-threaded run.
+     */
+    private static void addPendingClasses() {
+        for (PendingClass one : pendingClasses) {
+            try {
+                outputDex.add(one.result.get());
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof ExceptionWithContext) {
+                    reportParseException((ExceptionWithContext) cause);
+                    warnings++;
+                } else {
+                    DxConsole.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+                    cause.printStackTrace(DxConsole.err);
+                    errors++;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while processing " +
+                        one.name, ex);
+            }
+        }
+    }
+
+    /**
+     * Reports a problem found while translating a class or importing
+     * one from a dex file.
+     *
+     * @param ex {@code non-null;} the problem
+     */
+    private static void reportParseException(ExceptionWithContext ex) {
+        DxConsole.err.println("\ntrouble processing:");
+        if (args.debug) {
+            ex.printStackTrace(DxConsole.err);
+        } else {
+            ex.printContext(DxConsole.err);
+        }
+    }
+
     /**
      * Check the class name to make sure it's not a "core library"
      * class. If there is a problem, this updates the error count and
@@ -400,10 +676,13 @@ public class Main {
     /**
      * Converts {@link #outputDex} into a {@code byte[]}, write
      * it out to the proper file (if any), and also do whatever human-oriented
-     * dumping is required.
+     * dumping is required. A plain {@code .dex} output file with no
+     * dump is written straight from {@link #outputDex}, without the
+     * intermediate {@code byte[]}.
      *
-     * @return {@code null-ok;} the converted {@code byte[]} or {@code null}
-     * if there was a problem
+     * @return {@code null-ok;} the converted {@code byte[]}, which is
+     * empty if the file was written without it, or {@code null} if
+     * there was a problem
      */
     private static byte[] writeDex() {
         byte[] outArray = null;
@@ -426,6 +705,17 @@ public class Main {
                      */
                     outputDex.toDex(null, false);
                     dumpMethod(outputDex, args.methodToDump, humanOut);
+                } else if ((humanOut == null) && isPlainDexOutput()) {
+                    /*
+                     * Nothing else needs the bytes, so write them out
+                     * as they are made, rather than building the
+                     * whole file in memory first.
+                     */
+                    FileOutputStream fileOut =
+                        new FileOutputStream(args.outName);
+                    out = fileOut;
+                    outputDex.writeTo(fileOut.getChannel());
+                    outArray = new byte[0];
                 } else {
                     /*
                      * This is the usual case: Create an output .dex file,
@@ -557,6 +847,20 @@ public class Main {
         return manifest;
     }
 
+    /**
+     * Gets whether the output is a {@code .dex} file of its own, as
+     * opposed to going into a {@code .jar} file, to standard output
+     * or nowhere.
+     *
+     * @return whether the output is a plain {@code .dex} file
+     */
+    private static boolean isPlainDexOutput() {
+        String name = args.outName;
+
+        return (name != null) && !args.jarOutput &&
+            !(name.equals("-") || name.startsWith("-."));
+    }
+
     /**
      * Opens and returns the named file for writing, treating "-" specially.
      *
@@ -726,6 +1030,194 @@ public class Main {
         pw.flush();
     }
 
+    /**
+     * Translation of a single class, run on {@link #classTranslatorPool}.
+     */
+    private static class ClassTranslatorTask
+            implements Callable<ClassDefItem> {
+        /** {@code non-null;} name of the file */
+        private final String name;
+
+        /** {@code non-null;} contents of the file */
+        private final byte[] bytes;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param bytes {@code non-null;} contents of the file
+         */
+        public ClassTranslatorTask(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        /** {@inheritDoc} */
+        public ClassDefItem call() {
+            return translateClass(name, bytes);
+        }
+    }
+
+    /**
+     * Import of a single class from a dex file, run on
+     * {@link #classTranslatorPool}.
+     */
+    private static class DexClassImportTask
+            implements Callable<ClassDefItem> {
+        /** {@code non-null;} file defining the class */
+        private final DirectDexFile dex;
+
+        /** index of the class within {@link #dex} */
+        private final int index;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param dex {@code non-null;} file defining the class
+         * @param index index of the class within {@code dex}
+         */
+        public DexClassImportTask(DirectDexFile dex, int index) {
+            this.dex = dex;
+            this.index = index;
+        }
+
+        /** {@inheritDoc} */
+        public ClassDefItem call() {
+            return dex.getClass(index);
+        }
+    }
+
+    /**
+     * A class whose translation has been submitted to
+     * {@link #classTranslatorPool}.
+     */
+    private static class PendingClass {
+        /** {@code non-null;} name of the file */
+        public final String name;
+
+        /** {@code non-null;} eventual result of the translation */
+        public final Future<ClassDefItem> result;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param result {@code non-null;} eventual result of the translation
+         */
+        public PendingClass(String name, Future<ClassDefItem> result) {
+            this.name = name;
+            this.result = result;
+        }
+    }
+
+    /**
+     * The contents of one input file, as handed out by a {@link
+     * ClassPathOpener}, recorded so that they can be handed out again
+     * without rereading the file.
+     */
+    private static class RecordedInput implements ClassPathOpener.Consumer {
+        /**
+         * {@code non-null;} what the opener handed out, in order: for
+         * each file, its name followed by its contents, and otherwise the
+         * {@link File} of an archive being started or the {@link
+         * Exception} that ended the processing
+         */
+        private final ArrayList<Object> events = new ArrayList<Object>();
+
+        /** {@inheritDoc} */
+        public boolean processFileBytes(String name, byte[] bytes) {
+            events.add(name);
+            events.add(bytes);
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        public void onException(Exception ex) {
+            events.add(ex);
+        }
+
+        /** {@inheritDoc} */
+        public void onProcessArchiveStart(File file) {
+            events.add(file);
+        }
+
+        /**
+         * Adds the classes that were read to an inliner.
+         *
+         * @param inliner {@code non-null;} the inliner
+         * @param cfOptions {@code non-null;} options to parse with
+         */
+        public void addClassesTo(Inliner inliner, CfOptions cfOptions) {
+            int sz = events.size();
+
+            for (int i = 0; i < sz; i++) {
+                Object event = events.get(i);
+
+                if (!(event instanceof String)) {
+                    continue;
+                }
+
+                String name = (String) event;
+
+                i++;
+
+                if (!name.endsWith(".class")) {
+                    continue;
+                }
+
+                try {
+                    inliner.addClass(fixPath(name), (byte[]) events.get(i),
+                            cfOptions);
+                } catch (RuntimeException ex) {
+                    // Reported when the class is translated.
+                }
+            }
+        }
+
+        /**
+         * Hands what was recorded to another consumer, the way the
+         * {@link ClassPathOpener} did: an exception thrown while
+         * processing a file ends the processing, and is handed to
+         * {@link #onException}.
+         *
+         * @param consumer {@code non-null;} the consumer
+         * @return the OR of all return values from the consumer's
+         * {@code processFileBytes()}, or {@code false} if there was
+         * an exception
+         */
+        public boolean replay(ClassPathOpener.Consumer consumer) {
+            boolean any = false;
+            Exception failure = null;
+            int sz = events.size();
+
+            try {
+                for (int i = 0; i < sz; i++) {
+                    Object event = events.get(i);
+
+                    if (event instanceof String) {
+                        i++;
+                        any |= consumer.processFileBytes((String) event,
+                                (byte[]) events.get(i));
+                    } else if (event instanceof File) {
+                        consumer.onProcessArchiveStart((File) event);
+                    } else {
+                        failure = (Exception) event;
+                        break;
+                    }
+                }
+            } catch (Exception ex) {
+                failure = ex;
+            }
+
+            if (failure != null) {
+                consumer.onException(failure);
+                return false;
+            }
+
+            return any;
+        }
+    }
+
     /**
      * Exception class used to halt processing prematurely.
      */
@@ -794,6 +1286,10 @@ public class Main {
         /** whether to do SSA/register optimization */
         public boolean optimize = true;
 
+        /** {@code non-null;} which register allocator to optimize with */
+        public Optimizer.RegisterAllocatorKind registerAllocator =
+            Optimizer.RegisterAllocatorKind.FIRST_FIT;
+
         /** Filename containg list of methods to optimize */
         public String optimizeListFile = null;
 
@@ -803,9 +1299,63 @@ public class Main {
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /**
+         * {@code >= 0;} how many of the slowest methods to list in the
+         * statistics
+         */
+        public int statisticsMethods = 10;
+
+        /**
+         * {@code null-ok;} name of the file to write the statistics to
+         * as JSON, or {@code null} not to
+         */
+        public String statisticsJsonFile = null;
+
         /** Options for dex.cf.* */
         public CfOptions cfOptions;
 
+        /** {@code >= 1;} number of threads to translate classes with */
+        public int numThreads = 1;
+
+        /**
+         * {@code null-ok;} directory in which to cache translated classes,
+         * or {@code null} to not cache them
+         */
+        public String cacheDir = null;
+
+        /**
+         * whether to inline small methods across the whole program;
+         * see {@link Inliner}
+         */
+        public boolean inline = false;
+
+        /**
+         * {@code null-ok;} name of the file listing the classes and
+         * members to keep, with everything they don't reach removed, or
+         * {@code null} to keep everything; see {@link TreeShaker}
+         */
+        public String keepListFile = null;
+
+        /**
+         * {@code null-ok;} name of the file listing the classes and
+         * methods used at startup, in first-use order, to lay the
+         * output out by, or {@code null} for the default layout; see
+         * {@link LayoutProfile}
+         */
+        public String layoutProfileFile = null;
+
+        /**
+         * whether to keep the string data sorted, for compression,
+         * even when laying the output out by a profile
+         */
+        public boolean sortedStringData = false;
+
+        /**
+         * whether to encode debug info compactly and share it among
+         * methods whose debug info is the same
+         */
+        public boolean compactDebugInfo = false;
+
         /**
          * Parses the given command-line arguments.
          *
@@ -828,12 +1378,37 @@ public class Main {
                     emptyOk = true;
                 } else if (arg.equals("--no-optimize")) {
                     optimize = false;
+                } else if (arg.startsWith("--register-allocator=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    if (arg.equals("first-fit")) {
+                        registerAllocator =
+                            Optimizer.RegisterAllocatorKind.FIRST_FIT;
+                    } else if (arg.equals("graph-coloring")) {
+                        registerAllocator =
+                            Optimizer.RegisterAllocatorKind.GRAPH_COLORING;
+                    } else {
+                        System.err.println("unknown register allocator: " +
+                                arg);
+                        throw new UsageException();
+                    }
                 } else if (arg.equals("--no-strict")) {
                     strictNameCheck = false;
                 } else if (arg.equals("--core-library")) {
                     coreLibrary = true;
                 } else if (arg.equals("--statistics")) {
                     statistics = true;
+                } else if (arg.startsWith("--statistics-methods=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    statisticsMethods = Integer.parseInt(arg);
+                    if (statisticsMethods < 0) {
+                        System.err.println("bad statistics method count: " +
+                                statisticsMethods);
+                        throw new UsageException();
+                    }
+                    statistics = true;
+                } else if (arg.startsWith("--statistics-json=")) {
+                    statisticsJsonFile = arg.substring(arg.indexOf('=') + 1);
+                    statistics = true;
                 } else if (arg.startsWith("--optimize-list=")) {
                     if (dontOptimizeListFile != null) {
                         System.err.println("--optimize-list and "
@@ -889,6 +1464,25 @@ public class Main {
                     }
                 } else if (arg.equals("--no-locals")) {
                     localInfo = false;
+                } else if (arg.startsWith("--num-threads=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    numThreads = Integer.parseInt(arg);
+                    if (numThreads < 1) {
+                        System.err.println("--num-threads must be >= 1");
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--cache-dir=")) {
+                    cacheDir = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.equals("--inline")) {
+                    inline = true;
+                } else if (arg.startsWith("--keep-list=")) {
+                    keepListFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--layout-profile=")) {
+                    layoutProfileFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.equals("--sorted-string-data")) {
+                    sortedStringData = true;
+                } else if (arg.equals("--compact-debug-info")) {
+                    compactDebugInfo = true;
                 } else {
                     System.err.println("unknown option: " + arg);
                     throw new UsageException();
@@ -911,6 +1505,17 @@ public class Main {
             fileNames = new String[fileCount];
             System.arraycopy(args, at, fileNames, 0, fileCount);
 
+            if (inline && (cacheDir != null)) {
+                /*
+                 * Inlined code depends on other classes than the one
+                 * being translated, so translations can't be cached
+                 * by class.
+                 */
+                System.err.println("--inline can't be combined with " +
+                        "--cache-dir");
+                throw new UsageException();
+            }
+
             if ((humanOutName == null) && (methodToDump != null)) {
                 humanOutName = "-";
             }
@@ -928,6 +1533,7 @@ public class Main {
             cfOptions.localInfo = localInfo;
             cfOptions.strictNameCheck = strictNameCheck;
             cfOptions.optimize = optimize;
+            cfOptions.registerAllocator = registerAllocator;
             cfOptions.optimizeListFile = optimizeListFile;
             cfOptions.dontOptimizeListFile = dontOptimizeListFile;
             cfOptions.statistics = statistics;
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.Version;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.direct.DirectDexFile;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.util.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * On-disk cache of translated classes, used for incremental dexing.
+ * Each entry is a {@code .dex} file defining a single class, named
+ * after a digest of the class file, of every option that affects
+ * its translation and of the dx build doing the translating. Entries
+ * are never invalidated; a changed input or a different dx simply maps
+ * to a different entry.
+ *
+ * <p>Both cache hits and misses hand back a class read from the
+ * {@code .dex} form, so that the output doesn't depend on which
+ * classes happened to be in the cache.</p>
+ */
+final class TranslationCache {
+    /** {@code non-null;} suffix of cache entry file names */
+    private static final String SUFFIX = ".dex";
+
+    /**
+     * {@code null-ok;} digest identifying the dx build, or {@code null}
+     * if it hasn't been computed yet
+     */
+    private static byte[] buildKey;
+
+    /** {@code non-null;} directory holding the entries */
+    private final File directory;
+
+    /** {@code non-null;} options to translate with */
+    private final CfOptions cfOptions;
+
+    /**
+     * {@code non-null;} bytes identifying {@link #cfOptions} and the
+     * dx build, mixed into every key
+     */
+    private final byte[] optionsKey;
+
+    /**
+     * Constructs an instance, creating the directory if necessary.
+     *
+     * @param directory {@code non-null;} directory holding the entries
+     * @param cfOptions {@code non-null;} options to translate with
+     */
+    public TranslationCache(File directory, CfOptions cfOptions) {
+        if (directory == null) {
+            throw new NullPointerException("directory == null");
+        }
+
+        if (cfOptions == null) {
+            throw new NullPointerException("cfOptions == null");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("unable to create cache directory: " +
+                    directory);
+        }
+
+        this.directory = directory;
+        this.cfOptions = cfOptions;
+        this.optionsKey = makeOptionsKey(cfOptions);
+    }
+
+    /**
+     * Translates the given class, reusing a previous translation if
+     * there is one in the cache. This method may be called concurrently
+     * from several threads.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    public ClassDefItem translate(String name, byte[] bytes) {
+        File entry = new File(directory, makeKey(name, bytes) + SUFFIX);
+
+        if (entry.isFile()) {
+            try {
+                return importClass(FileUtils.readFile(entry), entry.getPath());
+            } catch (RuntimeException ex) {
+                /*
+                 * The entry is unreadable or stale, e.g. left behind by
+                 * a crashed run. Just translate the class again, which
+                 * overwrites it.
+                 */
+            }
+        }
+
+        ClassDefItem clazz = CfTranslator.translate(name, bytes, cfOptions);
+        DexFile single = new DexFile();
+        single.add(clazz);
+
+        byte[] dex;
+        try {
+            dex = single.toDex(null, false);
+        } catch (IOException ex) {
+            // This can't happen, since no human-oriented output is made.
+            throw new RuntimeException(ex);
+        }
+
+        store(entry, dex);
+
+        /*
+         * The translated class has now been written out, and an item
+         * can only be placed in one file, so what goes to the caller
+         * is read back from the entry, just like on a hit.
+         */
+        return importClass(dex, entry.getPath());
+    }
+
+    /**
+     * Reads the one class defined in the given cache entry.
+     *
+     * @param dex {@code non-null;} contents of the entry
+     * @param path {@code non-null;} path of the entry, for error messages
+     * @return {@code non-null;} the class
+     */
+    private static ClassDefItem importClass(byte[] dex, String path) {
+        DirectDexFile file = new DirectDexFile(dex, path);
+
+        if (file.getClassCount() != 1) {
+            throw new RuntimeException("bad cache entry: " + path);
+        }
+
+        ClassDefItem result = file.getClass(0);
+
+        /*
+         * The entry's tables hold exactly what the translated class
+         * added to the file, so anything the class as read back doesn't
+         * refer to goes along with it explicitly.
+         */
+        for (Constant cst : file.getUnreadConstants()) {
+            result.addExtraConstant(cst);
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes a cache entry. The file is first written under a temporary
+     * name and then renamed, so that concurrent or interrupted runs never
+     * see a partial entry. Failures are ignored, since the cache is
+     * only an optimization.
+     *
+     * @param entry {@code non-null;} the entry to write
+     * @param dex {@code non-null;} contents of the entry
+     */
+    private void store(File entry, byte[] dex) {
+        File temp = null;
+
+        try {
+            temp = File.createTempFile("entry", ".tmp", directory);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(dex);
+            } finally {
+                out.close();
+            }
+            if (temp.renameTo(entry)) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            // Ignore it; the class just won't be cached.
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Makes the key for the given class.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the key, as a hex string
+     */
+    private String makeKey(String name, byte[] bytes) {
+        MessageDigest digest = newDigest();
+
+        digest.update(optionsKey);
+        digest.update(getUtf8Bytes(name));
+        digest.update((byte) 0);
+        digest.update(bytes);
+
+        byte[] sum = digest.digest();
+        StringBuilder sb = new StringBuilder(sum.length * 2);
+
+        for (byte b : sum) {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Makes the part of every key that depends on the translation
+     * options. The optimize lists contribute their contents, not just
+     * their names.
+     *
+     * @param cfOptions {@code non-null;} the options
+     * @return {@code non-null;} the digest of the options
+     */
+    private static byte[] makeOptionsKey(CfOptions cfOptions) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeUTF(Version.VERSION);
+            out.write(getBuildKey());
+            out.writeInt(cfOptions.positionInfo);
+            out.writeBoolean(cfOptions.localInfo);
+            out.writeBoolean(cfOptions.strictNameCheck);
+            out.writeBoolean(cfOptions.optimize);
+            out.writeUTF(cfOptions.registerAllocator.name());
+            writeListFile(out, cfOptions.optimizeListFile);
+            writeListFile(out, cfOptions.dontOptimizeListFile);
+            out.flush();
+
+            return newDigest().digest(bytes.toByteArray());
+        } catch (IOException ex) {
+            // This can't happen when writing to memory.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Helper for {@link #makeOptionsKey}, which writes out the
+     * contents of an optional list file.
+     *
+     * @param out {@code non-null;} where to write
+     * @param fileName {@code null-ok;} name of the list file
+     */
+    private static void writeListFile(DataOutputStream out, String fileName)
+            throws IOException {
+        if (fileName == null) {
+            out.writeBoolean(false);
+            return;
+        }
+
+        byte[] contents = FileUtils.readFile(fileName);
+        out.writeBoolean(true);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /**
+     * Gets the digest identifying the running dx build. The version
+     * number alone doesn't change when code generation does, so this
+     * digests the classes of dx themselves: the contents of the jar
+     * they were loaded from or, for an unpackaged build, of every class
+     * file in the directory. This is only computed once per VM, so that
+     * a build server doesn't redo it for every request.
+     *
+     * @return {@code non-null;} the digest of the build
+     */
+    private static synchronized byte[] getBuildKey() {
+        if (buildKey != null) {
+            return buildKey;
+        }
+
+        CodeSource source =
+            TranslationCache.class.getProtectionDomain().getCodeSource();
+        URL location = (source == null) ? null : source.getLocation();
+        File file;
+
+        try {
+            file = (location == null) ? null : new File(location.toURI());
+        } catch (URISyntaxException ex) {
+            file = null;
+        } catch (IllegalArgumentException ex) {
+            // The location isn't a file: URL.
+            file = null;
+        }
+
+        if (file == null || !file.exists()) {
+            throw new RuntimeException("unable to locate the dx classes " +
+                    "to identify translation cache entries: " + location);
+        }
+
+        MessageDigest digest = newDigest();
+        digestBuild(digest, file, "");
+        buildKey = digest.digest();
+
+        return buildKey;
+    }
+
+    /**
+     * Helper for {@link #getBuildKey}, which adds a file, or the class
+     * files in a directory tree, to the digest of the build. Directory
+     * entries are visited in name order, so the result doesn't depend on
+     * the order the file system lists them in.
+     *
+     * @param digest {@code non-null;} the digest to update
+     * @param file {@code non-null;} the file or directory to add
+     * @param path {@code non-null;} path of {@code file} relative to the
+     * root of the build, mixed into the digest
+     */
+    private static void digestBuild(MessageDigest digest, File file,
+            String path) {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+
+            if (names == null) {
+                throw new RuntimeException("unable to list " + file);
+            }
+
+            Arrays.sort(names);
+
+            for (String name : names) {
+                digestBuild(digest, new File(file, name), path + "/" + name);
+            }
+        } else if (path.length() == 0 || path.endsWith(".class")) {
+            byte[] contents = FileUtils.readFile(file);
+
+            digest.update(getUtf8Bytes(path));
+            digest.update((byte) 0);
+            digest.update(contents);
+        }
+    }
+
+    /**
+     * Encodes a string as UTF-8, so that keys are the same whatever
+     * the platform's default charset.
+     *
+     * @param s {@code non-null;} the string
+     * @return {@code non-null;} its UTF-8 encoding
+     */
+    private static byte[] getUtf8Bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            // Every VM is required to support UTF-8.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Makes a new digest for keys.
+     *
+     * @return {@code non-null;} the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
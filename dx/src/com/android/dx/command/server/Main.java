@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.server;
+
+import com.android.dx.command.DxConsole;
+import com.android.dx.command.UsageException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+
+/**
+ * Main class for the dx build server. The server keeps one VM warm
+ * and runs {@code dx --dex} requests in it, one at a time, so that
+ * builds with many small invocations don't pay for VM startup and
+ * warmup on each of them.
+ *
+ * <p>The server only listens on the loopback interface, which any
+ * local user can connect to, so it also makes up a random token on
+ * startup and writes it to a file only its owner can read. Each
+ * connection carries one request: a line holding the token, then the
+ * arguments that would follow {@code --dex} on the command line, one
+ * per line, terminated by an empty line. Connections that don't start
+ * with the token are closed without running anything, since a request
+ * reads and writes files with the permissions of the server's owner.
+ * Relative paths are resolved against the server's working directory.
+ * The response is everything the run writes to the console, followed
+ * by a last line of the form {@code exit <n>}, where {@code <n>} is
+ * the status {@code dx --dex} would have exited with. A request
+ * consisting of just {@code --shutdown} stops the server.</p>
+ */
+public class Main {
+    /** {@code non-null;} request that stops the server */
+    private static final String SHUTDOWN = "--shutdown";
+
+    /** {@code non-null;} charset used for requests and responses */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * {@code non-null;} name of the token file, in the user's home
+     * directory, if none is given
+     */
+    private static final String DEFAULT_TOKEN_FILE = ".dx-server-token";
+
+    /** {@code > 0;} number of random bytes in a token */
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the server until it is asked to stop.
+     *
+     * @param args {@code non-null;} the command-line arguments
+     */
+    public static void main(String[] args) {
+        int port = 0;
+        File tokenFile = new File(System.getProperty("user.home"),
+                DEFAULT_TOKEN_FILE);
+
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                port = Integer.parseInt(arg);
+                if ((port < 0) || (port > 0xffff)) {
+                    System.err.println("bad port: " + port);
+                    throw new UsageException();
+                }
+            } else if (arg.startsWith("--token-file=")) {
+                tokenFile = new File(arg.substring(arg.indexOf('=') + 1));
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new UsageException();
+            }
+        }
+
+        ServerSocket server;
+        byte[] token;
+
+        try {
+            token = writeToken(tokenFile);
+            server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        // Tell whoever started us where to connect.
+        System.out.println("dx server listening on port " +
+                server.getLocalPort() + ", token in " + tokenFile);
+        System.out.flush();
+
+        try {
+            boolean running = true;
+
+            while (running) {
+                Socket socket;
+
+                try {
+                    socket = server.accept();
+                } catch (IOException ex) {
+                    System.err.println("dx server: " + ex);
+                    continue;
+                }
+
+                try {
+                    running = serve(socket, token);
+                } catch (IOException ex) {
+                    // The client went away; carry on with the next one.
+                    System.err.println("dx server: " + ex);
+                } finally {
+                    closeQuietly(socket);
+                }
+            }
+        } finally {
+            try {
+                server.close();
+            } catch (IOException ex) {
+                // Ignore it; we're exiting anyway.
+            }
+
+            tokenFile.delete();
+        }
+    }
+
+    /**
+     * Makes up a new token and writes it to the given file, in
+     * hexadecimal followed by a newline, replacing whatever the file
+     * held. The file is made readable and writable only by its owner
+     * before the token goes in. So that nobody else can open it in
+     * between, it is first created in a new directory which only the
+     * owner can enter, then moved into place.
+     *
+     * @param file {@code non-null;} the file to write
+     * @return {@code non-null;} the token, as it is written
+     */
+    private static byte[] writeToken(File file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+
+        StringBuilder sb = new StringBuilder(random.length * 2);
+
+        for (byte b : random) {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+
+        byte[] token = sb.toString().getBytes(CHARSET);
+        File parent = file.getAbsoluteFile().getParentFile();
+        File directory = new File(parent,
+                file.getName() + "." + sb.substring(0, 8) + ".tmp");
+
+        if (!directory.mkdir()) {
+            throw new IOException("unable to create " + directory);
+        }
+
+        File temp = new File(directory, file.getName());
+
+        try {
+            restrictToOwner(directory);
+
+            if (!directory.setExecutable(true, true)) {
+                throw new IOException("unable to restrict access to " +
+                        directory);
+            }
+
+            if (!temp.createNewFile()) {
+                throw new IOException("unable to create " + temp);
+            }
+
+            restrictToOwner(temp);
+
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(token);
+                out.write('\n');
+            } finally {
+                out.close();
+            }
+
+            // Windows won't rename over an existing file.
+            file.delete();
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("unable to write " + file);
+            }
+        } finally {
+            temp.delete();
+            directory.delete();
+        }
+
+        return token;
+    }
+
+    /**
+     * Makes the given file readable and writable only by its owner.
+     *
+     * @param file {@code non-null;} the file
+     */
+    private static void restrictToOwner(File file) throws IOException {
+        boolean ok = file.setReadable(false, false)
+            && file.setWritable(false, false)
+            && file.setExecutable(false, false)
+            && file.setReadable(true, true)
+            && file.setWritable(true, true);
+
+        if (!ok) {
+            throw new IOException("unable to restrict access to " + file);
+        }
+    }
+
+    /**
+     * Handles one connection.
+     *
+     * @param socket {@code non-null;} the connection
+     * @param token {@code non-null;} the token requests must start with
+     * @return {@code false} if the server should stop, {@code true}
+     * otherwise
+     */
+    private static boolean serve(Socket socket, byte[] token)
+            throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), CHARSET));
+        String first = in.readLine();
+
+        if ((first == null)
+                || !MessageDigest.isEqual(token, first.getBytes(CHARSET))) {
+            System.err.println("dx server: rejected a request without " +
+                    "the token");
+            return true;
+        }
+
+        ArrayList<String> request = new ArrayList<String>();
+
+        for (;;) {
+            String line = in.readLine();
+            if ((line == null) || (line.length() == 0)) {
+                break;
+            }
+            request.add(line);
+        }
+
+        PrintStream out =
+            new PrintStream(socket.getOutputStream(), true, CHARSET);
+
+        if ((request.size() == 1) && request.get(0).equals(SHUTDOWN)) {
+            out.println("exit 0");
+            out.flush();
+            return false;
+        }
+
+        int result = runDexer(request.toArray(new String[request.size()]),
+                out);
+
+        out.println("exit " + result);
+        out.flush();
+
+        if (out.checkError()) {
+            throw new IOException("unable to write response");
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the dexer with its console output sent to the given stream,
+     * returning the status it would have made the process exit with.
+     *
+     * @param args {@code non-null;} arguments to the dexer
+     * @param out {@code non-null;} where the console output goes
+     * @return the exit status
+     */
+    private static int runDexer(String[] args, PrintStream out) {
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        PrintStream oldConsoleOut = DxConsole.out;
+        PrintStream oldConsoleErr = DxConsole.err;
+
+        System.setOut(out);
+        System.setErr(out);
+        DxConsole.out = out;
+        DxConsole.err = out;
+
+        try {
+            com.android.dx.command.dexer.Main.Arguments arguments =
+                new com.android.dx.command.dexer.Main.Arguments();
+            arguments.parse(args);
+            return com.android.dx.command.dexer.Main.run(arguments);
+        } catch (UsageException ex) {
+            out.println("usage: see dx --help");
+            return 1;
+        } catch (RuntimeException ex) {
+            out.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace(out);
+            return 2;
+        } catch (Throwable ex) {
+            out.println("\nUNEXPECTED TOP-LEVEL ERROR:");
+            ex.printStackTrace(out);
+            return 3;
+        } finally {
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            DxConsole.out = oldConsoleOut;
+            DxConsole.err = oldConsoleErr;
+        }
+    }
+
+    /**
+     * Closes the given socket, ignoring any failure.
+     *
+     * @param socket {@code non-null;} the socket
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Ignore it.
+        }
+    }
+}
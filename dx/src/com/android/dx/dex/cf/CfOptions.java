@@ -17,6 +17,7 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.ssa.Optimizer;
 
 import java.io.PrintStream;
 
@@ -36,6 +37,16 @@ public class CfOptions {
     /** whether to do SSA/register optimization */
     public boolean optimize = false;
 
+    /** {@code non-null;} which register allocator the optimizer uses */
+    public Optimizer.RegisterAllocatorKind registerAllocator =
+        Optimizer.RegisterAllocatorKind.FIRST_FIT;
+
+    /**
+     * {@code null-ok;} the inliner of calls to other classes of the
+     * program, or {@code null} not to inline
+     */
+    public Inliner inliner = null;
+
     /** filename containing list of methods to optimize */
     public String optimizeListFile = null;
 
@@ -47,4 +58,25 @@ public class CfOptions {
 
     /** where to issue warnings to */
     public PrintStream warn = System.err;
+
+    /**
+     * {@code null-ok;} optimize lists named by the above options, or
+     * {@code null} if they haven't been loaded yet
+     */
+    private OptimizerOptions optimizerOptions;
+
+    /**
+     * Gets the optimize lists named by these options, loading them on
+     * first use.
+     *
+     * @return {@code non-null;} the optimize lists
+     */
+    public synchronized OptimizerOptions getOptimizerOptions() {
+        if (optimizerOptions == null) {
+            optimizerOptions =
+                new OptimizerOptions(optimizeListFile, dontOptimizeListFile);
+        }
+
+        return optimizerOptions;
+    }
 }
@@ -52,7 +52,11 @@ import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Profiler;
+
+import java.util.HashSet;
 
 /**
  * Static method that turns {@code byte[]}s containing Java
@@ -102,14 +106,18 @@ public class CfTranslator {
      */
     private static ClassDefItem translate0(String filePath, byte[] bytes,
             CfOptions args) {
+        long[] parseMark = Profiler.start();
         DirectClassFile cf =
             new DirectClassFile(bytes, filePath, args.strictNameCheck);
 
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
         cf.getMagic();
 
-        OptimizerOptions.loadOptimizeLists(args.optimizeListFile,
-                args.dontOptimizeListFile);
+        if (parseMark != null) {
+            // Parsing is lazy; finish it here so it all gets measured.
+            cf.getAttributes();
+            Profiler.end(Profiler.Phase.PARSE, parseMark);
+        }
 
         // Build up a class to output.
 
@@ -210,6 +218,30 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Gets the final fields of the given class, whose values the
+     * optimizer may assume don't change once set.
+     *
+     * @param cf {@code non-null;} class being translated
+     * @return {@code non-null;} the final fields
+     */
+    private static HashSet<CstFieldRef> getFinalFields(DirectClassFile cf) {
+        CstType thisClass = cf.getThisClass();
+        FieldList fields = cf.getFields();
+        int sz = fields.size();
+        HashSet<CstFieldRef> result = new HashSet<CstFieldRef>();
+
+        for (int i = 0; i < sz; i++) {
+            Field one = fields.get(i);
+
+            if ((one.getAccessFlags() & AccessFlags.ACC_FINAL) != 0) {
+                result.add(new CstFieldRef(thisClass, one.getNat()));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Processes the methods of the given class.
      *
@@ -221,6 +253,7 @@ public class CfTranslator {
             CfOptions args, ClassDefItem out) {
         CstType thisClass = cf.getThisClass();
         MethodList methods = cf.getMethods();
+        HashSet<CstFieldRef> finalFields = getFinalFields(cf);
         int sz = methods.size();
 
         for (int i = 0; i < sz; i++) {
@@ -240,6 +273,8 @@ public class CfTranslator {
                     // There's no code for native or abstract methods.
                     code = null;
                 } else {
+                    long[] methodMark = Profiler.start();
+                    long[] ropMark = Profiler.start();
                     ConcreteMethod concrete =
                         new ConcreteMethod(one, cf,
                                 (args.positionInfo != PositionList.NONE),
@@ -250,6 +285,7 @@ public class CfTranslator {
                     advice = DexTranslationAdvice.THE_ONE;
 
                     RopMethod rmeth = Ropper.convert(concrete, advice);
+                    Profiler.end(Profiler.Phase.ROP, ropMark);
                     RopMethod nonOptRmeth = null;
                     int paramSize;
 
@@ -259,15 +295,24 @@ public class CfTranslator {
                             = thisClass.getClassType().getDescriptor()
                                 + "." + one.getName().getString();
 
-                    if (args.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
+                    if (args.optimize && args.getOptimizerOptions()
+                            .shouldOptimize(canonicalName)) {
                         if (DEBUG) {
                             System.err.println("Optimizing " + canonicalName);
                         }
 
                         nonOptRmeth = rmeth;
+
+                        if (args.inliner != null) {
+                            long[] inlineMark = Profiler.start();
+                            rmeth = args.inliner.inline(rmeth, meth);
+                            Profiler.end(Profiler.Phase.INLINE, inlineMark);
+                        }
+
                         rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, args.localInfo, advice);
+                                paramSize, isStatic,
+                                new OptimizerContext(args.localInfo, advice,
+                                        args.registerAllocator, finalFields));
 
                         if (DEBUG) {
                             OptimizerOptions.compareOptimizerStep(nonOptRmeth,
@@ -280,6 +325,7 @@ public class CfTranslator {
                         }
                     }
 
+                    long[] dopMark = Profiler.start();
                     LocalVariableInfo locals = null;
 
                     if (args.localInfo) {
@@ -288,6 +334,13 @@ public class CfTranslator {
 
                     code = RopTranslator.translate(rmeth, args.positionInfo,
                             locals, paramSize);
+                    Profiler.end(Profiler.Phase.DOP_TRANSLATION, dopMark);
+
+                    if (methodMark != null) {
+                        Profiler.endMethod(canonicalName + ":" +
+                                one.getDescriptor().getString(),
+                                concrete.getCode().size(), methodMark);
+                    }
 
                     if (args.statistics && nonOptRmeth != null) {
                         updateDexStatistics(args, rmeth, nonOptRmeth, locals,
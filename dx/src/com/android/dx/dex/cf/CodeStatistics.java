@@ -18,12 +18,18 @@ package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.DalvCode;
 import com.android.dx.rop.code.RopMethod;
+import com.android.dx.util.Hex;
+import com.android.dx.util.Profiler;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
 
 /**
  * Static methods and variables for collecting statistics on generated
- * code.
+ * code, and for reporting them along with the {@link Profiler profile}
+ * of the run.
  */
 public final class CodeStatistics {
     /** set to {@code true} to enable development-time debugging code */
@@ -73,12 +79,25 @@ public final class CodeStatistics {
         // This space intentionally left blank.
     }
 
+    /**
+     * Resets all the running sums to zero, as at the start of a run.
+     */
+    public static synchronized void reset() {
+        runningDeltaRegisters = 0;
+        runningDeltaInsns = 0;
+        runningTotalInsns = 0;
+        dexRunningDeltaRegisters = 0;
+        dexRunningDeltaInsns = 0;
+        dexRunningTotalInsns = 0;
+        runningOriginalBytes = 0;
+    }
+
     /**
      * Updates the number of original bytecode bytes processed.
      * 
      * @param count {@code >= 0;} the number of bytes to add
      */
-    public static void updateOriginalByteCount(int count) {
+    public static synchronized void updateOriginalByteCount(int count) {
         runningOriginalBytes += count;
     }
 
@@ -88,7 +107,7 @@ public final class CodeStatistics {
      * @param nonOptCode non-optimized code block
      * @param code optimized code block
      */
-    public static void updateDexStatistics(DalvCode nonOptCode,
+    public static synchronized void updateDexStatistics(DalvCode nonOptCode,
             DalvCode code) {
         if (DEBUG) {
             System.err.println("dex insns (old/new) "
@@ -117,7 +136,7 @@ public final class CodeStatistics {
      * @param nonOptRmeth non-optimized method
      * @param rmeth optimized method
      */
-    public static void updateRopStatistics(RopMethod nonOptRmeth,
+    public static synchronized void updateRopStatistics(RopMethod nonOptRmeth,
             RopMethod rmeth) {
         int oldCountInsns
                 = nonOptRmeth.getBlocks().getEffectiveInstructionCount();
@@ -169,4 +188,140 @@ public final class CodeStatistics {
         out.printf("Original bytecode byte count: %d\n",
                 runningOriginalBytes);
     }
+
+    /**
+     * Prints out the per-phase profile and the slowest methods, as
+     * collected by {@link Profiler}.
+     *
+     * @param out {@code non-null;} where to output to
+     */
+    public static void dumpProfile(PrintStream out) {
+        out.printf("%-20s %8s %10s %10s %12s\n",
+                "Phase", "count", "wall ms", "cpu ms", "alloc KiB");
+
+        for (Profiler.Phase phase : Profiler.Phase.values()) {
+            out.printf("%-20s %8d %10.1f %10s %12s\n",
+                    phase.toHuman(), Profiler.getCount(phase),
+                    Profiler.getWallNanos(phase) / 1e6,
+                    humanMillis(Profiler.getCpuNanos(phase)),
+                    humanKiB(Profiler.getAllocatedBytes(phase)));
+        }
+
+        ArrayList<Profiler.MethodSample> methods =
+            Profiler.getSlowestMethods();
+
+        if (methods.size() == 0) {
+            return;
+        }
+
+        out.printf("Slowest methods:\n%10s %10s %12s %8s  %s\n",
+                "wall ms", "cpu ms", "alloc KiB", "bytes", "method");
+
+        for (Profiler.MethodSample one : methods) {
+            out.printf("%10.1f %10s %12s %8d  %s\n",
+                    one.getWallNanos() / 1e6,
+                    humanMillis(one.getCpuNanos()),
+                    humanKiB(one.getAllocatedBytes()),
+                    one.getCodeSize(), one.getName());
+        }
+    }
+
+    /**
+     * Writes out all the collected statistics and the profile as a
+     * JSON object.
+     *
+     * @param out {@code non-null;} where to output to
+     * @throws IOException on i/o problem
+     */
+    public static void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"code\": {");
+        out.write("\"ropDeltaInsns\": " + runningDeltaInsns);
+        out.write(", \"ropTotalInsns\": " + runningTotalInsns);
+        out.write(", \"ropDeltaRegisters\": " + runningDeltaRegisters);
+        out.write(", \"dexDeltaInsns\": " + dexRunningDeltaInsns);
+        out.write(", \"dexTotalInsns\": " + dexRunningTotalInsns);
+        out.write(", \"dexDeltaRegisters\": " + dexRunningDeltaRegisters);
+        out.write(", \"originalBytes\": " + runningOriginalBytes);
+        out.write("},\n  \"phases\": [");
+
+        String separator = "\n";
+
+        for (Profiler.Phase phase : Profiler.Phase.values()) {
+            out.write(separator);
+            out.write("    {\"name\": ");
+            writeJsonString(out, phase.toHuman());
+            out.write(", \"count\": " + Profiler.getCount(phase));
+            out.write(", \"wallNanos\": " + Profiler.getWallNanos(phase));
+            out.write(", \"cpuNanos\": " + Profiler.getCpuNanos(phase));
+            out.write(", \"allocatedBytes\": " +
+                    Profiler.getAllocatedBytes(phase));
+            out.write("}");
+            separator = ",\n";
+        }
+
+        out.write("\n  ],\n  \"slowestMethods\": [");
+        separator = "\n";
+
+        for (Profiler.MethodSample one : Profiler.getSlowestMethods()) {
+            out.write(separator);
+            out.write("    {\"name\": ");
+            writeJsonString(out, one.getName());
+            out.write(", \"codeSize\": " + one.getCodeSize());
+            out.write(", \"wallNanos\": " + one.getWallNanos());
+            out.write(", \"cpuNanos\": " + one.getCpuNanos());
+            out.write(", \"allocatedBytes\": " + one.getAllocatedBytes());
+            out.write("}");
+            separator = ",\n";
+        }
+
+        out.write("\n  ]\n}\n");
+    }
+
+    /**
+     * Helper for {@link #writeJson}, which writes out a quoted and
+     * escaped string.
+     *
+     * @param out {@code non-null;} where to output to
+     * @param s {@code non-null;} the string
+     */
+    private static void writeJsonString(Writer out, String s)
+            throws IOException {
+        int len = s.length();
+
+        out.write('"');
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                out.write('\\');
+                out.write(c);
+            } else if ((c < ' ') || (c > '~')) {
+                out.write("\\u" + Hex.u2(c));
+            } else {
+                out.write(c);
+            }
+        }
+
+        out.write('"');
+    }
+
+    /**
+     * Formats a possibly-unknown time for humans.
+     *
+     * @param nanos the time, in nanoseconds, or {@code -1} if unknown
+     * @return {@code non-null;} the time, in milliseconds
+     */
+    private static String humanMillis(long nanos) {
+        return (nanos < 0) ? "-" : String.format("%.1f", nanos / 1e6);
+    }
+
+    /**
+     * Formats a possibly-unknown byte count for humans.
+     *
+     * @param bytes the count, or {@code -1} if unknown
+     * @return {@code non-null;} the count, in KiB
+     */
+    private static String humanKiB(long bytes) {
+        return (bytes < 0) ? "-" : Long.toString(bytes / 1024);
+    }
 }
@@ -0,0 +1,937 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.FieldList;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.FillArrayDataInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.PlainCstInsn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.SwitchInsn;
+import com.android.dx.rop.code.ThrowingCstInsn;
+import com.android.dx.rop.code.ThrowingInsn;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Whole-program inliner of small methods. All the classes of a program
+ * are {@link #addClass added} first; then, as each method is
+ * translated, calls in it to small private, static and final methods
+ * of those classes are replaced by the bodies of the methods, in rop
+ * form, ahead of the optimizer.
+ *
+ * <p>A method is only inlined if it has no exception handlers of its
+ * own and isn't synchronized. Its throwing insns take on the catch
+ * handlers of the call site, so an exception thrown by the inlined
+ * code is caught, or not, just as it would have been by the caller. A
+ * call to an instance method throws {@code NullPointerException} for a
+ * {@code null} receiver before the method runs; unless the inlined
+ * code dereferences its receiver before doing anything else, an
+ * explicit {@code getClass()} check is left in place of the call,
+ * which the optimizer removes again when it can tell that the receiver
+ * isn't {@code null}. All the inlined insns get the source position of
+ * the call, and the local variables of the inlined method are
+ * dropped.</p>
+ *
+ * <p>Methods of other classes are only inlined when everything they
+ * refer to is accessible from the calling class and they make no
+ * {@code super} calls, and static ones only
+ * when neither their class nor its superclasses have a static
+ * initializer, which the call might have been the one to run. Only one
+ * level of calls is inlined.</p>
+ *
+ * <p>Classes must all be added before the first call to
+ * {@link #inline}, which may then be made from any number of threads
+ * at once.</p>
+ */
+public final class Inliner {
+    /** maximum size of a method to inline, in bytes of bytecode */
+    public static final int MAX_INLINE_SIZE = 8;
+
+    /** {@code non-null;} the method used for explicit null checks */
+    private static final CstMethodRef GET_CLASS_METHOD =
+        new CstMethodRef(CstType.OBJECT,
+                new CstNat(new CstUtf8("getClass"),
+                        new CstUtf8("()Ljava/lang/Class;")));
+
+    /** {@code non-null;} the added classes */
+    private final HashMap<CstType, ClassInfo> classes;
+
+    /**
+     * {@code non-null;} access flags of the fields and methods of the
+     * added classes
+     */
+    private final HashMap<CstMemberRef, Integer> memberFlags;
+
+    /** {@code non-null;} the methods that may be inlined */
+    private final HashMap<CstMethodRef, Callee> callees;
+
+    /**
+     * Constructs an instance, with no classes added yet.
+     */
+    public Inliner() {
+        classes = new HashMap<CstType, ClassInfo>();
+        memberFlags = new HashMap<CstMemberRef, Integer>();
+        callees = new HashMap<CstMethodRef, Callee>();
+    }
+
+    /**
+     * Adds a class of the program being translated.
+     *
+     * @param filePath {@code non-null;} the file path for the class,
+     * excluding any base directory specification
+     * @param bytes {@code non-null;} contents of the file
+     * @param args {@code non-null;} options the classes are translated
+     * with
+     */
+    public void addClass(String filePath, byte[] bytes, CfOptions args) {
+        DirectClassFile cf =
+            new DirectClassFile(bytes, filePath, args.strictNameCheck);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        CstType thisClass = cf.getThisClass();
+        int classAccessFlags = cf.getAccessFlags();
+        FieldList fields = cf.getFields();
+        MethodList methods = cf.getMethods();
+        boolean hasClassInit = false;
+        int sz = fields.size();
+
+        for (int i = 0; i < sz; i++) {
+            memberFlags.put(new CstFieldRef(thisClass, fields.get(i).getNat()),
+                    fields.get(i).getAccessFlags());
+        }
+
+        sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+            CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+            int accessFlags = one.getAccessFlags();
+
+            memberFlags.put(meth, accessFlags);
+
+            if (meth.isClassInit()) {
+                hasClassInit = true;
+            } else if (!meth.isInstanceInit()
+                    && ((accessFlags & (AccessFlags.ACC_STATIC
+                                    | AccessFlags.ACC_PRIVATE
+                                    | AccessFlags.ACC_FINAL)) != 0
+                            || (classAccessFlags & AccessFlags.ACC_FINAL) != 0)
+                    && (accessFlags & (AccessFlags.ACC_NATIVE
+                                    | AccessFlags.ACC_ABSTRACT
+                                    | AccessFlags.ACC_SYNCHRONIZED)) == 0) {
+                Callee callee = makeCallee(one, cf, accessFlags);
+
+                if (callee != null) {
+                    callees.put(meth, callee);
+                }
+            }
+        }
+
+        classes.put(thisClass,
+                new ClassInfo(classAccessFlags, cf.getSuperclass(),
+                        hasClassInit));
+    }
+
+    /**
+     * Makes the inlining information for a method, if it is small and
+     * simple enough to inline.
+     *
+     * @param method {@code non-null;} the method
+     * @param cf {@code non-null;} the class it's in
+     * @param accessFlags the access flags of the method
+     * @return {@code null-ok;} the information, or {@code null} if the
+     * method isn't to be inlined
+     */
+    private static Callee makeCallee(Method method, DirectClassFile cf,
+            int accessFlags) {
+        ConcreteMethod concrete = new ConcreteMethod(method, cf, false, false);
+
+        if (concrete.getCode().size() > MAX_INLINE_SIZE
+                || concrete.getCatches().size() != 0) {
+            return null;
+        }
+
+        RopMethod body = Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+        BasicBlockList blocks = body.getBlocks();
+        int sz = blocks.size();
+
+        for (int i = 0; i < sz; i++) {
+            if (blocks.get(i).hasExceptionHandlers()) {
+                return null;
+            }
+        }
+
+        boolean isStatic = AccessFlags.isStatic(accessFlags);
+
+        return new Callee(cf.getThisClass(), accessFlags, body,
+                !isStatic && dereferencesReceiverFirst(body));
+    }
+
+    /**
+     * Returns whether the first thing an instance method does that can
+     * throw or have side effects is to dereference its receiver. Such
+     * a method throws for a {@code null} receiver just as a call to it
+     * would, and needs no explicit null check when inlined.
+     *
+     * @param body {@code non-null;} the method
+     * @return {@code true} if the receiver is dereferenced first
+     */
+    private static boolean dereferencesReceiverFirst(RopMethod body) {
+        BasicBlockList blocks = body.getBlocks();
+        BitSet receivers = new BitSet();
+        BasicBlock block = blocks.labelToBlock(body.getFirstLabel());
+
+        // Follow the gotos, tracking the copies of the receiver.
+        for (int count = blocks.size(); count > 0; count--) {
+            InsnList insns = block.getInsns();
+            int sz = insns.size();
+
+            for (int i = 0; i < sz - 1; i++) {
+                Insn insn = insns.get(i);
+                RegisterSpec result = insn.getResult();
+                int opcode = insn.getOpcode().getOpcode();
+
+                if (result == null) {
+                    continue;
+                }
+
+                boolean isReceiver = (opcode == RegOps.MOVE_PARAM)
+                    ? ((CstInteger) ((CstInsn) insn).getConstant())
+                            .getValue() == 0
+                    : (opcode == RegOps.MOVE)
+                            && receivers.get(insn.getSources().get(0)
+                                    .getReg());
+
+                receivers.clear(result.getReg(), result.getNextReg());
+
+                if (isReceiver) {
+                    receivers.set(result.getReg());
+                }
+            }
+
+            Insn last = insns.getLast();
+            RegisterSpecList sources = last.getSources();
+
+            switch (last.getOpcode().getOpcode()) {
+                case RegOps.GOTO: {
+                    block = blocks.labelToBlock(block.getPrimarySuccessor());
+                    continue;
+                }
+                case RegOps.GET_FIELD:
+                case RegOps.INVOKE_VIRTUAL:
+                case RegOps.INVOKE_DIRECT: {
+                    return receivers.get(sources.get(0).getReg());
+                }
+                case RegOps.PUT_FIELD: {
+                    return receivers.get(sources.get(1).getReg());
+                }
+            }
+
+            break;
+        }
+
+        return false;
+    }
+
+    /**
+     * Inlines the calls in a method.
+     *
+     * @param method {@code non-null;} the method, in rop form
+     * @param caller {@code non-null;} the method's reference
+     * @return {@code non-null;} the method with calls inlined, which
+     * is {@code method} itself if there were none to inline
+     */
+    /*package*/ RopMethod inline(RopMethod method, CstMethodRef caller) {
+        BasicBlockList blocks = method.getBlocks();
+        int sz = blocks.size();
+        Site[] sites = new Site[sz];
+        int siteCount = 0;
+        int labelBase = blocks.getMaxLabel();
+        int regBase = blocks.getRegCount();
+        // Index of each block whose move-result the inlined code sets.
+        BitSet resultBlocks = new BitSet(sz);
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            Callee callee = getCallee(block.getLastInsn(), caller);
+
+            if (callee == null) {
+                continue;
+            }
+
+            int next = block.getPrimarySuccessor();
+            Insn moveResult = blocks.labelToBlock(next).getFirstInsn();
+
+            if (moveResult.getOpcode().getOpcode() == RegOps.MOVE_RESULT) {
+                resultBlocks.set(blocks.indexOfLabel(next));
+            } else {
+                moveResult = null;
+            }
+
+            BasicBlockList calleeBlocks = callee.body.getBlocks();
+
+            sites[i] = new Site(callee, labelBase, regBase,
+                    (moveResult == null) ? null : moveResult.getResult());
+            siteCount++;
+            labelBase += calleeBlocks.getMaxLabel();
+            regBase += calleeBlocks.getRegCount();
+        }
+
+        if (siteCount == 0) {
+            return method;
+        }
+
+        ArrayList<BasicBlock> newBlocks = new ArrayList<BasicBlock>();
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+
+            if (resultBlocks.get(i)) {
+                // The inlined code sets the result register itself.
+                InsnList insns = block.getInsns();
+                int insnsSz = insns.size();
+                InsnList newInsns = new InsnList(insnsSz - 1);
+
+                for (int j = 1; j < insnsSz; j++) {
+                    newInsns.set(j - 1, insns.get(j));
+                }
+
+                newInsns.setImmutable();
+                block = new BasicBlock(block.getLabel(), newInsns,
+                        block.getSuccessors(), block.getPrimarySuccessor());
+            }
+
+            if (sites[i] == null) {
+                newBlocks.add(block);
+            } else {
+                addInlined(block, sites[i], newBlocks);
+            }
+        }
+
+        return new RopMethod(makeBlockList(newBlocks, method.getFirstLabel()),
+                method.getFirstLabel());
+    }
+
+    /**
+     * Gets the method that an insn calls, if it is one to inline there.
+     *
+     * @param insn {@code non-null;} the insn
+     * @param caller {@code non-null;} the method the insn is in
+     * @return {@code null-ok;} the method called, or {@code null} if
+     * the insn isn't a call to inline
+     */
+    private Callee getCallee(Insn insn, CstMethodRef caller) {
+        int opcode = insn.getOpcode().getOpcode();
+
+        if ((opcode != RegOps.INVOKE_STATIC && opcode != RegOps.INVOKE_DIRECT
+                        && opcode != RegOps.INVOKE_VIRTUAL)
+                || !(((CstInsn) insn).getConstant() instanceof CstMethodRef)) {
+            return null;
+        }
+
+        CstMethodRef ref = (CstMethodRef) ((CstInsn) insn).getConstant();
+        Callee callee = callees.get(ref);
+
+        if (callee == null || ref.equals(caller)) {
+            return null;
+        }
+
+        int accessFlags = callee.accessFlags;
+        boolean isStatic = AccessFlags.isStatic(accessFlags);
+        boolean isPrivate = AccessFlags.isPrivate(accessFlags);
+
+        // Any mismatch would make the call fail at run time.
+        if (isStatic != (opcode == RegOps.INVOKE_STATIC)
+                || (isPrivate != (opcode == RegOps.INVOKE_DIRECT)
+                        && !isStatic)) {
+            return null;
+        }
+
+        CstType from = caller.getDefiningClass();
+
+        if (from.equals(callee.definer)) {
+            return callee;
+        }
+
+        if (isStatic && !isInitializationFree(callee.definer)) {
+            return null;
+        }
+
+        BasicBlockList blocks = callee.body.getBlocks();
+        int sz = blocks.size();
+
+        for (int i = 0; i < sz; i++) {
+            InsnList insns = blocks.get(i).getInsns();
+            int insnsSz = insns.size();
+
+            for (int j = 0; j < insnsSz; j++) {
+                Insn one = insns.get(j);
+
+                /*
+                 * A super call means the superclass of the callee's
+                 * class, so it can't be moved to any other class.
+                 */
+                if (one.getOpcode().getOpcode() == RegOps.INVOKE_SUPER) {
+                    return null;
+                }
+
+                if (one instanceof CstInsn
+                        && !isAccessible(from, ((CstInsn) one).getConstant())) {
+                    return null;
+                }
+            }
+        }
+
+        return callee;
+    }
+
+    /**
+     * Returns whether a class and all its superclasses are known to
+     * have no static initializer.
+     *
+     * @param type {@code non-null;} the class
+     * @return {@code true} if there are no static initializers to run
+     */
+    private boolean isInitializationFree(CstType type) {
+        while (!type.equals(CstType.OBJECT)) {
+            ClassInfo info = classes.get(type);
+
+            if (info == null || info.hasClassInit
+                    || info.superclass == null) {
+                return false;
+            }
+
+            type = info.superclass;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether a constant that inlined code refers to is
+     * accessible from a class.
+     *
+     * @param from {@code non-null;} the class
+     * @param cst {@code non-null;} the constant
+     * @return {@code true} if it's known to be accessible
+     */
+    private boolean isAccessible(CstType from, Constant cst) {
+        if (cst instanceof CstType) {
+            return isAccessible(from, ((CstType) cst).getClassType());
+        }
+
+        if (!(cst instanceof CstMemberRef)) {
+            return true;
+        }
+
+        CstMemberRef member = (CstMemberRef) cst;
+        CstType definer = member.getDefiningClass();
+
+        if (!isAccessible(from, definer.getClassType())) {
+            return false;
+        }
+
+        if (cst instanceof CstInterfaceMethodRef) {
+            // Interface methods are all public.
+            return true;
+        }
+
+        Integer flags = memberFlags.get(member);
+
+        if (flags == null || AccessFlags.isPrivate(flags)) {
+            // An inherited member, or one that's just inaccessible.
+            return false;
+        }
+
+        return AccessFlags.isPublic(flags)
+            || inSamePackage(from.getClassType(), definer.getClassType());
+    }
+
+    /**
+     * Returns whether a type is known to be accessible from a class.
+     *
+     * @param from {@code non-null;} the class
+     * @param type {@code non-null;} the type
+     * @return {@code true} if it's known to be accessible
+     */
+    private boolean isAccessible(CstType from, Type type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+
+        if (type.isPrimitive()) {
+            return true;
+        }
+
+        ClassInfo info = classes.get(CstType.intern(type));
+
+        return (info != null)
+            && (AccessFlags.isPublic(info.accessFlags)
+                    || inSamePackage(from.getClassType(), type));
+    }
+
+    /**
+     * Returns whether two classes are in the same package.
+     *
+     * @param type1 {@code non-null;} one class
+     * @param type2 {@code non-null;} the other
+     * @return {@code true} if they are in the same package
+     */
+    private static boolean inSamePackage(Type type1, Type type2) {
+        String name1 = type1.getClassName();
+        String name2 = type2.getClassName();
+        int slash = name1.lastIndexOf('/');
+
+        return (slash == name2.lastIndexOf('/'))
+            && name1.regionMatches(0, name2, 0, slash + 1);
+    }
+
+    /**
+     * Adds the blocks that replace a block ending with a call to
+     * inline.
+     *
+     * @param block {@code non-null;} the block ending with the call
+     * @param site {@code non-null;} what's inlined there
+     * @param newBlocks {@code non-null;} the list to add the blocks to
+     */
+    private void addInlined(BasicBlock block, Site site,
+            ArrayList<BasicBlock> newBlocks) {
+        Callee callee = site.callee;
+        InsnList insns = block.getInsns();
+        int insnsSz = insns.size();
+        Insn call = insns.getLast();
+        SourcePosition pos = call.getPosition();
+        TypeList catches = call.getCatches();
+        IntList handlers = block.getSuccessors().mutableCopy();
+        int next = block.getPrimarySuccessor();
+        int entry = callee.body.getFirstLabel() + site.labelBase;
+        InsnList newInsns = new InsnList(insnsSz);
+        IntList successors;
+
+        // Catch handlers come first in the successors, in catch order.
+        handlers.shrink(catches.size());
+        handlers.setImmutable();
+
+        for (int i = 0; i < insnsSz - 1; i++) {
+            newInsns.set(i, insns.get(i));
+        }
+
+        if (callee.isStatic() || callee.dereferencesReceiverFirst) {
+            newInsns.set(insnsSz - 1, new PlainInsn(Rops.GOTO, pos, null,
+                            RegisterSpecList.EMPTY));
+            successors = IntList.makeImmutable(entry);
+        } else {
+            RegisterSpecList receiver =
+                RegisterSpecList.make(call.getSources().get(0));
+
+            newInsns.set(insnsSz - 1,
+                    new ThrowingCstInsn(Rops.opInvokeVirtual(
+                                    GET_CLASS_METHOD.getPrototype(false)),
+                            pos, receiver, catches, GET_CLASS_METHOD));
+            successors = handlers.mutableCopy();
+            successors.add(entry);
+            successors.setImmutable();
+        }
+
+        newInsns.setImmutable();
+        newBlocks.add(new BasicBlock(block.getLabel(), newInsns, successors,
+                        entry));
+
+        BasicBlockList blocks = callee.body.getBlocks();
+        int sz = blocks.size();
+        InsnCopier copier =
+            new InsnCopier(call.getSources(), site, pos, catches);
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock one = blocks.get(i);
+            ArrayList<Insn> copied = copier.copy(one.getInsns());
+            Insn last = copied.get(copied.size() - 1);
+            int primary = one.getPrimarySuccessor();
+
+            if (last.getOpcode().getOpcode() == RegOps.GOTO
+                    && primary < 0) {
+                // It was a return.
+                successors = IntList.makeImmutable(next);
+                primary = next;
+            } else {
+                IntList oldSuccessors = one.getSuccessors();
+                int succSz = oldSuccessors.size();
+
+                successors = last.canThrow()
+                    ? handlers.mutableCopy() : new IntList(succSz);
+
+                for (int j = 0; j < succSz; j++) {
+                    successors.add(oldSuccessors.get(j) + site.labelBase);
+                }
+
+                successors.setImmutable();
+
+                if (primary >= 0) {
+                    primary += site.labelBase;
+                }
+            }
+
+            InsnList newCopied = new InsnList(copied.size());
+
+            for (int j = 0; j < copied.size(); j++) {
+                newCopied.set(j, copied.get(j));
+            }
+
+            newCopied.setImmutable();
+            newBlocks.add(new BasicBlock(one.getLabel() + site.labelBase,
+                            newCopied, successors, primary));
+        }
+    }
+
+    /**
+     * Makes the block list of a method, leaving out the blocks that
+     * are no longer reachable, such as catch handlers only the inlined
+     * calls led to.
+     *
+     * @param blocks {@code non-null;} the blocks
+     * @param firstLabel the label of the first block
+     * @return {@code non-null;} the block list
+     */
+    private static BasicBlockList makeBlockList(ArrayList<BasicBlock> blocks,
+            int firstLabel) {
+        HashMap<Integer, BasicBlock> byLabel =
+            new HashMap<Integer, BasicBlock>();
+
+        for (BasicBlock block : blocks) {
+            byLabel.put(block.getLabel(), block);
+        }
+
+        BitSet reached = new BitSet();
+        IntList worklist = new IntList();
+
+        reached.set(firstLabel);
+        worklist.add(firstLabel);
+
+        while (worklist.size() > 0) {
+            IntList successors = byLabel.get(worklist.pop()).getSuccessors();
+            int sz = successors.size();
+
+            for (int i = 0; i < sz; i++) {
+                int label = successors.get(i);
+
+                if (!reached.get(label)) {
+                    reached.set(label);
+                    worklist.add(label);
+                }
+            }
+        }
+
+        BasicBlockList result = new BasicBlockList(reached.cardinality());
+        int at = 0;
+
+        for (BasicBlock block : blocks) {
+            if (reached.get(block.getLabel())) {
+                result.set(at, block);
+                at++;
+            }
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Copier of the insns of an inlined method into a call site.
+     * Registers are moved past those of the caller, parameters come
+     * from the arguments of the call, a return sets the result of the
+     * call and goes to the code after it, and throwing insns get the
+     * catch handlers of the call.
+     */
+    private static class InsnCopier implements Insn.Visitor {
+        /** {@code non-null;} the arguments of the call */
+        private final RegisterSpecList args;
+
+        /** {@code non-null;} the call site */
+        private final Site site;
+
+        /** {@code non-null;} the position of the call */
+        private final SourcePosition pos;
+
+        /** {@code non-null;} the catches of the call */
+        private final TypeList catches;
+
+        /** {@code null-ok;} the insns copied so far */
+        private ArrayList<Insn> result;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param args {@code non-null;} the arguments of the call
+         * @param site {@code non-null;} the call site
+         * @param pos {@code non-null;} the position of the call
+         * @param catches {@code non-null;} the catches of the call
+         */
+        public InsnCopier(RegisterSpecList args, Site site,
+                SourcePosition pos, TypeList catches) {
+            this.args = args;
+            this.site = site;
+            this.pos = pos;
+            this.catches = catches;
+        }
+
+        /**
+         * Copies the insns of one block.
+         *
+         * @param insns {@code non-null;} the insns
+         * @return {@code non-null;} the copies
+         */
+        public ArrayList<Insn> copy(InsnList insns) {
+            result = new ArrayList<Insn>(insns.size());
+            insns.forEach(this);
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public void visitPlainInsn(PlainInsn insn) {
+            switch (insn.getOpcode().getOpcode()) {
+                case RegOps.MARK_LOCAL: {
+                    return;
+                }
+                case RegOps.RETURN: {
+                    RegisterSpecList sources = insn.getSources();
+
+                    if (site.result != null && sources.size() != 0) {
+                        result.add(new PlainInsn(Rops.opMove(site.result),
+                                        pos, site.result,
+                                        map(sources.get(0))));
+                    }
+
+                    result.add(new PlainInsn(Rops.GOTO, pos, null,
+                                    RegisterSpecList.EMPTY));
+                    return;
+                }
+            }
+
+            result.add(new PlainInsn(insn.getOpcode(), pos,
+                            map(insn.getResult()), map(insn.getSources())));
+        }
+
+        /** {@inheritDoc} */
+        public void visitPlainCstInsn(PlainCstInsn insn) {
+            if (insn.getOpcode().getOpcode() == RegOps.MOVE_PARAM) {
+                int at = ((CstInteger) insn.getConstant()).getValue();
+                RegisterSpec dest = map(insn.getResult());
+                int sz = args.size();
+
+                for (int i = 0; i < sz; i++) {
+                    RegisterSpec arg = args.get(i);
+
+                    if (at == 0) {
+                        result.add(new PlainInsn(Rops.opMove(dest), pos,
+                                        dest, RegisterSpecList.make(arg)));
+                        return;
+                    }
+
+                    at -= arg.getCategory();
+                }
+
+                throw new RuntimeException("shouldn't happen");
+            }
+
+            result.add(new PlainCstInsn(insn.getOpcode(), pos,
+                            map(insn.getResult()), map(insn.getSources()),
+                            insn.getConstant()));
+        }
+
+        /** {@inheritDoc} */
+        public void visitSwitchInsn(SwitchInsn insn) {
+            result.add(new SwitchInsn(insn.getOpcode(), pos,
+                            map(insn.getResult()), map(insn.getSources()),
+                            insn.getCases()));
+        }
+
+        /** {@inheritDoc} */
+        public void visitThrowingCstInsn(ThrowingCstInsn insn) {
+            result.add(new ThrowingCstInsn(insn.getOpcode(), pos,
+                            map(insn.getSources()), catches,
+                            insn.getConstant()));
+        }
+
+        /** {@inheritDoc} */
+        public void visitThrowingInsn(ThrowingInsn insn) {
+            result.add(new ThrowingInsn(insn.getOpcode(), pos,
+                            map(insn.getSources()), catches));
+        }
+
+        /** {@inheritDoc} */
+        public void visitFillArrayDataInsn(FillArrayDataInsn insn) {
+            result.add(new FillArrayDataInsn(insn.getOpcode(), pos,
+                            map(insn.getSources()), insn.getInitValues(),
+                            insn.getConstant()));
+        }
+
+        /**
+         * Moves a register of the inlined method past those of the
+         * caller, dropping any local variable.
+         *
+         * @param spec {@code null-ok;} the register
+         * @return {@code null-ok;} the moved register
+         */
+        private RegisterSpec map(RegisterSpec spec) {
+            if (spec == null) {
+                return null;
+            }
+
+            return RegisterSpec.make(spec.getReg() + site.regBase,
+                    spec.getTypeBearer());
+        }
+
+        /**
+         * Moves a list of registers of the inlined method past those of
+         * the caller.
+         *
+         * @param specs {@code non-null;} the registers
+         * @return {@code non-null;} the moved registers
+         */
+        private RegisterSpecList map(RegisterSpecList specs) {
+            int sz = specs.size();
+            RegisterSpecList result = new RegisterSpecList(sz);
+
+            for (int i = 0; i < sz; i++) {
+                result.set(i, map(specs.get(i)));
+            }
+
+            result.setImmutable();
+            return result;
+        }
+    }
+
+    /**
+     * What's known about an added class.
+     */
+    private static class ClassInfo {
+        /** the access flags of the class */
+        public final int accessFlags;
+
+        /** {@code null-ok;} the superclass */
+        public final CstType superclass;
+
+        /** whether the class has a static initializer */
+        public final boolean hasClassInit;
+
+        public ClassInfo(int accessFlags, CstType superclass,
+                boolean hasClassInit) {
+            this.accessFlags = accessFlags;
+            this.superclass = superclass;
+            this.hasClassInit = hasClassInit;
+        }
+    }
+
+    /**
+     * A method that may be inlined.
+     */
+    private static class Callee {
+        /** {@code non-null;} the class declaring the method */
+        public final CstType definer;
+
+        /** the access flags of the method */
+        public final int accessFlags;
+
+        /** {@code non-null;} the method body, in rop form */
+        public final RopMethod body;
+
+        /**
+         * whether the method is an instance method which dereferences
+         * its receiver first; see {@link #dereferencesReceiverFirst}
+         */
+        public final boolean dereferencesReceiverFirst;
+
+        public Callee(CstType definer, int accessFlags, RopMethod body,
+                boolean dereferencesReceiverFirst) {
+            this.definer = definer;
+            this.accessFlags = accessFlags;
+            this.body = body;
+            this.dereferencesReceiverFirst = dereferencesReceiverFirst;
+        }
+
+        /**
+         * Returns whether the method is static.
+         *
+         * @return {@code true} if it's static
+         */
+        public boolean isStatic() {
+            return AccessFlags.isStatic(accessFlags);
+        }
+    }
+
+    /**
+     * A call to inline.
+     */
+    private static class Site {
+        /** {@code non-null;} the method called */
+        public final Callee callee;
+
+        /** what to add to the labels of the method's blocks */
+        public final int labelBase;
+
+        /** what to add to the registers of the method */
+        public final int regBase;
+
+        /**
+         * {@code null-ok;} the register the call's result is moved to,
+         * if any
+         */
+        public final RegisterSpec result;
+
+        public Site(Callee callee, int labelBase, int regBase,
+                RegisterSpec result) {
+            this.callee = callee;
+            this.labelBase = labelBase;
+            this.regBase = regBase;
+            this.result = result;
+        }
+    }
+}
@@ -27,7 +27,9 @@ import java.util.EnumSet;
 import java.util.HashSet;
 
 /**
- * Settings for optimization of code.
+ * Settings for optimization of code. Instances are immutable once
+ * constructed, so a single instance may be shared by all the threads
+ * of one translation run.
  */
 public class OptimizerOptions {
     /**
@@ -35,37 +37,24 @@ public class OptimizerOptions {
      * should be optimized. {@code null} if this constraint was not
      * specified on the command line
      */
-    private static HashSet<String> optimizeList;
+    private final HashSet<String> optimizeList;
 
     /**
      * {@code null-ok;} hash set of class name + method names that should NOT
      * be optimized.  null if this constraint was not specified on the
      * command line
      */
-    private static HashSet<String> dontOptimizeList;
-
-    /** true if the above lists have been loaded */
-    private static boolean optimizeListsLoaded;
-
-    /**
-     * This class is uninstantiable.
-     */
-    private OptimizerOptions() {
-        // This space intentionally left blank.
-    }
+    private final HashSet<String> dontOptimizeList;
 
     /**
-     * Loads the optimize/don't optimize lists from files.
+     * Constructs an instance, loading the optimize/don't optimize lists
+     * from files.
      * 
-     * @param optimizeListFile Pathname
-     * @param dontOptimizeListFile Pathname
+     * @param optimizeListFile {@code null-ok;} pathname
+     * @param dontOptimizeListFile {@code null-ok;} pathname
      */
-    public static void loadOptimizeLists(String optimizeListFile,
+    public OptimizerOptions(String optimizeListFile,
             String dontOptimizeListFile) {
-        if (optimizeListsLoaded) {
-            return;
-        }
-
         if (optimizeListFile != null && dontOptimizeListFile != null) {
             /*
              * We shouldn't get this far. The condition should have
@@ -75,15 +64,10 @@ public class OptimizerOptions {
                     + " are mutually exclusive.");
         }
 
-        if (optimizeListFile != null) {
-            optimizeList = loadStringsFromFile(optimizeListFile);
-        }
-
-        if (dontOptimizeListFile != null) {
-            dontOptimizeList = loadStringsFromFile(dontOptimizeListFile);
-        }
-
-        optimizeListsLoaded = true;
+        optimizeList = (optimizeListFile == null) ? null :
+            loadStringsFromFile(optimizeListFile);
+        dontOptimizeList = (dontOptimizeListFile == null) ? null :
+            loadStringsFromFile(dontOptimizeListFile);
     }
 
     /**
@@ -164,7 +148,7 @@ public class OptimizerOptions {
      * @param canonicalMethodName name of method being considered
      * @return true if it should be optimized
      */
-    public static boolean shouldOptimize(String canonicalMethodName) {
+    public boolean shouldOptimize(String canonicalMethodName) {
         // Optimize only what's in the optimize list.
         if (optimizeList != null) {
             return optimizeList.contains(canonicalMethodName);
@@ -50,6 +50,12 @@ public final class Dops {
     /** {@code non-null;} array containing all the standard instances */
     private static final Dop[] DOPS;
 
+    /**
+     * {@code non-null;} the standard instances of each opcode family, in
+     * opcode order, indexed by family; used by {@link #getOrNull}
+     */
+    private static final Dop[][] FAMILIES;
+
     /**
      * pseudo-opcode used for nonstandard formatted "instructions" 
      * (which are mostly not actually instructions, though they do
@@ -1160,6 +1166,8 @@ public final class Dops {
         set(SHR_INT_LIT8);
         set(USHR_INT_LIT8);
         // END(dops-init)
+
+        FAMILIES = makeFamilies();
     }
 
     /**
@@ -1204,14 +1212,15 @@ public final class Dops {
             throw new NullPointerException("format == null");
         }
 
-        int len = DOPS.length;
+        int idx = family - DalvOps.MIN_VALUE;
 
-        // TODO: Linear search is bad.
-        for (int i = 0; i < len; i++) {
-            Dop dop = DOPS[i];
-            if ((dop != null) &&
-                (dop.getFamily() == family) &&
-                (dop.getFormat() == format)) {
+        if ((idx < 0) || (idx >= FAMILIES.length)) {
+            return null;
+        }
+
+        // Families have at most a handful of members.
+        for (Dop dop : FAMILIES[idx]) {
+            if (dop.getFormat() == format) {
                 return dop;
             }
         }
@@ -1219,6 +1228,41 @@ public final class Dops {
         return null;
     }
 
+    /**
+     * Helper for the static initializer, which groups the standard
+     * instances by family.
+     * 
+     * @return {@code non-null;} the instances of each family, indexed
+     * by family
+     */
+    private static Dop[][] makeFamilies() {
+        int len = DOPS.length;
+        int[] counts = new int[len];
+
+        for (Dop dop : DOPS) {
+            if (dop != null) {
+                counts[dop.getFamily() - DalvOps.MIN_VALUE]++;
+            }
+        }
+
+        Dop[][] result = new Dop[len][];
+
+        for (int i = 0; i < len; i++) {
+            result[i] = new Dop[counts[i]];
+            counts[i] = 0;
+        }
+
+        for (Dop dop : DOPS) {
+            if (dop != null) {
+                int idx = dop.getFamily() - DalvOps.MIN_VALUE;
+                result[idx][counts[idx]] = dop;
+                counts[idx]++;
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Puts the given opcode into the table of all ops.
      * 
@@ -29,6 +29,7 @@ import com.android.dx.rop.type.Type;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 /**
  * Processor for instruction lists, which takes a "first cut" of
@@ -622,14 +623,133 @@ public final class OutputFinisher {
      * addresses to each instruction, possibly rewriting branches to
      * fix ones that wouldn't otherwise be able to reach their
      * targets.
+     *
+     * <p>Fixing a branch only ever makes it bigger, and so only ever
+     * makes other branches longer, so the fixes needed don't depend on
+     * the order branches are looked at in. Branches are fixed in place,
+     * with the {@code goto}s added after reversed conditionals kept to
+     * the side until the end, so nothing has to be inserted into the
+     * list. The only instructions whose size can change along the way
+     * are the branches and the spacers, whose size depends on their
+     * address, so only those are visited; the distances between them
+     * stay the same. A pass looks at each branch with the addresses as
+     * they are at that point, so all but forward branches over later
+     * fixes are settled by the first pass, and further passes are only
+     * needed for those.</p>
      */
     private void assignAddressesAndFixBranches() {
-        for (;;) {
-            assignAddresses();
-            if (!fixBranches()) {
-                break;
+        int size = insns.size();
+        int[] addresses = new int[size + 1];
+        IdentityHashMap<CodeAddress, Integer> indices =
+            new IdentityHashMap<CodeAddress, Integer>();
+        int count = 0;
+        int address = 0;
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            insn.setAddress(address);
+            addresses[i] = address;
+            address += insn.codeSize();
+
+            if (insn instanceof CodeAddress) {
+                indices.put((CodeAddress) insn, i);
+            } else if ((insn instanceof TargetInsn)
+                    || (insn instanceof OddSpacer)) {
+                count++;
+            }
+        }
+
+        addresses[size] = address;
+
+        /*
+         * For each visited instruction, in order: its index, the
+         * distance to it from the end of the one before it, and its
+         * end address.
+         */
+        int[] slots = new int[count];
+        int[] gaps = new int[count];
+        int[] ends = new int[count];
+
+        /*
+         * For each branch: the visited instruction before its target,
+         * or -1 if there is none, and the distance to the target from
+         * the end of that instruction (or from the start).
+         */
+        int[] bases = new int[count];
+        int[] dists = new int[count];
+
+        int[] lastVisited = new int[size];
+        int at = 0;
+
+        for (int i = 0; i < size; i++) {
+            DalvInsn insn = insns.get(i);
+
+            lastVisited[i] = at - 1;
+
+            if ((insn instanceof TargetInsn) || (insn instanceof OddSpacer)) {
+                slots[at] = i;
+                gaps[at] = addresses[i] - ((at == 0) ? 0 : ends[at - 1]);
+                ends[at] = addresses[i + 1];
+                at++;
             }
         }
+
+        for (int k = 0; k < count; k++) {
+            DalvInsn insn = insns.get(slots[k]);
+
+            if (!(insn instanceof TargetInsn)) {
+                continue;
+            }
+
+            Integer target = indices.get(((TargetInsn) insn).getTarget());
+
+            if (target == null) {
+                throw new IllegalStateException("unknown branch target");
+            }
+
+            int base = lastVisited[target];
+
+            bases[k] = base;
+            dists[k] = addresses[target] - ((base < 0) ? 0 : ends[base]);
+        }
+
+        TargetInsn[] gotos = new TargetInsn[count];
+
+        while (fixBranches(slots, gaps, ends, bases, dists, gotos)) {
+            // Keep going until a pass has nothing left to fix.
+        }
+
+        int gotoCount = 0;
+
+        for (TargetInsn gotoInsn : gotos) {
+            if (gotoInsn != null) {
+                gotoCount++;
+            }
+        }
+
+        if (gotoCount != 0) {
+            ArrayList<DalvInsn> result =
+                new ArrayList<DalvInsn>(size + gotoCount);
+
+            at = 0;
+
+            for (int i = 0; i < size; i++) {
+                result.add(insns.get(i));
+
+                if ((at < count) && (slots[at] == i)) {
+                    if (gotos[at] != null) {
+                        result.add(gotos[at]);
+                    }
+
+                    at++;
+                }
+            }
+
+            insns = result;
+        }
+
+        assignAddresses();
     }
 
     /**
@@ -648,90 +768,166 @@ public final class OutputFinisher {
     }
 
     /**
-     * Helper for {@link #assignAddressesAndFixBranches}, which checks
-     * the branch target size requirement of each branch instruction
-     * to make sure it fits. For instructions that don't fit, this
-     * rewrites them to use a {@code goto} of some sort. In the
-     * case of a conditional branch that doesn't fit, the sense of the
-     * test is reversed in order to branch around a {@code goto}
-     * to the original target.
-     * 
+     * Helper for {@link #assignAddressesAndFixBranches}, which makes a
+     * pass over the branches and spacers, assigning addresses and
+     * checking the branch target size requirement of each branch
+     * instruction to make sure it fits. For instructions that don't
+     * fit, this rewrites them to use a {@code goto} of some sort. In
+     * the case of a conditional branch that doesn't fit, the sense of
+     * the test is reversed in order to branch around a {@code goto}
+     * to the original target; the {@code goto} is kept in
+     * {@code gotos} rather than added to the list.
+     *
+     * <p>The end addresses of the instructions not yet reached in a
+     * pass are the ones from the previous pass, moved along by however
+     * much the instructions before them have grown in this one.</p>
+     *
+     * @param slots {@code non-null;} the index of each instruction to
+     * visit
+     * @param gaps {@code non-null;} the distance to each one from the
+     * end of the one before it
+     * @param ends {@code non-null;} the end address of each one, as of
+     * the previous pass; updated
+     * @param bases {@code non-null;} for each branch, the visited
+     * instruction before its target, or {@code -1} if there is none
+     * @param dists {@code non-null;} for each branch, the distance to
+     * its target from the end of that instruction
+     * @param gotos {@code non-null;} the {@code goto} following each
+     * branch that had to be reversed, if any; updated
      * @return whether any branches had to be fixed
      */
-    private boolean fixBranches() {
-        int size = insns.size();
+    private boolean fixBranches(int[] slots, int[] gaps, int[] ends,
+            int[] bases, int[] dists, TargetInsn[] gotos) {
+        int count = slots.length;
+        int end = 0;
         boolean anyFixed = false;
 
-        for (int i = 0; i < size; i++) {
+        for (int k = 0; k < count; k++) {
+            int i = slots[k];
+            int address = end + gaps[k];
             DalvInsn insn = insns.get(i);
+
+            insn.setAddress(address);
+
             if (!(insn instanceof TargetInsn)) {
-                // This loop only needs to inspect TargetInsns.
+                end = address + insn.codeSize();
+                ends[k] = end;
                 continue;
             }
 
-            Dop dop = insn.getOpcode();
-            InsnFormat format = dop.getFormat();
-            TargetInsn target = (TargetInsn) insn;
+            TargetInsn branch = (TargetInsn) insn;
+            int base = bases[k];
 
-            if (format.branchFits(target)) {
-                continue;
-            }
+            for (;;) {
+                TargetInsn gotoInsn = gotos[k];
+                int nextAddress = address + branch.codeSize();
 
-            if (dop.getFamily() == DalvOps.GOTO) {
-                // It is a goto; widen it if possible.
-                InsnFormat newFormat = findFormatForInsn(insn, format);
-                if (newFormat == null) {
-                    /*
-                     * The branch is already maximally large. This should
-                     * only be possible if a method somehow manages to have
-                     * more than 2^31 code units.
-                     */
-                    throw new UnsupportedOperationException("method too long");
+                if (gotoInsn != null) {
+                    gotoInsn.setAddress(nextAddress);
+                    nextAddress += gotoInsn.codeSize();
                 }
-                dop = Dops.getOrNull(dop.getFamily(), newFormat);
-                insn = insn.withOpcode(dop);
-                insns.set(i, insn);
-            } else {
+
                 /*
-                 * It is a conditional: Reverse its sense, and arrange for
-                 * it to branch around an absolute goto to the original
-                 * branch target.
-                 * 
-                 * Note: An invariant of the list being processed is
-                 * that every TargetInsn is followed by a CodeAddress.
-                 * Hence, it is always safe to get the next element
-                 * after a TargetInsn and cast it to CodeAddress, as
-                 * is happening a few lines down.
-                 * 
-                 * Also note: Size gets incremented by one here, as we
-                 * have -- in the net -- added one additional element
-                 * to the list, so we increment i to match. The added
-                 * and changed elements will be inspected by a repeat
-                 * call to this method after this invocation returns.
+                 * What the target follows has either been given its
+                 * address in this pass already, or has moved by as much
+                 * as the end of this instruction has since the previous
+                 * pass.
                  */
-                CodeAddress newTarget;
-                try {
-                    newTarget = (CodeAddress) insns.get(i + 1);
-                } catch (IndexOutOfBoundsException ex) {
-                    // The TargetInsn / CodeAddress invariant was violated.
-                    throw new IllegalStateException(
-                            "unpaired TargetInsn (dangling)");
-                } catch (ClassCastException ex) {
-                    // The TargetInsn / CodeAddress invariant was violated.
-                    throw new IllegalStateException("unpaired TargetInsn");
+                int targetAddress = dists[k];
+
+                if (base == k) {
+                    targetAddress += nextAddress;
+                } else if (base > k) {
+                    targetAddress += ends[base] + nextAddress - ends[k];
+                } else if (base >= 0) {
+                    targetAddress += ends[base];
                 }
-                TargetInsn gotoInsn =
-                    new TargetInsn(Dops.GOTO, target.getPosition(),
-                            RegisterSpecList.EMPTY, target.getTarget());
-                insns.set(i, gotoInsn);
-                insns.add(i, target.withNewTargetAndReversed(newTarget));
-                size++;
-                i++;
+
+                TargetInsn checked = (gotoInsn != null) ? gotoInsn : branch;
+                checked.getTarget().setAddress(targetAddress);
+
+                /*
+                 * A reversed conditional branches around its goto,
+                 * which always fits, so only the goto needs checking.
+                 */
+                if (gotoInsn != null) {
+                    if (gotoInsn.getOpcode().getFormat().branchFits(
+                                gotoInsn)) {
+                        end = nextAddress;
+                        break;
+                    }
+
+                    gotos[k] = widenGoto(gotoInsn);
+                } else if (branch.getOpcode().getFormat().branchFits(
+                                   branch)) {
+                    end = nextAddress;
+                    break;
+                } else if (branch.getOpcode().getFamily() == DalvOps.GOTO) {
+                    branch = widenGoto(branch);
+                    branch.setAddress(address);
+                    insns.set(i, branch);
+                } else {
+                    /*
+                     * It is a conditional: Reverse its sense, and arrange
+                     * for it to branch around an absolute goto to the
+                     * original branch target.
+                     * 
+                     * Note: An invariant of the list being processed is
+                     * that every TargetInsn is followed by a CodeAddress.
+                     * Hence, it is always safe to get the next element
+                     * after a TargetInsn and cast it to CodeAddress, as
+                     * is happening a few lines down.
+                     */
+                    CodeAddress newTarget;
+                    try {
+                        newTarget = (CodeAddress) insns.get(i + 1);
+                    } catch (IndexOutOfBoundsException ex) {
+                        // The TargetInsn / CodeAddress invariant was violated.
+                        throw new IllegalStateException(
+                                "unpaired TargetInsn (dangling)");
+                    } catch (ClassCastException ex) {
+                        // The TargetInsn / CodeAddress invariant was violated.
+                        throw new IllegalStateException(
+                                "unpaired TargetInsn");
+                    }
+                    gotos[k] =
+                        new TargetInsn(Dops.GOTO, branch.getPosition(),
+                                RegisterSpecList.EMPTY, branch.getTarget());
+                    branch = branch.withNewTargetAndReversed(newTarget);
+                    branch.setAddress(address);
+                    insns.set(i, branch);
+                }
+
+                anyFixed = true;
             }
 
-            anyFixed = true;
+            ends[k] = end;
         }
 
         return anyFixed;
     }
+
+    /**
+     * Helper for {@link #fixBranches}, which widens a {@code goto}
+     * whose target is out of reach.
+     *
+     * @param insn {@code non-null;} the {@code goto}
+     * @return {@code non-null;} a wider {@code goto} to the same target
+     */
+    private TargetInsn widenGoto(TargetInsn insn) {
+        Dop dop = insn.getOpcode();
+        InsnFormat newFormat = findFormatForInsn(insn, dop.getFormat());
+
+        if (newFormat == null) {
+            /*
+             * The branch is already maximally large. This should
+             * only be possible if a method somehow manages to have
+             * more than 2^31 code units.
+             */
+            throw new UnsupportedOperationException("method too long");
+        }
+
+        dop = Dops.getOrNull(dop.getFamily(), newFormat);
+        return (TargetInsn) insn.withOpcode(dop);
+    }
 }
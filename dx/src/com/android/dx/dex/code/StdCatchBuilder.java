@@ -34,19 +34,27 @@ import java.util.HashSet;
 public final class StdCatchBuilder implements CatchBuilder {
     /** the maximum range of a single catch handler, in code units */
     private static final int MAX_CATCH_RANGE = 65535;
-    
-    /** {@code non-null;} method to build the list for */
-    private final RopMethod method;
 
-    /** {@code non-null;} block output order */
-    private final int[] order;
+    /**
+     * {@code non-null;} the blocks that can throw, in output order,
+     * reduced to what {@link #build} needs; a run of blocks without
+     * catches is represented by a single {@code null}, and a method
+     * without any catches has no elements at all
+     */
+    private final ThrowingBlock[] blocks;
 
-    /** {@code non-null;} address objects for each block */
-    private final BlockAddresses addresses;
-    
     /**
-     * Constructs an instance. It merely holds onto its parameters for
-     * a subsequent call to {@link #build}.
+     * {@code null-ok;} the catch types handled anywhere in the method,
+     * or {@code null} if there are none
+     */
+    private final HashSet<Type> catchTypes;
+
+    /**
+     * Constructs an instance. Only what {@link #build} will need is
+     * kept, rather than the method itself, since the table can't be
+     * built until the addresses are known. That way the method can be
+     * collected as soon as it has been translated, instead of staying
+     * in memory until the file is written.
      * 
      * @param method {@code non-null;} method to build the list for
      * @param order {@code non-null;} block output order
@@ -66,69 +74,17 @@ public final class StdCatchBuilder implements CatchBuilder {
             throw new NullPointerException("addresses == null");
         }
 
-        this.method = method;
-        this.order = order;
-        this.addresses = addresses;
-    }
-
-    /** {@inheritDoc} */
-    public CatchTable build() {
-        return build(method, order, addresses);
-    }
-
-    /** {@inheritDoc} */
-    public boolean hasAnyCatches() {
-        BasicBlockList blocks = method.getBlocks();
-        int size = blocks.size();
-        
-        for (int i = 0; i < size; i++) {
-            BasicBlock block = blocks.get(i);
-            TypeList catches = block.getLastInsn().getCatches();
-            if (catches.size() != 0) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-    
-    /** {@inheritDoc} */
-    public HashSet<Type> getCatchTypes() {
-        HashSet<Type> result = new HashSet<Type>(20);
         BasicBlockList blocks = method.getBlocks();
-        int size = blocks.size();
-        
-        for (int i = 0; i < size; i++) {
-            BasicBlock block = blocks.get(i);
-            TypeList catches = block.getLastInsn().getCatches();
-            int catchSize = catches.size();
+        this.catchTypes = getCatchTypes(blocks);
 
-            for (int j = 0; j < catchSize; j++) {
-                result.add(catches.getType(j));
-            }
+        if (catchTypes == null) {
+            this.blocks = new ThrowingBlock[0];
+            return;
         }
 
-        return result;
-    }
-
-    /**
-     * Builds and returns the catch table for a given method.
-     * 
-     * @param method {@code non-null;} method to build the list for
-     * @param order {@code non-null;} block output order
-     * @param addresses {@code non-null;} address objects for each block
-     * @return {@code non-null;} the constructed table
-     */
-    public static CatchTable build(RopMethod method, int[] order,
-            BlockAddresses addresses) {
         int len = order.length;
-        BasicBlockList blocks = method.getBlocks();
-        ArrayList<CatchTable.Entry> resultList =
-            new ArrayList<CatchTable.Entry>(len);
-        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
-        BasicBlock currentStartBlock = null;
-        BasicBlock currentEndBlock = null;
-        
+        ArrayList<ThrowingBlock> throwing = new ArrayList<ThrowingBlock>(len);
+
         for (int i = 0; i < len; i++) {
             BasicBlock block = blocks.labelToBlock(order[i]);
 
@@ -141,7 +97,35 @@ public final class StdCatchBuilder implements CatchBuilder {
                 continue;
             }
 
-            CatchHandlerList handlers = handlersFor(block, addresses);
+            if (block.getLastInsn().getCatches().size() != 0) {
+                throwing.add(new ThrowingBlock(block, addresses));
+            } else if ((throwing.size() != 0)
+                    && (throwing.get(throwing.size() - 1) != null)) {
+                /*
+                 * A block without catches only matters in that it
+                 * ends the catch range before it, so one stands for
+                 * any number of them in a row.
+                 */
+                throwing.add(null);
+            }
+        }
+
+        this.blocks = throwing.toArray(new ThrowingBlock[throwing.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public CatchTable build() {
+        int len = blocks.length;
+        ArrayList<CatchTable.Entry> resultList =
+            new ArrayList<CatchTable.Entry>(len);
+        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
+        ThrowingBlock currentStartBlock = null;
+        ThrowingBlock currentEndBlock = null;
+        
+        for (int i = 0; i < len; i++) {
+            ThrowingBlock block = blocks[i];
+            CatchHandlerList handlers = (block == null) ?
+                CatchHandlerList.EMPTY : block.makeHandlers();
 
             if (currentHandlers.size() == 0) {
                 // This is the start of a new catch range.
@@ -152,7 +136,7 @@ public final class StdCatchBuilder implements CatchBuilder {
             }
 
             if (currentHandlers.equals(handlers)
-                    && rangeIsValid(currentStartBlock, block, addresses)) {
+                    && rangeIsValid(currentStartBlock, block)) {
                 /*
                  * The block we are looking at now has the same handlers
                  * as the block that started the currently open catch
@@ -171,7 +155,7 @@ public final class StdCatchBuilder implements CatchBuilder {
             if (currentHandlers.size() != 0) {
                 CatchTable.Entry entry =
                     makeEntry(currentStartBlock, currentEndBlock,
-                            currentHandlers, addresses);
+                            currentHandlers);
                 resultList.add(entry);
             }
 
@@ -184,7 +168,7 @@ public final class StdCatchBuilder implements CatchBuilder {
             // Emit an entry for the range that was left hanging.
             CatchTable.Entry entry =
                 makeEntry(currentStartBlock, currentEndBlock,
-                        currentHandlers, addresses);
+                        currentHandlers);
             resultList.add(entry);
         }
         
@@ -206,59 +190,58 @@ public final class StdCatchBuilder implements CatchBuilder {
         return result;
     }
 
+    /** {@inheritDoc} */
+    public boolean hasAnyCatches() {
+        return catchTypes != null;
+    }
+    
+    /** {@inheritDoc} */
+    public HashSet<Type> getCatchTypes() {
+        if (catchTypes == null) {
+            return new HashSet<Type>(20);
+        }
+
+        return new HashSet<Type>(catchTypes);
+    }
+
     /**
-     * Makes the {@link CatchHandlerList} for the given basic block.
+     * Builds and returns the catch table for a given method.
      * 
-     * @param block {@code non-null;} block to get entries for
+     * @param method {@code non-null;} method to build the list for
+     * @param order {@code non-null;} block output order
      * @param addresses {@code non-null;} address objects for each block
-     * @return {@code non-null;} array of entries
+     * @return {@code non-null;} the constructed table
      */
-    private static CatchHandlerList handlersFor(BasicBlock block,
+    public static CatchTable build(RopMethod method, int[] order,
             BlockAddresses addresses) {
-        IntList successors = block.getSuccessors();
-        int succSize = successors.size();
-        int primary = block.getPrimarySuccessor();
-        TypeList catches = block.getLastInsn().getCatches();
-        int catchSize = catches.size();
-
-        if (catchSize == 0) {
-            return CatchHandlerList.EMPTY;
-        }
-
-        if (((primary == -1) && (succSize != catchSize))
-                || ((primary != -1) &&
-                        ((succSize != (catchSize + 1))
-                                || (primary != successors.get(catchSize))))) {
-            /*
-             * Blocks that throw are supposed to list their primary
-             * successor -- if any -- last in the successors list, but
-             * that constraint appears to be violated here.
-             */
-            throw new RuntimeException(
-                    "shouldn't happen: weird successors list");
-        }
+        return new StdCatchBuilder(method, order, addresses).build();
+    }
 
-        /*
-         * Reduce the effective catchSize if we spot a catch-all that
-         * isn't at the end.
-         */
-        for (int i = 0; i < catchSize; i++) {
-            Type type = catches.getType(i);
-            if (type.equals(Type.OBJECT)) {
-                catchSize = i + 1;
-                break;
-            }
-        }
+    /**
+     * Helper for the constructor, which gets the set of catch types
+     * handled by any of the given blocks.
+     *
+     * @param blocks {@code non-null;} the blocks
+     * @return {@code null-ok;} the set of catch types, or {@code null}
+     * if there are none
+     */
+    private static HashSet<Type> getCatchTypes(BasicBlockList blocks) {
+        HashSet<Type> result = null;
+        int size = blocks.size();
         
-        CatchHandlerList result = new CatchHandlerList(catchSize);
+        for (int i = 0; i < size; i++) {
+            BasicBlock block = blocks.get(i);
+            TypeList catches = block.getLastInsn().getCatches();
+            int catchSize = catches.size();
 
-        for (int i = 0; i < catchSize; i++) {
-            CstType oneType = new CstType(catches.getType(i));
-            CodeAddress oneHandler = addresses.getStart(successors.get(i));
-            result.set(i, oneType, oneHandler.getAddress());
+            for (int j = 0; j < catchSize; j++) {
+                if (result == null) {
+                    result = new HashSet<Type>(20);
+                }
+                result.add(catches.getType(j));
+            }
         }
 
-        result.setImmutable();
         return result;
     }
 
@@ -269,19 +252,17 @@ public final class StdCatchBuilder implements CatchBuilder {
      * @param start {@code non-null;} the start block for the range (inclusive)
      * @param end {@code non-null;} the start block for the range (also inclusive)
      * @param handlers {@code non-null;} the handlers for the range
-     * @param addresses {@code non-null;} address objects for each block
      */
-    private static CatchTable.Entry makeEntry(BasicBlock start,
-            BasicBlock end, CatchHandlerList handlers,
-            BlockAddresses addresses) {
+    private static CatchTable.Entry makeEntry(ThrowingBlock start,
+            ThrowingBlock end, CatchHandlerList handlers) {
         /*
          * We start at the *last* instruction of the start block, since
          * that's the instruction that can throw...
          */
-        CodeAddress startAddress = addresses.getLast(start);
+        CodeAddress startAddress = start.last;
 
         // ...And we end *after* the last instruction of the end block.
-        CodeAddress endAddress = addresses.getEnd(end);
+        CodeAddress endAddress = end.end;
 
         return new CatchTable.Entry(startAddress.getAddress(),
                 endAddress.getAddress(), handlers);
@@ -294,11 +275,10 @@ public final class StdCatchBuilder implements CatchBuilder {
      * 
      * @param start {@code non-null;} the start block for the range (inclusive)
      * @param end {@code non-null;} the start block for the range (also inclusive)
-     * @param addresses {@code non-null;} address objects for each block
      * @return {@code true} if the range is valid as a catch range
      */
-    private static boolean rangeIsValid(BasicBlock start, BasicBlock end,
-            BlockAddresses addresses) {
+    private static boolean rangeIsValid(ThrowingBlock start,
+            ThrowingBlock end) {
         if (start == null) {
             throw new NullPointerException("start == null");
         }
@@ -308,9 +288,98 @@ public final class StdCatchBuilder implements CatchBuilder {
         }
         
         // See above about selection of instructions.
-        int startAddress = addresses.getLast(start).getAddress();
-        int endAddress = addresses.getEnd(end).getAddress();
+        int startAddress = start.last.getAddress();
+        int endAddress = end.end.getAddress();
 
         return (endAddress - startAddress) <= MAX_CATCH_RANGE;
     }
+
+    /**
+     * What {@link #build} needs to know about a block that can throw and
+     * has catches: the addresses around its last instruction and those
+     * of its handlers.
+     */
+    private static final class ThrowingBlock {
+        /** {@code non-null;} address of the block's last instruction */
+        private final CodeAddress last;
+
+        /** {@code non-null;} address just past the end of the block */
+        private final CodeAddress end;
+
+        /**
+         * {@code non-null;} the types caught, up to and including any
+         * catch-all
+         */
+        private final CstType[] types;
+
+        /** {@code non-null;} the handler for each of {@link #types} */
+        private final CodeAddress[] handlers;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param block {@code non-null;} the block
+         * @param addresses {@code non-null;} address objects for each block
+         */
+        public ThrowingBlock(BasicBlock block, BlockAddresses addresses) {
+            IntList successors = block.getSuccessors();
+            int succSize = successors.size();
+            int primary = block.getPrimarySuccessor();
+            TypeList catches = block.getLastInsn().getCatches();
+            int catchSize = catches.size();
+
+            if (((primary == -1) && (succSize != catchSize))
+                    || ((primary != -1) &&
+                            ((succSize != (catchSize + 1))
+                                    || (primary != successors.get(catchSize))))) {
+                /*
+                 * Blocks that throw are supposed to list their primary
+                 * successor -- if any -- last in the successors list, but
+                 * that constraint appears to be violated here.
+                 */
+                throw new RuntimeException(
+                        "shouldn't happen: weird successors list");
+            }
+
+            /*
+             * Reduce the effective catchSize if we spot a catch-all that
+             * isn't at the end.
+             */
+            for (int i = 0; i < catchSize; i++) {
+                Type type = catches.getType(i);
+                if (type.equals(Type.OBJECT)) {
+                    catchSize = i + 1;
+                    break;
+                }
+            }
+
+            this.last = addresses.getLast(block);
+            this.end = addresses.getEnd(block);
+            this.types = new CstType[catchSize];
+            this.handlers = new CodeAddress[catchSize];
+
+            for (int i = 0; i < catchSize; i++) {
+                types[i] = new CstType(catches.getType(i));
+                handlers[i] = addresses.getStart(successors.get(i));
+            }
+        }
+
+        /**
+         * Makes the {@link CatchHandlerList} for this block. This may
+         * only be called once the addresses are known.
+         *
+         * @return {@code non-null;} the handlers
+         */
+        public CatchHandlerList makeHandlers() {
+            int catchSize = types.length;
+            CatchHandlerList result = new CatchHandlerList(catchSize);
+
+            for (int i = 0; i < catchSize; i++) {
+                result.set(i, types[i], handlers[i].getAddress());
+            }
+
+            result.setImmutable();
+            return result;
+        }
+    }
 }
@@ -0,0 +1,1319 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.direct;
+
+import com.android.dx.dex.code.ArrayData;
+import com.android.dx.dex.code.CatchBuilder;
+import com.android.dx.dex.code.CatchHandlerList;
+import com.android.dx.dex.code.CatchTable;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.CstInsn;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsn;
+import com.android.dx.dex.code.DalvOps;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.InsnFormat;
+import com.android.dx.dex.code.LocalEnd;
+import com.android.dx.dex.code.LocalSnapshot;
+import com.android.dx.dex.code.LocalStart;
+import com.android.dx.dex.code.OddSpacer;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.SwitchData;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.dex.code.ZeroSizeInsn;
+import com.android.dx.dex.code.form.Form10t;
+import com.android.dx.dex.code.form.Form10x;
+import com.android.dx.dex.code.form.Form11n;
+import com.android.dx.dex.code.form.Form11x;
+import com.android.dx.dex.code.form.Form12x;
+import com.android.dx.dex.code.form.Form20t;
+import com.android.dx.dex.code.form.Form21c;
+import com.android.dx.dex.code.form.Form21h;
+import com.android.dx.dex.code.form.Form21s;
+import com.android.dx.dex.code.form.Form21t;
+import com.android.dx.dex.code.form.Form22b;
+import com.android.dx.dex.code.form.Form22c;
+import com.android.dx.dex.code.form.Form22s;
+import com.android.dx.dex.code.form.Form22t;
+import com.android.dx.dex.code.form.Form22x;
+import com.android.dx.dex.code.form.Form23x;
+import com.android.dx.dex.code.form.Form30t;
+import com.android.dx.dex.code.form.Form31c;
+import com.android.dx.dex.code.form.Form31i;
+import com.android.dx.dex.code.form.Form31t;
+import com.android.dx.dex.code.form.Form32x;
+import com.android.dx.dex.code.form.Form35c;
+import com.android.dx.dex.code.form.Form3rc;
+import com.android.dx.dex.code.form.Form51l;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RegisterSpecSet;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+
+import static com.android.dx.dex.file.DebugInfoConstants.*;
+
+/**
+ * Converter of a {@code code_item} back into the {@link DalvCode}
+ * that would produce it. The instructions are handed to an {@link
+ * OutputFinisher} in their original order and formats, so that
+ * writing the result out again reproduces the original code, except
+ * where the constant pool indices of the file being written require
+ * a wider format.
+ */
+final class CodeImporter {
+    /** {@code non-null;} the name of the {@code this} local */
+    private static final CstUtf8 THIS_NAME = new CstUtf8("this");
+
+    /** {@code non-null;} file being read */
+    private final DirectDexFile file;
+
+    /** {@code non-null;} method whose code this is */
+    private final CstMethodRef ref;
+
+    /** whether the method is {@code static} */
+    private final boolean isStatic;
+
+    /** {@code >= 0;} offset of the {@code code_item} */
+    private final int offset;
+
+    /** number of registers used by the code */
+    private int registersSize;
+
+    /** number of words of incoming arguments */
+    private int insSize;
+
+    /** {@code non-null;} the code units, each in the range {@code 0..65535} */
+    private int[] units;
+
+    /**
+     * {@code non-null;} the addresses at which instructions (including
+     * payloads) start, in order
+     */
+    private IntList starts;
+
+    /**
+     * {@code non-null;} for each address, whether an instruction (or
+     * payload) starts there
+     */
+    private boolean[] isStart;
+
+    /**
+     * {@code non-null;} for each address, the code address pseudo-instruction
+     * that refers to it, if any
+     */
+    private CodeAddress[] addresses;
+
+    /**
+     * {@code non-null;} for each payload address, the data instruction
+     * built for it while decoding its user
+     */
+    private DalvInsn[] payloads;
+
+    /**
+     * {@code non-null;} the source position of each instruction, by
+     * address
+     */
+    private SourcePosition[] positions;
+
+    /**
+     * {@code non-null;} for each instruction address, the lines of any
+     * earlier position entries at that same address, or {@code null}
+     * if there are none
+     */
+    private IntList[] extraLines;
+
+    /**
+     * {@code non-null;} the local variable pseudo-instructions, in
+     * address order
+     */
+    private ArrayList<DalvInsn> locals;
+
+    /** {@code non-null;} address of each element of {@link #locals} */
+    private IntList localAddresses;
+
+    /**
+     * Converts the {@code code_item} at the given offset.
+     *
+     * @param file {@code non-null;} file being read
+     * @param ref {@code non-null;} method whose code this is
+     * @param isStatic whether the method is {@code static}
+     * @param offset {@code > 0;} offset of the {@code code_item}
+     * @return {@code non-null;} the converted code
+     */
+    public static DalvCode importCode(DirectDexFile file, CstMethodRef ref,
+            boolean isStatic, int offset) {
+        CodeImporter importer = new CodeImporter(file, ref, isStatic, offset);
+
+        try {
+            return importer.importCode();
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while importing code for " + ref.toHuman() +
+                    " at " + Hex.u4(offset));
+        }
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file {@code non-null;} file being read
+     * @param ref {@code non-null;} method whose code this is
+     * @param isStatic whether the method is {@code static}
+     * @param offset {@code > 0;} offset of the {@code code_item}
+     */
+    private CodeImporter(DirectDexFile file, CstMethodRef ref,
+            boolean isStatic, int offset) {
+        this.file = file;
+        this.ref = ref;
+        this.isStatic = isStatic;
+        this.offset = offset;
+    }
+
+    /**
+     * Does the conversion.
+     *
+     * @return {@code non-null;} the converted code
+     */
+    private DalvCode importCode() {
+        DexInput in = file.inputAt(offset);
+
+        registersSize = in.readUnsignedShort();
+        insSize = in.readUnsignedShort();
+        in.readUnsignedShort(); // outs_size is recomputed on output.
+        int triesSize = in.readUnsignedShort();
+        int debugInfoOff = in.readInt();
+        int insnsSize = in.readInt();
+
+        units = new int[insnsSize];
+        for (int i = 0; i < insnsSize; i++) {
+            units[i] = in.readUnsignedShort();
+        }
+
+        addresses = new CodeAddress[insnsSize + 1];
+        payloads = new DalvInsn[insnsSize];
+
+        findStarts();
+
+        ImportedCatchBuilder catches = new ImportedCatchBuilder();
+        if (triesSize != 0) {
+            if ((insnsSize & 1) != 0) {
+                in.readUnsignedShort(); // padding
+            }
+            readTries(in, triesSize, catches);
+        }
+
+        locals = new ArrayList<DalvInsn>();
+        localAddresses = new IntList();
+        positions = new SourcePosition[insnsSize];
+        extraLines = new IntList[insnsSize];
+        if (debugInfoOff != 0) {
+            readDebugInfo(debugInfoOff);
+        } else {
+            setPositions(new IntList(), new IntList());
+        }
+
+        return new DalvCode(PositionList.LINES, makeFinisher(), catches);
+    }
+
+    /**
+     * Finds the address of each instruction and payload.
+     */
+    private void findStarts() {
+        int sz = units.length;
+        int at = 0;
+
+        starts = new IntList(sz / 2);
+        isStart = new boolean[sz];
+
+        while (at < sz) {
+            int unit = units[at];
+            int length;
+
+            starts.add(at);
+            isStart[at] = true;
+
+            if ((unit & 0xff) == DalvOps.NOP && (unit >> 8) != 0) {
+                length = payloadSize(at);
+            } else {
+                length = opcodeAt(at).getFormat().codeSize();
+            }
+
+            at += length;
+        }
+
+        if (at != sz) {
+            throw new ExceptionWithContext("instruction runs past end of " +
+                    "code at " + Hex.u2(starts.get(starts.size() - 1)));
+        }
+
+        starts.setImmutable();
+    }
+
+    /**
+     * Gets the opcode of the instruction at the given address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return {@code non-null;} the opcode
+     */
+    private Dop opcodeAt(int at) {
+        int opcode = units[at] & 0xff;
+
+        try {
+            return Dops.get(opcode);
+        } catch (IllegalArgumentException ex) {
+            throw new ExceptionWithContext("bad opcode " + Hex.u1(opcode) +
+                    " at " + Hex.u2(at));
+        }
+    }
+
+    /**
+     * Gets the size of the payload at the given address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return {@code > 0;} the size in code units
+     */
+    private int payloadSize(int at) {
+        switch (units[at] >> 8) {
+            case 1: {
+                return 4 + (unitAt(at + 1) * 2);
+            }
+            case 2: {
+                return 2 + (unitAt(at + 1) * 4);
+            }
+            case 3: {
+                long bytes = (long) unitAt(at + 1) * intAt(at + 2);
+                return (int) (4 + ((bytes + 1) / 2));
+            }
+        }
+
+        throw new ExceptionWithContext("bad payload " + Hex.u2(units[at]) +
+                " at " + Hex.u2(at));
+    }
+
+    /**
+     * Gets the code unit at the given address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return {@code 0..65535;} the code unit
+     */
+    private int unitAt(int at) {
+        if (at >= units.length) {
+            throw new ExceptionWithContext("instruction runs past end of " +
+                    "code");
+        }
+
+        return units[at];
+    }
+
+    /**
+     * Gets the 32-bit value stored in the two code units at the given
+     * address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return the value
+     */
+    private int intAt(int at) {
+        return unitAt(at) | (unitAt(at + 1) << 16);
+    }
+
+    /**
+     * Gets the code address pseudo-instruction for the given address,
+     * creating it if necessary.
+     *
+     * @param at {@code >= 0;} the address
+     * @return {@code non-null;} the pseudo-instruction
+     */
+    private CodeAddress addressAt(int at) {
+        if ((at < 0) || (at >= addresses.length)) {
+            throw new ExceptionWithContext("bad code address " + Hex.u4(at));
+        }
+
+        CodeAddress result = addresses[at];
+
+        if (result == null) {
+            result = new CodeAddress(SourcePosition.NO_INFO);
+            addresses[at] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the {@code try_item}s and their handlers.
+     *
+     * @param in {@code non-null;} input, positioned at the first
+     * {@code try_item}
+     * @param triesSize {@code > 0;} number of {@code try_item}s
+     * @param catches {@code non-null;} where to put the results
+     */
+    private void readTries(DexInput in, int triesSize,
+            ImportedCatchBuilder catches) {
+        int handlersOff = in.getCursor() + (triesSize * 8);
+
+        for (int i = 0; i < triesSize; i++) {
+            int start = in.readInt();
+            int end = start + in.readUnsignedShort();
+            int handlerOff = in.readUnsignedShort();
+            DexInput handlerIn = file.inputAt(handlersOff + handlerOff);
+            int size = handlerIn.readSignedLeb128();
+            boolean catchesAll = (size <= 0);
+
+            if (catchesAll) {
+                size = -size;
+            }
+
+            int listSize = catchesAll ? size + 1 : size;
+            CstType[] types = new CstType[listSize];
+            CodeAddress[] handlers = new CodeAddress[listSize];
+
+            for (int j = 0; j < size; j++) {
+                types[j] = file.getType(handlerIn.readUnsignedLeb128());
+                handlers[j] = addressAt(handlerIn.readUnsignedLeb128());
+            }
+
+            if (catchesAll) {
+                types[size] = CstType.OBJECT;
+                handlers[size] = addressAt(handlerIn.readUnsignedLeb128());
+            }
+
+            catches.add(addressAt(start), addressAt(end), types, handlers);
+        }
+    }
+
+    /**
+     * Reads the debug info, filling in {@link #positions} and
+     * {@link #locals}.
+     *
+     * @param debugInfoOff {@code > 0;} offset of the {@code debug_info_item}
+     */
+    private void readDebugInfo(int debugInfoOff) {
+        DexInput in = file.inputAt(debugInfoOff);
+        IntList positionAddresses = new IntList();
+        IntList positionLines = new IntList();
+        RegisterSpec[] lastLocal = new RegisterSpec[registersSize];
+        int line = in.readUnsignedLeb128();
+        int paramCount = in.readUnsignedLeb128();
+        StdTypeList paramTypes = ref.getPrototype().getParameterTypes();
+        int paramBase = registersSize - insSize;
+        int reg = paramBase;
+        RegisterSpec thisLocal = null;
+        boolean anyLocals = false;
+        ArrayList<RegisterSpec> params = new ArrayList<RegisterSpec>();
+        IntList paramAddresses = new IntList();
+        BitSet touched = new BitSet(registersSize);
+
+        if (paramCount != paramTypes.size()) {
+            throw new ExceptionWithContext("debug info parameter count " +
+                    "mismatch");
+        }
+
+        /*
+         * The name of "this" is implicit, so it can't be told from
+         * the encoded form whether the original had it. It is
+         * tentatively tracked here, and only added to the output
+         * below if there turns out to be any other local info, or
+         * the file has the name at all; a translated method with
+         * local info has it, even when nothing refers to it.
+         */
+        if (!isStatic) {
+            thisLocal = RegisterSpec.make(reg,
+                    ref.getDefiningClass().getClassType(),
+                    LocalItem.make(THIS_NAME, null));
+            lastLocal[reg] = thisLocal;
+            params.add(thisLocal);
+            paramAddresses.add(0);
+            reg++;
+        }
+
+        for (int i = 0; i < paramCount; i++) {
+            Type type = paramTypes.get(i);
+            int nameIndex = in.readUnsignedLeb128() - 1;
+
+            if (nameIndex >= 0) {
+                RegisterSpec local = RegisterSpec.make(reg, type,
+                        LocalItem.make(file.getString(nameIndex), null));
+                lastLocal[reg] = local;
+                params.add(local);
+                paramAddresses.add(0);
+                anyLocals = true;
+            }
+
+            reg += type.getCategory();
+        }
+
+        int address = 0;
+
+        /*
+         * The encoder only advances the address to where something
+         * happens, and the one thing that happens without anything
+         * being written is the start of a parameter at an address
+         * other than zero. So an advance that isn't followed by
+         * anything at its address is where a parameter started; it
+         * doesn't matter which, as long as nothing has happened to
+         * its register yet. And if "this" is started in another
+         * register before anything happens to its own, it can't have
+         * been there at all, or the move would have ended it. So the
+         * parameters are only started once the end is reached.
+         */
+        boolean advancedOnly = false;
+        boolean thisMoved = false;
+        boolean inHeader = true;
+
+        for (;;) {
+            int opcode = in.readUnsignedByte();
+
+            switch (opcode) {
+                case DBG_END_SEQUENCE: {
+                    if (advancedOnly) {
+                        placeQuietParam(address, params, paramAddresses,
+                                touched);
+                    }
+                    boolean addThis = !isStatic && !thisMoved
+                        && (anyLocals || (positionAddresses.size() == 0)
+                                || file.hasString(THIS_NAME));
+                    // Going backwards keeps equal addresses in order.
+                    for (int i = params.size() - 1; i >= 0; i--) {
+                        if ((i != 0) || isStatic || addThis) {
+                            insertLocalStart(paramAddresses.get(i),
+                                    params.get(i));
+                        }
+                    }
+                    setPositions(positionAddresses, positionLines);
+                    return;
+                }
+                case DBG_ADVANCE_PC: {
+                    if (advancedOnly) {
+                        placeQuietParam(address, params, paramAddresses,
+                                touched);
+                    }
+                    address += in.readUnsignedLeb128();
+                    advancedOnly = true;
+                    break;
+                }
+                case DBG_ADVANCE_LINE: {
+                    line += in.readSignedLeb128();
+                    break;
+                }
+                case DBG_START_LOCAL:
+                case DBG_START_LOCAL_EXTENDED: {
+                    int localReg = in.readUnsignedLeb128();
+                    CstUtf8 name = readOptionalString(in);
+                    int typeIndex = in.readUnsignedLeb128() - 1;
+                    Type type = (typeIndex < 0) ? Type.OBJECT
+                        : file.getType(typeIndex).getClassType();
+                    CstUtf8 signature = (opcode == DBG_START_LOCAL) ? null
+                        : readOptionalString(in);
+                    RegisterSpec local = RegisterSpec.make(localReg, type,
+                            LocalItem.make(name, signature));
+                    anyLocals = true;
+                    advancedOnly = false;
+
+                    if ((thisLocal != null) && (localReg != paramBase)
+                            && !touched.get(paramBase)
+                            && local.matchesVariable(thisLocal)) {
+                        thisMoved = true;
+                    }
+
+                    if (inHeader
+                            && (checkRegister(localReg) >= paramBase)) {
+                        /*
+                         * A parameter with a signature is started
+                         * again right after the header, with the
+                         * signature. That includes "this", which is
+                         * still the implicit one.
+                         */
+                        if ((thisLocal != null) && (localReg == paramBase)) {
+                            thisLocal = local;
+                            params.set(0, local);
+                        } else {
+                            params.add(local);
+                            paramAddresses.add(0);
+                        }
+                        lastLocal[localReg] = local;
+                        break;
+                    }
+
+                    touched.set(localReg);
+
+                    startLocal(address, local, lastLocal);
+                    break;
+                }
+                case DBG_END_LOCAL: {
+                    int localReg = checkRegister(in.readUnsignedLeb128());
+                    RegisterSpec local = lastLocal[localReg];
+                    if (local != null) {
+                        locals.add(new LocalEnd(SourcePosition.NO_INFO,
+                                        local));
+                        localAddresses.add(address);
+                    }
+                    anyLocals = true;
+                    advancedOnly = false;
+                    touched.set(localReg);
+                    break;
+                }
+                case DBG_RESTART_LOCAL: {
+                    int localReg = checkRegister(in.readUnsignedLeb128());
+                    RegisterSpec local = lastLocal[localReg];
+                    if (local != null) {
+                        startLocal(address, local, lastLocal);
+                    }
+                    anyLocals = true;
+                    advancedOnly = false;
+                    touched.set(localReg);
+                    break;
+                }
+                case DBG_SET_PROLOGUE_END: {
+                    inHeader = false;
+                    break;
+                }
+                case DBG_SET_EPILOGUE_BEGIN: {
+                    break;
+                }
+                case DBG_SET_FILE: {
+                    in.readUnsignedLeb128();
+                    break;
+                }
+                default: {
+                    int adjusted = opcode - DBG_FIRST_SPECIAL;
+                    int deltaAddress = adjusted / DBG_LINE_RANGE;
+                    if (advancedOnly && (deltaAddress != 0)) {
+                        placeQuietParam(address, params, paramAddresses,
+                                touched);
+                    }
+                    line += DBG_LINE_BASE + (adjusted % DBG_LINE_RANGE);
+                    address += deltaAddress;
+                    advancedOnly = false;
+                    positionAddresses.add(address);
+                    positionLines.add(line);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper for {@link #readDebugInfo}, which places the start of
+     * the first parameter that can have started at the given address
+     * there, if any.
+     *
+     * @param address {@code > 0;} the address
+     * @param params {@code non-null;} the parameters, in register order
+     * @param paramAddresses {@code non-null;} where each parameter
+     * starts, updated by this method
+     * @param touched {@code non-null;} registers that have had any
+     * local info so far
+     */
+    private static void placeQuietParam(int address,
+            ArrayList<RegisterSpec> params, IntList paramAddresses,
+            BitSet touched) {
+        int sz = params.size();
+
+        for (int i = 0; i < sz; i++) {
+            if ((paramAddresses.get(i) == 0)
+                    && !touched.get(params.get(i).getReg())) {
+                paramAddresses.set(i, address);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads an optional (that is, biased by one) string index from
+     * debug info.
+     *
+     * @param in {@code non-null;} input to read from
+     * @return {@code null-ok;} the string, if any
+     */
+    private CstUtf8 readOptionalString(DexInput in) {
+        int index = in.readUnsignedLeb128() - 1;
+        return (index < 0) ? null : file.getString(index);
+    }
+
+    /**
+     * Checks that a register number from debug info is in range.
+     *
+     * @param reg the register number
+     * @return {@code reg}
+     */
+    private int checkRegister(int reg) {
+        if ((reg < 0) || (reg >= registersSize)) {
+            throw new ExceptionWithContext("bad register in debug info: " +
+                    reg);
+        }
+
+        return reg;
+    }
+
+    /**
+     * Adds a local variable start.
+     *
+     * @param address {@code >= 0;} where the local starts
+     * @param local {@code non-null;} the local
+     * @param lastLocal {@code non-null;} the most recent local for each
+     * register, updated by this method
+     */
+    private void startLocal(int address, RegisterSpec local,
+            RegisterSpec[] lastLocal) {
+        lastLocal[checkRegister(local.getReg())] = local;
+        locals.add(new LocalStart(SourcePosition.NO_INFO, local));
+        localAddresses.add(address);
+    }
+
+    /**
+     * Adds a local variable start ahead of any other local info at
+     * the same or a later address.
+     *
+     * @param address {@code >= 0;} where the local starts
+     * @param local {@code non-null;} the local
+     */
+    private void insertLocalStart(int address, RegisterSpec local) {
+        int sz = localAddresses.size();
+        int at = 0;
+
+        while ((at < sz) && (localAddresses.get(at) < address)) {
+            at++;
+        }
+
+        locals.add(at, new LocalStart(SourcePosition.NO_INFO, local));
+        localAddresses.insert(at, address);
+    }
+
+    /**
+     * Fills in {@link #positions} from the decoded position entries.
+     *
+     * @param positionAddresses {@code non-null;} address of each entry
+     * @param positionLines {@code non-null;} line of each entry
+     */
+    private void setPositions(IntList positionAddresses,
+            IntList positionLines) {
+        int sz = starts.size();
+        int entryCount = positionAddresses.size();
+        int entryAt = 0;
+        SourcePosition current = SourcePosition.NO_INFO;
+
+        for (int i = 0; i < sz; i++) {
+            int at = starts.get(i);
+            int line = -1;
+
+            while ((entryAt < entryCount) &&
+                    (positionAddresses.get(entryAt) <= at)) {
+                if ((line >= 0) && (positionAddresses.get(entryAt) == at)) {
+                    /*
+                     * An earlier entry at the same address came from a
+                     * zero-size instruction; remember it so that it
+                     * can be recreated.
+                     */
+                    if (extraLines[at] == null) {
+                        extraLines[at] = new IntList();
+                    }
+                    extraLines[at].add(line);
+                }
+                line = positionLines.get(entryAt);
+                entryAt++;
+            }
+
+            if ((line >= 0) && (line != current.getLine())) {
+                current = new SourcePosition(null, -1, line);
+            }
+
+            positions[at] = current;
+        }
+    }
+
+    /**
+     * Builds the instruction list.
+     *
+     * @return {@code non-null;} the instructions, ready for final processing
+     */
+    private OutputFinisher makeFinisher() {
+        int sz = starts.size();
+        DalvInsn[] insns = new DalvInsn[units.length];
+
+        /*
+         * Decode everything first, since that's what creates the
+         * code addresses and payloads.
+         */
+        for (int i = 0; i < sz; i++) {
+            int at = starts.get(i);
+            if (!isPayload(at)) {
+                insns[at] = decode(at);
+            }
+        }
+
+        OutputFinisher result =
+            new OutputFinisher(sz + locals.size() + 1, registersSize);
+        int localAt = 0;
+
+        if (locals.size() != 0) {
+            /*
+             * The local list builder sizes its register state from the
+             * first snapshot it sees, so lead with an empty one covering
+             * all the registers, just like translated code does.
+             */
+            result.add(new LocalSnapshot(SourcePosition.NO_INFO,
+                            new RegisterSpecSet(registersSize)));
+        }
+
+        for (int i = 0; i < sz; i++) {
+            int at = starts.get(i);
+
+            localAt = addLocals(result, localAt, at);
+
+            if (isPayload(at)) {
+                /*
+                 * Payloads need to be aligned, which is what the
+                 * spacer takes care of. If the original alignment
+                 * came from a nop, it has been turned into the spacer
+                 * already.
+                 */
+                DalvInsn payload = payloads[at];
+                if (payload == null) {
+                    throw new ExceptionWithContext("unused payload at " +
+                            Hex.u2(at));
+                }
+                if (!isSpacer(at - 1)) {
+                    result.add(new OddSpacer(positions[at]));
+                }
+                result.add(addressAt(at));
+                addPositionMarkers(result, at);
+                result.add(payload);
+                continue;
+            }
+
+            if (addresses[at] != null) {
+                result.add(addresses[at]);
+            }
+
+            addPositionMarkers(result, at);
+
+            if (isSpacer(at)) {
+                result.add(new OddSpacer(positions[at]));
+            } else {
+                result.add(insns[at]);
+            }
+        }
+
+        addLocals(result, localAt, Integer.MAX_VALUE);
+
+        if (addresses[units.length] != null) {
+            result.add(addresses[units.length]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the position markers recorded in {@link #extraLines} for the
+     * given address, if any.
+     *
+     * @param result {@code non-null;} where to add them
+     * @param at the address
+     */
+    private void addPositionMarkers(OutputFinisher result, int at) {
+        IntList lines = extraLines[at];
+
+        if (lines == null) {
+            return;
+        }
+
+        int sz = lines.size();
+        for (int i = 0; i < sz; i++) {
+            result.add(new PositionMarker(
+                               new SourcePosition(null, -1, lines.get(i))));
+        }
+    }
+
+    /**
+     * Adds the local variable pseudo-instructions up to and including
+     * the given address.
+     *
+     * @param result {@code non-null;} where to add them
+     * @param localAt {@code >= 0;} index of the first one not yet added
+     * @param at the address
+     * @return index of the first one not added
+     */
+    private int addLocals(OutputFinisher result, int localAt, int at) {
+        int sz = locals.size();
+
+        while ((localAt < sz) && (localAddresses.get(localAt) <= at)) {
+            result.add(locals.get(localAt));
+            localAt++;
+        }
+
+        return localAt;
+    }
+
+    /**
+     * Gets whether there is a payload at the given address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return whether there is a payload there
+     */
+    private boolean isPayload(int at) {
+        int unit = units[at];
+        return ((unit & 0xff) == DalvOps.NOP) && ((unit >> 8) != 0);
+    }
+
+    /**
+     * Gets whether the instruction at the given address is a {@code nop}
+     * that aligns an immediately following payload.
+     *
+     * @param at the address
+     * @return whether the instruction is such a {@code nop}
+     */
+    private boolean isSpacer(int at) {
+        return (at >= 0) && ((at & 1) != 0) && isStart[at] &&
+            (units[at] == DalvOps.NOP) && ((at + 1) < units.length) &&
+            isPayload(at + 1);
+    }
+
+    /**
+     * Makes a category-1 register spec, which is all that is needed
+     * to reproduce an instruction's register fields.
+     *
+     * @param reg {@code >= 0;} the register number
+     * @return {@code non-null;} the spec
+     */
+    private static RegisterSpec reg(int reg) {
+        return RegisterSpec.make(reg, Type.INT);
+    }
+
+    /**
+     * Decodes the (non-payload) instruction at the given address.
+     *
+     * @param at {@code >= 0;} the address
+     * @return {@code non-null;} the instruction
+     */
+    private DalvInsn decode(int at) {
+        Dop opcode = opcodeAt(at);
+        InsnFormat format = opcode.getFormat();
+        SourcePosition pos = positions[at];
+        int unit = units[at];
+        int aa = unit >> 8;
+        int a = aa & 0xf;
+        int b = aa >> 4;
+
+        if (format == Form10x.THE_ONE) {
+            return new SimpleInsn(opcode, pos, RegisterSpecList.EMPTY);
+        } else if (format == Form12x.THE_ONE) {
+            return new SimpleInsn(opcode, pos,
+                    RegisterSpecList.make(reg(a), reg(b)));
+        } else if (format == Form11n.THE_ONE) {
+            return new CstInsn(opcode, pos, RegisterSpecList.make(reg(a)),
+                    CstInteger.make((b << 28) >> 28));
+        } else if (format == Form11x.THE_ONE) {
+            return new SimpleInsn(opcode, pos, RegisterSpecList.make(reg(aa)));
+        } else if (format == Form10t.THE_ONE) {
+            return new TargetInsn(opcode, pos, RegisterSpecList.EMPTY,
+                    addressAt(at + (byte) aa));
+        } else if (format == Form20t.THE_ONE) {
+            return new TargetInsn(opcode, pos, RegisterSpecList.EMPTY,
+                    addressAt(at + (short) unitAt(at + 1)));
+        } else if (format == Form22x.THE_ONE) {
+            return new SimpleInsn(opcode, pos,
+                    RegisterSpecList.make(reg(aa), reg(unitAt(at + 1))));
+        } else if (format == Form21t.THE_ONE) {
+            return new TargetInsn(opcode, pos, RegisterSpecList.make(reg(aa)),
+                    addressAt(at + (short) unitAt(at + 1)));
+        } else if (format == Form21s.THE_ONE) {
+            return makeLiteral(opcode, pos, aa, (short) unitAt(at + 1));
+        } else if (format == Form21h.THE_ONE) {
+            long value = (short) unitAt(at + 1);
+            value <<= (opcode.getOpcode() == DalvOps.CONST_HIGH16) ? 16 : 48;
+            return makeLiteral(opcode, pos, aa, value);
+        } else if (format == Form21c.THE_ONE) {
+            return new CstInsn(opcode, pos, RegisterSpecList.make(reg(aa)),
+                    constantFor(opcode, unitAt(at + 1)));
+        } else if (format == Form23x.THE_ONE) {
+            int bbcc = unitAt(at + 1);
+            return new SimpleInsn(opcode, pos,
+                    RegisterSpecList.make(reg(aa), reg(bbcc & 0xff),
+                            reg(bbcc >> 8)));
+        } else if (format == Form22b.THE_ONE) {
+            int ccbb = unitAt(at + 1);
+            return new CstInsn(opcode, pos,
+                    RegisterSpecList.make(reg(aa), reg(ccbb & 0xff)),
+                    CstInteger.make((byte) (ccbb >> 8)));
+        } else if (format == Form22t.THE_ONE) {
+            return new TargetInsn(opcode, pos,
+                    RegisterSpecList.make(reg(a), reg(b)),
+                    addressAt(at + (short) unitAt(at + 1)));
+        } else if (format == Form22s.THE_ONE) {
+            return new CstInsn(opcode, pos,
+                    RegisterSpecList.make(reg(a), reg(b)),
+                    CstInteger.make((short) unitAt(at + 1)));
+        } else if (format == Form22c.THE_ONE) {
+            return new CstInsn(opcode, pos,
+                    RegisterSpecList.make(reg(a), reg(b)),
+                    constantFor(opcode, unitAt(at + 1)));
+        } else if (format == Form32x.THE_ONE) {
+            return new SimpleInsn(opcode, pos,
+                    RegisterSpecList.make(reg(unitAt(at + 1)),
+                            reg(unitAt(at + 2))));
+        } else if (format == Form30t.THE_ONE) {
+            return new TargetInsn(opcode, pos, RegisterSpecList.EMPTY,
+                    addressAt(at + intAt(at + 1)));
+        } else if (format == Form31i.THE_ONE) {
+            return makeLiteral(opcode, pos, aa, intAt(at + 1));
+        } else if (format == Form31t.THE_ONE) {
+            return decodePayloadUser(opcode, pos, at, aa, at + intAt(at + 1));
+        } else if (format == Form31c.THE_ONE) {
+            return new CstInsn(opcode, pos, RegisterSpecList.make(reg(aa)),
+                    constantFor(opcode, intAt(at + 1)));
+        } else if (format == Form35c.THE_ONE) {
+            int count = b;
+            int regs = unitAt(at + 2);
+            RegisterSpecList list = new RegisterSpecList(count);
+            for (int i = 0; i < count; i++) {
+                int r = (i == 4) ? a : ((regs >> (i * 4)) & 0xf);
+                list.set(i, reg(r));
+            }
+            list.setImmutable();
+            return new CstInsn(opcode, pos, list,
+                    constantFor(opcode, unitAt(at + 1)));
+        } else if (format == Form3rc.THE_ONE) {
+            int first = unitAt(at + 2);
+            RegisterSpecList list = new RegisterSpecList(aa);
+            for (int i = 0; i < aa; i++) {
+                list.set(i, reg(first + i));
+            }
+            list.setImmutable();
+            return new CstInsn(opcode, pos, list,
+                    constantFor(opcode, unitAt(at + 1)));
+        } else if (format == Form51l.THE_ONE) {
+            long value = (intAt(at + 1) & 0xffffffffL) |
+                (((long) intAt(at + 3)) << 32);
+            return makeLiteral(opcode, pos, aa, value);
+        }
+
+        throw new ExceptionWithContext("unsupported format for " +
+                opcode.getName() + " at " + Hex.u2(at));
+    }
+
+    /**
+     * Makes a literal-loading instruction. The destination register
+     * and the constant are made wide for the {@code const-wide} family.
+     *
+     * @param opcode {@code non-null;} the opcode
+     * @param pos {@code non-null;} source position
+     * @param dest {@code >= 0;} the destination register
+     * @param value the (sign-extended) literal value
+     * @return {@code non-null;} the instruction
+     */
+    private static DalvInsn makeLiteral(Dop opcode, SourcePosition pos,
+            int dest, long value) {
+        switch (opcode.getOpcode()) {
+            case DalvOps.CONST_WIDE_16:
+            case DalvOps.CONST_WIDE_32:
+            case DalvOps.CONST_WIDE:
+            case DalvOps.CONST_WIDE_HIGH16: {
+                return new CstInsn(opcode, pos,
+                        RegisterSpecList.make(RegisterSpec.make(dest,
+                                        Type.LONG)),
+                        CstLong.make(value));
+            }
+        }
+
+        return new CstInsn(opcode, pos, RegisterSpecList.make(reg(dest)),
+                CstInteger.make((int) value));
+    }
+
+    /**
+     * Gets the constant referred to by an instruction, based on the
+     * kind of index its opcode takes.
+     *
+     * @param opcode {@code non-null;} the opcode
+     * @param index {@code >= 0;} the index
+     * @return {@code non-null;} the constant
+     */
+    private Constant constantFor(Dop opcode, int index) {
+        int op = opcode.getOpcode();
+
+        if ((op == DalvOps.CONST_STRING) ||
+                (op == DalvOps.CONST_STRING_JUMBO)) {
+            return new CstString(file.getString(index));
+        } else if ((op >= DalvOps.IGET) && (op <= DalvOps.SPUT_SHORT)) {
+            return file.getFieldRef(index);
+        } else if (((op >= DalvOps.INVOKE_VIRTUAL) &&
+                           (op <= DalvOps.INVOKE_INTERFACE)) ||
+                ((op >= DalvOps.INVOKE_VIRTUAL_RANGE) &&
+                        (op <= DalvOps.INVOKE_INTERFACE_RANGE))) {
+            return file.getMethodRef(index);
+        }
+
+        return file.getType(index);
+    }
+
+    /**
+     * Decodes a switch or {@code fill-array-data} instruction, along
+     * with its payload.
+     *
+     * @param opcode {@code non-null;} the opcode
+     * @param pos {@code non-null;} source position
+     * @param at {@code >= 0;} address of the instruction
+     * @param reg {@code >= 0;} the register operand
+     * @param payloadAt address of the payload
+     * @return {@code non-null;} the instruction
+     */
+    private DalvInsn decodePayloadUser(Dop opcode, SourcePosition pos,
+            int at, int reg, int payloadAt) {
+        if ((payloadAt < 0) || (payloadAt >= units.length) ||
+                !isPayload(payloadAt) || (payloads[payloadAt] != null)) {
+            throw new ExceptionWithContext("bad payload reference at " +
+                    Hex.u2(at));
+        }
+
+        CodeAddress user = addressAt(at);
+        SourcePosition payloadPos = positions[payloadAt];
+        DalvInsn payload;
+
+        if (opcode.getOpcode() == DalvOps.FILL_ARRAY_DATA) {
+            payload = decodeArrayData(payloadPos, user, payloadAt);
+        } else {
+            SwitchData switchData =
+                decodeSwitchData(payloadPos, user, at, payloadAt);
+
+            /*
+             * SwitchData decides for itself whether it is packed;
+             * the opcode has to agree with it.
+             */
+            opcode = switchData.isPacked() ? Dops.PACKED_SWITCH
+                : Dops.SPARSE_SWITCH;
+            payload = switchData;
+        }
+
+        payloads[payloadAt] = payload;
+
+        return new TargetInsn(opcode, pos, RegisterSpecList.make(reg(reg)),
+                addressAt(payloadAt));
+    }
+
+    /**
+     * Decodes a switch payload.
+     *
+     * @param pos {@code non-null;} source position
+     * @param user {@code non-null;} address of the switch instruction
+     * @param at {@code >= 0;} address of the switch instruction
+     * @param payloadAt {@code >= 0;} address of the payload
+     * @return {@code non-null;} the payload
+     */
+    private SwitchData decodeSwitchData(SourcePosition pos,
+            CodeAddress user, int at, int payloadAt) {
+        boolean packed = (units[payloadAt] >> 8) == 1;
+        int size = unitAt(payloadAt + 1);
+        IntList cases = new IntList(size);
+        CodeAddress[] targets = new CodeAddress[size];
+
+        if (packed) {
+            int firstKey = intAt(payloadAt + 2);
+            for (int i = 0; i < size; i++) {
+                cases.add(firstKey + i);
+                targets[i] = addressAt(at + intAt(payloadAt + 4 + (i * 2)));
+            }
+        } else {
+            int targetsAt = payloadAt + 2 + (size * 2);
+            for (int i = 0; i < size; i++) {
+                cases.add(intAt(payloadAt + 2 + (i * 2)));
+                targets[i] = addressAt(at + intAt(targetsAt + (i * 2)));
+            }
+        }
+
+        cases.setImmutable();
+        return new SwitchData(pos, user, cases, targets);
+    }
+
+    /**
+     * Decodes a {@code fill-array-data} payload.
+     *
+     * @param pos {@code non-null;} source position
+     * @param user {@code non-null;} address of the instruction using it
+     * @param payloadAt {@code >= 0;} address of the payload
+     * @return {@code non-null;} the payload
+     */
+    private ArrayData decodeArrayData(SourcePosition pos, CodeAddress user,
+            int payloadAt) {
+        int width = unitAt(payloadAt + 1);
+        int size = intAt(payloadAt + 2);
+        int dataAt = (payloadAt + 4) * 2;
+        ArrayList<Constant> values = new ArrayList<Constant>(size);
+        CstType arrayType;
+
+        switch (width) {
+            case 1: arrayType = CstType.BYTE_ARRAY; break;
+            case 2: arrayType = CstType.SHORT_ARRAY; break;
+            case 4: arrayType = CstType.INT_ARRAY; break;
+            case 8: arrayType = CstType.LONG_ARRAY; break;
+            default: {
+                throw new ExceptionWithContext("bad array element width " +
+                        width);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            long value = 0;
+            int byteAt = dataAt + (i * width);
+
+            for (int j = 0; j < width; j++) {
+                int unit = unitAt((byteAt + j) >> 1);
+                int one = ((byteAt + j) & 1) == 0 ? (unit & 0xff) : (unit >> 8);
+                value |= ((long) one) << (j * 8);
+            }
+
+            if (width == 8) {
+                values.add(CstLong.make(value));
+            } else {
+                values.add(CstInteger.make((int) value));
+            }
+        }
+
+        return new ArrayData(pos, user, values, arrayType);
+    }
+
+    /**
+     * Catch builder for imported code, whose ranges and handlers are
+     * known up front as code addresses.
+     */
+    private static final class ImportedCatchBuilder implements CatchBuilder {
+        /** {@code non-null;} start of each range */
+        private final ArrayList<CodeAddress> starts =
+            new ArrayList<CodeAddress>();
+
+        /** {@code non-null;} (exclusive) end of each range */
+        private final ArrayList<CodeAddress> ends =
+            new ArrayList<CodeAddress>();
+
+        /** {@code non-null;} handled types for each range */
+        private final ArrayList<CstType[]> types = new ArrayList<CstType[]>();
+
+        /** {@code non-null;} handlers for each range */
+        private final ArrayList<CodeAddress[]> handlers =
+            new ArrayList<CodeAddress[]>();
+
+        /**
+         * Adds a range.
+         *
+         * @param start {@code non-null;} start of the range
+         * @param end {@code non-null;} (exclusive) end of the range
+         * @param rangeTypes {@code non-null;} handled types, with
+         * {@link CstType#OBJECT} for a catch-all
+         * @param rangeHandlers {@code non-null;} corresponding handlers
+         */
+        public void add(CodeAddress start, CodeAddress end,
+                CstType[] rangeTypes, CodeAddress[] rangeHandlers) {
+            starts.add(start);
+            ends.add(end);
+            types.add(rangeTypes);
+            handlers.add(rangeHandlers);
+        }
+
+        /** {@inheritDoc} */
+        public CatchTable build() {
+            int sz = starts.size();
+            CatchTable result = new CatchTable(sz);
+
+            for (int i = 0; i < sz; i++) {
+                CstType[] rangeTypes = types.get(i);
+                CodeAddress[] rangeHandlers = handlers.get(i);
+                CatchHandlerList list =
+                    new CatchHandlerList(rangeTypes.length);
+
+                for (int j = 0; j < rangeTypes.length; j++) {
+                    list.set(j, rangeTypes[j], rangeHandlers[j].getAddress());
+                }
+
+                list.setImmutable();
+                result.set(i, new CatchTable.Entry(starts.get(i).getAddress(),
+                                ends.get(i).getAddress(), list));
+            }
+
+            result.setImmutable();
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public boolean hasAnyCatches() {
+            return starts.size() != 0;
+        }
+
+        /** {@inheritDoc} */
+        public HashSet<Type> getCatchTypes() {
+            HashSet<Type> result = new HashSet<Type>(20);
+
+            for (CstType[] rangeTypes : types) {
+                for (CstType one : rangeTypes) {
+                    result.add(one.getClassType());
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Zero-size instruction whose only purpose is to carry a source
+     * position, recreating a position entry that shares its address
+     * with a later one.
+     */
+    private static final class PositionMarker extends ZeroSizeInsn {
+        /**
+         * Constructs an instance.
+         *
+         * @param position {@code non-null;} source position
+         */
+        public PositionMarker(SourcePosition position) {
+            super(position);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public DalvInsn withRegisters(RegisterSpecList registers) {
+            return new PositionMarker(getPosition());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected String argString() {
+            return null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected String listingString0(boolean noteIndices) {
+            return "position-marker";
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.direct;
+
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+
+/**
+ * Cursor over the little-endian contents of a {@code .dex} file.
+ */
+final class DexInput {
+    /** {@code non-null;} the bytes of the file */
+    private final byte[] bytes;
+
+    /** {@code >= 0;} offset of the next byte to read */
+    private int cursor;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param bytes {@code non-null;} the bytes of the file
+     * @param offset {@code >= 0;} offset of the first byte to read
+     */
+    public DexInput(byte[] bytes, int offset) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        this.bytes = bytes;
+        setCursor(offset);
+    }
+
+    /**
+     * Gets the offset of the next byte to read.
+     *
+     * @return {@code >= 0;} the offset
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Sets the offset of the next byte to read.
+     *
+     * @param offset {@code >= 0;} the offset
+     */
+    public void setCursor(int offset) {
+        if ((offset < 0) || (offset > bytes.length)) {
+            throw new ExceptionWithContext("bad offset: " + Hex.u4(offset));
+        }
+
+        cursor = offset;
+    }
+
+    /**
+     * Reads an unsigned byte.
+     *
+     * @return {@code 0..255;} the value read
+     */
+    public int readUnsignedByte() {
+        if (cursor >= bytes.length) {
+            throw new ExceptionWithContext("unexpected end of file");
+        }
+
+        return bytes[cursor++] & 0xff;
+    }
+
+    /**
+     * Reads an unsigned 16-bit value.
+     *
+     * @return {@code 0..65535;} the value read
+     */
+    public int readUnsignedShort() {
+        int low = readUnsignedByte();
+        return low | (readUnsignedByte() << 8);
+    }
+
+    /**
+     * Reads a 32-bit value.
+     *
+     * @return the value read
+     */
+    public int readInt() {
+        int low = readUnsignedShort();
+        return low | (readUnsignedShort() << 16);
+    }
+
+    /**
+     * Reads an unsigned LEB128 value.
+     *
+     * @return the value read
+     */
+    public int readUnsignedLeb128() {
+        int result = 0;
+        int shift = 0;
+        int one;
+
+        do {
+            if (shift > 28) {
+                throw new ExceptionWithContext("bad leb128 at " +
+                        Hex.u4(cursor));
+            }
+            one = readUnsignedByte();
+            result |= (one & 0x7f) << shift;
+            shift += 7;
+        } while ((one & 0x80) != 0);
+
+        return result;
+    }
+
+    /**
+     * Reads a signed LEB128 value.
+     *
+     * @return the value read
+     */
+    public int readSignedLeb128() {
+        int result = 0;
+        int shift = 0;
+        int one;
+
+        do {
+            if (shift > 28) {
+                throw new ExceptionWithContext("bad leb128 at " +
+                        Hex.u4(cursor));
+            }
+            one = readUnsignedByte();
+            result |= (one & 0x7f) << shift;
+            shift += 7;
+        } while ((one & 0x80) != 0);
+
+        if (shift < 32) {
+            // Sign-extend from the last group's high bit.
+            result = (result << (32 - shift)) >> (32 - shift);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads an unsigned little-endian value of the given width, as used
+     * by {@code encoded_value}.
+     *
+     * @param width {@code 1..8;} number of bytes to read
+     * @return the value read, zero-extended
+     */
+    public long readUnsignedValue(int width) {
+        long result = 0;
+
+        for (int i = 0; i < width; i++) {
+            result |= ((long) readUnsignedByte()) << (i * 8);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads a signed little-endian value of the given width, as used
+     * by {@code encoded_value}.
+     *
+     * @param width {@code 1..8;} number of bytes to read
+     * @return the value read, sign-extended
+     */
+    public long readSignedValue(int width) {
+        int shift = 64 - (width * 8);
+        return (readUnsignedValue(width) << shift) >> shift;
+    }
+
+    /**
+     * Reads a little-endian value of the given width that represents
+     * the high-order bytes of a 64-bit value, as used by {@code
+     * encoded_value} for floating point numbers.
+     *
+     * @param width {@code 1..8;} number of bytes to read
+     * @return the value read, zero-extended to the right
+     */
+    public long readRightZeroExtendedValue(int width) {
+        return readUnsignedValue(width) << (64 - (width * 8));
+    }
+
+    /**
+     * Reads a {@code string_data_item} as MUTF-8 bytes, not including
+     * the terminating {@code NUL}.
+     *
+     * @return {@code non-null;} the bytes of the string
+     */
+    public byte[] readStringData() {
+        // Skip the utf16_size; the data itself is NUL-terminated.
+        readUnsignedLeb128();
+
+        int start = cursor;
+        int end = start;
+
+        while (true) {
+            if (end >= bytes.length) {
+                throw new ExceptionWithContext("unterminated string at " +
+                        Hex.u4(start));
+            }
+            if (bytes[end] == 0) {
+                break;
+            }
+            end++;
+        }
+
+        byte[] result = new byte[end - start];
+        System.arraycopy(bytes, start, result, 0, result.length);
+        cursor = end + 1;
+        return result;
+    }
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.direct;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Dex file with info taken from a {@code byte[]}. The classes it
+ * defines can be turned back into {@link ClassDefItem}s, ready to be
+ * added to a {@link com.android.dx.dex.file.DexFile} as if they had
+ * just been translated from class files.
+ *
+ * <p>Instances may be used from several threads at once. The lookup
+ * tables are filled in lazily without locking, but every lookup is
+ * idempotent, so a race at worst builds the same constant twice.</p>
+ */
+public final class DirectDexFile {
+    /** {@code non-null;} the file format magic number */
+    private static final String MAGIC = "dex\n035\0";
+
+    /** the endianness tag */
+    private static final int ENDIAN_TAG = 0x12345678;
+
+    /** size of the header, in bytes */
+    private static final int HEADER_SIZE = 0x70;
+
+    /** index value used to indicate "no index" */
+    private static final int NO_INDEX = -1;
+
+    /** {@code non-null;} type of the annotation listing thrown exceptions */
+    private static final CstType THROWS_TYPE =
+        CstType.intern(Type.intern("Ldalvik/annotation/Throws;"));
+
+    /** {@code non-null;} the file path, for error messages */
+    private final String filePath;
+
+    /** {@code non-null;} the bytes of the file */
+    private final byte[] bytes;
+
+    /** offset of the {@code string_ids} section */
+    private final int stringIdsOff;
+
+    /** offset of the {@code type_ids} section */
+    private final int typeIdsOff;
+
+    /** offset of the {@code proto_ids} section */
+    private final int protoIdsOff;
+
+    /** offset of the {@code field_ids} section */
+    private final int fieldIdsOff;
+
+    /** offset of the {@code method_ids} section */
+    private final int methodIdsOff;
+
+    /** number of classes defined */
+    private final int classDefsSize;
+
+    /** offset of the {@code class_defs} section */
+    private final int classDefsOff;
+
+    /** {@code non-null;} strings, lazily filled in by index */
+    private final CstUtf8[] strings;
+
+    /** {@code non-null;} types, lazily filled in by index */
+    private final CstType[] types;
+
+    /** {@code non-null;} prototype descriptors, lazily filled in by index */
+    private final CstUtf8[] protos;
+
+    /** {@code non-null;} field references, lazily filled in by index */
+    private final CstFieldRef[] fields;
+
+    /** {@code non-null;} method references, lazily filled in by index */
+    private final CstMethodRef[] methods;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param bytes {@code non-null;} the bytes of the file
+     * @param filePath {@code non-null;} the file path, for error messages
+     */
+    public DirectDexFile(byte[] bytes, String filePath) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        if (filePath == null) {
+            throw new NullPointerException("filePath == null");
+        }
+
+        this.bytes = bytes;
+        this.filePath = filePath;
+
+        if (bytes.length < HEADER_SIZE) {
+            throw new ExceptionWithContext("truncated dex file: " + filePath);
+        }
+
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (bytes[i] != MAGIC.charAt(i)) {
+                throw new ExceptionWithContext("bad dex file magic: " +
+                        filePath);
+            }
+        }
+
+        DexInput in = new DexInput(bytes, 0x28);
+
+        if (in.readInt() != ENDIAN_TAG) {
+            throw new ExceptionWithContext("bad dex file endian tag: " +
+                    filePath);
+        }
+
+        in.setCursor(0x38);
+        strings = new CstUtf8[in.readInt()];
+        stringIdsOff = in.readInt();
+        types = new CstType[in.readInt()];
+        typeIdsOff = in.readInt();
+        protos = new CstUtf8[in.readInt()];
+        protoIdsOff = in.readInt();
+        fields = new CstFieldRef[in.readInt()];
+        fieldIdsOff = in.readInt();
+        methods = new CstMethodRef[in.readInt()];
+        methodIdsOff = in.readInt();
+        classDefsSize = in.readInt();
+        classDefsOff = in.readInt();
+    }
+
+    /**
+     * Gets the file path.
+     *
+     * @return {@code non-null;} the file path
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Gets the number of classes defined in this file.
+     *
+     * @return {@code >= 0;} the number of classes
+     */
+    public int getClassCount() {
+        return classDefsSize;
+    }
+
+    /**
+     * Makes a new {@link ClassDefItem} for the class defined at the
+     * given index. Each call returns a fresh instance, so that it may
+     * be added to a {@link com.android.dx.dex.file.DexFile}.
+     *
+     * @param n {@code >= 0, < getClassCount();} which class
+     * @return {@code non-null;} the class
+     */
+    public ClassDefItem getClass(int n) {
+        if ((n < 0) || (n >= classDefsSize)) {
+            throw new IndexOutOfBoundsException("n < 0 || n >= size");
+        }
+
+        DexInput in;
+        CstType thisClass;
+
+        try {
+            in = inputAt(classDefsOff + (n * ClassDefItem.WRITE_SIZE));
+            thisClass = getType(in.readInt());
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while importing class #" + n + " from " + filePath);
+        }
+
+        try {
+            int accessFlags = in.readInt();
+            int superclassIdx = in.readInt();
+            int interfacesOff = in.readInt();
+            int sourceFileIdx = in.readInt();
+            int annotationsOff = in.readInt();
+            int classDataOff = in.readInt();
+            int staticValuesOff = in.readInt();
+
+            CstType superclass = (superclassIdx == NO_INDEX) ? null
+                : getType(superclassIdx);
+            TypeList interfaces = (interfacesOff == 0) ? StdTypeList.EMPTY
+                : readTypeList(interfacesOff);
+            CstUtf8 sourceFile = (sourceFileIdx == NO_INDEX) ? null
+                : getString(sourceFileIdx);
+            ClassDefItem result = new ClassDefItem(thisClass, accessFlags,
+                    superclass, interfaces, sourceFile);
+
+            // Annotations go first, since methods' throws lists use them.
+            if (annotationsOff != 0) {
+                readAnnotationsDirectory(result, annotationsOff);
+            }
+
+            if (classDataOff != 0) {
+                readClassData(result, classDataOff, staticValuesOff);
+            }
+
+            return result;
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while importing " + thisClass.toHuman() +
+                    " from " + filePath);
+        }
+    }
+
+    /**
+     * Makes an input positioned at the given offset.
+     *
+     * @param offset {@code >= 0;} the offset
+     * @return {@code non-null;} the input
+     */
+    /*package*/ DexInput inputAt(int offset) {
+        return new DexInput(bytes, offset);
+    }
+
+    /**
+     * Gets the string with the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the string
+     */
+    /*package*/ CstUtf8 getString(int n) {
+        checkIndex(n, strings.length, "string");
+
+        CstUtf8 result = strings[n];
+
+        if (result == null) {
+            result = readString(n);
+            strings[n] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the string with the given index, without remembering it.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the string
+     */
+    private CstUtf8 readString(int n) {
+        int dataOff = inputAt(stringIdsOff + (n * 4)).readInt();
+        byte[] data = inputAt(dataOff).readStringData();
+        return new CstUtf8(new ByteArray(data));
+    }
+
+    /**
+     * Gets whether the given string is in the string table. Strings
+     * are sorted there, as the dex format requires. The strings looked
+     * at along the way don't count as read, as far as {@link
+     * #getUnreadConstants} is concerned.
+     *
+     * @param string {@code non-null;} the string
+     * @return whether the file has the string
+     */
+    /*package*/ boolean hasString(CstUtf8 string) {
+        int low = 0;
+        int high = strings.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            CstUtf8 one = (strings[mid] != null) ? strings[mid]
+                : readString(mid);
+            int cmp = one.compareTo(string);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the strings and types in this file that nothing read from it
+     * so far refers to, leaving out the prototype shorties, which are
+     * implied by the prototypes. After all its classes have been read,
+     * these are what the file holds for no visible reason, such as the
+     * names and types of locals whose ranges turned out to be empty.
+     * This is only meaningful if no other thread is reading from this
+     * instance.
+     *
+     * @return {@code non-null;} the unread strings and types
+     */
+    public ArrayList<Constant> getUnreadConstants() {
+        boolean[] skip = new boolean[strings.length];
+        ArrayList<Constant> result = new ArrayList<Constant>();
+
+        for (int i = 0; i < protos.length; i++) {
+            skip[inputAt(protoIdsOff + (i * 12)).readInt()] = true;
+        }
+
+        /*
+         * Find all the unread entries before reading any of them, since
+         * reading a type reads its descriptor.
+         */
+        ArrayList<Integer> unreadTypes = new ArrayList<Integer>();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == null) {
+                unreadTypes.add(i);
+                skip[inputAt(typeIdsOff + (i * 4)).readInt()] = true;
+            }
+        }
+
+        for (int i = 0; i < strings.length; i++) {
+            if ((strings[i] == null) && !skip[i]) {
+                result.add(getString(i));
+            }
+        }
+
+        for (int i : unreadTypes) {
+            result.add(getType(i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the type with the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the type
+     */
+    /*package*/ CstType getType(int n) {
+        checkIndex(n, types.length, "type");
+
+        CstType result = types[n];
+
+        if (result == null) {
+            int descriptorIdx = inputAt(typeIdsOff + (n * 4)).readInt();
+            String descriptor = getString(descriptorIdx).getString();
+            result = CstType.intern(Type.internReturnType(descriptor));
+            types[n] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the descriptor of the prototype with the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the method descriptor
+     */
+    /*package*/ CstUtf8 getPrototypeDescriptor(int n) {
+        checkIndex(n, protos.length, "proto");
+
+        CstUtf8 result = protos[n];
+
+        if (result == null) {
+            DexInput in = inputAt(protoIdsOff + (n * 12));
+            in.readInt(); // The shorty is implied by the rest.
+            CstType returnType = getType(in.readInt());
+            int parametersOff = in.readInt();
+            StringBuilder sb = new StringBuilder(80);
+
+            sb.append('(');
+            if (parametersOff != 0) {
+                TypeList params = readTypeList(parametersOff);
+                int sz = params.size();
+                for (int i = 0; i < sz; i++) {
+                    sb.append(params.getType(i).getDescriptor());
+                }
+            }
+            sb.append(')');
+            sb.append(returnType.getClassType().getDescriptor());
+
+            result = new CstUtf8(sb.toString());
+            protos[n] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the field reference with the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the field reference
+     */
+    /*package*/ CstFieldRef getFieldRef(int n) {
+        checkIndex(n, fields.length, "field");
+
+        CstFieldRef result = fields[n];
+
+        if (result == null) {
+            DexInput in = inputAt(fieldIdsOff + (n * 8));
+            CstType definer = getType(in.readUnsignedShort());
+            CstType type = getType(in.readUnsignedShort());
+            CstUtf8 name = getString(in.readInt());
+            result = new CstFieldRef(definer,
+                    new CstNat(name, type.getDescriptor()));
+            fields[n] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the method reference with the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the method reference
+     */
+    /*package*/ CstMethodRef getMethodRef(int n) {
+        checkIndex(n, methods.length, "method");
+
+        CstMethodRef result = methods[n];
+
+        if (result == null) {
+            DexInput in = inputAt(methodIdsOff + (n * 8));
+            CstType definer = getType(in.readUnsignedShort());
+            CstUtf8 descriptor = getPrototypeDescriptor(in.readUnsignedShort());
+            CstUtf8 name = getString(in.readInt());
+            result = new CstMethodRef(definer, new CstNat(name, descriptor));
+            methods[n] = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Throws if the given index is out of range.
+     *
+     * @param n the index
+     * @param size the size of the section
+     * @param what {@code non-null;} the kind of index, for the message
+     */
+    private static void checkIndex(int n, int size, String what) {
+        if ((n < 0) || (n >= size)) {
+            throw new ExceptionWithContext("bad " + what + " index: " +
+                    Hex.u4(n));
+        }
+    }
+
+    /**
+     * Reads a {@code type_list}.
+     *
+     * @param offset {@code > 0;} offset of the list
+     * @return {@code non-null;} the list, which will be immutable
+     */
+    private TypeList readTypeList(int offset) {
+        DexInput in = inputAt(offset);
+        int size = in.readInt();
+        StdTypeList result = new StdTypeList(size);
+
+        for (int i = 0; i < size; i++) {
+            result.set(i, getType(in.readUnsignedShort()).getClassType());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a {@code class_data_item} into the given class.
+     *
+     * @param clazz {@code non-null;} the class to fill in
+     * @param offset {@code > 0;} offset of the class data
+     * @param staticValuesOff offset of the static values array, or
+     * {@code 0} if there is none
+     */
+    private void readClassData(ClassDefItem clazz, int offset,
+            int staticValuesOff) {
+        DexInput in = inputAt(offset);
+        int staticFieldsSize = in.readUnsignedLeb128();
+        int instanceFieldsSize = in.readUnsignedLeb128();
+        int directMethodsSize = in.readUnsignedLeb128();
+        int virtualMethodsSize = in.readUnsignedLeb128();
+        CstArray.List staticValues = null;
+
+        if (staticValuesOff != 0) {
+            ValueDecoder decoder =
+                new ValueDecoder(this, inputAt(staticValuesOff));
+            staticValues = decoder.readArray().getList();
+        }
+
+        int index = 0;
+        for (int i = 0; i < staticFieldsSize; i++) {
+            index += in.readUnsignedLeb128();
+            int accessFlags = in.readUnsignedLeb128();
+            Constant value = ((staticValues != null) &&
+                    (i < staticValues.size())) ? staticValues.get(i) : null;
+            clazz.addStaticField(
+                    new EncodedField(getFieldRef(index), accessFlags), value);
+        }
+
+        index = 0;
+        for (int i = 0; i < instanceFieldsSize; i++) {
+            index += in.readUnsignedLeb128();
+            int accessFlags = in.readUnsignedLeb128();
+            clazz.addInstanceField(
+                    new EncodedField(getFieldRef(index), accessFlags));
+        }
+
+        index = 0;
+        for (int i = 0; i < directMethodsSize; i++) {
+            index += in.readUnsignedLeb128();
+            clazz.addDirectMethod(readMethod(clazz, in, index));
+        }
+
+        index = 0;
+        for (int i = 0; i < virtualMethodsSize; i++) {
+            index += in.readUnsignedLeb128();
+            clazz.addVirtualMethod(readMethod(clazz, in, index));
+        }
+    }
+
+    /**
+     * Reads the rest of an {@code encoded_method}, after its index.
+     *
+     * @param clazz {@code non-null;} the class being read, whose method
+     * annotations have already been filled in
+     * @param in {@code non-null;} input, positioned at the access flags
+     * @param index the method index
+     * @return {@code non-null;} the method
+     */
+    private EncodedMethod readMethod(ClassDefItem clazz, DexInput in,
+            int index) {
+        int accessFlags = in.readUnsignedLeb128();
+        int codeOff = in.readUnsignedLeb128();
+        CstMethodRef ref = getMethodRef(index);
+        boolean isStatic = (accessFlags & AccessFlags.ACC_STATIC) != 0;
+        DalvCode code = (codeOff == 0) ? null
+            : CodeImporter.importCode(this, ref, isStatic, codeOff);
+        TypeList throwsList = getThrows(clazz.getMethodAnnotations(ref));
+
+        return new EncodedMethod(ref, accessFlags, code, throwsList);
+    }
+
+    /**
+     * Recovers a method's list of thrown exceptions from its
+     * {@code Throws} annotation, if any.
+     *
+     * @param annotations {@code null-ok;} the method's annotations
+     * @return {@code non-null;} the list of thrown exceptions
+     */
+    private static TypeList getThrows(Annotations annotations) {
+        if (annotations == null) {
+            return StdTypeList.EMPTY;
+        }
+
+        for (Annotation one : annotations.getAnnotations()) {
+            if (!one.getType().equals(THROWS_TYPE)) {
+                continue;
+            }
+
+            for (NameValuePair pair : one.getNameValuePairs()) {
+                if (!(pair.getValue() instanceof CstArray)) {
+                    continue;
+                }
+
+                CstArray.List list = ((CstArray) pair.getValue()).getList();
+                int sz = list.size();
+                StdTypeList result = new StdTypeList(sz);
+
+                for (int i = 0; i < sz; i++) {
+                    result.set(i, ((CstType) list.get(i)).getClassType());
+                }
+
+                result.setImmutable();
+                return result;
+            }
+        }
+
+        return StdTypeList.EMPTY;
+    }
+
+    /**
+     * Reads an {@code annotations_directory_item} into the given class.
+     *
+     * @param clazz {@code non-null;} the class to fill in
+     * @param offset {@code > 0;} offset of the directory
+     */
+    private void readAnnotationsDirectory(ClassDefItem clazz, int offset) {
+        DexInput in = inputAt(offset);
+        int classAnnotationsOff = in.readInt();
+        int fieldsSize = in.readInt();
+        int methodsSize = in.readInt();
+        int parametersSize = in.readInt();
+
+        if (classAnnotationsOff != 0) {
+            clazz.setClassAnnotations(readAnnotationSet(classAnnotationsOff));
+        }
+
+        for (int[] pair : readAnnotationPairs(in, fieldsSize)) {
+            clazz.addFieldAnnotations(getFieldRef(pair[0]),
+                    readAnnotationSet(pair[1]));
+        }
+
+        for (int[] pair : readAnnotationPairs(in, methodsSize)) {
+            clazz.addMethodAnnotations(getMethodRef(pair[0]),
+                    readAnnotationSet(pair[1]));
+        }
+
+        for (int[] pair : readAnnotationPairs(in, parametersSize)) {
+            clazz.addParameterAnnotations(getMethodRef(pair[0]),
+                    readAnnotationSetRefList(pair[1]));
+        }
+    }
+
+    /**
+     * Reads one of the lists of member annotations in an {@code
+     * annotations_directory_item}, as {@code (member index, offset)}
+     * pairs sorted by offset. The sets were laid out in the order the
+     * members were added to the class when it was written, so adding
+     * them back in this order makes a class that is laid out the same
+     * way, rather than in member order.
+     *
+     * @param in {@code non-null;} input positioned at the list
+     * @param size {@code >= 0;} number of elements in the list
+     * @return {@code non-null;} the pairs
+     */
+    private static int[][] readAnnotationPairs(DexInput in, int size) {
+        int[][] result = new int[size][];
+
+        for (int i = 0; i < size; i++) {
+            int index = in.readInt();
+            result[i] = new int[] { index, in.readInt() };
+        }
+
+        // This is a stable sort, which keeps shared sets in member order.
+        Arrays.sort(result, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return (a[1] < b[1]) ? -1 : ((a[1] > b[1]) ? 1 : 0);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Reads an {@code annotation_set_item}.
+     *
+     * @param offset offset of the set, or {@code 0} for an empty set
+     * @return {@code non-null;} the annotations, which will be immutable
+     */
+    private Annotations readAnnotationSet(int offset) {
+        if (offset == 0) {
+            return Annotations.EMPTY;
+        }
+
+        DexInput in = inputAt(offset);
+        int size = in.readInt();
+        Annotations result = new Annotations();
+
+        for (int i = 0; i < size; i++) {
+            DexInput itemIn = inputAt(in.readInt());
+            AnnotationVisibility visibility;
+
+            switch (itemIn.readUnsignedByte()) {
+                case 0: visibility = AnnotationVisibility.BUILD; break;
+                case 1: visibility = AnnotationVisibility.RUNTIME; break;
+                case 2: visibility = AnnotationVisibility.SYSTEM; break;
+                default: {
+                    throw new ExceptionWithContext("bad annotation " +
+                            "visibility at " + Hex.u4(itemIn.getCursor() - 1));
+                }
+            }
+
+            result.add(new ValueDecoder(this, itemIn).readAnnotation(
+                               visibility));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads an {@code annotation_set_ref_list}.
+     *
+     * @param offset {@code > 0;} offset of the list
+     * @return {@code non-null;} the list, which will be immutable
+     */
+    private AnnotationsList readAnnotationSetRefList(int offset) {
+        DexInput in = inputAt(offset);
+        int size = in.readInt();
+        AnnotationsList result = new AnnotationsList(size);
+
+        for (int i = 0; i < size; i++) {
+            result.set(i, readAnnotationSet(in.readInt()));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+}
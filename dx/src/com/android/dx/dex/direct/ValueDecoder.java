@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.direct;
+
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+
+/**
+ * Reader of {@code encoded_value}s and parts thereof. This is the
+ * inverse of {@link com.android.dx.dex.file.ValueEncoder}.
+ */
+final class ValueDecoder {
+    /** annotation value type constant: {@code byte} */
+    private static final int VALUE_BYTE = 0x00;
+
+    /** annotation value type constant: {@code short} */
+    private static final int VALUE_SHORT = 0x02;
+
+    /** annotation value type constant: {@code char} */
+    private static final int VALUE_CHAR = 0x03;
+
+    /** annotation value type constant: {@code int} */
+    private static final int VALUE_INT = 0x04;
+
+    /** annotation value type constant: {@code long} */
+    private static final int VALUE_LONG = 0x06;
+
+    /** annotation value type constant: {@code float} */
+    private static final int VALUE_FLOAT = 0x10;
+
+    /** annotation value type constant: {@code double} */
+    private static final int VALUE_DOUBLE = 0x11;
+
+    /** annotation value type constant: {@code string} */
+    private static final int VALUE_STRING = 0x17;
+
+    /** annotation value type constant: {@code type} */
+    private static final int VALUE_TYPE = 0x18;
+
+    /** annotation value type constant: {@code field} */
+    private static final int VALUE_FIELD = 0x19;
+
+    /** annotation value type constant: {@code method} */
+    private static final int VALUE_METHOD = 0x1a;
+
+    /** annotation value type constant: {@code enum} */
+    private static final int VALUE_ENUM = 0x1b;
+
+    /** annotation value type constant: {@code array} */
+    private static final int VALUE_ARRAY = 0x1c;
+
+    /** annotation value type constant: {@code annotation} */
+    private static final int VALUE_ANNOTATION = 0x1d;
+
+    /** annotation value type constant: {@code null} */
+    private static final int VALUE_NULL = 0x1e;
+
+    /** annotation value type constant: {@code boolean} */
+    private static final int VALUE_BOOLEAN = 0x1f;
+
+    /** {@code non-null;} file being read */
+    private final DirectDexFile file;
+
+    /** {@code non-null;} input to read from */
+    private final DexInput in;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file {@code non-null;} file being read
+     * @param in {@code non-null;} input to read from, positioned at
+     * the first value
+     */
+    public ValueDecoder(DirectDexFile file, DexInput in) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+
+        this.file = file;
+        this.in = in;
+    }
+
+    /**
+     * Reads one {@code encoded_value}.
+     *
+     * @return {@code non-null;} the constant read
+     */
+    public Constant readConstant() {
+        int at = in.getCursor();
+        int header = in.readUnsignedByte();
+        int type = header & 0x1f;
+        int arg = header >> 5;
+        int width = arg + 1;
+
+        switch (type) {
+            case VALUE_BYTE: {
+                return CstByte.make((int) in.readSignedValue(width));
+            }
+            case VALUE_SHORT: {
+                return CstShort.make((int) in.readSignedValue(width));
+            }
+            case VALUE_CHAR: {
+                return CstChar.make((int) in.readUnsignedValue(width));
+            }
+            case VALUE_INT: {
+                return CstInteger.make((int) in.readSignedValue(width));
+            }
+            case VALUE_LONG: {
+                return CstLong.make(in.readSignedValue(width));
+            }
+            case VALUE_FLOAT: {
+                long bits = in.readRightZeroExtendedValue(width);
+                return CstFloat.make((int) (bits >>> 32));
+            }
+            case VALUE_DOUBLE: {
+                return CstDouble.make(in.readRightZeroExtendedValue(width));
+            }
+            case VALUE_STRING: {
+                int index = (int) in.readUnsignedValue(width);
+                return new CstString(file.getString(index));
+            }
+            case VALUE_TYPE: {
+                return file.getType((int) in.readUnsignedValue(width));
+            }
+            case VALUE_FIELD: {
+                return file.getFieldRef((int) in.readUnsignedValue(width));
+            }
+            case VALUE_METHOD: {
+                return file.getMethodRef((int) in.readUnsignedValue(width));
+            }
+            case VALUE_ENUM: {
+                int index = (int) in.readUnsignedValue(width);
+                return new CstEnumRef(file.getFieldRef(index).getNat());
+            }
+            case VALUE_ARRAY: {
+                return readArray();
+            }
+            case VALUE_ANNOTATION: {
+                Annotation annotation =
+                    readAnnotation(AnnotationVisibility.EMBEDDED);
+                return new CstAnnotation(annotation);
+            }
+            case VALUE_NULL: {
+                return CstKnownNull.THE_ONE;
+            }
+            case VALUE_BOOLEAN: {
+                return CstBoolean.make(arg);
+            }
+        }
+
+        throw new ExceptionWithContext("bad value type " + Hex.u1(type) +
+                " at " + Hex.u4(at));
+    }
+
+    /**
+     * Reads an {@code encoded_array}.
+     *
+     * @return {@code non-null;} the array read
+     */
+    public CstArray readArray() {
+        int size = in.readUnsignedLeb128();
+        CstArray.List list = new CstArray.List(size);
+
+        for (int i = 0; i < size; i++) {
+            list.set(i, readConstant());
+        }
+
+        list.setImmutable();
+        return new CstArray(list);
+    }
+
+    /**
+     * Reads an {@code encoded_annotation}.
+     *
+     * @param visibility {@code non-null;} the visibility to give the result
+     * @return {@code non-null;} the annotation read, which will be
+     * immutable
+     */
+    public Annotation readAnnotation(AnnotationVisibility visibility) {
+        int typeIndex = in.readUnsignedLeb128();
+        int size = in.readUnsignedLeb128();
+        Annotation result = new Annotation(file.getType(typeIndex),
+                visibility);
+
+        for (int i = 0; i < size; i++) {
+            int nameIndex = in.readUnsignedLeb128();
+            result.add(new NameValuePair(file.getString(nameIndex),
+                            readConstant()));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+}
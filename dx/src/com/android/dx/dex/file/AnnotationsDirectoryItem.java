@@ -19,6 +19,7 @@ package com.android.dx.dex.file;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
 import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMemberRef;
 import com.android.dx.rop.cst.CstMethodRef;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
@@ -26,6 +27,8 @@ import com.android.dx.util.Hex;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
 
 /**
  * Per-class directory of annotations.
@@ -194,6 +197,39 @@ public final class AnnotationsDirectoryItem extends OffsettedItem {
         parameterAnnotations.add(new ParameterAnnotationStruct(method, list));
     }
 
+    /**
+     * Gets the direct annotations on this instance, if any.
+     * 
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        if (classAnnotations == null) {
+            return null;
+        }
+
+        return classAnnotations.getAnnotations();
+    }
+
+    /**
+     * Gets the field annotations for a given field, if any.
+     * 
+     * @param field {@code non-null;} the field
+     * @return {@code null-ok;} the field annotations, if any
+     */
+    public Annotations getFieldAnnotations(CstFieldRef field) {
+        if (fieldAnnotations == null) {
+            return null;
+        }
+        
+        for (FieldAnnotationStruct item : fieldAnnotations) {
+            if (item.getField().equals(field)) {
+                return item.getAnnotations();
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Gets the method annotations for a given method, if any. This is
      * meant for use by debugging / dumping code.
@@ -235,6 +271,53 @@ public final class AnnotationsDirectoryItem extends OffsettedItem {
 
         return null;
     }
+
+    /**
+     * Removes the member annotations for members that aren't in the
+     * given set.
+     * 
+     * @param live {@code non-null;} the members to keep
+     */
+    public void retainMembers(Set<CstMemberRef> live) {
+        if (fieldAnnotations != null) {
+            for (Iterator<FieldAnnotationStruct> i =
+                     fieldAnnotations.iterator(); i.hasNext(); /*i*/) {
+                if (!live.contains(i.next().getField())) {
+                    i.remove();
+                }
+            }
+
+            if (fieldAnnotations.isEmpty()) {
+                fieldAnnotations = null;
+            }
+        }
+
+        if (methodAnnotations != null) {
+            for (Iterator<MethodAnnotationStruct> i =
+                     methodAnnotations.iterator(); i.hasNext(); /*i*/) {
+                if (!live.contains(i.next().getMethod())) {
+                    i.remove();
+                }
+            }
+
+            if (methodAnnotations.isEmpty()) {
+                methodAnnotations = null;
+            }
+        }
+
+        if (parameterAnnotations != null) {
+            for (Iterator<ParameterAnnotationStruct> i =
+                     parameterAnnotations.iterator(); i.hasNext(); /*i*/) {
+                if (!live.contains(i.next().getMethod())) {
+                    i.remove();
+                }
+            }
+
+            if (parameterAnnotations.isEmpty()) {
+                parameterAnnotations = null;
+            }
+        }
+    }
     
     /** {@inheritDoc} */
     public void addContents(DexFile file) {
@@ -19,6 +19,7 @@ package com.android.dx.dex.file;
 import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstArray;
 import com.android.dx.rop.cst.CstLiteralBits;
+import com.android.dx.rop.cst.CstMemberRef;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.Zeroes;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
@@ -31,8 +32,10 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Representation of all the parts of a Dalvik class that are generally
@@ -190,6 +193,66 @@ public final class ClassDataItem extends OffsettedItem {
         return result;
     }
 
+    /**
+     * Gets all the fields in this class. The returned list is not linked
+     * in any way to the underlying lists contained in this instance, but
+     * the objects contained in the list are shared.
+     * 
+     * @return {@code non-null;} list of all fields
+     */
+    public ArrayList<EncodedField> getFields() {
+        int sz = staticFields.size() + instanceFields.size();
+        ArrayList<EncodedField> result = new ArrayList<EncodedField>(sz);
+
+        result.addAll(staticFields);
+        result.addAll(instanceFields);
+
+        return result;
+    }
+
+    /**
+     * Removes the members of this class that aren't in the given set.
+     * 
+     * @param live {@code non-null;} the members to keep
+     */
+    public void retainMembers(Set<CstMemberRef> live) {
+        if (staticValuesConstant != null) {
+            throw new UnsupportedOperationException(
+                    "static fields already sorted");
+        }
+
+        for (Iterator<EncodedField> i = staticFields.iterator();
+             i.hasNext(); /*i*/) {
+            EncodedField field = i.next();
+
+            if (!live.contains(field.getRef())) {
+                i.remove();
+                staticValues.remove(field);
+            }
+        }
+
+        for (Iterator<EncodedField> i = instanceFields.iterator();
+             i.hasNext(); /*i*/) {
+            if (!live.contains(i.next().getRef())) {
+                i.remove();
+            }
+        }
+
+        for (Iterator<EncodedMethod> i = directMethods.iterator();
+             i.hasNext(); /*i*/) {
+            if (!live.contains(i.next().getRef())) {
+                i.remove();
+            }
+        }
+
+        for (Iterator<EncodedMethod> i = virtualMethods.iterator();
+             i.hasNext(); /*i*/) {
+            if (!live.contains(i.next().getRef())) {
+                i.remove();
+            }
+        }
+    }
+
 
     /**
      * Prints out the contents of this instance, in a debugging-friendly
@@ -425,5 +488,10 @@ public final class ClassDataItem extends OffsettedItem {
         } else {
             out.write(encodedForm);
         }
+
+        if (file.isReleasingWrittenItems()) {
+            // Nothing needs the encoded form anymore; let it be collected.
+            encodedForm = null;
+        }
     }
 }
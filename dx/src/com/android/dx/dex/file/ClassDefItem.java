@@ -22,6 +22,7 @@ import com.android.dx.rop.code.AccessFlags;
 import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstArray;
 import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMemberRef;
 import com.android.dx.rop.cst.CstMethodRef;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
@@ -34,6 +35,7 @@ import com.android.dx.util.Writers;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Set;
 import java.util.TreeSet;
 
 /**
@@ -75,6 +77,12 @@ public final class ClassDefItem extends IndexedItem {
     /** {@code non-null;} annotations directory */
     private AnnotationsDirectoryItem annotationsDirectory;
 
+    /**
+     * {@code null-ok;} strings and types to add to the file along with
+     * this class, or {@code null} if there are none
+     */
+    private ArrayList<Constant> extraConstants;
+
     /**
      * Constructs an instance. Its sets of members and annotations are
      * initially empty.
@@ -111,6 +119,7 @@ public final class ClassDefItem extends IndexedItem {
         this.classData = new ClassDataItem(thisClass);
         this.staticValuesItem = null;
         this.annotationsDirectory = new AnnotationsDirectoryItem();
+        this.extraConstants = null;
     }
 
     /** {@inheritDoc} */
@@ -166,6 +175,12 @@ public final class ClassDefItem extends IndexedItem {
                 wordData.add(annotationsDirectory);
             }
         }
+
+        if (extraConstants != null) {
+            for (Constant cst : extraConstants) {
+                file.internIfAppropriate(cst);
+            }
+        }
     }
 
     /** {@inheritDoc} */
@@ -318,6 +333,29 @@ public final class ClassDefItem extends IndexedItem {
         return classData.getMethods();
     }
 
+    /**
+     * Gets all the fields in this class. The returned list is not linked
+     * in any way to the underlying lists contained in this instance, but
+     * the objects contained in the list are shared.
+     * 
+     * @return {@code non-null;} list of all fields
+     */
+    public ArrayList<EncodedField> getFields() {
+        return classData.getFields();
+    }
+
+    /**
+     * Removes the members of this class that aren't in the given set,
+     * along with their annotations. This must be called before the
+     * class is added to a file's contents.
+     * 
+     * @param live {@code non-null;} the members to keep
+     */
+    public void retainMembers(Set<CstMemberRef> live) {
+        classData.retainMembers(live);
+        annotationsDirectory.retainMembers(live);
+    }
+
     /**
      * Sets the direct annotations on this class. These are annotations
      * made on the class, per se, as opposed to on one of its members.
@@ -362,6 +400,47 @@ public final class ClassDefItem extends IndexedItem {
         annotationsDirectory.addParameterAnnotations(method, list);
     }
 
+    /**
+     * Adds a string or type to be added to the file along with this
+     * class, even though nothing in the class refers to it. This is for
+     * a class read back from a dex file, whose tables can hold entries
+     * that only the original translation knew the reason for, such as
+     * the names of locals whose ranges turned out to be empty.
+     *
+     * @param cst {@code non-null;} the string or type
+     */
+    public void addExtraConstant(Constant cst) {
+        if (!((cst instanceof CstUtf8) || (cst instanceof CstType))) {
+            throw new IllegalArgumentException("not a string or type: " +
+                    cst);
+        }
+
+        if (extraConstants == null) {
+            extraConstants = new ArrayList<Constant>();
+        }
+
+        extraConstants.add(cst);
+    }
+
+    /**
+     * Gets the direct annotations on this class, if any.
+     * 
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        return annotationsDirectory.getClassAnnotations();
+    }
+
+    /**
+     * Gets the field annotations for a given field, if any.
+     * 
+     * @param field {@code non-null;} the field
+     * @return {@code null-ok;} the field annotations, if any
+     */
+    public Annotations getFieldAnnotations(CstFieldRef field) {
+        return annotationsDirectory.getFieldAnnotations(field);
+    }
+
     /**
      * Gets the method annotations for a given method, if any. This is
      * meant for use by debugging / dumping code.
@@ -101,6 +101,16 @@ public final class ClassDefsSection extends UniformItemSection {
         out.writeInt(offset);
     }
 
+    /**
+     * Removes a class from this instance, if present.
+     * 
+     * @param type {@code non-null;} the type of the class to remove
+     */
+    public void remove(Type type) {
+        throwIfPrepared();
+        classDefs.remove(type);
+    }
+
     /**
      * Adds an element to this instance. It is illegal to attempt to add more
      * than one class with the same name.
@@ -138,8 +148,17 @@ public final class ClassDefsSection extends UniformItemSection {
          * Iterate over all the classes, recursively assigning an
          * index to each, implicitly skipping the ones that have
          * already been assigned by the time this (top-level)
-         * iteration reaches them.
+         * iteration reaches them. Profiled classes go first, so
+         * that the startup ones are defined together.
          */
+        LayoutProfile layout = getFile().getLayoutProfile();
+
+        if (layout != null) {
+            for (Type type : layout.getClasses()) {
+                idx = orderItems0(type, idx, sz - idx);
+            }
+        }
+
         for (Type type : classDefs.keySet()) {
             idx = orderItems0(type, idx, sz - idx);
         }
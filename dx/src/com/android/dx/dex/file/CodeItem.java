@@ -51,8 +51,11 @@ public final class CodeItem extends OffsettedItem {
     /** {@code non-null;} method that this code implements */
     private final CstMethodRef ref;
 
-    /** {@code non-null;} the bytecode instructions and associated data */
-    private final DalvCode code;
+    /**
+     * {@code non-null;} the bytecode instructions and associated data;
+     * {@code null} once written, if the file releases written items
+     */
+    private DalvCode code;
 
     /** {@code null-ok;} the catches, if needed; set in {@link #addContents} */
     private CatchStructs catches;
@@ -72,6 +75,9 @@ public final class CodeItem extends OffsettedItem {
      */
     private DebugInfoItem debugInfo;
 
+    /** whether the code's constants have been assigned indices */
+    private boolean indicesAssigned;
+
     /**
      * Constructs an instance.
      * 
@@ -118,7 +124,8 @@ public final class CodeItem extends OffsettedItem {
         TypeIdsSection typeIds = file.getTypeIds();
 
         if (code.hasPositions() || code.hasLocals()) {
-            debugInfo = new DebugInfoItem(code, isStatic, ref);
+            debugInfo = new DebugInfoItem(code, isStatic, ref,
+                    file.isCompactingDebugInfo());
             byteData.add(debugInfo);
         }
 
@@ -155,6 +162,66 @@ public final class CodeItem extends OffsettedItem {
         return ref;
     }
 
+    /**
+     * Gets the code of this instance.
+     * 
+     * @return {@code null-ok;} the code, or {@code null} if it has
+     * already been written and released
+     */
+    /*package*/ DalvCode getCode() {
+        return code;
+    }
+
+    /**
+     * Assigns indices to the code's constants, which is needed in order
+     * to get its catches and insns. This only does anything the first
+     * time it is called, and may only be called once the file's indices
+     * have all been set.
+     *
+     * @param file {@code non-null;} the file to get the indices from
+     */
+    /*package*/ void assignIndices(final DexFile file) {
+        if (indicesAssigned) {
+            return;
+        }
+
+        code.assignIndices(new DalvCode.AssignIndicesCallback() {
+                public int getIndex(Constant cst) {
+                    IndexedItem item = file.findItemOrNull(cst);
+                    if (item == null) {
+                        return -1;
+                    }
+                    return item.getIndex();
+                }
+            });
+
+        indicesAssigned = true;
+    }
+
+    /**
+     * Gets the debug info of this instance.
+     *
+     * @return {@code null-ok;} the debug info, or {@code null} if
+     * there is none
+     */
+    /*package*/ DebugInfoItem getDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * Replaces the debug info of this instance with an equal item,
+     * so that the two can share it.
+     *
+     * @param debugInfo {@code non-null;} the item to share
+     */
+    /*package*/ void shareDebugInfo(DebugInfoItem debugInfo) {
+        if (!debugInfo.equals(this.debugInfo)) {
+            throw new IllegalArgumentException("unequal debug info");
+        }
+
+        this.debugInfo = debugInfo;
+    }
+
     /**
      * Does a human-friendly dump of this instance.
      * 
@@ -193,19 +260,7 @@ public final class CodeItem extends OffsettedItem {
         final DexFile file = addedTo.getFile();
         int catchesSize;
         
-        /*
-         * In order to get the catches and insns, all the code's
-         * constants need to be assigned indices.
-         */
-        code.assignIndices(new DalvCode.AssignIndicesCallback() {
-                public int getIndex(Constant cst) {
-                    IndexedItem item = file.findItemOrNull(cst);
-                    if (item == null) {
-                        return -1;
-                    }
-                    return item.getIndex();
-                }
-            });
+        assignIndices(file);
 
         if (catches != null) {
             catches.encode(file);
@@ -286,6 +341,12 @@ public final class CodeItem extends OffsettedItem {
                 debugInfo.annotateTo(file, out, "    ");
             }
         }
+
+        if (file.isReleasingWrittenItems()) {
+            // Nothing needs the code anymore; let it be collected.
+            code = null;
+            catches = null;
+        }
     }
 
     /**
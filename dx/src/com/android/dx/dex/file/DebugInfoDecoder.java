@@ -420,9 +420,12 @@ public class DebugInfoDecoder {
      * @param ref {@code non-null;} method whose info is being decoded
      * @param code {@code non-null;} original code object that was encoded
      * @param isStatic whether the method is static
+     * @param compact whether the info was encoded compactly; see
+     * {@link DebugInfoEncoder}
      */
     public static void validateEncode(byte[] info, DexFile file,
-            CstMethodRef ref, DalvCode code, boolean isStatic) {
+            CstMethodRef ref, DalvCode code, boolean isStatic,
+            boolean compact) {
         PositionList pl = code.getPositions();
         LocalList ll = code.getLocals();
         DalvInsnList insns = code.getInsns();
@@ -431,7 +434,7 @@ public class DebugInfoDecoder {
         
         try {
             validateEncode0(info, codeSize, countRegisters,
-                    isStatic, ref, file, pl, ll);
+                    isStatic, ref, file, pl, ll, compact);
         } catch (RuntimeException ex) {
             System.err.println("instructions:");
             insns.debugPrint(System.err, "  ", true);
@@ -444,7 +447,7 @@ public class DebugInfoDecoder {
     
     private static void validateEncode0(byte[] info, int codeSize,
             int countRegisters, boolean isStatic, CstMethodRef ref,
-            DexFile file, PositionList pl, LocalList ll) {
+            DexFile file, PositionList pl, LocalList ll, boolean compact) {
         DebugInfoDecoder decoder
                 = new DebugInfoDecoder(info, codeSize, countRegisters,
                     isStatic, ref, file);
@@ -458,12 +461,19 @@ public class DebugInfoDecoder {
 
         List<PositionEntry> decodedEntries = decoder.getPositionList();
 
-        if (decodedEntries.size() != pl.size()) {
+        if (!compact && (decodedEntries.size() != pl.size())) {
             throw new RuntimeException(
                     "Decoded positions table not same size was "
                     + decodedEntries.size() + " expected " + pl.size());
         }
 
+        /*
+         * A compact encoding may add entries that just repeat the line
+         * of the one before, which don't change the line of any address.
+         */
+        int matched = 0;
+        int prevLine = -1;
+
         for (PositionEntry entry : decodedEntries) {
             boolean found = false;
             for (int i = pl.size() - 1; i >= 0; i--) {
@@ -476,10 +486,20 @@ public class DebugInfoDecoder {
                 }
             }
 
-            if (!found) {
+            if (found) {
+                matched++;
+            } else if (!compact || (entry.line != prevLine)) {
                 throw new RuntimeException ("Could not match position entry: "
                         + entry.address + ", " + entry.line);
             }
+
+            prevLine = entry.line;
+        }
+
+        if (matched != pl.size()) {
+            throw new RuntimeException(
+                    "Decoded positions table not same size was "
+                    + matched + " expected " + pl.size());
         }
 
         /*
@@ -29,6 +29,7 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Leb128Utils;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -51,6 +52,13 @@ import static com.android.dx.dex.file.DebugInfoConstants.*;
  * {@code DebugInfoConstants}.
  * <li> A single terminating {@code OP_END_SEQUENCE}
  * </ol>
+ *
+ * <p>In compact mode, line and address changes are split between
+ * {@code DBG_ADVANCE_LINE}, {@code DBG_ADVANCE_PC} and a special opcode
+ * so as to take the fewest bytes, and once a line is known, short
+ * address advances are encoded as special opcodes that repeat the
+ * current line. The latter adds position entries, but doesn't change
+ * the line of any address.</p>
  */
 public final class DebugInfoEncoder {
     private static final boolean DEBUG = false;
@@ -69,12 +77,21 @@ public final class DebugInfoEncoder {
     private final Prototype desc;
     private final boolean isStatic;
 
+    /** whether to encode as compactly as possible */
+    private final boolean compact;
+
     /** current encoding state: bytecode address */
     private int address = 0;
 
     /** current encoding state: line number */
     private int line = 1;
 
+    /**
+     * current encoding state: whether a position has been emitted, so
+     * that the line number applies to the current address
+     */
+    private boolean lineKnown = false;
+
     /**
      * if non-null: the output to write annotations to. No normal
      * output is written to this.
@@ -108,6 +125,26 @@ public final class DebugInfoEncoder {
     public DebugInfoEncoder(PositionList positions, LocalList locals,
             DexFile file, int codeSize, int regSize,
             boolean isStatic, CstMethodRef ref) {
+        this(positions, locals, file, codeSize, regSize, isStatic, ref,
+                false);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param positions {@code null-ok;} positions (line numbers) to encode
+     * @param locals {@code null-ok;} local variables to encode
+     * @param file {@code null-ok;} may only be {@code null} if simply using
+     * this class to do a debug print
+     * @param codeSize
+     * @param regSize
+     * @param isStatic
+     * @param ref
+     * @param compact whether to encode as compactly as possible
+     */
+    public DebugInfoEncoder(PositionList positions, LocalList locals,
+            DexFile file, int codeSize, int regSize,
+            boolean isStatic, CstMethodRef ref, boolean compact) {
         this.positions = positions;
         this.locals = locals;
         this.file = file;
@@ -115,6 +152,7 @@ public final class DebugInfoEncoder {
         this.isStatic = isStatic;
         this.codeSize = codeSize;
         this.regSize = regSize;
+        this.compact = compact;
 
         output = new ByteArrayAnnotatedOutput();
         lastEntryForReg = new LocalList.Entry[regSize];
@@ -255,6 +293,10 @@ public final class DebugInfoEncoder {
             if (next == nextAddrP) {
                 // Combined advance PC + position entry
                 emitPosition(sortedPositions.get(curPositionIdx++));
+            } else if (compact && lineKnown
+                    && (next - address) <= maxSpecialAddress(0)) {
+                // Repeat the current line, which is shorter.
+                emitSpecial(0, next - address);
             } else {
                 emitAdvancePc(next - address);
             }
@@ -786,6 +828,11 @@ public final class DebugInfoEncoder {
                     "Position entries must be in ascending address order");
         }
 
+        if (compact) {
+            emitPositionCompact(deltaLines, deltaAddress);
+            return;
+        }
+
         if ((deltaLines < DBG_LINE_BASE)
                 || (deltaLines > (DBG_LINE_BASE + DBG_LINE_RANGE -1))) {
             emitAdvanceLine(deltaLines);
@@ -806,10 +853,73 @@ public final class DebugInfoEncoder {
             }
         }
 
-        output.writeByte(opcode);
+        emitSpecial(deltaLines, deltaAddress);
+    }
+
+    /**
+     * Emits the shortest byte sequence for the given position change:
+     * a special opcode covering as much of it as possible, preceded
+     * by {@code DBG_ADVANCE_LINE} and {@code DBG_ADVANCE_PC} for the
+     * rest, if any.
+     *
+     * @param deltaLines the line change to encode
+     * @param deltaAddress {@code >= 0;} the address change to encode
+     * @throws IOException
+     */
+    private void emitPositionCompact(int deltaLines, int deltaAddress)
+            throws IOException {
+        int bestCost = Integer.MAX_VALUE;
+        int bestLines = 0;
+        int bestAddress = 0;
+
+        for (int lines = DBG_LINE_BASE;
+             lines < DBG_LINE_BASE + DBG_LINE_RANGE;
+             lines++) {
+            int addr = Math.min(deltaAddress, maxSpecialAddress(lines));
+            int cost = 1;
+
+            if (lines != deltaLines) {
+                cost += 1 + Leb128Utils.signedLeb128Size(deltaLines - lines);
+            }
+
+            if (addr != deltaAddress) {
+                cost += 1
+                    + Leb128Utils.unsignedLeb128Size(deltaAddress - addr);
+            }
+
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestLines = lines;
+                bestAddress = addr;
+            }
+        }
+
+        if (bestLines != deltaLines) {
+            emitAdvanceLine(deltaLines - bestLines);
+        }
+
+        if (bestAddress != deltaAddress) {
+            emitAdvancePc(deltaAddress - bestAddress);
+        }
+
+        emitSpecial(bestLines, bestAddress);
+    }
+
+    /**
+     * Emits a special opcode, which changes the line and address and
+     * then adds a position entry.
+     *
+     * @param deltaLines {@code >= DBG_LINE_BASE, < DBG_LINE_BASE +
+     * DBG_LINE_RANGE;} the line change
+     * @param deltaAddress {@code >= 0, <= maxSpecialAddress(deltaLines);}
+     * the address change
+     */
+    private void emitSpecial(int deltaLines, int deltaAddress) {
+        output.writeByte(computeOpcode(deltaLines, deltaAddress));
 
         line += deltaLines;
         address += deltaAddress;
+        lineKnown = true;
 
         if (annotateTo != null || debugPrint != null) {
             annotate(1,
@@ -817,6 +927,19 @@ public final class DebugInfoEncoder {
         }
     }
 
+    /**
+     * Gets the largest address change a special opcode can encode
+     * along with the given line change.
+     *
+     * @param deltaLines {@code >= DBG_LINE_BASE, < DBG_LINE_BASE +
+     * DBG_LINE_RANGE;} the line change
+     * @return {@code >= 0;} the largest address change
+     */
+    private static int maxSpecialAddress(int deltaLines) {
+        return (0xff - DBG_FIRST_SPECIAL - (deltaLines - DBG_LINE_BASE))
+            / DBG_LINE_RANGE;
+    }
+
     /**
      * Computes a special opcode that will encode the given position change.
      * If the return value is > 0xff, then the request cannot be fulfilled.
@@ -27,6 +27,7 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 public class DebugInfoItem extends OffsettedItem {
     /** the required alignment for instances of this class */
@@ -34,15 +35,34 @@ public class DebugInfoItem extends OffsettedItem {
 
     private static final boolean ENABLE_ENCODER_SELF_CHECK = false;
 
-    /** {@code non-null;} the code this item represents */
-    private final DalvCode code;
+    /**
+     * {@code non-null;} the code this item represents; {@code null}
+     * once written, if the file releases written items
+     */
+    private DalvCode code;
     
     private byte[] encoded;
 
     private final boolean isStatic;
     private final CstMethodRef ref;
 
+    /** whether to encode compactly; see {@link DebugInfoEncoder} */
+    private final boolean compact;
+
     public DebugInfoItem(DalvCode code, boolean isStatic, CstMethodRef ref) {
+        this(code, isStatic, ref, false);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param code {@code non-null;} the code to encode the debug info of
+     * @param isStatic whether the method is static
+     * @param ref {@code non-null;} the method
+     * @param compact whether to encode as compactly as possible
+     */
+    public DebugInfoItem(DalvCode code, boolean isStatic, CstMethodRef ref,
+            boolean compact) {
         // We don't know the write size yet.
         super (ALIGNMENT, -1);
 
@@ -53,6 +73,7 @@ public class DebugInfoItem extends OffsettedItem {
         this.code = code;
         this.isStatic = isStatic;
         this.ref = ref;
+        this.compact = compact;
     }
 
     /** {@inheritDoc} */
@@ -61,6 +82,68 @@ public class DebugInfoItem extends OffsettedItem {
         return ItemType.TYPE_DEBUG_INFO_ITEM;
     }
 
+    /**
+     * Encodes this instance ahead of placement, so that it can be
+     * compared with others. Instances which encode to the same bytes are
+     * equal, and can be shared by their methods. This may only be
+     * called once the file's indices have all been set.
+     *
+     * @param file {@code non-null;} the file to refer to
+     */
+    /*package*/ void encodeEarly(DexFile file) {
+        if (encoded != null) {
+            return;
+        }
+
+        try {
+            encoded = encode(file, null, null, null, false);
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while encoding debug info for " + ref.toHuman());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        if (encoded == null) {
+            return super.hashCode();
+        }
+
+        return Arrays.hashCode(encoded);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only instances which have been encoded early can be compared.
+     */
+    @Override
+    protected int compareTo0(OffsettedItem other) {
+        byte[] otherEncoded = ((DebugInfoItem) other).encoded;
+
+        if ((encoded == null) || (otherEncoded == null)) {
+            return super.compareTo0(other);
+        }
+
+        int sz = Math.min(encoded.length, otherEncoded.length);
+
+        for (int i = 0; i < sz; i++) {
+            int b1 = encoded[i] & 0xff;
+            int b2 = otherEncoded[i] & 0xff;
+
+            if (b1 != b2) {
+                return (b1 < b2) ? -1 : 1;
+            }
+        }
+
+        if (encoded.length != otherEncoded.length) {
+            return (encoded.length < otherEncoded.length) ? -1 : 1;
+        }
+
+        return 0;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void addContents(DexFile file) {
@@ -73,7 +156,9 @@ public class DebugInfoItem extends OffsettedItem {
         // Encode the data and note the size.
 
         try {
-            encoded = encode(addedTo.getFile(), null, null, null, false);
+            if (encoded == null) {
+                encoded = encode(addedTo.getFile(), null, null, null, false);
+            }
             setWriteSize(encoded.length);
         } catch (RuntimeException ex) {
             throw ExceptionWithContext.withContext(ex,
@@ -125,6 +210,12 @@ public class DebugInfoItem extends OffsettedItem {
         }
 
         out.write(encoded);
+
+        if (file.isReleasingWrittenItems()) {
+            // Nothing needs these anymore; let them be collected.
+            code = null;
+            encoded = null;
+        }
     }
 
     /**
@@ -146,7 +237,7 @@ public class DebugInfoItem extends OffsettedItem {
         if (ENABLE_ENCODER_SELF_CHECK && (file != null)) {
             try {
                 DebugInfoDecoder.validateEncode(result, file, ref, code,
-                        isStatic);
+                        isStatic, compact);
             } catch (RuntimeException ex) {
                 // Reconvert, annotating to System.err.
                 encode0(file, "", new PrintWriter(System.err, true), null,
@@ -180,7 +271,7 @@ public class DebugInfoItem extends OffsettedItem {
 
         DebugInfoEncoder encoder =
             new DebugInfoEncoder(positions, locals,
-                    file, codeSize, regSize, isStatic, ref);
+                    file, codeSize, regSize, isStatic, ref, compact);
 
         byte[] result;
 
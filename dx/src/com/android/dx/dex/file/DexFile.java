@@ -24,15 +24,25 @@ import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Profiler;
+import com.android.dx.util.StreamAnnotatedOutput;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.zip.Adler32;
 
 import static com.android.dx.dex.file.MixedItemSection.SortType;
@@ -101,6 +111,24 @@ public final class DexFile {
     /** {@code >= 40;} maximum width of the file dump */
     private int dumpWidth;
 
+    /**
+     * whether items drop their contents once written; see {@link
+     * #writeTo(FileChannel)}
+     */
+    private boolean releaseWrittenItems;
+
+    /** {@code null-ok;} startup profile to lay out the file by, if any */
+    private LayoutProfile layoutProfile;
+
+    /**
+     * whether to keep the string data in string id order even when
+     * laying out the file by a profile
+     */
+    private boolean sortedStringData;
+
+    /** whether to encode debug info compactly and share equal items */
+    private boolean compactDebugInfo;
+
     /**
      * Constructs an instance. It is initially empty.
      */
@@ -215,6 +243,66 @@ public final class DexFile {
         this.dumpWidth = dumpWidth;
     }
 
+    /**
+     * Sets the startup profile to lay out this instance by. This must
+     * be called before the file is written.
+     *
+     * @param layoutProfile {@code null-ok;} the profile, or {@code null}
+     * for the default layout
+     */
+    public void setLayoutProfile(LayoutProfile layoutProfile) {
+        this.layoutProfile = layoutProfile;
+    }
+
+    /**
+     * Sets whether to keep the string data in string id order, which
+     * is sorted, even when laying out this instance by a profile. The
+     * sorted order puts strings that share prefixes next to each other
+     * and keeps the string id offsets ascending, which is what makes the
+     * two sections deflate best; moving the startup strings to the front
+     * costs some compression in exchange for locality.
+     *
+     * @param sortedStringData whether to keep the string data sorted
+     */
+    public void setSortedStringData(boolean sortedStringData) {
+        this.sortedStringData = sortedStringData;
+    }
+
+    /**
+     * Sets whether to encode debug info as compactly as possible and
+     * share one debug info item among methods whose debug info encodes
+     * the same. This must be called before the file is written.
+     *
+     * @param compactDebugInfo whether to compact debug info
+     */
+    public void setCompactDebugInfo(boolean compactDebugInfo) {
+        this.compactDebugInfo = compactDebugInfo;
+    }
+
+    /**
+     * Gets whether to compact debug info.
+     *
+     * <p>This is package-scope in order to allow the code items to
+     * query it.</p>
+     *
+     * @return whether to compact debug info
+     */
+    /*package*/ boolean isCompactingDebugInfo() {
+        return compactDebugInfo;
+    }
+
+    /**
+     * Gets the startup profile to lay out this instance by, if any.
+     *
+     * <p>This is package-scope in order to allow the sections to
+     * query it.</p>
+     *
+     * @return {@code null-ok;} the profile, if any
+     */
+    /*package*/ LayoutProfile getLayoutProfile() {
+        return layoutProfile;
+    }
+
     /**
      * Gets the total file size, if known.
      * 
@@ -465,6 +553,88 @@ public final class DexFile {
         }
     }
 
+    /**
+     * Writes the contents of this instance as a {@code .dex} file to
+     * the given channel, starting at its current position.
+     *
+     * <p>Unlike {@link #toDex}, this never holds the whole file in
+     * memory. The sections are written out in order through a small
+     * buffer, and the checksum and signature are filled in at the
+     * end. Code, debug info and class data items drop their contents
+     * as soon as they have been written, so this instance can't be
+     * written again afterwards.</p>
+     *
+     * <p>This bounds the memory used for the output itself, not the
+     * memory used for the code leading up to it: each method's
+     * translated instructions still stay in memory until they are
+     * written, since they can't be finished until every constant has
+     * its index. Only the rop form they were translated from is let
+     * go of as soon as each method has been translated.</p>
+     *
+     * @param channel {@code non-null;} where to write to
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        long[] mark = Profiler.start();
+        placeSections();
+        Profiler.end(Profiler.Phase.LAYOUT, mark);
+
+        mark = Profiler.start();
+
+        long start = channel.position();
+        SigningOutputStream signing =
+            new SigningOutputStream(Channels.newOutputStream(channel));
+        StreamAnnotatedOutput out = new StreamAnnotatedOutput(signing);
+
+        releaseWrittenItems = true;
+
+        try {
+            writeSections(out);
+            out.flush();
+        } catch (ExceptionWithContext ex) {
+            // Report failures of the channel as such.
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+
+        // Patch the checksum and signature into the header.
+
+        byte[] signature = signing.getSignature();
+        Adler32 a32 = new Adler32();
+        a32.update(signature);
+
+        int checksum = combineAdler32((int) a32.getValue(),
+                signing.getAdler32(), fileSize - 32);
+        ByteBuffer patch = ByteBuffer.allocate(24);
+
+        patch.order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt(checksum);
+        patch.put(signature);
+        patch.flip();
+
+        long at = start + 8;
+        while (patch.hasRemaining()) {
+            at += channel.write(patch, at);
+        }
+
+        Profiler.end(Profiler.Phase.WRITE, mark);
+    }
+
+    /**
+     * Gets whether items should drop their contents once they have
+     * been written, because the file is being written out by {@link
+     * #writeTo(FileChannel)}.
+     *
+     * <p>This is package-scope in order to allow the items to query
+     * it.</p>
+     *
+     * @return whether to drop the contents of written items
+     */
+    /*package*/ boolean isReleasingWrittenItems() {
+        return releaseWrittenItems;
+    }
+
     /**
      * Returns the contents of this instance as a {@code .dex} file,
      * in a {@link ByteArrayAnnotatedOutput} instance.
@@ -475,6 +645,41 @@ public final class DexFile {
      */
     private ByteArrayAnnotatedOutput toDex0(boolean annotate,
             boolean verbose) {
+        long[] mark = Profiler.start();
+        placeSections();
+        Profiler.end(Profiler.Phase.LAYOUT, mark);
+
+        mark = Profiler.start();
+        byte[] barr = new byte[fileSize];
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+        if (annotate) {
+            out.enableAnnotations(dumpWidth, verbose);
+        }
+
+        writeSections(out);
+
+        // Perform final bookkeeping.
+        
+        calcSignature(barr);
+        calcChecksum(barr);
+        Profiler.end(Profiler.Phase.WRITE, mark);
+
+        if (annotate) {
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return out;
+    }
+
+    /**
+     * Prepares all the sections and places them and their items
+     * within the file, which determines {@link #fileSize}.
+     */
+    private void placeSections() {
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
@@ -494,6 +699,14 @@ public final class DexFile {
         stringData.prepare();
         header.prepare();
 
+        if ((layoutProfile != null) && !sortedStringData) {
+            layoutProfile.rankStrings(this);
+        }
+
+        if (compactDebugInfo) {
+            shareDebugInfo();
+        }
+
         // Place the sections within the file.
 
         int count = sections.length;
@@ -532,16 +745,57 @@ public final class DexFile {
             }
         }
 
-        // Write out all the sections.
-
         fileSize = offset;
-        byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+    }
 
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
+    /**
+     * Makes each set of methods whose debug info encodes to the same
+     * bytes, such as accessors and bridges, share one debug info item,
+     * and removes the others. Since the encodings refer to the string
+     * and type ids, this can only be done once the sections have all
+     * been prepared.
+     */
+    private void shareDebugInfo() {
+        HashMap<DebugInfoItem, DebugInfoItem> shared =
+            new HashMap<DebugInfoItem, DebugInfoItem>();
+        ArrayList<DebugInfoItem> unused = new ArrayList<DebugInfoItem>();
+
+        for (Item item : wordData.items()) {
+            if (!(item instanceof CodeItem)) {
+                continue;
+            }
+
+            CodeItem codeItem = (CodeItem) item;
+            DebugInfoItem debugInfo = codeItem.getDebugInfo();
+
+            if (debugInfo == null) {
+                continue;
+            }
+
+            codeItem.assignIndices(this);
+            debugInfo.encodeEarly(this);
+
+            DebugInfoItem one = shared.get(debugInfo);
+
+            if (one == null) {
+                shared.put(debugInfo, debugInfo);
+            } else {
+                codeItem.shareDebugInfo(one);
+                unused.add(debugInfo);
+            }
         }
 
+        byteData.removeItems(unused);
+    }
+
+    /**
+     * Writes out all the sections, which must have been placed.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    private void writeSections(AnnotatedOutput out) {
+        int count = sections.length;
+
         for (int i = 0; i < count; i++) {
             try {
                 Section one = sections[i];
@@ -567,24 +821,13 @@ public final class DexFile {
         if (out.getCursor() != fileSize) {
             throw new RuntimeException("foreshortened write");
         }
-
-        // Perform final bookkeeping.
-        
-        calcSignature(barr);
-        calcChecksum(barr);
-
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
-        }
-
-        return out;
     }
 
     /**
      * Generates and returns statistics for all the items in the file.
+     * The string layout is included only if the string data was asked
+     * to be kept sorted and the file has been placed, since measuring
+     * it means deflating the string sections.
      * 
      * @return {@code non-null;} the statistics
      */
@@ -595,6 +838,10 @@ public final class DexFile {
             stats.addAll(s);
         }
 
+        if (sortedStringData && (fileSize >= 0)) {
+            stats.addStringLayout(this, stringIds);
+        }
+
         return stats;
     }
 
@@ -644,4 +891,120 @@ public final class DexFile {
         bytes[10] = (byte) (sum >> 16);
         bytes[11] = (byte) (sum >> 24);
     }
+
+    /**
+     * Combines the Adler-32 checksums of two adjacent runs of bytes
+     * into the checksum of their concatenation.
+     *
+     * @param adler1 checksum of the first run
+     * @param adler2 checksum of the second run
+     * @param length2 {@code >= 0;} length of the second run
+     * @return the checksum of both runs together
+     */
+    private static int combineAdler32(int adler1, int adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) +
+            base - rem;
+
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+
+        return (int) (sum1 | (sum2 << 16));
+    }
+
+    /**
+     * Output stream which computes the signature of a {@code .dex} file
+     * and the Adler-32 checksum of everything after the signature, as
+     * the file passes through it.
+     */
+    private static class SigningOutputStream extends FilterOutputStream {
+        /** offset of the first byte covered by the signature */
+        private static final int SIGNED_START = 32;
+
+        /** {@code non-null;} digest for the signature */
+        private final MessageDigest md;
+
+        /** {@code non-null;} checksum of the signed bytes */
+        private final Adler32 a32;
+
+        /** {@code >= 0;} number of bytes passed through so far */
+        private long position;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param out {@code non-null;} where the bytes go
+         */
+        public SigningOutputStream(OutputStream out) {
+            super(out);
+
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            a32 = new Adler32();
+            position = 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+
+            if (position >= SIGNED_START) {
+                md.update((byte) b);
+                a32.update(b);
+            }
+
+            position++;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+
+            int skip = (int) Math.max(0,
+                    Math.min(len, SIGNED_START - position));
+            md.update(b, off + skip, len - skip);
+            a32.update(b, off + skip, len - skip);
+
+            position += len;
+        }
+
+        /**
+         * Gets the signature of the bytes written so far.
+         *
+         * @return {@code non-null;} the signature
+         */
+        public byte[] getSignature() {
+            return md.digest();
+        }
+
+        /**
+         * Gets the checksum of the signed bytes written so far.
+         *
+         * @return the checksum
+         */
+        public int getAdler32() {
+            return (int) a32.getValue();
+        }
+    }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Profile of the classes and methods a program uses at startup, in
+ * first-use order, used to lay out a file so that what is touched
+ * early sits together. Each line of the profile is one of:
+ *
+ * <ul>
+ * <li>{@code Lfoo/Bar;}, for a class and all of its methods;</li>
+ * <li>{@code Lfoo/Bar;.name}, for the methods of a class with the given
+ * name. Once any method of a class is named, only the named ones are
+ * ranked.</li>
+ * </ul>
+ *
+ * <p>Text from a {@code #} to the end of a line is ignored, as are blank
+ * lines.</p>
+ *
+ * <p>Each class and method gets the rank of the first line naming it,
+ * and each string the lowest rank of the profiled classes and code that
+ * refer to it. Profiled classes are defined first, in rank order as far
+ * as superclasses and interfaces coming first allows; within each item
+ * type, code and string data items are placed in rank order, with
+ * everything unranked following in the usual order.</p>
+ */
+public final class LayoutProfile {
+    /** rank of anything the profile doesn't cover */
+    /*package*/ static final int UNRANKED = Integer.MAX_VALUE;
+
+    /** {@code non-null;} profiled classes, in first-use order */
+    private final ArrayList<Type> classes;
+
+    /** {@code non-null;} the rank of each profiled class */
+    private final HashMap<Type, Integer> classRanks;
+
+    /**
+     * {@code non-null;} the rank of each profiled method name, by
+     * class; classes profiled whole have no entry
+     */
+    private final HashMap<Type, HashMap<String, Integer>> methodRanks;
+
+    /**
+     * {@code null-ok;} the rank of each string referred to by profiled
+     * classes and code; set in {@link #rankStrings}
+     */
+    private HashMap<CstUtf8, Integer> stringRanks;
+
+    /** {@code >= 0;} rank of the next profile line */
+    private int nextRank;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param profileFile {@code non-null;} name of the profile file
+     */
+    public LayoutProfile(String profileFile) {
+        this.classes = new ArrayList<Type>();
+        this.classRanks = new HashMap<Type, Integer>();
+        this.methodRanks = new HashMap<Type, HashMap<String, Integer>>();
+        this.stringRanks = null;
+        this.nextRank = 0;
+
+        loadProfile(profileFile);
+    }
+
+    /**
+     * Gets the profiled classes, in first-use order.
+     *
+     * @return {@code non-null;} the classes
+     */
+    /*package*/ List<Type> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Gets the rank of a class.
+     *
+     * @param type {@code non-null;} the class
+     * @return {@code >= 0;} its rank, or {@link #UNRANKED}
+     */
+    /*package*/ int getClassRank(Type type) {
+        Integer rank = classRanks.get(type);
+
+        return (rank == null) ? UNRANKED : rank;
+    }
+
+    /**
+     * Gets the rank of a method.
+     *
+     * @param ref {@code non-null;} the method
+     * @return {@code >= 0;} its rank, or {@link #UNRANKED}
+     */
+    /*package*/ int getMethodRank(CstMethodRef ref) {
+        Type type = ref.getDefiningClass().getClassType();
+        HashMap<String, Integer> names = methodRanks.get(type);
+
+        if (names == null) {
+            // Either unprofiled or profiled whole.
+            return getClassRank(type);
+        }
+
+        Integer rank = names.get(ref.getNat().getName().getString());
+
+        return (rank == null) ? UNRANKED : rank;
+    }
+
+    /**
+     * Gets the rank of an item, for placement within its section.
+     *
+     * @param item {@code non-null;} the item
+     * @return {@code >= 0;} its rank, or {@link #UNRANKED}
+     */
+    /*package*/ int getRank(OffsettedItem item) {
+        if (item instanceof CodeItem) {
+            return getMethodRank(((CodeItem) item).getRef());
+        }
+
+        if ((item instanceof StringDataItem) && (stringRanks != null)) {
+            Integer rank = stringRanks.get(((StringDataItem) item).getValue());
+            return (rank == null) ? UNRANKED : rank;
+        }
+
+        return UNRANKED;
+    }
+
+    /**
+     * Ranks the strings of a file, by the profiled classes and code
+     * that refer to them. This must be called after the file has been
+     * prepared and before its string data is placed.
+     *
+     * @param file {@code non-null;} the file
+     */
+    /*package*/ void rankStrings(DexFile file) {
+        stringRanks = new HashMap<CstUtf8, Integer>();
+
+        for (Item item : file.getClassDefs().items()) {
+            CstType thisClass = ((ClassDefItem) item).getThisClass();
+            int rank = getClassRank(thisClass.getClassType());
+
+            if (rank != UNRANKED) {
+                rankString(thisClass.getDescriptor(), rank);
+            }
+        }
+
+        for (Item item : file.getWordData().items()) {
+            if (!(item instanceof CodeItem)) {
+                continue;
+            }
+
+            CodeItem codeItem = (CodeItem) item;
+            CstMethodRef ref = codeItem.getRef();
+            int rank = getMethodRank(ref);
+            DalvCode code = codeItem.getCode();
+
+            if ((rank == UNRANKED) || (code == null)) {
+                continue;
+            }
+
+            rankString(ref.getNat().getName(), rank);
+
+            for (Constant cst : code.getInsnConstants()) {
+                if (cst instanceof CstString) {
+                    rankString(((CstString) cst).getString(), rank);
+                } else if (cst instanceof CstType) {
+                    rankString(((CstType) cst).getDescriptor(), rank);
+                } else if (cst instanceof CstMemberRef) {
+                    CstMemberRef member = (CstMemberRef) cst;
+                    rankString(member.getDefiningClass().getDescriptor(),
+                            rank);
+                    rankString(member.getNat().getName(), rank);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lowers the rank of a string to the given one, if it isn't
+     * already lower.
+     *
+     * @param string {@code non-null;} the string
+     * @param rank {@code >= 0;} the rank
+     */
+    private void rankString(CstUtf8 string, int rank) {
+        Integer old = stringRanks.get(string);
+
+        if ((old == null) || (old > rank)) {
+            stringRanks.put(string, rank);
+        }
+    }
+
+    /**
+     * Reads the profile.
+     *
+     * @param filename {@code non-null;} name of the file to read
+     */
+    private void loadProfile(String filename) {
+        try {
+            FileReader fr = new FileReader(filename);
+            BufferedReader bfr = new BufferedReader(fr);
+
+            String line;
+
+            while (null != (line = bfr.readLine())) {
+                addProfileLine(line);
+            }
+
+            fr.close();
+        } catch (IOException ex) {
+            // Let the exception percolate up as a RuntimeException.
+            throw new RuntimeException("Error with layout profile: " +
+                    filename, ex);
+        }
+    }
+
+    /**
+     * Adds one line of the profile.
+     *
+     * @param line {@code non-null;} the line
+     */
+    private void addProfileLine(String line) {
+        int comment = line.indexOf('#');
+
+        if (comment >= 0) {
+            line = line.substring(0, comment);
+        }
+
+        line = line.trim();
+
+        if (line.length() == 0) {
+            return;
+        }
+
+        int rank = nextRank++;
+        int at = line.indexOf(";.");
+        Type type;
+
+        try {
+            type = Type.intern((at < 0) ? line : line.substring(0, at + 1));
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("bad layout profile line: " + line,
+                    ex);
+        }
+
+        if (!classRanks.containsKey(type)) {
+            classes.add(type);
+            classRanks.put(type, rank);
+        }
+
+        if (at < 0) {
+            return;
+        }
+
+        HashMap<String, Integer> names = methodRanks.get(type);
+
+        if (names == null) {
+            names = new HashMap<String, Integer>();
+            methodRanks.put(type, names);
+        }
+
+        String name = line.substring(at + 2);
+
+        if (!names.containsKey(name)) {
+            names.put(name, rank);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
@@ -282,6 +283,41 @@ public final class MixedItemSection extends Section {
         }
     }
 
+    /**
+     * Removes items which were added to this instance but turned out
+     * not to be needed, such as ones equal to other items which will be
+     * used in their place. Items are matched by identity, not equality.
+     * This may only be called after the instance is prepared and before
+     * its items are placed.
+     *
+     * @param toRemove {@code non-null;} the items to remove
+     */
+    /*package*/ void removeItems(
+            Collection<? extends OffsettedItem> toRemove) {
+        throwIfNotPrepared();
+
+        IdentityHashMap<OffsettedItem, OffsettedItem> removed =
+            new IdentityHashMap<OffsettedItem, OffsettedItem>();
+
+        for (OffsettedItem item : toRemove) {
+            removed.put(item, item);
+        }
+
+        int sz = items.size();
+        int at = 0;
+
+        for (int i = 0; i < sz; i++) {
+            OffsettedItem one = items.get(i);
+
+            if (!removed.containsKey(one)) {
+                items.set(at, one);
+                at++;
+            }
+        }
+
+        items.subList(at, sz).clear();
+    }
+
     /**
      * Places all the items in this instance at particular offsets. This
      * will call {@link OffsettedItem#place} on each item. If an item
@@ -304,6 +340,34 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        final LayoutProfile layout = getFile().getLayoutProfile();
+
+        if ((layout != null) && (sort != SortType.NONE)) {
+            /*
+             * Move profiled items to the front of their type. The sort
+             * is stable, so everything else stays in the order above.
+             */
+            Collections.sort(items, new Comparator<OffsettedItem>() {
+                public int compare(OffsettedItem item1,
+                        OffsettedItem item2) {
+                    int result = TYPE_SORTER.compare(item1, item2);
+
+                    if (result != 0) {
+                        return result;
+                    }
+
+                    int rank1 = layout.getRank(item1);
+                    int rank2 = layout.getRank(item2);
+
+                    if (rank1 != rank2) {
+                        return (rank1 < rank2) ? -1 : 1;
+                    }
+
+                    return 0;
+                }
+            });
+        }
+
         int sz = items.size();
         int outAt = 0;
         for (int i = 0; i < sz; i++) {
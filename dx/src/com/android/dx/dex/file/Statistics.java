@@ -17,10 +17,16 @@
 package com.android.dx.dex.file;
 
 import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.zip.Deflater;
 
 /**
  * Statistics about the contents of a file.
@@ -29,11 +35,15 @@ public final class Statistics {
     /** {@code non-null;} data about each type of item */
     private final HashMap<String, Data> dataMap;
 
+    /** {@code null-ok;} data about the layout of the strings, if added */
+    private StringLayout stringLayout;
+
     /**
      * Constructs an instance.
      */
     public Statistics() {
         dataMap = new HashMap<String, Data>(50);
+        stringLayout = null;
     }
 
     /**
@@ -64,6 +74,17 @@ public final class Statistics {
         }
     }
 
+    /**
+     * Adds statistics about how the string data of a file is laid
+     * out, and how well it compresses. The file must have been placed.
+     *
+     * @param file {@code non-null;} the file
+     * @param stringIds {@code non-null;} the string ids of the file
+     */
+    public void addStringLayout(DexFile file, StringIdsSection stringIds) {
+        stringLayout = new StringLayout(file, stringIds);
+    }
+
     /**
      * Writes the statistics as an annotation.
      * 
@@ -85,6 +106,10 @@ public final class Statistics {
         for (Data data : sortedData.values()) {
             data.writeAnnotation(out);
         }
+
+        if (stringLayout != null) {
+            out.annotate(stringLayout.toHuman());
+        }
     }
 
     public String toHuman() {
@@ -102,6 +127,10 @@ public final class Statistics {
             sb.append(data.toHuman());
         }
 
+        if (stringLayout != null) {
+            sb.append(stringLayout.toHuman());
+        }
+
         return sb.toString();
     }
 
@@ -192,4 +221,144 @@ public final class Statistics {
             return sb.toString();
         }
     }
+
+    /**
+     * Statistical data about the layout of the string data of a file.
+     */
+    private static class StringLayout {
+        /** {@code >= 0;} number of strings */
+        private final int count;
+
+        /**
+         * {@code >= 0;} number of strings whose data comes before that
+         * of the string preceding them in string id order
+         */
+        private final int outOfOrder;
+
+        /** {@code >= 0;} total size of the string data in bytes */
+        private int totalSize;
+
+        /**
+         * {@code >= 0;} number of string bytes that are a prefix shared
+         * with the string data just before
+         */
+        private int sharedSize;
+
+        /**
+         * {@code >= 0;} size of the string ids and data together once
+         * deflated
+         */
+        private final int deflatedSize;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param file {@code non-null;} the file
+         * @param stringIds {@code non-null;} the string ids of the file
+         */
+        public StringLayout(DexFile file, StringIdsSection stringIds) {
+            ArrayList<StringDataItem> datas = new ArrayList<StringDataItem>();
+            ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+            int lastOffset = -1;
+            int disorder = 0;
+
+            for (Item item : stringIds.items()) {
+                StringDataItem data = ((StringIdItem) item).getData();
+                int offset = data.getAbsoluteOffset();
+
+                if (offset < lastOffset) {
+                    disorder++;
+                }
+
+                lastOffset = offset;
+                datas.add(data);
+                out.writeInt(offset);
+            }
+
+            Collections.sort(datas, new Comparator<StringDataItem>() {
+                public int compare(StringDataItem data1,
+                        StringDataItem data2) {
+                    return data1.getAbsoluteOffset()
+                        - data2.getAbsoluteOffset();
+                }
+            });
+
+            ByteArray last = null;
+
+            for (StringDataItem data : datas) {
+                ByteArray bytes = data.getValue().getBytes();
+
+                if (last != null) {
+                    sharedSize += sharedPrefix(last, bytes);
+                }
+
+                last = bytes;
+                totalSize += data.writeSize();
+                data.writeTo0(file, out);
+            }
+
+            count = datas.size();
+            outOfOrder = disorder;
+            deflatedSize = deflatedSize(out.toByteArray());
+        }
+
+        /**
+         * Gets the length of the common prefix of two byte arrays.
+         *
+         * @param bytes1 {@code non-null;} one array
+         * @param bytes2 {@code non-null;} the other array
+         * @return {@code >= 0;} the prefix length
+         */
+        private static int sharedPrefix(ByteArray bytes1, ByteArray bytes2) {
+            int sz = Math.min(bytes1.size(), bytes2.size());
+            int i = 0;
+
+            while ((i < sz) && (bytes1.getByte(i) == bytes2.getByte(i))) {
+                i++;
+            }
+
+            return i;
+        }
+
+        /**
+         * Gets the size of the given bytes once deflated as they
+         * would be in an archive.
+         *
+         * @param bytes {@code non-null;} the bytes
+         * @return {@code >= 0;} the deflated size
+         */
+        private static int deflatedSize(byte[] bytes) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+            byte[] buf = new byte[8192];
+            int size = 0;
+
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                size += deflater.deflate(buf);
+            }
+
+            deflater.end();
+            return size;
+        }
+
+        /**
+         * Generates a human-readable string for this data.
+         *
+         * @return string for human consumption.
+         */
+        public String toHuman() {
+            int total = count * 4 + totalSize;
+            int percent =
+                (totalSize == 0) ? 0 : (sharedSize * 100 / totalSize);
+
+            return "  string layout: " + outOfOrder + " of " + count +
+                " string_data_items out of string_id order\n" +
+                "    " + sharedSize + " bytes (" + percent + "%) " +
+                "shared as prefixes with the preceding string\n" +
+                "    " + total + " bytes of ids and data; " + deflatedSize +
+                " deflated\n";
+        }
+    }
 }
@@ -54,6 +54,15 @@ public final class StringDataItem extends OffsettedItem {
             + value.getUtf8Size() + 1;
     }
 
+    /**
+     * Gets the string value.
+     *
+     * @return {@code non-null;} the value
+     */
+    public CstUtf8 getValue() {
+        return value;
+    }
+
     /** {@inheritDoc} */
     @Override
     public ItemType itemType() {
@@ -0,0 +1,837 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Removes the classes and members of a file that can't be reached from
+ * a set of keep roots. Reachability is over the types, fields and
+ * methods referred to by the code, the signatures and the annotations
+ * of what is already reachable, starting from the roots named in a keep
+ * list. Each line of the list is one of:
+ *
+ * <ul>
+ * <li>{@code Lfoo/Bar;}, to keep a class and all of its members;</li>
+ * <li>{@code Lfoo/Bar;.name}, to keep the members of a class with the
+ * given name;</li>
+ * <li>{@code @Lfoo/Ann;}, to keep the classes and members annotated
+ * with the given annotation type, the classes whole.</li>
+ * </ul>
+ *
+ * <p>Text from a {@code #} to the end of a line is ignored, as are blank
+ * lines.</p>
+ *
+ * <p>Virtual methods are kept by name and descriptor: once a method is
+ * invoked with a given name and descriptor, every virtual method with
+ * them in a reachable class is reachable, as are all the virtual methods
+ * of classes that extend a class or implement an interface that isn't
+ * in the file, since the code outside may call them. Static
+ * initializers, native methods, the methods of annotation types and the
+ * {@code values} and {@code valueOf} methods of enums are kept along
+ * with their classes. Anything only reached through reflection has to
+ * be in the keep list.</p>
+ *
+ * <p>This has to run after all the classes are added to the file and
+ * before it is written.</p>
+ */
+public final class TreeShaker {
+    /** prefix of the types of the annotations the VM itself defines */
+    private static final String SYSTEM_ANNOTATION_PREFIX =
+        "Ldalvik/annotation/";
+
+    /** {@code non-null;} file being processed */
+    private final DexFile file;
+
+    /** {@code non-null;} classes to keep whole */
+    private final HashSet<Type> keepClasses;
+
+    /** {@code non-null;} names of the members to keep, by class */
+    private final HashMap<Type, HashSet<String>> keepMembers;
+
+    /** {@code non-null;} annotation types whose uses are kept */
+    private final HashSet<Type> keepAnnotations;
+
+    /** {@code non-null;} the classes of the file, by type */
+    private final HashMap<Type, ClassInfo> classes;
+
+    /** {@code non-null;} the virtual methods of the file, by nat */
+    private final HashMap<CstNat, ArrayList<EncodedMethod>> virtualsByNat;
+
+    /** {@code non-null;} the nats of the virtual methods invoked so far */
+    private final HashSet<CstNat> virtualNats;
+
+    /** {@code non-null;} the members reached so far */
+    private final HashSet<CstMemberRef> live;
+
+    /** {@code non-null;} reached classes yet to be processed */
+    private final ArrayList<ClassInfo> classQueue;
+
+    /** {@code non-null;} reached members yet to be processed */
+    private final ArrayList<EncodedMember> memberQueue;
+
+    /** the number of classes removed */
+    private int removedClassCount;
+
+    /** the number of members removed from the remaining classes */
+    private int removedMemberCount;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file {@code non-null;} the file to process
+     * @param keepListFile {@code non-null;} name of the keep list file
+     */
+    public TreeShaker(DexFile file, String keepListFile) {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+
+        this.file = file;
+        this.keepClasses = new HashSet<Type>();
+        this.keepMembers = new HashMap<Type, HashSet<String>>();
+        this.keepAnnotations = new HashSet<Type>();
+        this.classes = new HashMap<Type, ClassInfo>();
+        this.virtualsByNat = new HashMap<CstNat, ArrayList<EncodedMethod>>();
+        this.virtualNats = new HashSet<CstNat>();
+        this.live = new HashSet<CstMemberRef>();
+        this.classQueue = new ArrayList<ClassInfo>();
+        this.memberQueue = new ArrayList<EncodedMember>();
+
+        loadKeepList(keepListFile);
+
+        // The methods of Object the code outside may call on any object.
+        addObjectNat("toString", "()Ljava/lang/String;");
+        addObjectNat("equals", "(Ljava/lang/Object;)Z");
+        addObjectNat("hashCode", "()I");
+        addObjectNat("finalize", "()V");
+        addObjectNat("clone", "()Ljava/lang/Object;");
+    }
+
+    /**
+     * Gets the number of classes removed.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getRemovedClassCount() {
+        return removedClassCount;
+    }
+
+    /**
+     * Gets the number of members removed from the classes that remain.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getRemovedMemberCount() {
+        return removedMemberCount;
+    }
+
+    /**
+     * Removes the unreachable classes and members of the file.
+     */
+    public void shake() {
+        for (Item item : file.getClassDefs().items()) {
+            ClassInfo info = new ClassInfo((ClassDefItem) item);
+
+            classes.put(info.def.getThisClass().getClassType(), info);
+
+            for (EncodedMethod method : info.def.getMethods()) {
+                if (isVirtual(method)) {
+                    CstNat nat = method.getRef().getNat();
+                    ArrayList<EncodedMethod> list = virtualsByNat.get(nat);
+
+                    if (list == null) {
+                        list = new ArrayList<EncodedMethod>();
+                        virtualsByNat.put(nat, list);
+                    }
+
+                    list.add(method);
+                }
+            }
+        }
+
+        markRoots();
+
+        while (!(classQueue.isEmpty() && memberQueue.isEmpty())) {
+            if (!classQueue.isEmpty()) {
+                processClass(classQueue.remove(classQueue.size() - 1));
+            } else {
+                processMember(memberQueue.remove(memberQueue.size() - 1));
+            }
+        }
+
+        ClassDefsSection classDefs = file.getClassDefs();
+
+        for (ClassInfo info : classes.values()) {
+            ClassDefItem def = info.def;
+
+            if (!info.live) {
+                classDefs.remove(def.getThisClass().getClassType());
+                removedClassCount++;
+                continue;
+            }
+
+            for (EncodedField field : def.getFields()) {
+                if (!live.contains(field.getRef())) {
+                    removedMemberCount++;
+                }
+            }
+
+            for (EncodedMethod method : def.getMethods()) {
+                if (!live.contains(method.getRef())) {
+                    removedMemberCount++;
+                }
+            }
+
+            def.retainMembers(live);
+        }
+    }
+
+    /**
+     * Reads the keep list.
+     *
+     * @param filename {@code non-null;} name of the file to read
+     */
+    private void loadKeepList(String filename) {
+        try {
+            FileReader fr = new FileReader(filename);
+            BufferedReader bfr = new BufferedReader(fr);
+
+            String line;
+
+            while (null != (line = bfr.readLine())) {
+                addKeepRule(line);
+            }
+
+            fr.close();
+        } catch (IOException ex) {
+            // Let the exception percolate up as a RuntimeException.
+            throw new RuntimeException("Error with keep list: " +
+                    filename, ex);
+        }
+    }
+
+    /**
+     * Adds the rule on one line of the keep list.
+     *
+     * @param line {@code non-null;} the line
+     */
+    private void addKeepRule(String line) {
+        int comment = line.indexOf('#');
+
+        if (comment >= 0) {
+            line = line.substring(0, comment);
+        }
+
+        line = line.trim();
+
+        if (line.length() == 0) {
+            return;
+        }
+
+        try {
+            if (line.startsWith("@")) {
+                keepAnnotations.add(Type.intern(line.substring(1)));
+                return;
+            }
+
+            int at = line.indexOf(";.");
+
+            if (at < 0) {
+                keepClasses.add(Type.intern(line));
+                return;
+            }
+
+            Type type = Type.intern(line.substring(0, at + 1));
+            HashSet<String> names = keepMembers.get(type);
+
+            if (names == null) {
+                names = new HashSet<String>();
+                keepMembers.put(type, names);
+            }
+
+            names.add(line.substring(at + 2));
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("bad keep list line: " + line, ex);
+        }
+    }
+
+    /**
+     * Adds a method of {@code Object} to the virtual methods invoked
+     * from the start.
+     *
+     * @param name {@code non-null;} the method name
+     * @param descriptor {@code non-null;} the method descriptor
+     */
+    private void addObjectNat(String name, String descriptor) {
+        virtualNats.add(new CstNat(new CstUtf8(name),
+                        new CstUtf8(descriptor)));
+    }
+
+    /**
+     * Marks the classes named by the keep list, and the classes that
+     * are or have members annotated with a kept annotation type.
+     */
+    private void markRoots() {
+        for (ClassInfo info : classes.values()) {
+            ClassDefItem def = info.def;
+            Type type = def.getThisClass().getClassType();
+
+            if (isKeptByAnnotation(def.getClassAnnotations())) {
+                keepClasses.add(type);
+            }
+
+            if (keepClasses.contains(type) || keepMembers.containsKey(type)) {
+                markClass(type);
+                continue;
+            }
+
+            if (keepAnnotations.isEmpty()) {
+                continue;
+            }
+
+            for (EncodedField field : def.getFields()) {
+                if (isKeptByAnnotation(
+                            def.getFieldAnnotations(field.getRef()))) {
+                    markClass(type);
+                    break;
+                }
+            }
+
+            for (EncodedMethod method : def.getMethods()) {
+                if (isKeptByAnnotation(
+                            def.getMethodAnnotations(method.getRef()))) {
+                    markClass(type);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a set of annotations includes one of a kept
+     * annotation type.
+     *
+     * @param annotations {@code null-ok;} the annotations
+     * @return {@code true} if one of them is kept
+     */
+    private boolean isKeptByAnnotation(Annotations annotations) {
+        if (annotations == null || keepAnnotations.isEmpty()) {
+            return false;
+        }
+
+        for (Annotation a : annotations.getAnnotations()) {
+            if (keepAnnotations.contains(a.getType().getClassType())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks a class reachable, if it is in the file. Array types mark
+     * their element class.
+     *
+     * @param type {@code non-null;} the type
+     */
+    private void markClass(Type type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+
+        ClassInfo info = classes.get(type);
+
+        if (info != null && !info.live) {
+            info.live = true;
+            classQueue.add(info);
+        }
+    }
+
+    /**
+     * Marks the members of a newly reached class that are kept along
+     * with it, and the classes it depends on.
+     *
+     * @param info {@code non-null;} the class
+     */
+    private void processClass(ClassInfo info) {
+        ClassDefItem def = info.def;
+        Type type = def.getThisClass().getClassType();
+        CstType superclass = def.getSuperclass();
+        TypeList interfaces = def.getInterfaces();
+        int sz = interfaces.size();
+
+        if (superclass != null) {
+            markClass(superclass.getClassType());
+        }
+
+        for (int i = 0; i < sz; i++) {
+            markClass(interfaces.getType(i));
+        }
+
+        markAnnotations(def.getClassAnnotations());
+
+        int classFlags = def.getAccessFlags();
+        boolean keepAll = keepClasses.contains(type);
+        boolean keepVirtuals = keepAll || hasLibrarySupertype(type);
+        HashSet<String> keepNames = keepMembers.get(type);
+
+        for (EncodedField field : def.getFields()) {
+            CstFieldRef ref = field.getRef();
+
+            if (keepAll
+                    || isKeptByName(keepNames, ref)
+                    || isKeptByAnnotation(def.getFieldAnnotations(ref))) {
+                markField(field);
+            }
+        }
+
+        for (EncodedMethod method : def.getMethods()) {
+            CstMethodRef ref = method.getRef();
+            int flags = method.getAccessFlags();
+
+            if (keepAll
+                    || ref.isClassInit()
+                    || (flags & AccessFlags.ACC_NATIVE) != 0
+                    || (classFlags & AccessFlags.ACC_ANNOTATION) != 0
+                    || ((classFlags & AccessFlags.ACC_ENUM) != 0
+                            && (flags & AccessFlags.ACC_STATIC) != 0
+                            && isEnumMethod(ref))
+                    || isKeptByName(keepNames, ref)
+                    || isKeptByAnnotation(def.getMethodAnnotations(ref))
+                    || (isVirtual(method)
+                            && (keepVirtuals
+                                    || virtualNats.contains(ref.getNat())))) {
+                markMethod(method);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a member is named in a set of kept names.
+     *
+     * @param keepNames {@code null-ok;} the names
+     * @param ref {@code non-null;} the member
+     * @return {@code true} if the member is kept by name
+     */
+    private static boolean isKeptByName(HashSet<String> keepNames,
+            CstMemberRef ref) {
+        return (keepNames != null)
+            && keepNames.contains(ref.getNat().getName().getString());
+    }
+
+    /**
+     * Returns whether a static method of an enum is one that
+     * {@code Enum.valueOf()} calls by reflection.
+     *
+     * @param ref {@code non-null;} the method
+     * @return {@code true} if it is {@code values} or {@code valueOf}
+     */
+    private static boolean isEnumMethod(CstMethodRef ref) {
+        String name = ref.getNat().getName().getString();
+
+        return name.equals("values") || name.equals("valueOf");
+    }
+
+    /**
+     * Returns whether a method is virtual, that is, neither static,
+     * private nor a constructor.
+     *
+     * @param method {@code non-null;} the method
+     * @return {@code true} if the method is virtual
+     */
+    private static boolean isVirtual(EncodedMethod method) {
+        return (method.getAccessFlags() & (AccessFlags.ACC_STATIC
+                        | AccessFlags.ACC_PRIVATE
+                        | AccessFlags.ACC_CONSTRUCTOR)) == 0;
+    }
+
+    /**
+     * Returns whether a class has a supertype other than {@code Object}
+     * that isn't in the file, directly or through its supertypes that
+     * are.
+     *
+     * @param type {@code non-null;} the class
+     * @return {@code true} if it has a library supertype
+     */
+    private boolean hasLibrarySupertype(Type type) {
+        if (type.equals(Type.OBJECT)) {
+            return false;
+        }
+
+        ClassInfo info = classes.get(type);
+
+        if (info == null) {
+            return true;
+        }
+
+        if (info.hasLibrarySupertype == null) {
+            CstType superclass = info.def.getSuperclass();
+            TypeList interfaces = info.def.getInterfaces();
+            int sz = interfaces.size();
+            boolean result = (superclass != null)
+                && hasLibrarySupertype(superclass.getClassType());
+
+            for (int i = 0; i < sz && !result; i++) {
+                result = hasLibrarySupertype(interfaces.getType(i));
+            }
+
+            info.hasLibrarySupertype = result;
+        }
+
+        return info.hasLibrarySupertype;
+    }
+
+    /**
+     * Marks a field reachable.
+     *
+     * @param field {@code non-null;} the field
+     */
+    private void markField(EncodedField field) {
+        CstFieldRef ref = field.getRef();
+
+        if (live.add(ref)) {
+            markClass(ref.getDefiningClass().getClassType());
+            memberQueue.add(field);
+        }
+    }
+
+    /**
+     * Marks a method reachable. For a virtual method, that makes all
+     * the methods that may override it reachable too.
+     *
+     * @param method {@code non-null;} the method
+     */
+    private void markMethod(EncodedMethod method) {
+        CstMethodRef ref = method.getRef();
+
+        if (live.add(ref)) {
+            markClass(ref.getDefiningClass().getClassType());
+            memberQueue.add(method);
+
+            if (isVirtual(method)) {
+                markVirtualNat(ref.getNat());
+            }
+        }
+    }
+
+    /**
+     * Marks a name and descriptor as invoked virtually, which makes the
+     * virtual methods with them in all reachable classes reachable.
+     *
+     * @param nat {@code non-null;} the name and descriptor
+     */
+    private void markVirtualNat(CstNat nat) {
+        if (!virtualNats.add(nat)) {
+            return;
+        }
+
+        ArrayList<EncodedMethod> methods = virtualsByNat.get(nat);
+
+        if (methods == null) {
+            return;
+        }
+
+        for (EncodedMethod method : methods) {
+            Type type = method.getRef().getDefiningClass().getClassType();
+
+            if (classes.get(type).live) {
+                markMethod(method);
+            }
+        }
+    }
+
+    /**
+     * Marks what a newly reached member refers to.
+     *
+     * @param member {@code non-null;} the member
+     */
+    private void processMember(EncodedMember member) {
+        if (member instanceof EncodedField) {
+            CstFieldRef ref = ((EncodedField) member).getRef();
+            ClassDefItem def = getDefiningClass(ref);
+
+            markClass(ref.getType());
+            markAnnotations(def.getFieldAnnotations(ref));
+            return;
+        }
+
+        EncodedMethod method = (EncodedMethod) member;
+        CstMethodRef ref = method.getRef();
+        ClassDefItem def = getDefiningClass(ref);
+        Prototype proto = ref.getPrototype();
+        StdTypeList params = proto.getParameterTypes();
+        int sz = params.size();
+
+        markClass(proto.getReturnType());
+
+        for (int i = 0; i < sz; i++) {
+            markClass(params.getType(i));
+        }
+
+        markAnnotations(def.getMethodAnnotations(ref));
+
+        AnnotationsList paramAnnotations = def.getParameterAnnotations(ref);
+
+        if (paramAnnotations != null) {
+            sz = paramAnnotations.size();
+
+            for (int i = 0; i < sz; i++) {
+                markAnnotations(paramAnnotations.get(i));
+            }
+        }
+
+        DalvCode code = method.getCode();
+
+        if (code == null) {
+            return;
+        }
+
+        for (Type type : code.getCatchTypes()) {
+            markClass(type);
+        }
+
+        for (Constant cst : code.getInsnConstants()) {
+            markConstant(cst);
+        }
+    }
+
+    /**
+     * Gets the class that defines a member of the file.
+     *
+     * @param ref {@code non-null;} the member
+     * @return {@code non-null;} its class
+     */
+    private ClassDefItem getDefiningClass(CstMemberRef ref) {
+        return classes.get(ref.getDefiningClass().getClassType()).def;
+    }
+
+    /**
+     * Marks the types of a set of annotations reachable, along with
+     * what their values refer to. The values of the annotations the VM
+     * defines itself, which describe the class structure, aren't
+     * followed.
+     *
+     * @param annotations {@code null-ok;} the annotations
+     */
+    private void markAnnotations(Annotations annotations) {
+        if (annotations == null) {
+            return;
+        }
+
+        for (Annotation a : annotations.getAnnotations()) {
+            markAnnotation(a);
+        }
+    }
+
+    /**
+     * Marks the type of an annotation reachable, along with what its
+     * values refer to.
+     *
+     * @param annotation {@code non-null;} the annotation
+     */
+    private void markAnnotation(Annotation annotation) {
+        CstType type = annotation.getType();
+
+        if (type.getDescriptor().getString().startsWith(
+                    SYSTEM_ANNOTATION_PREFIX)) {
+            return;
+        }
+
+        markClass(type.getClassType());
+
+        for (NameValuePair pair : annotation.getNameValuePairs()) {
+            markConstant(pair.getValue());
+        }
+    }
+
+    /**
+     * Marks what a constant refers to.
+     *
+     * @param cst {@code non-null;} the constant
+     */
+    private void markConstant(Constant cst) {
+        if (cst instanceof CstType) {
+            markClass(((CstType) cst).getClassType());
+        } else if (cst instanceof CstFieldRef) {
+            CstFieldRef ref = (CstFieldRef) cst;
+            Type type = ref.getDefiningClass().getClassType();
+
+            markClass(type);
+            resolveField(type, ref.getNat());
+        } else if (cst instanceof CstBaseMethodRef) {
+            CstBaseMethodRef ref = (CstBaseMethodRef) cst;
+            Type type = ref.getDefiningClass().getClassType();
+
+            markClass(type);
+            resolveMethod(type, ref.getNat());
+
+            if (!ref.isInstanceInit()) {
+                markVirtualNat(ref.getNat());
+            }
+        } else if (cst instanceof CstEnumRef) {
+            markConstant(((CstEnumRef) cst).getFieldRef());
+        } else if (cst instanceof CstArray) {
+            CstArray.List list = ((CstArray) cst).getList();
+            int sz = list.size();
+
+            for (int i = 0; i < sz; i++) {
+                markConstant(list.get(i));
+            }
+        } else if (cst instanceof CstAnnotation) {
+            markAnnotation(((CstAnnotation) cst).getAnnotation());
+        }
+    }
+
+    /**
+     * Marks the fields a reference to a field may resolve to: those
+     * with its name and type in the class it names and in the
+     * supertypes of that class.
+     *
+     * @param type {@code non-null;} the class to look in
+     * @param nat {@code non-null;} the field name and type
+     */
+    private void resolveField(Type type, CstNat nat) {
+        ClassInfo info = classes.get(type);
+
+        if (info == null) {
+            return;
+        }
+
+        EncodedField field = info.fields.get(nat);
+
+        if (field != null) {
+            markField(field);
+        }
+
+        CstType superclass = info.def.getSuperclass();
+        TypeList interfaces = info.def.getInterfaces();
+        int sz = interfaces.size();
+
+        if (superclass != null) {
+            resolveField(superclass.getClassType(), nat);
+        }
+
+        for (int i = 0; i < sz; i++) {
+            resolveField(interfaces.getType(i), nat);
+        }
+    }
+
+    /**
+     * Marks the methods a reference to a method may resolve to: those
+     * with its name and descriptor in the class it names and in the
+     * supertypes of that class. Overriding methods are reached through
+     * {@link #markVirtualNat}.
+     *
+     * @param type {@code non-null;} the class to look in
+     * @param nat {@code non-null;} the method name and descriptor
+     */
+    private void resolveMethod(Type type, CstNat nat) {
+        ClassInfo info = classes.get(type);
+
+        if (info == null) {
+            return;
+        }
+
+        EncodedMethod method = info.methods.get(nat);
+
+        if (method != null) {
+            markMethod(method);
+        }
+
+        CstType superclass = info.def.getSuperclass();
+        TypeList interfaces = info.def.getInterfaces();
+        int sz = interfaces.size();
+
+        if (superclass != null) {
+            resolveMethod(superclass.getClassType(), nat);
+        }
+
+        for (int i = 0; i < sz; i++) {
+            resolveMethod(interfaces.getType(i), nat);
+        }
+    }
+
+    /**
+     * Per-class state of the analysis.
+     */
+    private static final class ClassInfo {
+        /** {@code non-null;} the class */
+        public final ClassDefItem def;
+
+        /** {@code non-null;} the fields of the class, by nat */
+        public final HashMap<CstNat, EncodedField> fields;
+
+        /** {@code non-null;} the methods of the class, by nat */
+        public final HashMap<CstNat, EncodedMethod> methods;
+
+        /** whether the class has been reached */
+        public boolean live;
+
+        /**
+         * {@code null-ok;} whether the class has a library supertype;
+         * computed lazily
+         */
+        public Boolean hasLibrarySupertype;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param def {@code non-null;} the class
+         */
+        public ClassInfo(ClassDefItem def) {
+            this.def = def;
+            this.fields = new HashMap<CstNat, EncodedField>();
+            this.methods = new HashMap<CstNat, EncodedMethod>();
+
+            for (EncodedField field : def.getFields()) {
+                fields.put(field.getRef().getNat(), field);
+            }
+
+            for (EncodedMethod method : def.getMethods()) {
+                methods.put(method.getRef().getNat(), method);
+            }
+        }
+    }
+}
@@ -22,7 +22,7 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -33,12 +33,24 @@ public final class RegisterSpec
     /** {@code non-null;} string to prefix register numbers with */
     public static final String PREFIX = "v";
 
-    /** {@code non-null;} intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
+    /**
+     * {@code non-null;} intern table for instances; safe for concurrent
+     * use by multiple translation threads
+     */
+    private static final ConcurrentHashMap<Object, RegisterSpec> theInterns =
+        new ConcurrentHashMap<Object, RegisterSpec>(1000);
 
-    /** {@code non-null;} common comparison instance used while interning */
-    private static final ForComparison theInterningItem = new ForComparison();
+    /**
+     * {@code non-null;} per-thread comparison instance used while
+     * interning
+     */
+    private static final ThreadLocal<ForComparison> theInterningItem =
+        new ThreadLocal<ForComparison>() {
+            @Override
+            protected ForComparison initialValue() {
+                return new ForComparison();
+            }
+        };
 
     /** {@code >= 0;} register number */
     private final int reg;
@@ -60,16 +72,27 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        theInterningItem.set(reg, type, local);
-        RegisterSpec found = theInterns.get(theInterningItem);
+        ForComparison interningItem = theInterningItem.get();
+        interningItem.set(reg, type, local);
+        RegisterSpec found = theInterns.get(interningItem);
 
         if (found != null) {
             return found;
         }
 
-        found = theInterningItem.toRegisterSpec();
-        theInterns.put(found, found);
-        return found;
+        found = interningItem.toRegisterSpec();
+        RegisterSpec already = theInterns.putIfAbsent(found, found);
+        return (already != null) ? already : found;
+    }
+
+    /**
+     * Empties the intern table. Instances are only shared to save
+     * memory, never compared by identity, so this is safe to do at any
+     * time; a long-lived process does it between runs so that the table
+     * doesn't keep every type and constant it has ever seen.
+     */
+    public static void clearInternTable() {
+        theInterns.clear();
     }
 
     /**
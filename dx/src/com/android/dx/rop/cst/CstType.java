@@ -17,16 +17,19 @@
 package com.android.dx.rop.cst;
 
 import com.android.dx.rop.type.Type;
-
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Constants that represent an arbitrary type (reference or primitive).
  */
 public final class CstType extends TypedConstant {
-    /** {@code non-null;} map of interned types */
-    private static final HashMap<Type, CstType> interns =
-        new HashMap<Type, CstType>(100);
+    /**
+     * {@code non-null;} map of interned types; safe for concurrent use
+     * by multiple translation threads, and only holding on to instances
+     * that are in use elsewhere
+     */
+    private static final WeakInternTable<Type, CstType> interns =
+        new WeakInternTable<Type, CstType>(100);
 
     /** {@code non-null;} instance corresponding to the class {@code Object} */
     public static final CstType OBJECT = intern(Type.OBJECT);
@@ -126,8 +129,7 @@ public final class CstType extends TypedConstant {
         CstType cst = interns.get(type);
 
         if (cst == null) {
-            cst = new CstType(type);
-            interns.put(type, cst);
+            cst = interns.intern(type, new CstType(type));
         }
 
         return cst;
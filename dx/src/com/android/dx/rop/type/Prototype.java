@@ -16,7 +16,7 @@
 
 package com.android.dx.rop.type;
 
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Representation of a method decriptor. Instances of this class are
@@ -24,9 +24,13 @@ import java.util.HashMap;
  * using {@code ==}.
  */
 public final class Prototype implements Comparable<Prototype> {
-    /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Prototype> internTable =
-        new HashMap<String, Prototype>(500);
+    /**
+     * {@code non-null;} intern table mapping string descriptors to
+     * instances; safe for concurrent use by multiple translation threads,
+     * and only holding on to instances that are in use elsewhere
+     */
+    private static final WeakInternTable<String, Prototype> internTable =
+        new WeakInternTable<String, Prototype>(500);
 
     /** {@code non-null;} method descriptor */
     private final String descriptor;
@@ -384,14 +388,6 @@ public final class Prototype implements Comparable<Prototype> {
      * @return {@code non-null;} the actual interned object
      */
     private static Prototype putIntern(Prototype desc) {
-        synchronized (internTable) {
-            String descriptor = desc.getDescriptor();
-            Prototype already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, desc);
-            return desc;
-        }
+        return internTable.intern(desc.getDescriptor(), desc);
     }
 }
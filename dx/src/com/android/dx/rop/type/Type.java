@@ -17,8 +17,7 @@
 package com.android.dx.rop.type;
 
 import com.android.dx.util.Hex;
-
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Representation of a value type, such as may appear in a field, in a
@@ -27,9 +26,13 @@ import java.util.HashMap;
  * other using {@code ==}.
  */
 public final class Type implements TypeBearer, Comparable<Type> {
-    /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Type> internTable = 
-        new HashMap<String, Type>(500);
+    /**
+     * {@code non-null;} intern table mapping string descriptors to
+     * instances; safe for concurrent use by multiple translation threads,
+     * and only holding on to instances that are in use elsewhere
+     */
+    private static final WeakInternTable<String, Type> internTable =
+        new WeakInternTable<String, Type>(500);
 
     /** basic type constant for {@code void} */
     public static final int BT_VOID = 0;
@@ -842,14 +845,6 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * @return {@code non-null;} the actual interned object
      */
     private static Type putIntern(Type type) {
-        synchronized (internTable) {
-            String descriptor = type.getDescriptor();
-            Type already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, type);
-            return type;
-        }
+        return internTable.intern(type.getDescriptor(), type);
     }
 }
@@ -16,6 +16,8 @@
 
 package com.android.dx.ssa;
 
+import com.android.dx.util.IntList;
+
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashSet;
@@ -91,6 +93,44 @@ public final class Dominators {
         return result;
     }
 
+    /**
+     * Computes the dominator tree of a method afresh, since the one
+     * built during SSA conversion doesn't cover blocks added since.
+     *
+     * @param meth {@code non-null;} method to process
+     * @return {@code non-null;} the children of each block, indexed by
+     * block index, with {@code null} for blocks that have none
+     */
+    public static IntList[] makeDomChildren(SsaMethod meth) {
+        int sz = meth.getBlocks().size();
+        DomFront.DomInfo[] domInfos = new DomFront.DomInfo[sz];
+
+        for (int i = 0; i < sz; i++) {
+            domInfos[i] = new DomFront.DomInfo();
+        }
+
+        make(meth, domInfos, false);
+
+        IntList[] result = new IntList[sz];
+
+        for (int i = 0; i < sz; i++) {
+            int idom = domInfos[i].idom;
+
+            if (idom < 0 || idom == i) {
+                // Unreachable, or the entry block.
+                continue;
+            }
+
+            if (result[idom] == null) {
+                result[idom] = new IntList();
+            }
+
+            result[idom].add(i);
+        }
+
+        return result;
+    }
+
     private BitSet getSuccs(SsaBasicBlock block) {
         if (postdom) {
             return block.getPredecessors();
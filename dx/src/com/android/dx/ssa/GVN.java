@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstFieldRef;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Dominator-based global value numbering, after Briggs, Cooper and
+ * Simpson. The blocks are walked in dominator-tree order with a scoped
+ * table of the values computed so far, and an insn that recomputes a
+ * value computed in a dominating block is removed, its uses being
+ * replaced with the earlier result.
+ *
+ * <p>Only insns whose result depends on nothing but their operands are
+ * considered: arithmetic, {@code array-length}, type checks, and loads
+ * of fields the {@link OptimizerContext} knows to be final and that the
+ * method doesn't store to itself. A throwing insn is only removed when
+ * it has no catch handlers, so that the control flow needn't change; a
+ * dominated copy of it can't throw, since the first one would have.</p>
+ */
+public class GVN {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** {@code non-null;} fields the method stores to */
+    private final HashSet<Constant> storedFields;
+
+    /** {@code non-null;} values available in the current block */
+    private final HashMap<Value, RegisterSpec> available;
+
+    /** {@code non-null;} values made available, in order, for undoing */
+    private final ArrayList<Value> undo;
+
+    /** {@code non-null;} insns to delete when all done */
+    private final HashSet<SsaInsn> deletedInsns;
+
+    /**
+     * Processes a method with this optimization step.
+     *
+     * @param ssaMethod method to process
+     */
+    public static void process(SsaMethod ssaMethod) {
+        new GVN(ssaMethod).run();
+    }
+
+    private GVN(SsaMethod ssaMeth) {
+        this.ssaMeth = ssaMeth;
+        this.storedFields = new HashSet<Constant>();
+        this.available = new HashMap<Value, RegisterSpec>();
+        this.undo = new ArrayList<Value>();
+        this.deletedInsns = new HashSet<SsaInsn>();
+    }
+
+    /**
+     * Runs this optimization step.
+     */
+    private void run() {
+        ssaMeth.forEachInsn(new SsaInsn.Visitor() {
+            public void visitMoveInsn(NormalSsaInsn insn) {
+            }
+            public void visitPhiInsn(PhiInsn phi) {
+            }
+            public void visitNonMoveInsn(NormalSsaInsn insn) {
+                int opcode = insn.getOpcode().getOpcode();
+
+                if (opcode == RegOps.PUT_FIELD
+                        || opcode == RegOps.PUT_STATIC) {
+                    storedFields.add(
+                            ((CstInsn) insn.getOriginalRopInsn()).getConstant());
+                }
+            }
+        });
+
+        ssaMeth.forEachBlockDomTree(Dominators.makeDomChildren(ssaMeth),
+                new SsaBasicBlock.DomTreeVisitor() {
+            public int enterBlock(SsaBasicBlock block) {
+                int mark = undo.size();
+
+                processBlock(block);
+                return mark;
+            }
+            public void leaveBlock(SsaBasicBlock block, int mark) {
+                for (int i = undo.size() - 1; i >= mark; i--) {
+                    available.remove(undo.remove(i));
+                }
+            }
+        });
+
+        ssaMeth.deleteInsns(deletedInsns);
+    }
+
+    /**
+     * Numbers the values computed by one block, removing those already
+     * available.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void processBlock(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+        int sz = insns.size();
+
+        for (int i = 0; i < sz; i++) {
+            SsaInsn insn = insns.get(i);
+            RegisterSpec result = insn.getResult();
+
+            if (!(insn instanceof NormalSsaInsn) || result == null) {
+                continue;
+            }
+
+            if (insn.getOpcode().getOpcode() == RegOps.MOVE_RESULT_PSEUDO) {
+                processMoveResultPseudo((NormalSsaInsn) insn);
+            } else if (insn.getOpcode().getBranchingness() == Rop.BRANCH_NONE
+                    && isCandidate(insn)) {
+                Value value = new Value(insn.getOriginalRopInsn());
+                RegisterSpec earlier = available.get(value);
+
+                if (earlier == null) {
+                    makeAvailable(value, result);
+                } else if (!ssaMeth.isRegALocal(result)) {
+                    ssaMeth.replaceUses(result, earlier);
+                    deletedInsns.add(insn);
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the value of a throwing insn, whose result is moved by
+     * a move-result-pseudo at the start of its successor block.
+     *
+     * @param insn {@code non-null;} the move-result-pseudo
+     */
+    private void processMoveResultPseudo(NormalSsaInsn insn) {
+        SsaInsn throwingInsn = ssaMeth.getThrowingInsn(insn);
+
+        if (!isCandidate(throwingInsn)) {
+            return;
+        }
+
+        RegisterSpec result = insn.getResult();
+        Value value = new Value(throwingInsn.getOriginalRopInsn());
+        RegisterSpec earlier = available.get(value);
+
+        if (earlier == null) {
+            makeAvailable(value, result);
+            return;
+        }
+
+        if (throwingInsn.getBlock().getSuccessors().cardinality() != 1) {
+            // It may throw to a handler; leave the control flow be.
+            return;
+        }
+
+        ssaMeth.replaceThrowingInsn(insn, earlier, deletedInsns);
+    }
+
+    /**
+     * Returns whether an insn computes a value that depends only on its
+     * operands.
+     *
+     * @param insn {@code non-null;} insn in question
+     * @return {@code true} if the insn is a candidate for numbering
+     */
+    private boolean isCandidate(SsaInsn insn) {
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.ADD:
+            case RegOps.SUB:
+            case RegOps.MUL:
+            case RegOps.DIV:
+            case RegOps.REM:
+            case RegOps.NEG:
+            case RegOps.AND:
+            case RegOps.OR:
+            case RegOps.XOR:
+            case RegOps.SHL:
+            case RegOps.SHR:
+            case RegOps.USHR:
+            case RegOps.NOT:
+            case RegOps.CMPL:
+            case RegOps.CMPG:
+            case RegOps.CONV:
+            case RegOps.TO_BYTE:
+            case RegOps.TO_CHAR:
+            case RegOps.TO_SHORT:
+            case RegOps.ARRAY_LENGTH:
+            case RegOps.CHECK_CAST:
+            case RegOps.INSTANCE_OF: {
+                return true;
+            }
+            case RegOps.GET_FIELD:
+            case RegOps.GET_STATIC: {
+                Constant field =
+                    ((CstInsn) insn.getOriginalRopInsn()).getConstant();
+
+                return ssaMeth.getContext().isKnownFinal((CstFieldRef) field)
+                    && !storedFields.contains(field);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Makes a value available to the current block and the blocks it
+     * dominates.
+     *
+     * @param value {@code non-null;} the value
+     * @param result {@code non-null;} the register holding it
+     */
+    private void makeAvailable(Value value, RegisterSpec result) {
+        available.put(value, result);
+        undo.add(value);
+    }
+
+    /**
+     * A value computed by an insn: the operation, its constant if any,
+     * and its source registers, in a canonical order for commutative
+     * operations.
+     */
+    private static final class Value {
+        /** {@code non-null;} the operation */
+        private final Rop opcode;
+
+        /** {@code null-ok;} the constant operand */
+        private final Constant constant;
+
+        /** {@code non-null;} the source registers */
+        private final int[] sources;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param insn {@code non-null;} the insn computing the value
+         */
+        public Value(Insn insn) {
+            RegisterSpecList specs = insn.getSources();
+            int sz = specs.size();
+
+            opcode = insn.getOpcode();
+            constant = (insn instanceof CstInsn)
+                ? ((CstInsn) insn).getConstant() : null;
+            sources = new int[sz];
+
+            for (int i = 0; i < sz; i++) {
+                sources[i] = specs.get(i).getReg();
+            }
+
+            if (opcode.isCommutative() && (sz == 2)
+                    && (sources[0] > sources[1])) {
+                sources[0] = specs.get(1).getReg();
+                sources[1] = specs.get(0).getReg();
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Value)) {
+                return false;
+            }
+
+            Value value = (Value) other;
+
+            return opcode.equals(value.opcode)
+                && Arrays.equals(sources, value.sources)
+                && ((constant == null) ? (value.constant == null)
+                        : constant.equals(value.constant));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            int h = opcode.hashCode();
+
+            h = (h * 31) + Arrays.hashCode(sources);
+
+            if (constant != null) {
+                h = (h * 31) + constant.hashCode();
+            }
+
+            return h;
+        }
+    }
+}
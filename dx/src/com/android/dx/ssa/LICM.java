@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstLiteralBits;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+
+/**
+ * Loop-invariant code motion. An insn in a {@link NaturalLoops natural
+ * loop} whose operands are all defined outside the loop, or by other
+ * such insns, is moved to the end of the loop's preheader, the single
+ * block outside the loop that branches to the loop header.
+ *
+ * <p>Only non-throwing insns whose result depends on nothing but their
+ * operands are moved: arithmetic, and constants too wide for the short
+ * {@code const} forms. A moved insn may run where it didn't before,
+ * when the loop body doesn't reach it, which is harmless for those.</p>
+ *
+ * <p>Throwing insns end their blocks, and moving one would generally
+ * change both the control flow and which exception is thrown first. The
+ * one exception made is for an {@code array-length} of an invariant
+ * array that ends the loop header and has no catch handlers, as in the
+ * condition of a counted loop over an array: the header is always the
+ * first block run in the loop, and nothing before that insn in it can
+ * throw or has side effects, so it throws the same way from the end of
+ * the preheader.</p>
+ *
+ * <p>Moved insns keep their results in registers across the whole loop.
+ * When that takes a method over the register count bar, {@link
+ * Optimizer} optimizes it again without this step.</p>
+ */
+public class LICM {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /**
+     * Processes a method with this optimization step.
+     *
+     * @param ssaMethod method to process
+     * @return {@code true} if any insns were moved
+     */
+    public static boolean process(SsaMethod ssaMethod) {
+        return new LICM(ssaMethod).run();
+    }
+
+    private LICM(SsaMethod ssaMeth) {
+        this.ssaMeth = ssaMeth;
+    }
+
+    /**
+     * Runs this optimization step.
+     *
+     * @return {@code true} if any insns were moved
+     */
+    private boolean run() {
+        boolean anyMoved = false;
+
+        /*
+         * Outer loops come first, and the body of an outer loop takes
+         * in its inner loops, so that an insn invariant in the outer
+         * loop is moved straight out of both. One only invariant in an
+         * inner loop is then moved to that loop's preheader, and isn't
+         * looked at again.
+         */
+        for (NaturalLoops.Loop loop : NaturalLoops.find(ssaMeth)) {
+            SsaBasicBlock preheader = getPreheader(loop);
+
+            if (preheader != null) {
+                SsaBasicBlock newPreheader =
+                    hoistArrayLength(loop, preheader);
+
+                anyMoved |= (newPreheader != preheader);
+                anyMoved |= hoist(loop, newPreheader);
+            }
+        }
+
+        return anyMoved;
+    }
+
+    /**
+     * Gets the preheader of a loop.
+     *
+     * @param loop {@code non-null;} the loop
+     * @return {@code null-ok;} the preheader, or {@code null} if the
+     * loop is entered from more than one block, or from a block that
+     * may branch elsewhere
+     */
+    private SsaBasicBlock getPreheader(NaturalLoops.Loop loop) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        BitSet preds = blocks.get(loop.getHeader()).getPredecessors();
+        SsaBasicBlock preheader = null;
+
+        for (int i = preds.nextSetBit(0); i >= 0;
+                i = preds.nextSetBit(i + 1)) {
+            if (loop.contains(i)) {
+                continue;
+            }
+
+            if (preheader != null) {
+                return null;
+            }
+
+            preheader = blocks.get(i);
+        }
+
+        if (preheader == null
+                || preheader.getSuccessors().cardinality() != 1) {
+            return null;
+        }
+
+        return preheader;
+    }
+
+    /**
+     * Moves an {@code array-length} of an invariant array from the end
+     * of a loop header to the end of its preheader, if there is one
+     * there and it has no catch handlers. Its result moves along with
+     * it, to a new block inserted between the preheader and the header,
+     * which becomes the preheader.
+     *
+     * @param loop {@code non-null;} the loop
+     * @param preheader {@code non-null;} its preheader
+     * @return {@code non-null;} the preheader, as it now is
+     */
+    private SsaBasicBlock hoistArrayLength(NaturalLoops.Loop loop,
+            SsaBasicBlock preheader) {
+        SsaBasicBlock header = ssaMeth.getBlocks().get(loop.getHeader());
+        ArrayList<SsaInsn> headerInsns = header.getInsns();
+        ArrayList<SsaInsn> preheaderInsns = preheader.getInsns();
+        SsaInsn arrayLength = headerInsns.get(headerInsns.size() - 1);
+        SsaInsn branch = preheaderInsns.get(preheaderInsns.size() - 1);
+
+        if (arrayLength.getOpcode().getOpcode() != RegOps.ARRAY_LENGTH
+                || header.getSuccessors().cardinality() != 1
+                || branch.getOpcode().getOpcode() != RegOps.GOTO) {
+            return preheader;
+        }
+
+        SsaBasicBlock resultBlock = header.getPrimarySuccessor();
+        SsaInsn moveResult = resultBlock.getInsns().get(0);
+        SsaInsn arrayDef = ssaMeth.getDefinitionForRegister(
+                arrayLength.getSources().get(0).getReg());
+
+        if (moveResult.getOpcode().getOpcode() != RegOps.MOVE_RESULT_PSEUDO
+                || ssaMeth.isRegALocal(moveResult.getResult())
+                || arrayDef == null
+                || loop.contains(arrayDef.getBlock().getIndex())) {
+            return preheader;
+        }
+
+        SsaBasicBlock newPreheader = preheader.insertNewSuccessor(header);
+
+        for (SsaInsn insn : header.getPhiInsns()) {
+            ((PhiInsn) insn).replacePredBlock(preheader.getIndex(),
+                    newPreheader);
+        }
+
+        Insn ropInsn = arrayLength.toRopInsn();
+
+        header.replaceLastInsn(new PlainInsn(Rops.GOTO,
+                ropInsn.getPosition(), null, RegisterSpecList.EMPTY));
+        preheader.replaceLastInsn(ropInsn);
+
+        resultBlock.getInsns().remove(0);
+        ssaMeth.onInsnRemoved(moveResult);
+        newPreheader.addInsnToHead(moveResult.toRopInsn());
+
+        return newPreheader;
+    }
+
+    /**
+     * Moves the invariant insns of a loop to its preheader.
+     *
+     * @param loop {@code non-null;} the loop
+     * @param preheader {@code non-null;} its preheader
+     * @return {@code true} if any insns were moved
+     */
+    private boolean hoist(NaturalLoops.Loop loop, SsaBasicBlock preheader) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        BitSet body = loop.getBody();
+        ArrayList<SsaInsn> invariants = new ArrayList<SsaInsn>();
+        HashSet<SsaInsn> invariantSet = new HashSet<SsaInsn>();
+        boolean changed = true;
+
+        // Invariant insns are found in the order they depend on each other.
+        while (changed) {
+            changed = false;
+
+            for (int i = body.nextSetBit(0); i >= 0;
+                    i = body.nextSetBit(i + 1)) {
+                for (SsaInsn insn : blocks.get(i).getInsns()) {
+                    if (!invariantSet.contains(insn) && isCandidate(insn)
+                            && hasInvariantSources(insn, body, invariantSet)) {
+                        invariants.add(insn);
+                        invariantSet.add(insn);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        ArrayList<SsaInsn> preheaderInsns = preheader.getInsns();
+
+        for (SsaInsn insn : invariants) {
+            SsaInsn newInsn =
+                SsaInsn.makeFromRop(insn.toRopInsn(), preheader);
+
+            insn.getBlock().getInsns().remove(insn);
+            ssaMeth.onInsnRemoved(insn);
+
+            // The last insn is the branch to the loop header.
+            preheaderInsns.add(preheaderInsns.size() - 1, newInsn);
+            ssaMeth.onInsnAdded(newInsn);
+        }
+
+        return !invariants.isEmpty();
+    }
+
+    /**
+     * Returns whether an insn may be moved, if its operands allow.
+     *
+     * @param insn {@code non-null;} insn in question
+     * @return {@code true} if the insn is a candidate for moving
+     */
+    private boolean isCandidate(SsaInsn insn) {
+        if (!(insn instanceof NormalSsaInsn)
+                || insn.getResult() == null
+                || insn.canThrow()
+                || insn.getOpcode().getBranchingness() != Rop.BRANCH_NONE
+                || ssaMeth.isRegALocal(insn.getResult())) {
+            return false;
+        }
+
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.CONST: {
+                /*
+                 * A small constant is as cheap to load again as to keep
+                 * in a register across the loop, and keeping it there
+                 * makes for more registers, and bigger code, overall.
+                 */
+                Constant cst =
+                    ((CstInsn) insn.getOriginalRopInsn()).getConstant();
+
+                return (cst instanceof CstLiteralBits)
+                    && !((CstLiteralBits) cst).fitsIn16Bits();
+            }
+            case RegOps.ADD:
+            case RegOps.SUB:
+            case RegOps.MUL:
+            case RegOps.DIV:
+            case RegOps.REM:
+            case RegOps.NEG:
+            case RegOps.AND:
+            case RegOps.OR:
+            case RegOps.XOR:
+            case RegOps.SHL:
+            case RegOps.SHR:
+            case RegOps.USHR:
+            case RegOps.NOT:
+            case RegOps.CMPL:
+            case RegOps.CMPG:
+            case RegOps.CONV:
+            case RegOps.TO_BYTE:
+            case RegOps.TO_CHAR:
+            case RegOps.TO_SHORT: {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether all the operands of an insn are defined outside
+     * a loop, or by insns already found to be invariant in it.
+     *
+     * @param insn {@code non-null;} insn in question
+     * @param body {@code non-null;} indices of the blocks in the loop
+     * @param invariantSet {@code non-null;} the invariant insns so far
+     * @return {@code true} if the operands are invariant
+     */
+    private boolean hasInvariantSources(SsaInsn insn, BitSet body,
+            HashSet<SsaInsn> invariantSet) {
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+
+        for (int i = 0; i < sz; i++) {
+            SsaInsn def = ssaMeth.getDefinitionForRegister(
+                    sources.get(i).getReg());
+
+            if (def == null) {
+                return false;
+            }
+
+            if (body.get(def.getBlock().getIndex())
+                    && !invariantSet.contains(def)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
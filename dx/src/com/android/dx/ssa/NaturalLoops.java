@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Finds the natural loops of a method in SSA form. A back edge is an
+ * edge whose target, the loop header, dominates its source; the loop
+ * is the header and all the blocks that reach the source of one of its
+ * back edges without going through the header. Loops sharing a header
+ * are merged. Irreducible cycles have no back edges, and so aren't
+ * loops at all here.
+ */
+public final class NaturalLoops {
+    /** {@code non-null;} method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /**
+     * {@code non-null;} immediate dominator of each block, indexed by
+     * block index, or {@code -1} for unreachable blocks
+     */
+    private final int[] idoms;
+
+    /**
+     * Finds the natural loops of a method. Outer loops come before the
+     * loops nested in them.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @return {@code non-null;} the loops
+     */
+    public static ArrayList<Loop> find(SsaMethod ssaMeth) {
+        return new NaturalLoops(ssaMeth).run();
+    }
+
+    private NaturalLoops(SsaMethod ssaMeth) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        int sz = blocks.size();
+        DomFront.DomInfo[] domInfos = new DomFront.DomInfo[sz];
+
+        for (int i = 0; i < sz; i++) {
+            domInfos[i] = new DomFront.DomInfo();
+        }
+
+        Dominators.make(ssaMeth, domInfos, false);
+
+        this.ssaMeth = ssaMeth;
+        this.idoms = new int[sz];
+
+        for (int i = 0; i < sz; i++) {
+            idoms[i] = domInfos[i].idom;
+        }
+    }
+
+    /**
+     * Finds the loops.
+     *
+     * @return {@code non-null;} the loops
+     */
+    private ArrayList<Loop> run() {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        int sz = blocks.size();
+        Loop[] byHeader = new Loop[sz];
+        ArrayList<Loop> result = new ArrayList<Loop>();
+
+        for (int i = 0; i < sz; i++) {
+            if (idoms[i] < 0) {
+                continue;
+            }
+
+            BitSet succs = blocks.get(i).getSuccessors();
+
+            for (int j = succs.nextSetBit(0); j >= 0;
+                    j = succs.nextSetBit(j + 1)) {
+                if (!dominates(j, i)) {
+                    continue;
+                }
+
+                Loop loop = byHeader[j];
+
+                if (loop == null) {
+                    loop = new Loop(j, sz);
+                    byHeader[j] = loop;
+                    result.add(loop);
+                }
+
+                addBackEdge(loop, i);
+            }
+        }
+
+        // A loop's body is a strict superset of any loop nested in it.
+        Collections.sort(result, new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                return b.body.cardinality() - a.body.cardinality();
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Adds to a loop the blocks that reach the source of one of its
+     * back edges.
+     *
+     * @param loop {@code non-null;} the loop
+     * @param tail index of the source of the back edge
+     */
+    private void addBackEdge(Loop loop, int tail) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        IntList worklist = new IntList();
+
+        if (!loop.body.get(tail)) {
+            loop.body.set(tail);
+            worklist.add(tail);
+        }
+
+        while (worklist.size() > 0) {
+            BitSet preds = blocks.get(worklist.pop()).getPredecessors();
+
+            for (int i = preds.nextSetBit(0); i >= 0;
+                    i = preds.nextSetBit(i + 1)) {
+                if (idoms[i] >= 0 && !loop.body.get(i)) {
+                    loop.body.set(i);
+                    worklist.add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether one block dominates another.
+     *
+     * @param dom index of the would-be dominator
+     * @param index index of a reachable block
+     * @return {@code true} if {@code dom} dominates {@code index}
+     */
+    private boolean dominates(int dom, int index) {
+        while (index != dom) {
+            int idom = idoms[index];
+
+            if (idom == index) {
+                // Reached the entry block.
+                return false;
+            }
+
+            index = idom;
+        }
+
+        return true;
+    }
+
+    /**
+     * A natural loop.
+     */
+    public static final class Loop {
+        /** index of the loop header */
+        private final int header;
+
+        /** {@code non-null;} indices of the blocks in the loop */
+        private final BitSet body;
+
+        /**
+         * Constructs an instance with no blocks but its header.
+         *
+         * @param header index of the loop header
+         * @param blockCount the number of blocks in the method
+         */
+        private Loop(int header, int blockCount) {
+            this.header = header;
+            this.body = new BitSet(blockCount);
+
+            body.set(header);
+        }
+
+        /**
+         * Gets the index of the loop header, the one block through
+         * which the loop is entered.
+         *
+         * @return the header index
+         */
+        public int getHeader() {
+            return header;
+        }
+
+        /**
+         * Returns whether a block is part of this loop.
+         *
+         * @param index the block index
+         * @return {@code true} if the block is in the loop
+         */
+        public boolean contains(int index) {
+            return body.get(index);
+        }
+
+        /**
+         * Gets the indices of the blocks in this loop. The result is
+         * not a copy and must not be modified.
+         *
+         * @return {@code non-null;} the block indices
+         */
+        public BitSet getBody() {
+            return body;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.android.dx.rop.code.RopMethod;
 import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.ssa.back.SsaToRop;
 import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.Profiler;
 
 import java.util.EnumSet;
 import java.util.BitSet;
@@ -30,28 +31,19 @@ import java.util.ArrayList;
  * and returns it to rop form.
  */
 public class Optimizer {
-    private static boolean preserveLocals = true;
-
-    private static TranslationAdvice advice;
-
     /** optional optimizer steps */
     public enum OptionalStep {
-        MOVE_PARAM_COMBINER,SCCP,LITERAL_UPGRADE,CONST_COLLECTOR
+        MOVE_PARAM_COMBINER,REDUNDANT_CHECK_REMOVER,SCCP,LITERAL_UPGRADE,
+        GVN,LICM,CONST_COLLECTOR
     }
 
-    /**
-     * @return true if local variable information should be preserved, even
-     * at code size/register size cost
-     */
-    public static boolean getPreserveLocals() {
-        return preserveLocals;
-    }
+    /** available register allocators */
+    public enum RegisterAllocatorKind {
+        /** {@link com.android.dx.ssa.back.FirstFitLocalCombiningAllocator} */
+        FIRST_FIT,
 
-    /**
-     * @return {@code non-null;} translation advice
-     */
-    public static TranslationAdvice getAdvice() {
-        return advice;
+        /** {@link com.android.dx.ssa.back.GraphColoringAllocator} */
+        GRAPH_COLORING
     }
 
     /**
@@ -92,21 +84,71 @@ public class Optimizer {
     public static RopMethod optimize(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
+        return optimize(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice), steps);
+    }
+
+    /**
+     * Runs all optimization algorthims over this method, and returns a
+     * new instance of RopMethod with the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context {@code non-null;} settings for the optimizer run
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerContext context) {
+        return optimize(rmeth, paramWidth, isStatic, context,
+                EnumSet.allOf(OptionalStep.class));
+    }
+
+    /**
+     * Runs optimization algorthims over this method, and returns a new
+     * instance of RopMethod with the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context {@code non-null;} settings for the optimizer run
+     * @param steps set of optional optimization steps to run
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerContext context,
+            EnumSet<OptionalStep> steps) {
         SsaMethod ssaMeth = null;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        long[] mark = Profiler.start();
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                context);
+        Profiler.end(Profiler.Phase.SSA, mark);
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        runSsaFormSteps(ssaMeth, steps);
+        boolean anyHoisted = runSsaFormSteps(ssaMeth, steps);
 
+        mark = Profiler.start();
         RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, false);
+        Profiler.end(Profiler.Phase.REGISTER_ALLOCATION, mark);
 
         if (resultMeth.getBlocks().getRegCount()
-                > advice.getMaxOptimalRegisterCount()) {
+                > context.getAdvice().getMaxOptimalRegisterCount()) {
+            if (anyHoisted) {
+                /*
+                 * LICM keeps values in registers across loops, which
+                 * isn't worth going over the register count bar for.
+                 */
+                EnumSet<OptionalStep> newSteps = steps.clone();
+                newSteps.remove(OptionalStep.LICM);
+                return optimize(rmeth, paramWidth, isStatic, context,
+                        newSteps);
+            }
+
             // Try to see if we can squeeze it under the register count bar
             resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
-                    steps);
+                    context, steps);
         }
         return resultMeth;
     }
@@ -123,17 +165,20 @@ public class Optimizer {
      * @param paramWidth the total width, in register-units, of this method's
      * parameters
      * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context {@code non-null;} settings for the optimizer run
      * @param steps set of optional optimization steps to run
      * @return optimized method
      */
     private static RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
-            int paramWidth, boolean isStatic,
+            int paramWidth, boolean isStatic, OptimizerContext context,
             EnumSet<OptionalStep> steps) {
         SsaMethod ssaMeth;
         RopMethod resultMeth;
 
+        long[] mark = Profiler.start();
         ssaMeth = SsaConverter.convertToSsaMethod(
-                rmeth, paramWidth, isStatic);
+                rmeth, paramWidth, isStatic, context);
+        Profiler.end(Profiler.Phase.SSA, mark);
 
         EnumSet<OptionalStep> newSteps = steps.clone();
 
@@ -145,70 +190,119 @@ public class Optimizer {
 
         runSsaFormSteps(ssaMeth, newSteps);
 
+        mark = Profiler.start();
         resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
+        Profiler.end(Profiler.Phase.REGISTER_ALLOCATION, mark);
+
         return resultMeth;
     }
 
-    private static void runSsaFormSteps(SsaMethod ssaMeth,
+    /**
+     * Runs the SSA form optimization steps over a method.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param steps {@code non-null;} set of optional optimization steps
+     * to run
+     * @return {@code true} if {@link LICM} moved any insns
+     */
+    private static boolean runSsaFormSteps(SsaMethod ssaMeth,
             EnumSet<OptionalStep> steps) {
         boolean needsDeadCodeRemover = true;
+        boolean anyHoisted = false;
+        long[] mark;
 
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
+            mark = Profiler.start();
             MoveParamCombiner.process(ssaMeth);
+            Profiler.end(Profiler.Phase.MOVE_PARAM_COMBINER, mark);
+        }
+
+        if (steps.contains(OptionalStep.REDUNDANT_CHECK_REMOVER)) {
+            mark = Profiler.start();
+            RedundantCheckRemover.process(ssaMeth);
+            Profiler.end(Profiler.Phase.REDUNDANT_CHECK_REMOVER, mark);
         }
 
         if (steps.contains(OptionalStep.SCCP)) {
+            mark = Profiler.start();
             SCCP.process(ssaMeth);
+            Profiler.end(Profiler.Phase.SCCP, mark);
         }
 
         if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
+            mark = Profiler.start();
             LiteralOpUpgrader.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+            Profiler.end(Profiler.Phase.LITERAL_UPGRADE, mark);
+            runDeadCodeRemover(ssaMeth);
             needsDeadCodeRemover = false;
         }
 
+        if (steps.contains(OptionalStep.GVN)) {
+            mark = Profiler.start();
+            GVN.process(ssaMeth);
+            Profiler.end(Profiler.Phase.GVN, mark);
+        }
+
+        if (steps.contains(OptionalStep.LICM)) {
+            mark = Profiler.start();
+            anyHoisted = LICM.process(ssaMeth);
+            Profiler.end(Profiler.Phase.LICM, mark);
+        }
+
         if (steps.contains(OptionalStep.CONST_COLLECTOR)) {
+            mark = Profiler.start();
             ConstCollector.process(ssaMeth);
-            DeadCodeRemover.process(ssaMeth);
+            Profiler.end(Profiler.Phase.CONST_COLLECTOR, mark);
+            runDeadCodeRemover(ssaMeth);
             needsDeadCodeRemover = false;
         }
 
         // dead code remover must be run before phi type resolver
         if (needsDeadCodeRemover) {
-            DeadCodeRemover.process(ssaMeth);
+            runDeadCodeRemover(ssaMeth);
         }
 
+        mark = Profiler.start();
         PhiTypeResolver.process(ssaMeth);
+        Profiler.end(Profiler.Phase.PHI_TYPE_RESOLVER, mark);
+
+        return anyHoisted;
+    }
+
+    /**
+     * Helper for {@link #runSsaFormSteps}, which runs the dead code
+     * remover.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     */
+    private static void runDeadCodeRemover(SsaMethod ssaMeth) {
+        long[] mark = Profiler.start();
+        DeadCodeRemover.process(ssaMeth);
+        Profiler.end(Profiler.Phase.DEAD_CODE_REMOVER, mark);
     }
 
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic);
+        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice));
     }
 
     public static SsaMethod debugPhiPlacement(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic);
+        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice));
     }
 
     public static SsaMethod debugRenaming(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice));
     }
 
     public static SsaMethod debugDeadCodeRemover(RopMethod rmeth,
@@ -217,10 +311,8 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice));
         DeadCodeRemover.process(ssaMeth);
 
         return ssaMeth;
@@ -232,10 +324,8 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice));
 
         runSsaFormSteps(ssaMeth, steps);
 
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.rop.cst.CstFieldRef;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Settings that apply to an entire run of the optimizer. An instance
+ * is attached to each {@link SsaMethod}, so that methods being
+ * optimized concurrently (possibly with different settings) don't
+ * share any mutable state.
+ */
+public final class OptimizerContext {
+    /**
+     * whether local variable information should be preserved, even
+     * at code size/register size cost
+     */
+    private final boolean preserveLocals;
+
+    /** {@code non-null;} translation advice */
+    private final TranslationAdvice advice;
+
+    /** {@code non-null;} which register allocator to use */
+    private final Optimizer.RegisterAllocatorKind allocator;
+
+    /** {@code non-null;} fields known to be final */
+    private final Set<CstFieldRef> finalFields;
+
+    /**
+     * Constructs an instance, which uses the default register allocator
+     * and knows of no final fields.
+     *
+     * @param preserveLocals whether local variable information should
+     * be preserved
+     * @param advice {@code non-null;} translation advice
+     */
+    public OptimizerContext(boolean preserveLocals, TranslationAdvice advice) {
+        this(preserveLocals, advice, Optimizer.RegisterAllocatorKind.FIRST_FIT,
+                Collections.<CstFieldRef>emptySet());
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param preserveLocals whether local variable information should
+     * be preserved
+     * @param advice {@code non-null;} translation advice
+     * @param allocator {@code non-null;} which register allocator to use
+     * @param finalFields {@code non-null;} fields known to be final,
+     * typically those of the class being translated
+     */
+    public OptimizerContext(boolean preserveLocals, TranslationAdvice advice,
+            Optimizer.RegisterAllocatorKind allocator,
+            Set<CstFieldRef> finalFields) {
+        if (advice == null) {
+            throw new NullPointerException("advice == null");
+        }
+
+        if (allocator == null) {
+            throw new NullPointerException("allocator == null");
+        }
+
+        if (finalFields == null) {
+            throw new NullPointerException("finalFields == null");
+        }
+
+        this.preserveLocals = preserveLocals;
+        this.advice = advice;
+        this.allocator = allocator;
+        this.finalFields = finalFields;
+    }
+
+    /**
+     * @return true if local variable information should be preserved, even
+     * at code size/register size cost
+     */
+    public boolean getPreserveLocals() {
+        return preserveLocals;
+    }
+
+    /**
+     * @return {@code non-null;} translation advice
+     */
+    public TranslationAdvice getAdvice() {
+        return advice;
+    }
+
+    /**
+     * @return {@code non-null;} which register allocator to use
+     */
+    public Optimizer.RegisterAllocatorKind getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * Returns whether a field is known to be final, and so to keep its
+     * value once set.
+     *
+     * @param field {@code non-null;} the field
+     * @return {@code true} if the field is known to be final
+     */
+    public boolean isKnownFinal(CstFieldRef field) {
+        return finalFields.contains(field);
+    }
+}
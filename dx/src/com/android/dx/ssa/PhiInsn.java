@@ -133,6 +133,44 @@ public final class PhiInsn extends SsaInsn {
         sources = null;
     }
 
+    /**
+     * Changes the register of the operands from one pred block. The
+     * caller is responsible for updating the method's use lists.
+     *
+     * @param predIndex index of the pred block
+     * @param registerSpec {@code non-null;} the new register
+     */
+    public void changeOperandForPred(int predIndex,
+            RegisterSpec registerSpec) {
+        for (Operand o : operands) {
+            if (o.blockIndex == predIndex) {
+                o.regSpec = registerSpec;
+            }
+        }
+
+        // Un-cache sources, in case someone has already called getSources().
+        sources = null;
+    }
+
+    /**
+     * Associates the operands from one pred block with another, for use
+     * when a new block is inserted along the edge between them and the
+     * block containing this insn.
+     *
+     * @param oldIndex index of the old pred block
+     * @param newPred {@code non-null;} the new pred block
+     */
+    public void replacePredBlock(int oldIndex, SsaBasicBlock newPred) {
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            Operand o = operands.get(i);
+
+            if (o.blockIndex == oldIndex) {
+                operands.set(i, new Operand(o.regSpec, newPred.getIndex(),
+                        newPred.getRopLabel()));
+            }
+        }
+    }
+
     /**
      * Gets the index of the pred block associated with the RegisterSpec
      * at the particular getSources() index.
@@ -293,7 +331,8 @@ public final class PhiInsn extends SsaInsn {
     /** {@inheritDoc} */
     @Override
     public boolean hasSideEffect() {
-        return Optimizer.getPreserveLocals() && getLocalAssignment() != null;
+        return getBlock().getParent().getContext().getPreserveLocals()
+            && getLocalAssignment() != null;
     }
 
     /** {@inheritDoc} */
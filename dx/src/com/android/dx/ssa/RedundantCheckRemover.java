@@ -0,0 +1,693 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.PlainCstInsn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Removes type checks and null checks whose outcome is already known.
+ * What is known about a register comes both from its definition, such
+ * as a {@code new-instance} or a {@code check-cast}, and from where it
+ * is used, in that a block can only be reached with a non-{@code null}
+ * register when it is only reached by dereferencing the register or by
+ * comparing it to {@code null}; the latter facts are scoped by walking
+ * the dominator tree.
+ *
+ * <p>A {@code check-cast} is removed when its operand is known to be an
+ * instance of the class already, and its result is replaced with the
+ * register that proves it, so that the dex verifier sees the same
+ * types. An {@code instance-of} with a known outcome becomes a
+ * constant, and an otherwise-unused call to {@code getClass()} or
+ * {@code Objects.requireNonNull()}, as compilers emit for null checks,
+ * is removed when the register is known not to be {@code null}. Only
+ * checks without catch handlers are removed, so that the control flow
+ * needn't change.</p>
+ *
+ * <p>Before any of that, the operands of phis are narrowed to the
+ * result of a dominating {@code check-cast} of them, where there is
+ * one, so that {@link PhiTypeResolver} finds the narrower type, and a
+ * later cast of the phi result may be removed in turn. Nothing is
+ * learned from {@code instance-of} itself, since the dex verifier
+ * doesn't narrow types on it.</p>
+ */
+public class RedundantCheckRemover {
+    /** {@code non-null;} the class declaring {@code requireNonNull()} */
+    private static final CstType CST_OBJECTS =
+        new CstType(Type.intern("Ljava/util/Objects;"));
+
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /**
+     * {@code non-null;} for each register, the class its value is known
+     * to be an instance of, if it isn't {@code null}, or {@code null} if
+     * nothing is known
+     */
+    private final Type[] knownTypes;
+
+    /** {@code non-null;} registers known to be {@code null} */
+    private final BitSet knownNull;
+
+    /**
+     * {@code non-null;} registers known not to be {@code null}, either
+     * everywhere or in the current block
+     */
+    private final BitSet nonNull;
+
+    /**
+     * {@code non-null;} for each register, the result of a check-cast
+     * of it in the current block or one dominating it, if any
+     */
+    private final RegisterSpec[] castResults;
+
+    /**
+     * {@code non-null;} facts added in the current block and those
+     * dominating it, for undoing: twice the register for {@link
+     * #nonNull}, and one more than that for {@link #castResults}
+     */
+    private final IntList undo;
+
+    /** {@code non-null;} insns to delete when all done */
+    private final HashSet<SsaInsn> deletedInsns;
+
+    /** whether phi operands are being narrowed, rather than checks removed */
+    private boolean narrowingPhis;
+
+    /**
+     * Processes a method with this optimization step.
+     *
+     * @param ssaMethod method to process
+     */
+    public static void process(SsaMethod ssaMethod) {
+        new RedundantCheckRemover(ssaMethod).run();
+    }
+
+    private RedundantCheckRemover(SsaMethod ssaMeth) {
+        int regCount = ssaMeth.getRegCount();
+
+        this.ssaMeth = ssaMeth;
+        this.knownTypes = new Type[regCount];
+        this.knownNull = new BitSet(regCount);
+        this.nonNull = new BitSet(regCount);
+        this.castResults = new RegisterSpec[regCount];
+        this.undo = new IntList();
+        this.deletedInsns = new HashSet<SsaInsn>();
+    }
+
+    /**
+     * Runs this optimization step.
+     */
+    private void run() {
+        IntList[] domChildren = Dominators.makeDomChildren(ssaMeth);
+
+        narrowingPhis = true;
+        walk(domChildren);
+
+        findKnownFacts();
+
+        narrowingPhis = false;
+        walk(domChildren);
+
+        ssaMeth.deleteInsns(deletedInsns);
+    }
+
+    /**
+     * Processes the blocks in dominator-tree order, undoing the facts
+     * learned in a block once done with the blocks it dominates.
+     *
+     * @param domChildren {@code non-null;} the dominator tree
+     */
+    private void walk(IntList[] domChildren) {
+        ssaMeth.forEachBlockDomTree(domChildren,
+                new SsaBasicBlock.DomTreeVisitor() {
+            public int enterBlock(SsaBasicBlock block) {
+                int mark = undo.size();
+
+                processBlock(block);
+                return mark;
+            }
+            public void leaveBlock(SsaBasicBlock block, int mark) {
+                for (int i = undo.size() - 1; i >= mark; i--) {
+                    int fact = undo.pop();
+
+                    if ((fact & 1) == 0) {
+                        nonNull.clear(fact >> 1);
+                    } else {
+                        castResults[fact >> 1] = null;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds what is known about each register from its definition.
+     */
+    private void findKnownFacts() {
+        final ArrayList<SsaInsn> copies = new ArrayList<SsaInsn>();
+
+        ssaMeth.forEachInsn(new SsaInsn.Visitor() {
+            public void visitMoveInsn(NormalSsaInsn insn) {
+                addCopy(insn);
+            }
+            public void visitPhiInsn(PhiInsn phi) {
+                addCopy(phi);
+            }
+            private void addCopy(SsaInsn insn) {
+                copies.add(insn);
+
+                // Optimistically, until an operand says otherwise.
+                knownTypes[insn.getResult().getReg()] = Type.VOID;
+                nonNull.set(insn.getResult().getReg());
+            }
+            public void visitNonMoveInsn(NormalSsaInsn insn) {
+                findKnownFacts(insn);
+            }
+        });
+
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (SsaInsn insn : copies) {
+                int reg = insn.getResult().getReg();
+                RegisterSpecList sources = insn.getSources();
+                int sz = sources.size();
+                Type type = Type.VOID;
+                boolean isNonNull = true;
+
+                for (int i = 0; i < sz; i++) {
+                    int sourceReg = sources.get(i).getReg();
+
+                    isNonNull = isNonNull && nonNull.get(sourceReg);
+
+                    if (!knownNull.get(sourceReg)) {
+                        type = join(type, knownTypes[sourceReg]);
+                    }
+                }
+
+                if (insn instanceof NormalSsaInsn
+                        && !insn.getResult().getType().equals(type)) {
+                    // The verifier only sees the declared type of a move.
+                    type = null;
+                }
+
+                if (type != knownTypes[reg]) {
+                    knownTypes[reg] = type;
+                    changed = true;
+                }
+
+                if (isNonNull != nonNull.get(reg)) {
+                    nonNull.set(reg, isNonNull);
+                    changed = true;
+                }
+            }
+        }
+
+        for (SsaInsn insn : copies) {
+            int reg = insn.getResult().getReg();
+
+            if (knownTypes[reg] == Type.VOID) {
+                // Every operand was null; there's nothing to narrow to.
+                knownTypes[reg] = null;
+            }
+        }
+    }
+
+    /**
+     * Finds what is known about the result of one insn.
+     *
+     * @param insn {@code non-null;} the insn, which isn't a move or phi
+     */
+    private void findKnownFacts(NormalSsaInsn insn) {
+        RegisterSpec result = insn.getResult();
+
+        if (result == null) {
+            return;
+        }
+
+        int reg = result.getReg();
+
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.CONST: {
+                if (((CstInsn) insn.getOriginalRopInsn()).getConstant()
+                        == CstKnownNull.THE_ONE) {
+                    knownNull.set(reg);
+                }
+                break;
+            }
+            case RegOps.MOVE_EXCEPTION: {
+                nonNull.set(reg);
+                break;
+            }
+            case RegOps.MOVE_PARAM: {
+                if (!ssaMeth.isStatic() && isThisParam(insn)) {
+                    nonNull.set(reg);
+                }
+                break;
+            }
+            case RegOps.MOVE_RESULT_PSEUDO: {
+                Insn throwingInsn =
+                    ssaMeth.getThrowingInsn(insn).getOriginalRopInsn();
+
+                switch (throwingInsn.getOpcode().getOpcode()) {
+                    case RegOps.CHECK_CAST: {
+                        knownTypes[reg] = result.getType();
+                        break;
+                    }
+                    case RegOps.NEW_INSTANCE: {
+                        /*
+                         * The result is uninitialized, and can't be used
+                         * as anything but the class once it isn't.
+                         */
+                        knownTypes[reg] =
+                            result.getType().getInitializedType();
+                        nonNull.set(reg);
+                        break;
+                    }
+                    case RegOps.NEW_ARRAY:
+                    case RegOps.FILLED_NEW_ARRAY: {
+                        nonNull.set(reg);
+                        break;
+                    }
+                    case RegOps.CONST: {
+                        // const-string and const-class
+                        nonNull.set(reg);
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the join of two known types.
+     *
+     * @param a {@code null-ok;} a known type, {@link Type#VOID} if not
+     * yet known, or {@code null} if nothing is known
+     * @param b {@code null-ok;} the same, for the other type
+     * @return {@code null-ok;} their join
+     */
+    private static Type join(Type a, Type b) {
+        if (a == Type.VOID) {
+            return b;
+        } else if (b == Type.VOID) {
+            return a;
+        } else if (a != null && a.equals(b)) {
+            return a;
+        }
+
+        return null;
+    }
+
+    /**
+     * Learns what can be learned from one block, and removes the checks
+     * in it whose outcome is known.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void processBlock(SsaBasicBlock block) {
+        addEdgeFacts(block);
+
+        ArrayList<SsaInsn> insns = block.getInsns();
+        int sz = insns.size();
+
+        for (int i = 0; i < sz; i++) {
+            SsaInsn insn = insns.get(i);
+
+            if (insn instanceof NormalSsaInsn && insn.getOpcode().getOpcode()
+                    == RegOps.MOVE_RESULT_PSEUDO) {
+                processMoveResultPseudo((NormalSsaInsn) insn);
+            }
+        }
+
+        if (narrowingPhis) {
+            narrowPhiOperands(block);
+        } else {
+            processNullCheck(block);
+        }
+    }
+
+    /**
+     * Learns the registers known not to be {@code null} on entering a
+     * block, from the way its only predecessor branches to it.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void addEdgeFacts(SsaBasicBlock block) {
+        BitSet preds = block.getPredecessors();
+
+        if (preds.cardinality() != 1) {
+            return;
+        }
+
+        SsaBasicBlock predBlock =
+            ssaMeth.getBlocks().get(preds.nextSetBit(0));
+        ArrayList<SsaInsn> predInsns = predBlock.getInsns();
+        SsaInsn lastInsn = predInsns.get(predInsns.size() - 1);
+        RegisterSpecList sources = lastInsn.getSources();
+        boolean isPrimary =
+            predBlock.getPrimarySuccessorIndex() == block.getIndex();
+
+        switch (lastInsn.getOpcode().getOpcode()) {
+            case RegOps.INVOKE_VIRTUAL:
+            case RegOps.INVOKE_SUPER:
+            case RegOps.INVOKE_DIRECT:
+            case RegOps.INVOKE_INTERFACE:
+            case RegOps.GET_FIELD:
+            case RegOps.AGET:
+            case RegOps.ARRAY_LENGTH:
+            case RegOps.MONITOR_ENTER:
+            case RegOps.MONITOR_EXIT: {
+                if (isPrimary) {
+                    addNonNull(sources.get(0).getReg());
+                }
+                break;
+            }
+            case RegOps.PUT_FIELD:
+            case RegOps.APUT: {
+                if (isPrimary) {
+                    addNonNull(sources.get(1).getReg());
+                }
+                break;
+            }
+            case RegOps.IF_EQ:
+            case RegOps.IF_NE: {
+                if (sources.size() != 1
+                        || predBlock.getSuccessors().cardinality() != 2) {
+                    break;
+                }
+
+                boolean isEq =
+                    lastInsn.getOpcode().getOpcode() == RegOps.IF_EQ;
+
+                if (isEq != isPrimary) {
+                    // The register is known to be zero here.
+                    break;
+                }
+
+                int reg = sources.get(0).getReg();
+
+                if (sources.get(0).getBasicType() == Type.BT_OBJECT) {
+                    addNonNull(reg);
+                    break;
+                }
+
+                // A successful instance-of implies a non-null operand.
+                SsaInsn def = ssaMeth.getDefinitionForRegister(reg);
+
+                if (def instanceof NormalSsaInsn && def.getOpcode().getOpcode()
+                        == RegOps.MOVE_RESULT_PSEUDO) {
+                    SsaInsn throwingInsn = ssaMeth.getThrowingInsn(def);
+
+                    if (throwingInsn.getOpcode().getOpcode()
+                            == RegOps.INSTANCE_OF) {
+                        addNonNull(throwingInsn.getSources().get(0).getReg());
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Processes the move-result-pseudo of a type check, removing the
+     * check if its outcome is known.
+     *
+     * @param insn {@code non-null;} the move-result-pseudo
+     */
+    private void processMoveResultPseudo(NormalSsaInsn insn) {
+        SsaInsn throwingInsn = ssaMeth.getThrowingInsn(insn);
+        int opcode = throwingInsn.getOpcode().getOpcode();
+
+        if (opcode != RegOps.CHECK_CAST && opcode != RegOps.INSTANCE_OF) {
+            return;
+        }
+
+        RegisterSpec result = insn.getResult();
+        int sourceReg = throwingInsn.getSources().get(0).getReg();
+        Type type = ((CstType) ((CstInsn) throwingInsn.getOriginalRopInsn())
+                .getConstant()).getClassType();
+        RegisterSpec proof = null;
+
+        if (knownNull.get(sourceReg) || type.equals(knownTypes[sourceReg])) {
+            proof = ssaMeth.getDefinitionForRegister(sourceReg).getResult();
+        } else if (castResults[sourceReg] != null
+                && castResults[sourceReg].getType().equals(type)) {
+            proof = castResults[sourceReg];
+        }
+
+        if (opcode == RegOps.CHECK_CAST && proof == null) {
+            if (castResults[sourceReg] == null) {
+                castResults[sourceReg] = result;
+                undo.add((sourceReg << 1) | 1);
+            }
+
+            if (nonNull.get(sourceReg)) {
+                addNonNull(result.getReg());
+            }
+
+            return;
+        }
+
+        SsaBasicBlock predBlock = throwingInsn.getBlock();
+
+        if (narrowingPhis || predBlock.getSuccessors().cardinality() != 1) {
+            return;
+        }
+
+        if (opcode == RegOps.CHECK_CAST) {
+            // The cast is known to succeed, giving back what was cast.
+            ssaMeth.replaceThrowingInsn(insn, proof, deletedInsns);
+            return;
+        }
+
+        int value;
+
+        if (knownNull.get(sourceReg)) {
+            value = 0;
+        } else if (proof != null && nonNull.get(sourceReg)) {
+            value = 1;
+        } else {
+            return;
+        }
+
+        Insn constInsn = new PlainCstInsn(Rops.opConst(result),
+                throwingInsn.getOriginalRopInsn().getPosition(), result,
+                RegisterSpecList.EMPTY, CstInteger.make(value));
+
+        ssaMeth.replaceThrowingInsn(insn, constInsn);
+    }
+
+    /**
+     * Removes the call ending a block if it's there only to check a
+     * register for {@code null}, and the register is known not to be.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void processNullCheck(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+
+        if (insns.size() == 0) {
+            // The exit block.
+            return;
+        }
+
+        SsaInsn lastInsn = insns.get(insns.size() - 1);
+        int opcode = lastInsn.getOpcode().getOpcode();
+
+        if ((opcode != RegOps.INVOKE_VIRTUAL
+                        && opcode != RegOps.INVOKE_STATIC)
+                || block.getSuccessors().cardinality() != 1
+                || lastInsn.getSources().size() != 1) {
+            return;
+        }
+
+        CstMethodRef method = (CstMethodRef)
+            ((CstInsn) lastInsn.getOriginalRopInsn()).getConstant();
+        String name = method.getNat().getName().getString();
+        String descriptor = method.getNat().getDescriptor().getString();
+        boolean isNullCheck;
+
+        if (opcode == RegOps.INVOKE_VIRTUAL) {
+            // Object.getClass() is final, whatever class it's called on.
+            isNullCheck = name.equals("getClass")
+                && descriptor.equals("()Ljava/lang/Class;");
+        } else {
+            isNullCheck = method.getDefiningClass().equals(CST_OBJECTS)
+                && name.equals("requireNonNull")
+                && descriptor.equals("(Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        if (!isNullCheck) {
+            return;
+        }
+
+        if (!nonNull.get(lastInsn.getSources().get(0).getReg())) {
+            // It's a real null check.
+            return;
+        }
+
+        List<SsaInsn> succInsns = block.getPrimarySuccessor().getInsns();
+        SsaInsn moveResult = succInsns.get(0);
+
+        if (moveResult.getOpcode().getOpcode() == RegOps.MOVE_RESULT) {
+            /*
+             * Compilers move the result and then drop it, and the dead
+             * code remover hasn't yet run, so an unused move-result
+             * goes along with the call, as do the phis that merge it
+             * and are themselves unused.
+             */
+            HashSet<SsaInsn> unused = new HashSet<SsaInsn>();
+
+            if (!findUnused(moveResult, unused)) {
+                // The result is used.
+                return;
+            }
+
+            deletedInsns.addAll(unused);
+        }
+
+        block.replaceLastInsn(new PlainInsn(Rops.GOTO,
+                lastInsn.getOriginalRopInsn().getPosition(), null,
+                RegisterSpecList.EMPTY));
+    }
+
+    /**
+     * Finds whether the result of an insn is unused, other than by
+     * phis whose results are unused in turn.
+     *
+     * @param insn {@code non-null;} the insn, which has a result
+     * @param unused {@code non-null;} set to add the insn and those
+     * phis to
+     * @return {@code true} if the result is unused
+     */
+    private boolean findUnused(SsaInsn insn, HashSet<SsaInsn> unused) {
+        if (!unused.add(insn)) {
+            // Already found, around a loop.
+            return true;
+        }
+
+        if (ssaMeth.isRegALocal(insn.getResult())) {
+            return false;
+        }
+
+        for (SsaInsn use :
+                 ssaMeth.getUseListForRegister(insn.getResult().getReg())) {
+            if (!(use instanceof PhiInsn) || !findUnused(use, unused)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Narrows the operands that phis in the successors of a block have
+     * from it, to the results of casts known at the end of the block.
+     *
+     * @param block {@code non-null;} block to process
+     */
+    private void narrowPhiOperands(SsaBasicBlock block) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        BitSet succs = block.getSuccessors();
+        int index = block.getIndex();
+
+        for (int i = succs.nextSetBit(0); i >= 0;
+                i = succs.nextSetBit(i + 1)) {
+            for (SsaInsn insn : blocks.get(i).getPhiInsns()) {
+                PhiInsn phi = (PhiInsn) insn;
+                RegisterSpecList sources = phi.getSources();
+                int sz = sources.size();
+
+                for (int j = 0; j < sz; j++) {
+                    RegisterSpec source = sources.get(j);
+                    RegisterSpec cast = castResults[source.getReg()];
+
+                    if (phi.predBlockIndexForSourcesIndex(j) != index
+                            || cast == null
+                            || !sameLocal(source.getLocalItem(),
+                                    cast.getLocalItem())) {
+                        continue;
+                    }
+
+                    phi.changeOperandForPred(index, cast);
+                    ssaMeth.onSourcesChanged(phi, sources);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a register is known not to be {@code null} in the
+     * current block and those it dominates.
+     *
+     * @param reg the register
+     */
+    private void addNonNull(int reg) {
+        if (!nonNull.get(reg)) {
+            nonNull.set(reg);
+            undo.add(reg << 1);
+        }
+    }
+
+    /**
+     * Returns whether a move-param insn moves the {@code this} pointer.
+     *
+     * @param insn {@code non-null;} the move-param
+     * @return {@code true} if it's the first parameter
+     */
+    private static boolean isThisParam(NormalSsaInsn insn) {
+        CstInsn cstInsn = (CstInsn) insn.getOriginalRopInsn();
+
+        return ((CstInteger) cstInsn.getConstant()).getValue() == 0;
+    }
+
+    /**
+     * Returns whether two local items are the same, either of which
+     * may be {@code null}.
+     *
+     * @param a {@code null-ok;} one item
+     * @param b {@code null-ok;} the other
+     * @return {@code true} if they're equal
+     */
+    private static boolean sameLocal(LocalItem a, LocalItem b) {
+        return (a == b) || ((a != null) && a.equals(b));
+    }
+}
@@ -36,8 +36,8 @@ public final class SetFactory {
     private static final int DOMFRONT_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for interference graph sets. These
-     * sets are kept per register until register allocation is done.
+     * BitIntSet/ListIntSet threshold for interference sets. These
+     * sets are kept per register by the graph-coloring allocator.
      *
      * A value of 3072 here is somewhere around 1.125mb of total bitset size.
      */
@@ -69,8 +69,8 @@ public final class SetFactory {
     }
 
     /**
-     * Make IntSet for the interference graph sets. Public because
-     * InterferenceGraph is in another package.
+     * Make IntSet for per-register interference sets. Public because
+     * the register allocators are in another package.
      *
      * @param countRegs {@code >=0;} count of SSA registers used in method
      * @return {@code non-null;} appropriate set
@@ -244,6 +244,28 @@ public final class SsaBasicBlock {
         parent.onInsnAdded(newInsn);
     }
 
+    /**
+     * Replaces an insn in this block with another, which mustn't branch
+     * unless the one it replaces is the last insn.
+     *
+     * @param oldInsn {@code non-null;} insn to replace
+     * @param insn {@code non-null;} rop-form insn to replace it with
+     */
+    public void replaceInsn(SsaInsn oldInsn, Insn insn) {
+        int index = insns.indexOf(oldInsn);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("insn not in block");
+        }
+
+        SsaInsn newInsn = SsaInsn.makeFromRop(insn, this);
+
+        insns.set(index, newInsn);
+
+        parent.onInsnRemoved(oldInsn);
+        parent.onInsnAdded(newInsn);
+    }
+
     /**
      * Visits each phi insn.
      *
@@ -976,6 +998,32 @@ public final class SsaBasicBlock {
         void visitBlock (SsaBasicBlock v, SsaBasicBlock parent);
     }
 
+    /**
+     * Visitor interface for walking basic blocks in dominator-tree
+     * order, which is told both when a block is reached and when all
+     * the blocks it dominates are done with.
+     */
+    public interface DomTreeVisitor {
+        /**
+         * Indicates a block has been reached, after all the blocks
+         * that dominate it.
+         *
+         * @param block {@code non-null;} the block
+         * @return a value to pass back to {@link #leaveBlock}, such as
+         * the size of a list of things to undo
+         */
+        int enterBlock(SsaBasicBlock block);
+
+        /**
+         * Indicates that a block and all the blocks it dominates have
+         * been visited.
+         *
+         * @param block {@code non-null;} the block
+         * @param mark the value {@link #enterBlock} returned for it
+         */
+        void leaveBlock(SsaBasicBlock block, int mark);
+    }
+
     /**
      * Label comparator.
      */
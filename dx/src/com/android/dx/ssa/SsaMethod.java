@@ -69,6 +69,9 @@ public final class SsaMethod {
     /** true if this method has no {@code this} pointer argument */
     private final boolean isStatic;
 
+    /** {@code non-null;} settings for the optimizer run */
+    private final OptimizerContext context;
+
     /**
      * indexed by register: the insn where said register is defined or null
      * if undefined. null until (lazily) created.
@@ -96,10 +99,12 @@ public final class SsaMethod {
      * method's parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param context {@code non-null;} settings for the optimizer run
      */
     public static SsaMethod newFromRopMethod(RopMethod ropMethod,
-            int paramWidth, boolean isStatic) {
-        SsaMethod result = new SsaMethod(ropMethod, paramWidth, isStatic);
+            int paramWidth, boolean isStatic, OptimizerContext context) {
+        SsaMethod result =
+            new SsaMethod(ropMethod, paramWidth, isStatic, context);
 
         result.convertRopToSsaBlocks(ropMethod);
 
@@ -115,10 +120,17 @@ public final class SsaMethod {
      * method's parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param context {@code non-null;} settings for the optimizer run
      */
-    private SsaMethod(RopMethod ropMethod, int paramWidth, boolean isStatic) {
+    private SsaMethod(RopMethod ropMethod, int paramWidth, boolean isStatic,
+            OptimizerContext context) {
+        if (context == null) {
+            throw new NullPointerException("context == null");
+        }
+
         this.paramWidth = paramWidth;
         this.isStatic = isStatic;
+        this.context = context;
         this.backMode = false;
         this.maxLabel = ropMethod.getBlocks().getMaxLabel();
         this.registerCount = ropMethod.getBlocks().getRegCount();
@@ -309,6 +321,15 @@ public final class SsaMethod {
         return isStatic;
     }
 
+    /**
+     * Returns the settings for the optimizer run this method is part of.
+     *
+     * @return {@code non-null;} the settings
+     */
+    public OptimizerContext getContext() {
+        return context;
+    }
+
     /**
      * Borrows a register to use as a temp. Used in the phi removal process.
      * Call returnSpareRegisters() when done.
@@ -789,6 +810,151 @@ public final class SsaMethod {
         }
     }
 
+    /**
+     * Visits the blocks in the given dominator tree, depth-first from
+     * the entry block, telling the visitor both when it reaches a block
+     * and when it is done with the blocks the block dominates. This
+     * suits an optimization that learns facts in a block which only
+     * hold in the blocks it dominates.
+     *
+     * @param domChildren {@code non-null;} the dominator tree, as made by
+     * {@link Dominators#makeDomChildren}
+     * @param v {@code non-null;} callback interface
+     */
+    public void forEachBlockDomTree(IntList[] domChildren,
+            SsaBasicBlock.DomTreeVisitor v) {
+        IntList stack = new IntList();
+
+        /*
+         * A negative entry is the complement of a block to leave, and
+         * the entry below it is the mark to leave it with.
+         */
+        stack.add(getEntryBlockIndex());
+
+        while (stack.size() > 0) {
+            int item = stack.pop();
+
+            if (item < 0) {
+                v.leaveBlock(blocks.get(~item), stack.pop());
+                continue;
+            }
+
+            stack.add(v.enterBlock(blocks.get(item)));
+            stack.add(~item);
+
+            IntList children = domChildren[item];
+
+            if (children != null) {
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.add(children.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces all uses of one register with another.
+     *
+     * @param from {@code non-null;} register to replace
+     * @param to {@code non-null;} its replacement
+     */
+    public void replaceUses(final RegisterSpec from, final RegisterSpec to) {
+        RegisterMapper mapper = new RegisterMapper() {
+            /** @inheritDoc */
+            public int getNewRegisterCount() {
+                return registerCount;
+            }
+
+            /** @inheritDoc */
+            public RegisterSpec map(RegisterSpec registerSpec) {
+                if (registerSpec.getReg() == from.getReg()) {
+                    return registerSpec.withReg(to.getReg());
+                }
+
+                return registerSpec;
+            }
+        };
+
+        /*
+         * The use list is modified by mapSourceRegisters, and lists an
+         * insn once per use, so go through a copy of it.
+         */
+        List<SsaInsn> uses =
+            new ArrayList<SsaInsn>(getUseListForRegister(from.getReg()));
+
+        for (SsaInsn use : uses) {
+            use.mapSourceRegisters(mapper);
+        }
+    }
+
+    /**
+     * Replaces a throwing insn without catch handlers, whose value is
+     * already in another register, with a goto. The move-result-pseudo
+     * that moves its result becomes a move from the other register if
+     * the result is a local variable, and is otherwise deleted, its
+     * uses being replaced with the other register.
+     *
+     * @param moveResult {@code non-null;} the move-result-pseudo of
+     * the throwing insn
+     * @param value {@code non-null;} register already holding the value
+     * @param deletedInsns {@code non-null;} insns that the caller is
+     * to delete when done, to which this method may add
+     */
+    public void replaceThrowingInsn(SsaInsn moveResult, RegisterSpec value,
+            Set<SsaInsn> deletedInsns) {
+        RegisterSpec result = moveResult.getResult();
+
+        if (isRegALocal(result)) {
+            // Keep the local variable, with a move.
+            replaceThrowingInsn(moveResult, new PlainInsn(
+                    Rops.opMove(result.getType()),
+                    getThrowingInsn(moveResult).getOriginalRopInsn()
+                        .getPosition(),
+                    result, RegisterSpecList.make(RegisterSpec.make(
+                            value.getReg(), value.getType()))));
+        } else {
+            replaceUses(result, value);
+            deletedInsns.add(moveResult);
+            replaceThrowingInsn(moveResult, null);
+        }
+    }
+
+    /**
+     * Replaces a throwing insn without catch handlers, whose result is
+     * known, with a goto, and the move-result-pseudo that moves its
+     * result with an insn that computes it otherwise.
+     *
+     * @param moveResult {@code non-null;} the move-result-pseudo of
+     * the throwing insn
+     * @param insn {@code null-ok;} rop-form insn to replace the
+     * move-result-pseudo with, or {@code null} to leave it be
+     */
+    public void replaceThrowingInsn(SsaInsn moveResult, Insn insn) {
+        SsaInsn throwingInsn = getThrowingInsn(moveResult);
+
+        if (insn != null) {
+            moveResult.getBlock().replaceInsn(moveResult, insn);
+        }
+
+        throwingInsn.getBlock().replaceLastInsn(new PlainInsn(Rops.GOTO,
+                throwingInsn.getOriginalRopInsn().getPosition(), null,
+                RegisterSpecList.EMPTY));
+    }
+
+    /**
+     * Gets the throwing insn whose result a move-result-pseudo moves.
+     *
+     * @param moveResult {@code non-null;} the move-result-pseudo
+     * @return {@code non-null;} the last insn of its only predecessor
+     */
+    public SsaInsn getThrowingInsn(SsaInsn moveResult) {
+        SsaBasicBlock predBlock = blocks.get(
+                moveResult.getBlock().getPredecessors().nextSetBit(0));
+        ArrayList<SsaInsn> predInsns = predBlock.getInsns();
+
+        return predInsns.get(predInsns.size() - 1);
+    }
+
     /**
      * Deletes all insns in the set from this method.
      *
@@ -0,0 +1,906 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.ssa.BasicRegisterMapper;
+import com.android.dx.ssa.NormalSsaInsn;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.RegisterMapper;
+import com.android.dx.ssa.SetFactory;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.IntIterator;
+import com.android.dx.util.IntList;
+import com.android.dx.util.IntSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.TreeMap;
+
+/**
+ * Chaitin-Briggs style register allocator. SSA registers connected by
+ * phis, moves, check-cast results and shared local variables are first
+ * coalesced, subject to the Briggs conservative test, and the
+ * resulting interference graph is then simplified and colored, giving
+ * each node the lowest register that none of its neighbors has.
+ *
+ * <p>Since the dex register space is unbounded, nothing is ever
+ * spilled. As with {@link FirstFitLocalCombiningAllocator}, parameters
+ * are precolored at the bottom of the register space, registers
+ * holding parameters and local variables are not shared with
+ * temporaries unless registers are being minimized, and the sources of
+ * instructions that require them in order are given a contiguous
+ * range, inserting moves where necessary.</p>
+ */
+public class GraphColoringAllocator extends RegisterAllocator {
+    /** local debug flag */
+    private static final boolean DEBUG = false;
+
+    /**
+     * number of low registers that most dex instructions can address,
+     * used as the degree threshold of the conservative coalescing
+     * test and of simplification
+     */
+    private static final int K = 16;
+
+    /** selection tier of precolored nodes */
+    private static final int TIER_PARAM = 0;
+
+    /** selection tier of nodes that are sources of a range */
+    private static final int TIER_RANGE = 1;
+
+    /** selection tier of nodes that hold a local variable */
+    private static final int TIER_LOCAL = 2;
+
+    /** selection tier of all other nodes */
+    private static final int TIER_OTHER = 3;
+
+    /** {@code true} if registers should be minimized */
+    private final boolean minimizeRegisters;
+
+    /** width, in registers, of the parameter block */
+    private final int paramRangeEnd;
+
+    /**
+     * {@code non-null;} pairs of SSA registers that should preferably
+     * be coalesced, in order of preference
+     */
+    private final IntList affinities;
+
+    /** {@code non-null;} insns requiring their sources in order */
+    private final ArrayList<NormalSsaInsn> invokeRangeInsns;
+
+    /** {@code non-null;} ranges of source registers, once made */
+    private final ArrayList<Range> ranges;
+
+    /** per SSA register: the union-find parent */
+    private int[] parent;
+
+    /** per node: its width, in registers */
+    private int[] width;
+
+    /** per node: its register, or {@code -1} if not yet colored */
+    private int[] color;
+
+    /** per node: its selection tier */
+    private int[] tier;
+
+    /** nodes that hold a local variable or a parameter */
+    private BitSet localNodes;
+
+    /** per node: index into {@link #ranges}, or {@code -1} */
+    private int[] rangeIndex;
+
+    /** per node: the nodes it interferes with */
+    private IntSet[] adjacent;
+
+    /** per SSA register: whether it is defined, and so must be mapped */
+    private BitSet defined;
+
+    /** {@code non-null;} registers not to be shared with temporaries */
+    private final BitSet reservedRopRegs;
+
+    /** {@code non-null;} registers colored so far */
+    private final BitSet usedRopRegs;
+
+    /**
+     * Constructs instance.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param interference non-null interference graph for SSA registers
+     * @param minimizeRegisters true if converter should take steps to
+     * minimize rop-form registers
+     */
+    public GraphColoringAllocator(SsaMethod ssaMeth,
+            InterferenceGraph interference, boolean minimizeRegisters) {
+        super(ssaMeth, interference);
+
+        this.minimizeRegisters = minimizeRegisters;
+
+        paramRangeEnd = ssaMeth.getParamWidth();
+        affinities = new IntList();
+        invokeRangeInsns = new ArrayList<NormalSsaInsn>();
+        ranges = new ArrayList<Range>();
+        reservedRopRegs = new BitSet(paramRangeEnd * 2);
+        reservedRopRegs.set(0, paramRangeEnd);
+        usedRopRegs = new BitSet(paramRangeEnd * 2);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean wantsParamsMovedHigh() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RegisterMapper allocateRegisters() {
+        analyzeInstructions();
+
+        // This may add registers, so it has to come before the build.
+        makeRanges();
+        build();
+        coalesce();
+        select(simplify());
+
+        int regCount = ssaMeth.getRegCount();
+        BasicRegisterMapper mapper = new BasicRegisterMapper(regCount);
+
+        for (int reg = 0; reg < regCount; reg++) {
+            if (defined.get(reg)) {
+                mapper.addMapping(reg, color[find(reg)],
+                        getCategoryForSsaReg(reg));
+            }
+        }
+
+        if (DEBUG) {
+            System.out.println(mapper.toHuman());
+        }
+
+        return mapper;
+    }
+
+    /**
+     * Collects the insns requiring their sources in order, and the
+     * affinities: check-cast sources with their results, move and phi
+     * sources with their results, and registers holding the same local
+     * variable with each other.
+     */
+    private void analyzeInstructions() {
+        final IntList moves = new IntList();
+        final TreeMap<LocalItem, Integer> locals =
+            new TreeMap<LocalItem, Integer>();
+        final IntList localPairs = new IntList();
+
+        ssaMeth.forEachInsn(new SsaInsn.Visitor() {
+            /** {@inheritDoc} */
+            public void visitMoveInsn(NormalSsaInsn insn) {
+                moves.add(insn.getResult().getReg());
+                moves.add(insn.getSources().get(0).getReg());
+                processLocal(insn);
+            }
+
+            /** {@inheritDoc} */
+            public void visitPhiInsn(PhiInsn insn) {
+                int result = insn.getResult().getReg();
+                RegisterSpecList sources = insn.getSources();
+                int sz = sources.size();
+
+                for (int i = 0; i < sz; i++) {
+                    moves.add(result);
+                    moves.add(sources.get(i).getReg());
+                }
+
+                processLocal(insn);
+            }
+
+            /** {@inheritDoc} */
+            public void visitNonMoveInsn(NormalSsaInsn insn) {
+                int opcode = insn.getOpcode().getOpcode();
+
+                if (opcode == RegOps.MOVE_RESULT_PSEUDO) {
+                    int checkReg = getCheckCastSource(insn);
+
+                    if (checkReg >= 0) {
+                        affinities.add(insn.getResult().getReg());
+                        affinities.add(checkReg);
+                    }
+                } else if (ssaMeth.getContext().getAdvice()
+                        .requiresSourcesInOrder(
+                                insn.getOriginalRopInsn().getOpcode(),
+                                insn.getSources())) {
+                    invokeRangeInsns.add(insn);
+                }
+
+                processLocal(insn);
+            }
+
+            /**
+             * Pairs up a local variable assignment with the first
+             * register found to hold the same local.
+             *
+             * @param insn {@code non-null;} insn that may represent a
+             * local variable assignment
+             */
+            private void processLocal(SsaInsn insn) {
+                RegisterSpec assignment = insn.getLocalAssignment();
+
+                if (assignment == null) {
+                    return;
+                }
+
+                Integer head = locals.get(assignment.getLocalItem());
+
+                if (head == null) {
+                    locals.put(assignment.getLocalItem(),
+                            assignment.getReg());
+                } else {
+                    localPairs.add(head);
+                    localPairs.add(assignment.getReg());
+                }
+            }
+        });
+
+        // Cheapest moves to lose first, then local variable splits.
+        int sz = moves.size();
+        for (int i = 0; i < sz; i++) {
+            affinities.add(moves.get(i));
+        }
+
+        sz = localPairs.size();
+        for (int i = 0; i < sz; i++) {
+            affinities.add(localPairs.get(i));
+        }
+    }
+
+    /**
+     * Gets the source of the check-cast whose result is moved by the
+     * given move-result-pseudo, if any.
+     *
+     * @param insn {@code non-null;} a move-result-pseudo
+     * @return the SSA register cast, or {@code -1} if not a check-cast
+     */
+    private int getCheckCastSource(NormalSsaInsn insn) {
+        BitSet predBlocks = insn.getBlock().getPredecessors();
+
+        // Expect one predecessor block only
+        if (predBlocks.cardinality() != 1) {
+            return -1;
+        }
+
+        SsaBasicBlock predBlock =
+                ssaMeth.getBlocks().get(predBlocks.nextSetBit(0));
+        ArrayList<SsaInsn> insnList = predBlock.getInsns();
+        SsaInsn checkCastInsn = insnList.get(insnList.size() - 1);
+
+        if (checkCastInsn.getOpcode().getOpcode() != RegOps.CHECK_CAST) {
+            return -1;
+        }
+
+        return checkCastInsn.getSources().get(0).getReg();
+    }
+
+    /**
+     * Makes the source ranges of the insns requiring their sources in
+     * order. A source is copied into a new register, with a move
+     * placed just before the insn, if it could not otherwise be placed
+     * in the range: if it is a parameter, which has its own fixed
+     * register, or if it already belongs to a range. The latter covers
+     * registers used more than once by the same insn. Ranges made up
+     * entirely of parameters already in order are left alone.
+     */
+    private void makeRanges() {
+        BitSet inRange = new BitSet(ssaMeth.getRegCount());
+
+        for (NormalSsaInsn insn : invokeRangeInsns) {
+            RegisterSpecList sources = insn.getSources();
+            int sz = sources.size();
+
+            if (isParamRange(sources)) {
+                continue;
+            }
+
+            Range range = new Range(sz);
+
+            for (int i = 0; i < sz; i++) {
+                RegisterSpec source = sources.get(i);
+                int reg = source.getReg();
+
+                if (getParameterIndexForReg(reg) >= 0 || inRange.get(reg)) {
+                    source = insertMoveBefore(insn, source);
+                    insn.changeOneSource(i, source);
+                    reg = source.getReg();
+                }
+
+                inRange.set(reg);
+                range.add(reg, source.getCategory());
+            }
+
+            ranges.add(range);
+        }
+    }
+
+    /**
+     * Returns whether the given sources are all parameters that
+     * already sit in order in their registers.
+     *
+     * @param sources {@code non-null;} sources of an insn
+     * @return {@code true} if the sources need no range of their own
+     */
+    private boolean isParamRange(RegisterSpecList sources) {
+        int sz = sources.size();
+        int next = getParameterIndexForReg(sources.get(0).getReg());
+
+        for (int i = 0; i < sz; i++) {
+            RegisterSpec source = sources.get(i);
+
+            if (next < 0
+                    || getParameterIndexForReg(source.getReg()) != next) {
+                return false;
+            }
+
+            next += source.getCategory();
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the parameter index for SSA registers that are method
+     * parameters. {@code -1} is returned for non-parameter registers.
+     *
+     * @param ssaReg {@code >=0;} SSA register to look up
+     * @return parameter index or {@code -1} if not a parameter
+     */
+    private int getParameterIndexForReg(int ssaReg) {
+        SsaInsn defInsn = ssaMeth.getDefinitionForRegister(ssaReg);
+        if (defInsn == null) {
+            return -1;
+        }
+
+        Rop opcode = defInsn.getOpcode();
+
+        // opcode == null for phi insns.
+        if (opcode != null && opcode.getOpcode() == RegOps.MOVE_PARAM) {
+            CstInsn origInsn = (CstInsn) defInsn.getOriginalRopInsn();
+            return ((CstInteger) origInsn.getConstant()).getValue();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Builds the initial graph, with one node per defined SSA register,
+     * and precolors the parameters.
+     */
+    private void build() {
+        int regCount = ssaMeth.getRegCount();
+
+        parent = new int[regCount];
+        width = new int[regCount];
+        color = new int[regCount];
+        tier = new int[regCount];
+        rangeIndex = new int[regCount];
+        adjacent = new IntSet[regCount];
+        defined = new BitSet(regCount);
+        localNodes = new BitSet(regCount);
+
+        for (int reg = 0; reg < regCount; reg++) {
+            RegisterSpec spec = getDefinitionSpecForSsaReg(reg);
+
+            parent[reg] = reg;
+            color[reg] = -1;
+            rangeIndex[reg] = -1;
+
+            if (spec == null) {
+                continue;
+            }
+
+            defined.set(reg);
+            width[reg] = spec.getCategory();
+
+            int paramIndex = getParameterIndexForReg(reg);
+
+            if (paramIndex >= 0) {
+                color[reg] = paramIndex;
+                tier[reg] = TIER_PARAM;
+                localNodes.set(reg);
+                usedRopRegs.set(paramIndex, paramIndex + width[reg]);
+            } else if (spec.getLocalItem() != null) {
+                tier[reg] = TIER_LOCAL;
+                localNodes.set(reg);
+            } else {
+                tier[reg] = TIER_OTHER;
+            }
+        }
+
+        int sz = ranges.size();
+        for (int i = 0; i < sz; i++) {
+            Range range = ranges.get(i);
+
+            for (int j = 0; j < range.size; j++) {
+                int reg = range.regs[j];
+                rangeIndex[reg] = i;
+                tier[reg] = TIER_RANGE;
+            }
+        }
+
+        for (int reg = 0; reg < regCount; reg++) {
+            if (!defined.get(reg)) {
+                continue;
+            }
+
+            IntSet set = SetFactory.makeInterferenceSet(regCount);
+            interference.mergeInterferenceSet(reg, set);
+            adjacent[reg] = SetFactory.makeInterferenceSet(regCount);
+
+            for (IntIterator iter = set.iterator(); iter.hasNext(); ) {
+                int other = iter.next();
+
+                if (other != reg && defined.get(other)) {
+                    adjacent[reg].add(other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the node that an SSA register has been coalesced into.
+     *
+     * @param reg {@code >= 0;} SSA register
+     * @return {@code >= 0;} the node
+     */
+    private int find(int reg) {
+        int root = reg;
+
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+
+        // Compress the path.
+        while (parent[reg] != root) {
+            int next = parent[reg];
+            parent[reg] = root;
+            reg = next;
+        }
+
+        return root;
+    }
+
+    /**
+     * Coalesces each pair of affine nodes that may be coalesced.
+     */
+    private void coalesce() {
+        int sz = affinities.size();
+
+        for (int i = 0; i < sz; i += 2) {
+            int a = affinities.get(i);
+            int b = affinities.get(i + 1);
+
+            if (!defined.get(a) || !defined.get(b)) {
+                continue;
+            }
+
+            a = find(a);
+            b = find(b);
+
+            if (canCoalesce(a, b)) {
+                if (DEBUG) {
+                    System.out.println("coalescing " + a + " and " + b);
+                }
+
+                if (color[b] >= 0 || rangeIndex[b] >= 0) {
+                    // Keep the constrained node as the representative.
+                    union(b, a);
+                } else {
+                    union(a, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether two nodes may be coalesced: they must not
+     * interfere, must be of the same width, and at most one of them may
+     * be precolored or part of a range. If one is precolored, the other
+     * must not interfere with anything colored the same. Last, the
+     * Briggs test must pass: the combined node must have fewer than
+     * {@link #K} neighbors of significant degree, so that coalescing
+     * can't make the graph harder to color.
+     *
+     * @param a {@code >= 0;} one node
+     * @param b {@code >= 0;} the other node
+     * @return {@code true} if the nodes may be coalesced
+     */
+    private boolean canCoalesce(int a, int b) {
+        if (a == b || width[a] != width[b] || adjacent[a].has(b)) {
+            return false;
+        }
+
+        boolean constrainedA = color[a] >= 0 || rangeIndex[a] >= 0;
+        boolean constrainedB = color[b] >= 0 || rangeIndex[b] >= 0;
+
+        if (constrainedA && constrainedB) {
+            return false;
+        }
+
+        if (color[a] >= 0 && conflictsWithColor(b, color[a], width[a])) {
+            return false;
+        }
+
+        if (color[b] >= 0 && conflictsWithColor(a, color[b], width[b])) {
+            return false;
+        }
+
+        int significant = 0;
+
+        for (IntIterator iter = adjacent[a].iterator(); iter.hasNext(); ) {
+            if (adjacent[iter.next()].elements() >= K) {
+                significant++;
+            }
+        }
+
+        for (IntIterator iter = adjacent[b].iterator(); iter.hasNext(); ) {
+            int other = iter.next();
+
+            if (!adjacent[a].has(other) && adjacent[other].elements() >= K) {
+                significant++;
+            }
+        }
+
+        return significant < K;
+    }
+
+    /**
+     * Returns whether a node interferes with a precolored node that
+     * overlaps the given registers.
+     *
+     * @param node {@code >= 0;} node in question
+     * @param reg {@code >= 0;} first register
+     * @param category {@code 1..2;} number of registers
+     * @return {@code true} if there is such a neighbor
+     */
+    private boolean conflictsWithColor(int node, int reg, int category) {
+        for (IntIterator iter = adjacent[node].iterator(); iter.hasNext(); ) {
+            int other = iter.next();
+            int otherReg = color[other];
+
+            if (otherReg >= 0 && otherReg < reg + category
+                    && reg < otherReg + width[other]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Coalesces one node into another.
+     *
+     * @param into {@code >= 0;} the node that remains
+     * @param from {@code >= 0;} the node that goes away
+     */
+    private void union(int into, int from) {
+        parent[from] = into;
+        tier[into] = Math.min(tier[into], tier[from]);
+
+        if (localNodes.get(from)) {
+            localNodes.set(into);
+        }
+
+        for (IntIterator iter = adjacent[from].iterator(); iter.hasNext(); ) {
+            int other = iter.next();
+
+            adjacent[other].remove(from);
+            adjacent[other].add(into);
+            adjacent[into].add(other);
+        }
+
+        adjacent[from] = null;
+    }
+
+    /**
+     * Simplifies the graph: repeatedly removes a node of degree less
+     * than {@link #K} or, if there is none, the node of highest degree,
+     * which a real allocator would consider spilling.
+     *
+     * @return {@code non-null;} the uncolored nodes, in the order removed
+     */
+    private IntList simplify() {
+        int regCount = ssaMeth.getRegCount();
+        int[] degree = new int[regCount];
+        BitSet remaining = new BitSet(regCount);
+        IntList lowDegree = new IntList();
+
+        for (int reg = defined.nextSetBit(0); reg >= 0;
+                reg = defined.nextSetBit(reg + 1)) {
+            if (find(reg) == reg && color[reg] < 0) {
+                remaining.set(reg);
+            }
+        }
+
+        for (int reg = remaining.nextSetBit(0); reg >= 0;
+                reg = remaining.nextSetBit(reg + 1)) {
+            for (IntIterator iter = adjacent[reg].iterator();
+                    iter.hasNext(); ) {
+                if (remaining.get(iter.next())) {
+                    degree[reg]++;
+                }
+            }
+
+            if (degree[reg] < K) {
+                lowDegree.add(reg);
+            }
+        }
+
+        IntList order = new IntList(remaining.cardinality());
+
+        while (!remaining.isEmpty()) {
+            int node = -1;
+
+            while (lowDegree.size() > 0) {
+                int candidate = lowDegree.pop();
+
+                if (remaining.get(candidate)) {
+                    node = candidate;
+                    break;
+                }
+            }
+
+            if (node < 0) {
+                // Blocked: optimistically push the worst node.
+                for (int reg = remaining.nextSetBit(0); reg >= 0;
+                        reg = remaining.nextSetBit(reg + 1)) {
+                    if (node < 0 || degree[reg] > degree[node]) {
+                        node = reg;
+                    }
+                }
+            }
+
+            remaining.clear(node);
+            order.add(node);
+
+            for (IntIterator iter = adjacent[node].iterator();
+                    iter.hasNext(); ) {
+                int other = iter.next();
+
+                if (remaining.get(other) && (--degree[other] == K - 1)) {
+                    lowDegree.add(other);
+                }
+            }
+        }
+
+        return order;
+    }
+
+    /**
+     * Colors the nodes in the reverse of the order they were removed
+     * by {@link #simplify}, tier by tier: ranges first, then local
+     * variables, then everything else.
+     *
+     * @param order {@code non-null;} the uncolored nodes
+     */
+    private void select(IntList order) {
+        for (int t = TIER_RANGE; t <= TIER_OTHER; t++) {
+            for (int i = order.size() - 1; i >= 0; i--) {
+                int node = order.get(i);
+
+                if (tier[node] != t || color[node] >= 0) {
+                    continue;
+                }
+
+                if (rangeIndex[node] >= 0) {
+                    selectRange(ranges.get(rangeIndex[node]));
+                } else {
+                    selectNode(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Colors a single node with the lowest register that fits.
+     *
+     * @param node {@code >= 0;} the node
+     */
+    private void selectNode(int node) {
+        BitSet forbidden = getForbidden(node);
+        int category = width[node];
+        int reg = 0;
+
+        while (spansParamRange(reg, category)
+                || !isAvailable(forbidden, reg, category,
+                        localNodes.get(node))) {
+            reg++;
+        }
+
+        assign(node, reg);
+    }
+
+    /**
+     * Colors all the nodes of a range with the lowest registers that
+     * fit, keeping them contiguous.
+     *
+     * @param range {@code non-null;} the range
+     */
+    private void selectRange(Range range) {
+        int sz = range.size;
+        int[] nodes = new int[sz];
+        BitSet[] forbidden = new BitSet[sz];
+
+        for (int i = 0; i < sz; i++) {
+            nodes[i] = find(range.regs[i]);
+            forbidden[i] = getForbidden(nodes[i]);
+        }
+
+        for (int start = 0; /*start*/; start++) {
+            if (spansParamRange(start, range.width)) {
+                continue;
+            }
+
+            boolean fits = true;
+
+            for (int i = 0; fits && (i < sz); i++) {
+                // Ranges go first, so they need not avoid locals.
+                fits = isAvailable(forbidden[i],
+                        start + range.offsets[i], width[nodes[i]], false);
+            }
+
+            if (fits) {
+                for (int i = 0; i < sz; i++) {
+                    assign(nodes[i], start + range.offsets[i]);
+                }
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the registers taken by the colored neighbors of a node.
+     *
+     * @param node {@code >= 0;} the node
+     * @return {@code non-null;} the registers
+     */
+    private BitSet getForbidden(int node) {
+        BitSet result = new BitSet();
+
+        for (IntIterator iter = adjacent[node].iterator(); iter.hasNext(); ) {
+            int other = iter.next();
+
+            if (color[other] >= 0) {
+                result.set(color[other], color[other] + width[other]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether a node may be colored with the given registers. Temporaries may not use registers reserved for
+     * parameters or local variables, and local variables may not use
+     * registers used by anything else, unless registers are being
+     * minimized, in which case only the {@code this} pointer, if any,
+     * keeps its register.
+     *
+     * @param forbidden {@code non-null;} registers of the neighbors
+     * @param reg {@code >= 0;} first register
+     * @param category {@code 1..2;} number of registers
+     * @param local whether the node holds a local variable
+     * @return {@code true} if the registers are available
+     */
+    private boolean isAvailable(BitSet forbidden, int reg, int category,
+            boolean local) {
+        BitSet taken;
+
+        if (minimizeRegisters) {
+            if (reg == 0 && !ssaMeth.isStatic()) {
+                return false;
+            }
+            taken = null;
+        } else {
+            taken = local ? usedRopRegs : reservedRopRegs;
+        }
+
+        for (int i = reg; i < reg + category; i++) {
+            if (forbidden.get(i) || (taken != null && taken.get(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Colors a node, reserving its registers if it holds a local
+     * variable.
+     *
+     * @param node {@code >= 0;} the node
+     * @param reg {@code >= 0;} its register
+     */
+    private void assign(int node, int reg) {
+        color[node] = reg;
+        usedRopRegs.set(reg, reg + width[node]);
+
+        if (localNodes.get(node)) {
+            reservedRopRegs.set(reg, reg + width[node]);
+        }
+    }
+
+    /**
+     * Returns true if the specified rop register + category
+     * will cross the boundry between the lower {@code paramWidth}
+     * registers reserved for method params and the upper registers.
+     *
+     * @param ropReg register in new namespace
+     * @param category width that the register will have
+     * @return {@code true} in the case noted above
+     */
+    private boolean spansParamRange(int ropReg, int category) {
+        return ((ropReg < paramRangeEnd)
+                && ((ropReg + category) > paramRangeEnd));
+    }
+
+    /**
+     * The sources of an insn that requires them in order, each at a
+     * fixed offset from the start of the range.
+     */
+    private static final class Range {
+        /** {@code non-null;} the SSA registers, in order */
+        private final int[] regs;
+
+        /** {@code non-null;} the offset of each register */
+        private final int[] offsets;
+
+        /** number of registers added so far */
+        private int size;
+
+        /** total width of the registers added so far */
+        private int width;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param capacity {@code >= 0;} the number of registers
+         */
+        public Range(int capacity) {
+            regs = new int[capacity];
+            offsets = new int[capacity];
+        }
+
+        /**
+         * Adds a register at the end of the range.
+         *
+         * @param reg {@code >= 0;} the SSA register
+         * @param category {@code 1..2;} its width
+         */
+        public void add(int reg, int category) {
+            regs[size] = reg;
+            offsets[size] = width;
+            size++;
+            width += category;
+        }
+    }
+}
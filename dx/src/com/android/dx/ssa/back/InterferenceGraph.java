@@ -16,29 +16,58 @@
 
 package com.android.dx.ssa.back;
 
-import com.android.dx.ssa.SsaMethod;
-import com.android.dx.ssa.SsaBasicBlock;
-import com.android.dx.ssa.SsaInsn;
-import com.android.dx.ssa.PhiInsn;
-import com.android.dx.ssa.SetFactory;
-import com.android.dx.rop.code.RegisterSpec;
-import com.android.dx.util.IntSet;
 import com.android.dx.util.BitIntSet;
-import com.android.dx.util.ListIntSet;
+import com.android.dx.util.IntSet;
 
-import java.util.BitSet;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * A register interference graph
+ * A register interference graph. Small graphs are kept as a
+ * lower-triangular bit matrix, which needs no more than one bit per
+ * register pair. Large graphs, which come out of big generated methods
+ * and are very sparse, are kept as per-register adjacency arrays instead.
  */
 public class InterferenceGraph {
     /**
-     * {@code non-null;} interference graph, indexed by register in
-     * both dimensions
+     * Register count up to which the triangular bit matrix is used.
+     *
+     * A value of 4096 here is somewhere around 1mb of matrix.
      */
-    private final ArrayList<IntSet> interference;
+    private static final int MATRIX_THRESHOLD_SIZE = 4096;
+
+    /** initial capacity of each adjacency array */
+    private static final int INITIAL_ADJACENCY_SIZE = 4;
+
+    /**
+     * {@code null-ok;} bit matrix, or {@code null} if this graph uses
+     * adjacency arrays. The pair {@code (i, j)} with {@code i >= j} lives
+     * at bit {@code i * (i + 1) / 2 + j}, so growing the register count
+     * only ever appends rows.
+     */
+    private long[] matrix;
+
+    /**
+     * {@code null-ok;} adjacency arrays indexed by register, or
+     * {@code null} if this graph uses a bit matrix. Individual arrays are
+     * allocated lazily, and may contain duplicates until they are sorted.
+     */
+    private int[][] adjacency;
+
+    /**
+     * {@code null-ok;} count of used entries in each adjacency array,
+     * or {@code null} if this graph uses a bit matrix
+     */
+    private int[] adjacencySizes;
+
+    /**
+     * {@code null-ok;} for each register, whether its adjacency array is
+     * sorted and free of duplicates, or {@code null} if this graph uses a
+     * bit matrix
+     */
+    private boolean[] adjacencySorted;
+
+    /** {@code >= 0;} count of registers the graph is sized for */
+    private int countRegs;
 
     /**
      * Creates a new graph.
@@ -47,11 +76,15 @@ public class InterferenceGraph {
      * the namespace. New registers can be added subsequently.
      */
     public InterferenceGraph(int countRegs) {
-        interference = new ArrayList<IntSet>(countRegs);
-
-        for (int i = 0; i < countRegs; i++) {
-            interference.add(SetFactory.makeInterferenceSet(countRegs));
+        if (countRegs <= MATRIX_THRESHOLD_SIZE) {
+            matrix = new long[wordsForMatrix(countRegs)];
+        } else {
+            adjacency = new int[countRegs][];
+            adjacencySizes = new int[countRegs];
+            adjacencySorted = new boolean[countRegs];
         }
+
+        this.countRegs = countRegs;
     }
 
     /**
@@ -64,22 +97,26 @@ public class InterferenceGraph {
     public void add(int regV, int regW) {
         ensureCapacity(Math.max(regV, regW) + 1);
 
-        interference.get(regV).add(regW);
-        interference.get(regW).add(regV);
+        if (matrix != null) {
+            long bit = matrixBit(regV, regW);
+            matrix[(int) (bit >>> 6)] |= 1L << (bit & 0x3f);
+        } else {
+            addAdjacent(regV, regW);
+            if (regV != regW) {
+                addAdjacent(regW, regV);
+            }
+        }
     }
 
     /**
      * Dumps interference graph to stdout for debugging.
      */
     public void dumpToStdout() {
-        int oldRegCount = interference.size();
-
-        for (int i = 0; i < oldRegCount; i++) {
-            StringBuilder sb = new StringBuilder();
-
-            sb.append("Reg " + i + ":" + interference.get(i).toString());
+        for (int i = 0; i < countRegs; i++) {
+            IntSet set = new BitIntSet(countRegs);
 
-            System.out.println(sb.toString());
+            mergeInterferenceSet(i, set);
+            System.out.println("Reg " + i + ":" + set.toString());
         }
     }
 
@@ -91,8 +128,43 @@ public class InterferenceGraph {
      * with set for given register
      */
     public void mergeInterferenceSet(int reg, IntSet set) {
-        if (reg < interference.size()) {
-            set.merge(interference.get(reg));
+        if (reg >= countRegs) {
+            return;
+        }
+
+        if (matrix != null) {
+            long rowStart = ((long) reg * (reg + 1)) >>> 1;
+
+            for (int j = 0; j <= reg; j++) {
+                long bit = rowStart + j;
+                if ((matrix[(int) (bit >>> 6)] & (1L << (bit & 0x3f))) != 0) {
+                    set.add(j);
+                }
+            }
+
+            for (int i = reg + 1; i < countRegs; i++) {
+                long bit = (((long) i * (i + 1)) >>> 1) + reg;
+                if ((matrix[(int) (bit >>> 6)] & (1L << (bit & 0x3f))) != 0) {
+                    set.add(i);
+                }
+            }
+        } else {
+            int[] adjacent = adjacency[reg];
+
+            if (adjacent == null) {
+                return;
+            }
+
+            /*
+             * Handing the neighbors over in ascending order keeps this
+             * cheap for sorted-list sets.
+             */
+            sortAdjacency(reg);
+
+            int sz = adjacencySizes[reg];
+            for (int i = 0; i < sz; i++) {
+                set.add(adjacent[i]);
+            }
         }
     }
 
@@ -102,12 +174,114 @@ public class InterferenceGraph {
      * @param size requested minumum size
      */
     private void ensureCapacity(int size) {
-        int countRegs = interference.size();
+        if (size <= countRegs) {
+            return;
+        }
+
+        if (matrix != null) {
+            int words = wordsForMatrix(size);
 
-        interference.ensureCapacity(size);
+            if (words > matrix.length) {
+                long[] newMatrix =
+                    new long[Math.max(words, matrix.length * 2)];
+                System.arraycopy(matrix, 0, newMatrix, 0, matrix.length);
+                matrix = newMatrix;
+            }
+        } else if (size > adjacency.length) {
+            int newLength = Math.max(size, adjacency.length * 2);
+            int[][] newAdjacency = new int[newLength][];
+            int[] newSizes = new int[newLength];
+            boolean[] newSorted = new boolean[newLength];
 
-        for (int i = countRegs; i < size; i++) {
-            interference.add(SetFactory.makeInterferenceSet(size));
+            System.arraycopy(adjacency, 0, newAdjacency, 0, countRegs);
+            System.arraycopy(adjacencySizes, 0, newSizes, 0, countRegs);
+            System.arraycopy(adjacencySorted, 0, newSorted, 0, countRegs);
+            adjacency = newAdjacency;
+            adjacencySizes = newSizes;
+            adjacencySorted = newSorted;
         }
+
+        countRegs = size;
+    }
+
+    /**
+     * Appends a register to the adjacency array of another one.
+     *
+     * @param reg {@code >= 0;} register whose array to append to
+     * @param other {@code >= 0;} register to append
+     */
+    private void addAdjacent(int reg, int other) {
+        int[] adjacent = adjacency[reg];
+        int sz = adjacencySizes[reg];
+
+        if (adjacent == null) {
+            adjacent = new int[INITIAL_ADJACENCY_SIZE];
+            adjacency[reg] = adjacent;
+        } else if (sz > 0 && adjacent[sz - 1] == other) {
+            // Cheaply catch the common case of a repeated add.
+            return;
+        } else if (sz == adjacent.length) {
+            int[] newAdjacent = new int[sz * 2];
+            System.arraycopy(adjacent, 0, newAdjacent, 0, sz);
+            adjacent = newAdjacent;
+            adjacency[reg] = adjacent;
+        }
+
+        adjacent[sz] = other;
+        adjacencySizes[reg] = sz + 1;
+        adjacencySorted[reg] = false;
+    }
+
+    /**
+     * Sorts the adjacency array of a register and removes duplicates
+     * from it, if that hasn't already been done since the last add.
+     *
+     * @param reg {@code >= 0;} register whose array to sort
+     */
+    private void sortAdjacency(int reg) {
+        if (adjacencySorted[reg]) {
+            return;
+        }
+
+        int[] adjacent = adjacency[reg];
+        int sz = adjacencySizes[reg];
+
+        Arrays.sort(adjacent, 0, sz);
+
+        int newSz = 0;
+        for (int i = 0; i < sz; i++) {
+            if (newSz == 0 || adjacent[newSz - 1] != adjacent[i]) {
+                adjacent[newSz++] = adjacent[i];
+            }
+        }
+
+        adjacencySizes[reg] = newSz;
+        adjacencySorted[reg] = true;
+    }
+
+    /**
+     * Gets the matrix bit index for a register pair.
+     *
+     * @param regV {@code >= 0;} one register
+     * @param regW {@code >= 0;} another register
+     * @return {@code >= 0;} the bit index
+     */
+    private static long matrixBit(int regV, int regW) {
+        long hi = Math.max(regV, regW);
+
+        return ((hi * (hi + 1)) >>> 1) + Math.min(regV, regW);
+    }
+
+    /**
+     * Gets the count of words needed for a matrix covering the given
+     * count of registers.
+     *
+     * @param countRegs {@code >= 0;} register count
+     * @return {@code >= 0;} word count
+     */
+    private static int wordsForMatrix(int countRegs) {
+        long bits = ((long) countRegs * (countRegs + 1)) >>> 1;
+
+        return (int) ((bits + 63) >>> 6);
     }
 }
@@ -21,60 +21,62 @@ import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.PhiInsn;
 import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.util.IntList;
 
 import java.util.BitSet;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
- * From Appel "Modern Compiler Implementation in Java" algorithm 19.17
- * Calculate the live ranges for register {@code reg}.<p>
+ * Calculates the live ranges of all registers in a method at once, as a
+ * block-level bit-vector dataflow problem, and builds the interference
+ * graph from them. Each block is summarized by the registers it defines
+ * and the registers it uses before defining; live-out sets are then
+ * propagated backwards over the CFG with a worklist until nothing
+ * changes. Phi operands are live-out at the predecessor they come from,
+ * not live-in at the phi's own block.<p>
  *
- * v = regV <p>
- * s = insn <p>
- * M = visitedBlocks <p>
+ * This computes the same live in/out sets and interference as Appel's
+ * per-register algorithm 19.17 but in time proportional to the
+ * size of the CFG times the register count in words, rather than to the
+ * register count times the length of each register's live range.
  */
 public class LivenessAnalyzer {
-    /**
-     * {@code non-null;} index by basic block indexed set of basic blocks
-     * that have already been visited. "M" as written in the original Appel
-     * algorithm.
-     */
-    private final BitSet visitedBlocks;
-
-    /**
-     * {@code non-null;} set of blocks remaing to visit as "live out as block"
-     */
-    private final BitSet liveOutBlocks;
-
-    /**
-     * {@code >=0;} SSA register currently being analyzed.
-     * "v" in the original Appel algorithm.
-     */
-    private final int regV;
-
     /** method to process */
     private final SsaMethod ssaMeth;
 
+    /** {@code non-null;} blocks of {@link #ssaMeth} */
+    private final ArrayList<SsaBasicBlock> blocks;
+
     /** interference graph being updated */
     private final InterferenceGraph interference;
 
-    /** block "n" in Appel 19.17 */
-    private SsaBasicBlock blockN;
+    /**
+     * {@code non-null;} live-out register set, indexed by block index.
+     * Elements are set to {@code null} once a block has been finished.
+     */
+    private final BitSet[] liveOut;
 
-    /** index of statement {@code s} in {@code blockN} */
-    private int statementIndex;
+    /**
+     * {@code non-null;} registers defined in each block, indexed by
+     * block index. "Kill" in dataflow terms.
+     */
+    private final IntList[] defs;
 
-    /** the next function to call */
-    private NextFunction nextFunction;
+    /**
+     * {@code non-null;} registers used in each block before any
+     * definition in that block, indexed by block index. "Gen" in
+     * dataflow terms. Phi operands are not included.
+     */
+    private final IntList[] uses;
 
-    /** constants for {@link #nextFunction} */
-    private static enum NextFunction {
-        LIVE_IN_AT_STATEMENT,
-            LIVE_OUT_AT_STATEMENT,
-            LIVE_OUT_AT_BLOCK,
-            DONE;
-    }
+    /**
+     * {@code non-null;} cardinality of the live-in set last propagated
+     * from each block, indexed by block index. Since live sets only
+     * grow, an unchanged count means an unchanged set.
+     */
+    private final int[] liveInCounts;
 
     /**
      * Runs register liveness algorithm for a method, updating the
@@ -90,157 +92,214 @@ public class LivenessAnalyzer {
         int szRegs = ssaMeth.getRegCount();
         InterferenceGraph interference = new InterferenceGraph(szRegs);
 
-        for (int i = 0; i < szRegs; i++) {
-            new LivenessAnalyzer(ssaMeth, i, interference).run();
-        }
+        new LivenessAnalyzer(ssaMeth, interference).run();
 
         coInterferePhis(ssaMeth, interference);
 
         return interference;
     }
-    
+
     /**
-     * Makes liveness analyzer instance for specific register.
+     * Makes liveness analyzer instance for a method.
      *
      * @param ssaMeth {@code non-null;} method to process
-     * @param reg register whose liveness to analyze
      * @param interference {@code non-null;} indexed by SSA reg in
      * both dimensions; graph to update
-     *
      */
-    private LivenessAnalyzer(SsaMethod ssaMeth, int reg,
+    private LivenessAnalyzer(SsaMethod ssaMeth,
             InterferenceGraph interference) {
         int blocksSz = ssaMeth.getBlocks().size();
 
         this.ssaMeth = ssaMeth;
-        this.regV = reg;
-        visitedBlocks = new BitSet(blocksSz);
-        liveOutBlocks = new BitSet(blocksSz);
+        this.blocks = ssaMeth.getBlocks();
         this.interference = interference;
+        liveOut = new BitSet[blocksSz];
+        defs = new IntList[blocksSz];
+        uses = new IntList[blocksSz];
+        liveInCounts = new int[blocksSz];
     }
 
     /**
-     * The algorithm in Appel is presented in partial tail-recursion
-     * form. Obviously, that's not efficient in java, so this function
-     * serves as the dispatcher instead.
+     * Runs the analysis.
      */
-    private void handleTailRecursion() {
-        while (nextFunction != NextFunction.DONE) {
-            switch (nextFunction) {
-                case LIVE_IN_AT_STATEMENT:
-                    nextFunction = NextFunction.DONE;
-                    liveInAtStatement();
-                    break;
-
-                case LIVE_OUT_AT_STATEMENT:
-                    nextFunction = NextFunction.DONE;
-                    liveOutAtStatement();
-                    break;
-
-                case LIVE_OUT_AT_BLOCK:
-                    nextFunction = NextFunction.DONE;
-                    liveOutAtBlock();
-                    break;
-
-                default:
+    private void run() {
+        int szBlocks = blocks.size();
+        int szRegs = ssaMeth.getRegCount();
+        BitSet exposed = new BitSet(szRegs);
+
+        for (int i = 0; i < szBlocks; i++) {
+            liveOut[i] = new BitSet(szRegs);
+        }
+
+        for (int i = 0; i < szBlocks; i++) {
+            summarizeBlock(blocks.get(i), exposed);
+        }
+
+        /*
+         * Backward problem: popping the highest index first visits
+         * blocks roughly in reverse order, successors before
+         * predecessors.
+         */
+        IntList worklist = new IntList(szBlocks);
+        BitSet queued = new BitSet(szBlocks);
+
+        for (int i = 0; i < szBlocks; i++) {
+            worklist.add(i);
+        }
+        queued.set(0, szBlocks);
+
+        while (worklist.size() > 0) {
+            int index = worklist.pop();
+            queued.clear(index);
+
+            BitSet liveIn = liveInFor(index);
+            int count = liveIn.cardinality();
+
+            if (count == liveInCounts[index]) {
+                continue;
+            }
+            liveInCounts[index] = count;
+
+            BitSet preds = blocks.get(index).getPredecessors();
+            for (int i = preds.nextSetBit(0); i >= 0;
+                 i = preds.nextSetBit(i + 1)) {
+                liveOut[i].or(liveIn);
+
+                if (!queued.get(i)) {
+                    queued.set(i);
+                    worklist.add(i);
+                }
             }
         }
+
+        for (int i = 0; i < szBlocks; i++) {
+            finishBlock(blocks.get(i));
+        }
     }
 
     /**
-     * From Appel algorithm 19.17.
+     * Computes the defs and upward-exposed uses of a block, and marks
+     * the operands of its phis live-out at their predecessors.
+     *
+     * @param block {@code non-null;} block to summarize
+     * @param exposed {@code non-null;} scratch set; empty on entry and
+     * on exit
      */
-    public void run() {
-        List<SsaInsn> useList = ssaMeth.getUseListForRegister(regV);
+    private void summarizeBlock(SsaBasicBlock block, BitSet exposed) {
+        int index = block.getIndex();
+        ArrayList<SsaInsn> insns = block.getInsns();
+        IntList blockDefs = new IntList();
+
+        for (int i = insns.size() - 1; i >= 0; i--) {
+            SsaInsn insn = insns.get(i);
+            RegisterSpec result = insn.getResult();
+
+            if (result != null) {
+                blockDefs.add(result.getReg());
+                exposed.clear(result.getReg());
+            }
 
-        for (SsaInsn insn : useList) {
-            nextFunction = NextFunction.DONE;
+            RegisterSpecList sources = insn.getSources();
+            int szSources = sources.size();
 
             if (insn instanceof PhiInsn) {
-                // If s is a phi-function with V as it's ith argument.
                 PhiInsn phi = (PhiInsn) insn;
 
-                for (SsaBasicBlock pred :
-                         phi.predBlocksForReg(regV, ssaMeth)) {
-                    blockN = pred;
-
-                    nextFunction = NextFunction.LIVE_OUT_AT_BLOCK;
-                    handleTailRecursion();
+                for (int j = 0; j < szSources; j++) {
+                    int pred = phi.predBlockIndexForSourcesIndex(j);
+                    liveOut[pred].set(sources.get(j).getReg());
                 }
             } else {
-                blockN = insn.getBlock();
-                statementIndex = blockN.getInsns().indexOf(insn);
-
-                if (statementIndex < 0) {
-                    throw new RuntimeException(
-                            "insn not found in it's own block");
+                for (int j = 0; j < szSources; j++) {
+                    exposed.set(sources.get(j).getReg());
                 }
-
-                nextFunction = NextFunction.LIVE_IN_AT_STATEMENT;
-                handleTailRecursion();
             }
         }
 
-        int nextLiveOutBlock;
-        while ((nextLiveOutBlock = liveOutBlocks.nextSetBit(0)) >= 0) {
-            blockN = ssaMeth.getBlocks().get(nextLiveOutBlock);
-            liveOutBlocks.clear(nextLiveOutBlock);
-            nextFunction = NextFunction.LIVE_OUT_AT_BLOCK;
-            handleTailRecursion();
+        IntList blockUses = new IntList(exposed.cardinality());
+        for (int i = exposed.nextSetBit(0); i >= 0;
+             i = exposed.nextSetBit(i + 1)) {
+            blockUses.add(i);
         }
+        exposed.clear();
+
+        defs[index] = blockDefs;
+        uses[index] = blockUses;
     }
 
     /**
-     * "v is live-out at n."
+     * Computes the live-in set of a block from its current live-out set.
+     *
+     * @param index {@code >= 0;} index of the block
+     * @return {@code non-null;} new live-in set
      */
-    private void liveOutAtBlock() {
-        if (! visitedBlocks.get(blockN.getIndex())) {
-            visitedBlocks.set(blockN.getIndex());
-
-            blockN.addLiveOut(regV);
-
-            ArrayList<SsaInsn> insns;
+    private BitSet liveInFor(int index) {
+        BitSet result = (BitSet) liveOut[index].clone();
+        IntList blockDefs = defs[index];
+        IntList blockUses = uses[index];
 
-            insns = blockN.getInsns();
+        for (int i = blockDefs.size() - 1; i >= 0; i--) {
+            result.clear(blockDefs.get(i));
+        }
 
-            // Live out at last statement in blockN
-            statementIndex = insns.size() - 1;
-            nextFunction = NextFunction.LIVE_OUT_AT_STATEMENT;
+        for (int i = blockUses.size() - 1; i >= 0; i--) {
+            result.set(blockUses.get(i));
         }
+
+        return result;
     }
 
     /**
-     * "v is live-in at s."
+     * Records the final live in/out sets of a block and adds the
+     * interference between each result register and everything live
+     * out of the insn that defines it.
+     *
+     * @param block {@code non-null;} block to finish
      */
-    private void liveInAtStatement() {
-        // if s is the first statement in block N
-        if (statementIndex == 0) {
-            // v is live-in at n
-            blockN.addLiveIn(regV);
-
-            BitSet preds = blockN.getPredecessors();
-
-            liveOutBlocks.or(preds);
-        } else {
-            // Let s' be the statement preceeding s
-            statementIndex -= 1;
-            nextFunction = NextFunction.LIVE_OUT_AT_STATEMENT;
+    private void finishBlock(SsaBasicBlock block) {
+        int index = block.getIndex();
+        BitSet live = liveOut[index];
+
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            block.addLiveOut(i);
         }
-    }
 
-    /**
-     * "v is live-out at s."
-     */
-    private void liveOutAtStatement() {
-        SsaInsn statement = blockN.getInsns().get(statementIndex);
-        RegisterSpec rs = statement.getResult();
+        ArrayList<SsaInsn> insns = block.getInsns();
+
+        for (int i = insns.size() - 1; i >= 0; i--) {
+            SsaInsn insn = insns.get(i);
+            RegisterSpec result = insn.getResult();
+
+            if (result != null) {
+                int reg = result.getReg();
 
-        if (!statement.isResultReg(regV)) {
-            if (rs != null) {
-                interference.add(regV, rs.getReg());
+                for (int j = live.nextSetBit(0); j >= 0;
+                     j = live.nextSetBit(j + 1)) {
+                    if (j != reg) {
+                        interference.add(j, reg);
+                    }
+                }
+
+                live.clear(reg);
             }
-            nextFunction = NextFunction.LIVE_IN_AT_STATEMENT;
+
+            if (!(insn instanceof PhiInsn)) {
+                RegisterSpecList sources = insn.getSources();
+                int szSources = sources.size();
+
+                for (int j = 0; j < szSources; j++) {
+                    live.set(sources.get(j).getReg());
+                }
+            }
+        }
+
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            block.addLiveIn(i);
         }
+
+        liveOut[index] = null;
+        defs[index] = null;
+        uses[index] = null;
     }
 
     /**
@@ -263,11 +322,7 @@ public class LivenessAnalyzer {
             int szPhis = phis.size();
 
             for (int i = 0; i < szPhis; i++) {
-                for (int j = 0; j < szPhis; j++) {
-                    if (i == j) {
-                        continue;
-                    }
-
+                for (int j = i + 1; j < szPhis; j++) {
                     interference.add(phis.get(i).getResult().getReg(),
                         phis.get(j).getResult().getReg());
                 }
@@ -104,9 +104,20 @@ public class SsaToRop {
         // allocator = new NullRegisterAllocator(ssaMeth, interference);
         // allocator = new FirstFitAllocator(ssaMeth, interference);
 
-        RegisterAllocator allocator =
-            new FirstFitLocalCombiningAllocator(ssaMeth, interference,
-                    minimizeRegisters);
+        RegisterAllocator allocator;
+
+        switch (ssaMeth.getContext().getAllocator()) {
+            case GRAPH_COLORING: {
+                allocator = new GraphColoringAllocator(ssaMeth, interference,
+                        minimizeRegisters);
+                break;
+            }
+            default: {
+                allocator = new FirstFitLocalCombiningAllocator(ssaMeth,
+                        interference, minimizeRegisters);
+                break;
+            }
+        }
 
         RegisterMapper mapper = allocator.allocateRegisters();
 
@@ -36,6 +36,14 @@ public class ListIntSet implements IntSet {
 
     /** @inheritDoc */
     public void add(int value) {
+        int sz = ints.size();
+
+        // Values are often added in ascending order; just append those.
+        if (sz == 0 || value > ints.get(sz - 1)) {
+            ints.add(value);
+            return;
+        }
+
         int index = ints.binarysearch(value);
 
         if (index < 0) {
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Static methods and variables for profiling the phases of a run:
+ * wall time, CPU time and allocated bytes per phase, and the slowest
+ * methods overall. Profiling is off unless turned on by {@link #reset},
+ * in which case {@link #start} returns {@code null} and nothing is
+ * measured.
+ *
+ * <p>Callers bracket a phase as follows:</p>
+ *
+ * <pre>
+ *     long[] mark = Profiler.start();
+ *     ...
+ *     Profiler.end(Profiler.Phase.ROP, mark);
+ * </pre>
+ *
+ * <p>CPU time and allocation are those of the calling thread, so
+ * phases have to begin and end on the same thread. When several
+ * threads translate classes at once, the per-phase times are summed
+ * over all the threads and so may exceed the elapsed time of the run.
+ * CPU time and allocation are reported as {@code -1} where the VM
+ * can't measure them.</p>
+ */
+public final class Profiler {
+    /** the profiled phases, in pipeline order */
+    public enum Phase {
+        PARSE("parse"),
+        ROP("rop"),
+        INLINE("inline"),
+        SSA("ssa"),
+        MOVE_PARAM_COMBINER("move-param-combiner"),
+        REDUNDANT_CHECK_REMOVER("redundant-check-remover"),
+        SCCP("sccp"),
+        LITERAL_UPGRADE("literal-upgrade"),
+        GVN("gvn"),
+        LICM("licm"),
+        CONST_COLLECTOR("const-collector"),
+        DEAD_CODE_REMOVER("dead-code-remover"),
+        PHI_TYPE_RESOLVER("phi-type-resolver"),
+        REGISTER_ALLOCATION("register-allocation"),
+        DOP_TRANSLATION("dop-translation"),
+        LAYOUT("layout"),
+        WRITE("write");
+
+        /** {@code non-null;} the human-oriented name */
+        private final String humanName;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param humanName {@code non-null;} the human-oriented name
+         */
+        private Phase(String humanName) {
+            this.humanName = humanName;
+        }
+
+        /**
+         * Gets the human-oriented name of this phase.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String toHuman() {
+            return humanName;
+        }
+    }
+
+    /** {@code non-null;} bean to get per-thread CPU times from */
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /**
+     * {@code null-ok;} the VM-specific method to get the bytes allocated
+     * by a thread, if there is one
+     */
+    private static final Method GET_ALLOCATED_BYTES = findAllocatedBytes();
+
+    /** number of phases */
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    /** whether profiling is on */
+    private static volatile boolean enabled = false;
+
+    /** {@code >= 0;} how many of the slowest methods to keep */
+    private static int maxMethods = 0;
+
+    /** number of times each phase ran */
+    private static final long[] counts = new long[PHASE_COUNT];
+
+    /** wall time spent in each phase, in nanoseconds */
+    private static final long[] wallNanos = new long[PHASE_COUNT];
+
+    /** CPU time spent in each phase, in nanoseconds */
+    private static final long[] cpuNanos = new long[PHASE_COUNT];
+
+    /** bytes allocated during each phase */
+    private static final long[] allocatedBytes = new long[PHASE_COUNT];
+
+    /** {@code non-null;} the slowest methods so far, fastest at the head */
+    private static final PriorityQueue<MethodSample> slowest =
+        new PriorityQueue<MethodSample>(16, MethodSample.BY_WALL_TIME);
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Profiler() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Discards everything measured so far, as at the start of a run,
+     * and turns profiling on or off.
+     *
+     * @param enable whether to profile
+     * @param methods {@code >= 0;} how many of the slowest methods to
+     * keep track of
+     */
+    public static synchronized void reset(boolean enable, int methods) {
+        if (methods < 0) {
+            throw new IllegalArgumentException("methods < 0");
+        }
+
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            counts[i] = 0;
+            wallNanos[i] = 0;
+            cpuNanos[i] = 0;
+            allocatedBytes[i] = 0;
+        }
+
+        slowest.clear();
+        maxMethods = methods;
+        enabled = enable;
+    }
+
+    /**
+     * Gets whether profiling is on.
+     *
+     * @return whether profiling is on
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts measuring a phase or a method.
+     *
+     * @return {@code null-ok;} the starting point, to be passed to
+     * {@link #end} or {@link #endMethod}, or {@code null} if profiling
+     * is off
+     */
+    public static long[] start() {
+        if (!enabled) {
+            return null;
+        }
+
+        return new long[] { System.nanoTime(), threadCpuTime(),
+                            threadAllocatedBytes() };
+    }
+
+    /**
+     * Ends measuring a phase.
+     *
+     * @param phase {@code non-null;} the phase
+     * @param mark {@code null-ok;} the result of the corresponding
+     * call to {@link #start}
+     */
+    public static void end(Phase phase, long[] mark) {
+        if (mark == null) {
+            return;
+        }
+
+        long wall = System.nanoTime() - mark[0];
+        long cpu = delta(threadCpuTime(), mark[1]);
+        long allocated = delta(threadAllocatedBytes(), mark[2]);
+        int index = phase.ordinal();
+
+        synchronized (Profiler.class) {
+            counts[index]++;
+            wallNanos[index] += wall;
+            cpuNanos[index] = add(cpuNanos[index], cpu);
+            allocatedBytes[index] = add(allocatedBytes[index], allocated);
+        }
+    }
+
+    /**
+     * Ends measuring the translation of a method, keeping it if it is
+     * one of the slowest so far.
+     *
+     * @param name {@code non-null;} human-oriented name of the method
+     * @param codeSize {@code >= 0;} size of its original bytecode
+     * @param mark {@code null-ok;} the result of the corresponding
+     * call to {@link #start}
+     */
+    public static void endMethod(String name, int codeSize, long[] mark) {
+        if (mark == null) {
+            return;
+        }
+
+        MethodSample sample = new MethodSample(name, codeSize,
+                System.nanoTime() - mark[0],
+                delta(threadCpuTime(), mark[1]),
+                delta(threadAllocatedBytes(), mark[2]));
+
+        synchronized (Profiler.class) {
+            if (maxMethods == 0) {
+                return;
+            }
+
+            slowest.add(sample);
+            if (slowest.size() > maxMethods) {
+                slowest.poll();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of times the given phase ran.
+     *
+     * @param phase {@code non-null;} the phase
+     * @return {@code >= 0;} the count
+     */
+    public static synchronized long getCount(Phase phase) {
+        return counts[phase.ordinal()];
+    }
+
+    /**
+     * Gets the wall time spent in the given phase.
+     *
+     * @param phase {@code non-null;} the phase
+     * @return {@code >= 0;} the time, in nanoseconds
+     */
+    public static synchronized long getWallNanos(Phase phase) {
+        return wallNanos[phase.ordinal()];
+    }
+
+    /**
+     * Gets the CPU time spent in the given phase.
+     *
+     * @param phase {@code non-null;} the phase
+     * @return the time, in nanoseconds, or {@code -1} if unknown
+     */
+    public static synchronized long getCpuNanos(Phase phase) {
+        return cpuNanos[phase.ordinal()];
+    }
+
+    /**
+     * Gets the number of bytes allocated during the given phase.
+     *
+     * @param phase {@code non-null;} the phase
+     * @return the count, or {@code -1} if unknown
+     */
+    public static synchronized long getAllocatedBytes(Phase phase) {
+        return allocatedBytes[phase.ordinal()];
+    }
+
+    /**
+     * Gets the slowest methods, slowest first.
+     *
+     * @return {@code non-null;} the methods
+     */
+    public static synchronized ArrayList<MethodSample> getSlowestMethods() {
+        ArrayList<MethodSample> result = new ArrayList<MethodSample>(slowest);
+        Collections.sort(result,
+                Collections.reverseOrder(MethodSample.BY_WALL_TIME));
+        return result;
+    }
+
+    /**
+     * Gets the CPU time of the current thread.
+     *
+     * @return the time, in nanoseconds, or {@code -1} if unknown
+     */
+    private static long threadCpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Gets the number of bytes allocated so far by the current thread.
+     *
+     * @return the count, or {@code -1} if unknown
+     */
+    private static long threadAllocatedBytes() {
+        if (GET_ALLOCATED_BYTES == null) {
+            return -1;
+        }
+
+        try {
+            Object result = GET_ALLOCATED_BYTES.invoke(THREADS,
+                    Thread.currentThread().getId());
+            return ((Long) result).longValue();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the VM-specific method for getting the bytes allocated by
+     * a thread. It isn't part of the standard {@link ThreadMXBean}
+     * interface, but some VMs provide it as an extension.
+     *
+     * @return {@code null-ok;} the method, if available
+     */
+    private static Method findAllocatedBytes() {
+        try {
+            Class<?> extension =
+                Class.forName("com.sun.management.ThreadMXBean");
+
+            if (!extension.isInstance(THREADS)) {
+                return null;
+            }
+
+            Method result =
+                extension.getMethod("getThreadAllocatedBytes", long.class);
+
+            // Make sure it actually works here.
+            result.invoke(THREADS, Thread.currentThread().getId());
+            return result;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the difference between two measurements, either of
+     * which may be unknown.
+     *
+     * @param end the later measurement, or {@code -1} if unknown
+     * @param start the earlier measurement, or {@code -1} if unknown
+     * @return the difference, or {@code -1} if unknown
+     */
+    private static long delta(long end, long start) {
+        return ((end < 0) || (start < 0)) ? -1 : (end - start);
+    }
+
+    /**
+     * Adds a measurement to a total, either of which may be unknown.
+     *
+     * @param total the total so far, or {@code -1} if unknown
+     * @param amount the measurement, or {@code -1} if unknown
+     * @return the new total, or {@code -1} if unknown
+     */
+    private static long add(long total, long amount) {
+        return ((total < 0) || (amount < 0)) ? -1 : (total + amount);
+    }
+
+    /**
+     * Measurements of the translation of one method.
+     */
+    public static final class MethodSample {
+        /** {@code non-null;} orders instances by wall time, fastest first */
+        private static final Comparator<MethodSample> BY_WALL_TIME =
+            new Comparator<MethodSample>() {
+                public int compare(MethodSample a, MethodSample b) {
+                    if (a.wallNanos < b.wallNanos) {
+                        return -1;
+                    } else if (a.wallNanos > b.wallNanos) {
+                        return 1;
+                    }
+                    return a.name.compareTo(b.name);
+                }
+            };
+
+        /** {@code non-null;} human-oriented name of the method */
+        private final String name;
+
+        /** {@code >= 0;} size of the original bytecode */
+        private final int codeSize;
+
+        /** {@code >= 0;} wall time, in nanoseconds */
+        private final long wallNanos;
+
+        /** CPU time, in nanoseconds, or {@code -1} if unknown */
+        private final long cpuNanos;
+
+        /** bytes allocated, or {@code -1} if unknown */
+        private final long allocatedBytes;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} human-oriented name of the method
+         * @param codeSize {@code >= 0;} size of the original bytecode
+         * @param wallNanos {@code >= 0;} wall time, in nanoseconds
+         * @param cpuNanos CPU time, in nanoseconds, or {@code -1}
+         * @param allocatedBytes bytes allocated, or {@code -1}
+         */
+        private MethodSample(String name, int codeSize, long wallNanos,
+                long cpuNanos, long allocatedBytes) {
+            this.name = name;
+            this.codeSize = codeSize;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Gets the human-oriented name of the method.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the size of the method's original bytecode.
+         *
+         * @return {@code >= 0;} the size, in bytes
+         */
+        public int getCodeSize() {
+            return codeSize;
+        }
+
+        /**
+         * Gets the wall time spent translating the method.
+         *
+         * @return {@code >= 0;} the time, in nanoseconds
+         */
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Gets the CPU time spent translating the method.
+         *
+         * @return the time, in nanoseconds, or {@code -1} if unknown
+         */
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /**
+         * Gets the number of bytes allocated translating the method.
+         *
+         * @return the count, or {@code -1} if unknown
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+}
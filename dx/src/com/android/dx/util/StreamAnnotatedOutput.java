@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implementation of {@link AnnotatedOutput} which passes the written
+ * data on to an {@link OutputStream}, through a small buffer, so that
+ * the output never has to be held in memory as a whole. Instances of
+ * this class never keep annotations.
+ *
+ * <p>Failures of the underlying stream are reported as {@link
+ * ExceptionWithContext}s whose cause is the original {@link
+ * IOException}.</p>
+ *
+ * <p><b>Note:</b> As per the {@link Output} interface, multi-byte
+ * writes all use little-endian order.</p>
+ */
+public final class StreamAnnotatedOutput
+        implements AnnotatedOutput {
+    /** size of the buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** {@code non-null;} where the data goes */
+    private final OutputStream out;
+
+    /** {@code non-null;} buffer of data not yet passed on */
+    private final byte[] buffer;
+
+    /** {@code >= 0;} number of bytes in {@link #buffer} */
+    private int buffered;
+
+    /** {@code >= 0;} current output cursor */
+    private int cursor;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out {@code non-null;} where the data goes
+     */
+    public StreamAnnotatedOutput(OutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.buffered = 0;
+        this.cursor = 0;
+    }
+
+    /**
+     * Passes any buffered data on to the underlying stream, and
+     * flushes it.
+     */
+    public void flush() {
+        drain();
+
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw new ExceptionWithContext("...while flushing output", ex);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void writeByte(int value) {
+        if (buffered == BUFFER_SIZE) {
+            drain();
+        }
+
+        buffer[buffered] = (byte) value;
+        buffered++;
+        cursor++;
+    }
+
+    /** {@inheritDoc} */
+    public void writeShort(int value) {
+        writeByte(value);
+        writeByte(value >> 8);
+    }
+
+    /** {@inheritDoc} */
+    public void writeInt(int value) {
+        writeShort(value);
+        writeShort(value >> 16);
+    }
+
+    /** {@inheritDoc} */
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >> 32));
+    }
+
+    /** {@inheritDoc} */
+    public int writeUnsignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+
+        while (remaining != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        writeByte(value & 0x7f);
+        return count + 1;
+    }
+
+    /** {@inheritDoc} */
+    public int writeSignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+        boolean hasMore = true;
+        int end = ((value & Integer.MIN_VALUE) == 0) ? 0 : -1;
+
+        while (hasMore) {
+            hasMore = (remaining != end)
+                || ((remaining & 1) != ((value >> 6) & 1));
+
+            writeByte((value & 0x7f) | (hasMore ? 0x80 : 0));
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public void write(ByteArray bytes) {
+        int sz = bytes.size();
+
+        for (int i = 0; i < sz; i++) {
+            writeByte(bytes.getByte(i));
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int bytesEnd = offset + length;
+
+        // twos-complement math trick: ((x < 0) || (y < 0)) <=> ((x|y) < 0)
+        if (((offset | length | bytesEnd) < 0) ||
+                (bytesEnd > bytes.length)) {
+            throw new IndexOutOfBoundsException("bytes.length " +
+                                                bytes.length + "; " +
+                                                offset + "..!" + bytesEnd);
+        }
+
+        if (length > (BUFFER_SIZE - buffered)) {
+            drain();
+        }
+
+        if (length > BUFFER_SIZE) {
+            // Too big to be worth buffering.
+            try {
+                out.write(bytes, offset, length);
+            } catch (IOException ex) {
+                throw new ExceptionWithContext("...while writing output",
+                        ex);
+            }
+        } else {
+            System.arraycopy(bytes, offset, buffer, buffered, length);
+            buffered += length;
+        }
+
+        cursor += length;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void writeZeroes(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+
+        for (/*count*/; count > 0; count--) {
+            writeByte(0);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        int mask = alignment - 1;
+
+        if ((alignment < 0) || ((mask & alignment) != 0)) {
+            throw new IllegalArgumentException("bogus alignment");
+        }
+
+        writeZeroes(((cursor + mask) & ~mask) - cursor);
+    }
+
+    /** {@inheritDoc} */
+    public boolean annotates() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isVerbose() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(int amt, String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void endAnnotation() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public int getAnnotationWidth() {
+        return 0;
+    }
+
+    /**
+     * Passes the buffered data on to the underlying stream.
+     */
+    private void drain() {
+        if (buffered == 0) {
+            return;
+        }
+
+        try {
+            out.write(buffer, 0, buffered);
+        } catch (IOException ex) {
+            throw new ExceptionWithContext("...while writing output", ex);
+        }
+
+        buffered = 0;
+    }
+}
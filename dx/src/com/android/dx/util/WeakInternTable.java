@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intern table which only holds on to its values weakly, so that an
+ * entry goes away once nothing else refers to its value. This keeps a
+ * long-lived VM, such as the build server's, from accumulating every
+ * value it has ever interned, while still guaranteeing that any two
+ * interned values that are both reachable for the same key are the
+ * same instance. It is safe for concurrent use.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values; a value must not refer to its own key
+ * strongly if the key in turn refers to the value
+ */
+public final class WeakInternTable<K, V> {
+    /** {@code non-null;} the entries, by key */
+    private final ConcurrentHashMap<K, Entry<K, V>> entries;
+
+    /** {@code non-null;} queue of entries whose values were collected */
+    private final ReferenceQueue<V> staleEntries;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param initialCapacity {@code >= 0;} the expected number of entries
+     */
+    public WeakInternTable(int initialCapacity) {
+        entries = new ConcurrentHashMap<K, Entry<K, V>>(initialCapacity);
+        staleEntries = new ReferenceQueue<V>();
+    }
+
+    /**
+     * Gets the value interned for the given key.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the value, or {@code null} if there is
+     * none
+     */
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * Interns the given value for the given key, unless a value is
+     * already interned for it, in which case that one is kept.
+     *
+     * @param key {@code non-null;} the key
+     * @param value {@code non-null;} the value to intern
+     * @return {@code non-null;} the interned value
+     */
+    public V intern(K key, V value) {
+        removeStaleEntries();
+
+        Entry<K, V> entry = new Entry<K, V>(key, value, staleEntries);
+
+        for (;;) {
+            Entry<K, V> already = entries.putIfAbsent(key, entry);
+
+            if (already == null) {
+                return value;
+            }
+
+            V found = already.get();
+
+            if (found != null) {
+                return found;
+            }
+
+            // The old value was collected; replace its entry.
+            if (entries.replace(key, already, entry)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries, including any whose values have been
+     * collected but which haven't been removed yet.
+     *
+     * @return {@code >= 0;} the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the entries whose values have been collected.
+     */
+    private void removeStaleEntries() {
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            Entry<K, V> entry = (Entry<K, V>) staleEntries.poll();
+
+            if (entry == null) {
+                break;
+            }
+
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Entry of the table, which refers to its value weakly.
+     */
+    private static final class Entry<K, V> extends WeakReference<V> {
+        /** {@code non-null;} the key, used to remove the entry */
+        private final K key;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param key {@code non-null;} the key
+         * @param value {@code non-null;} the value
+         * @param queue {@code non-null;} queue to put the entry on once
+         * the value is collected
+         */
+        public Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
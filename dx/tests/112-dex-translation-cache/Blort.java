@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Blort.Marker("class")
+public class Blort implements Comparable<Blort> {
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Marker {
+        String value();
+    }
+
+    public static final String NAME = "blort";
+    public static final long BIG = 0x123456789abcdefL;
+    public static final double HALF = 0.5;
+    public static final int[] TABLE = { 1, 2, 3 };
+
+    @Marker("field")
+    private int count;
+
+    @Marker("zed")
+    private int zed;
+
+    @Marker("abc")
+    private int abc;
+
+    private final Inner inner = new Inner();
+
+    public class Inner {
+        public int get() {
+            return count;
+        }
+    }
+
+    @Marker("method")
+    public int compareTo(Blort other) {
+        return count - other.count;
+    }
+
+    @Marker("zap")
+    public void zap() {
+        zed++;
+    }
+
+    @Marker("apple")
+    public void apple() {
+        abc++;
+    }
+
+    public static long test1(long a, int b, Object c, double d) {
+        long sum = a + b;
+
+        if (c != null) {
+            sum += c.hashCode();
+        }
+
+        return sum + (long) d;
+    }
+
+    public static int test2(int x) {
+        switch (x) {
+            case 1: return 10;
+            case 2: return 20;
+            case 3: return 30;
+            case 100: return 1000;
+        }
+
+        return -1;
+    }
+
+    public static String test3(String s) throws IOException {
+        try {
+            if (s.length() == 0) {
+                throw new IOException("empty");
+            }
+            return s.substring(1);
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } finally {
+            TABLE[0]++;
+        }
+    }
+
+    public synchronized int test4(int[] a, @Marker("param") int n) {
+        int total = 0;
+
+        for (int i = 0; i < n; i++) {
+            total += a[i] * inner.get();
+        }
+
+        return total;
+    }
+}
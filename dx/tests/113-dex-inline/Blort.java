@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+class Base {
+    public int foo() {
+        return 1;
+    }
+}
+
+class Other extends Base {
+    public int value;
+
+    public final int getValue() {
+        return value;
+    }
+
+    public final int twice(int x) {
+        return x + x;
+    }
+
+    public final int sup() {
+        return super.foo();
+    }
+}
+
+public class Blort extends Base {
+    private int count;
+
+    private static int plusOne(int x) {
+        return x + 1;
+    }
+
+    private int getCount() {
+        return count;
+    }
+
+    private int superFoo() {
+        return super.foo();
+    }
+
+    public int foo() {
+        return 2;
+    }
+
+    public static int testStatic(int x) {
+        return plusOne(x) * 2;
+    }
+
+    public int testPrivate() {
+        return getCount() + 1;
+    }
+
+    public static int testGetter(Other other) {
+        return other.getValue();
+    }
+
+    public static int testNullCheck(Other other, int x) {
+        return other.twice(x);
+    }
+
+    public int testSuperSameClass() {
+        return superFoo();
+    }
+
+    public static int testSuperOtherClass(Other other) {
+        return other.sup();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private final int size;
+    private int count;
+    private static final Object LOCK = new Object();
+
+    public Blort(int size) {
+        this.size = size;
+        this.count = this.size;
+    }
+
+    public static int testArrayLength(int[] a) {
+        return a.length * a.length;
+    }
+
+    public static int testArrayLengthInTry(int[] a) {
+        int x = 0;
+        try {
+            x = a.length;
+            x += a.length;
+        } catch (NullPointerException ex) {
+            // Each array-length may throw here, so both stay.
+        }
+        return x;
+    }
+
+    public static int testArrayLengthDominated(int[] a, boolean b) {
+        int x = a.length;
+        if (b) {
+            x += a.length;
+        }
+        return x;
+    }
+
+    public static int testArrayLengthNotDominated(int[] a, boolean b) {
+        int x = 0;
+        if (b) {
+            x = a.length;
+        }
+        return x + a.length;
+    }
+
+    public static int testInstanceOf(Object o) {
+        int x = (o instanceof String) ? 1 : 0;
+        int y = (o instanceof String) ? 2 : 0;
+        return x + y;
+    }
+
+    public static int testCheckCast(Object o) {
+        return ((String) o).length() + ((String) o).length();
+    }
+
+    public int testFinalField() {
+        return size * size;
+    }
+
+    public int testNonFinalField() {
+        return count * count;
+    }
+
+    public static boolean testFinalStatic() {
+        return LOCK == LOCK;
+    }
+
+    public static int testArithmetic(int x, int y) {
+        return (x + y) * (y + x);
+    }
+
+    public static int testDivide(int x, int y) {
+        return (x / y) + (x / y);
+    }
+
+    public static int testLocals(int[] a) {
+        int first = a.length;
+        int second = a.length;
+        return first + second;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static int testSimple(int[] a, int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * (x * y);
+        }
+        return sum;
+    }
+
+    public static int testNested(int[][] a, int x, int y) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            int[] row = a[i];
+            for (int j = 0; j < row.length; j++) {
+                sum += row[j] ^ (x * y);
+            }
+        }
+        return sum;
+    }
+
+    public static long testWideConstant(int n) {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 0x123456789L;
+        }
+        return sum;
+    }
+
+    public static int testInTry(int[] a) {
+        int sum = 0;
+        try {
+            for (int i = 0; i < a.length; i++) {
+                sum += a[i];
+            }
+        } catch (NullPointerException ex) {
+            // The array-length may throw to here, so it stays put.
+        }
+        return sum;
+    }
+
+    public static int testVariant(int[] a) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += i * i;
+        }
+        return sum;
+    }
+
+    public static int testRegisterLimit(int[] v, int a, int b, int c, int d) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0;
+        for (int i = 0; i < v.length; i++) {
+            s0 += v[i] * (a + b);
+            s1 += v[i] * (a + c);
+            s2 += v[i] * (a + d);
+            s3 += v[i] * (b + c);
+            s4 += v[i] * (b + d);
+            s5 += v[i] * (c + d);
+        }
+        return s0 + s1 + s2 + s3 + s4 + s5;
+    }
+}
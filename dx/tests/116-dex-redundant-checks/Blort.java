@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    private int f;
+
+    public static int testRepeatedCast(Object o, boolean b) {
+        int x = ((String) o).length();
+        if (b) {
+            x += ((String) o).length();
+        }
+        return x;
+    }
+
+    public static int testCastOfNull() {
+        Object o = null;
+        return ((String) o).length();
+    }
+
+    public static boolean testInstanceOfNull() {
+        Object o = null;
+        return o instanceof String;
+    }
+
+    public static int testCastAfterNew() {
+        Object o = new StringBuilder();
+        return ((StringBuilder) o).length();
+    }
+
+    public static boolean testInstanceOfAfterNew() {
+        Object o = new StringBuilder();
+        return o instanceof StringBuilder;
+    }
+
+    public static boolean testInstanceOfAfterCast(Object o) {
+        String s = (String) o;
+        if (s != null) {
+            return s instanceof String;
+        }
+        return false;
+    }
+
+    public static int testLoopPhi(Object o, int n) {
+        Object x = (String) o;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            String s = (String) x;
+            sum += s.length();
+            x = s;
+        }
+        return sum;
+    }
+
+    public static int testLoopPhiUnknown(Object o, int n) {
+        Object x = o;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            // x may not be a String the first time around.
+            String s = (String) x;
+            sum += s.length();
+            x = s;
+        }
+        return sum;
+    }
+
+    public static int testPhiNarrowing(Object o, boolean b) {
+        Object x;
+        if (b) {
+            ((String) o).length();
+            x = o;
+        } else {
+            x = new String();
+        }
+        return ((String) x).length();
+    }
+
+    public static int testCastInTry(Object o) {
+        try {
+            return ((String) o).length() + ((String) o).length();
+        } catch (ClassCastException ex) {
+            return -1;
+        }
+    }
+
+    public static int testGetClassAfterField(Blort n) {
+        int x = n.f;
+        n.getClass();
+        return x;
+    }
+
+    public void testGetClassOfThis() {
+        this.getClass();
+    }
+
+    public static void testGetClassAfterNullTest(Object n) {
+        if (n != null) {
+            n.getClass();
+        }
+    }
+
+    public static void testRequireNonNull(Object n) {
+        n.hashCode();
+        java.util.Objects.requireNonNull(n);
+    }
+
+    public static void testGetClassUnknown(Object n) {
+        // This one is a real null check.
+        n.getClass();
+    }
+
+    public static Class testGetClassUsed(Object n) {
+        n.hashCode();
+        return n.getClass();
+    }
+
+    public static int testLocals(Object o) {
+        String a = (String) o;
+        String b = (String) o;
+        return a.length() + b.length();
+    }
+}
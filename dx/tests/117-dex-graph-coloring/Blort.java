@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static int testManyLive(int[] a) {
+        int v0 = a[0] * 3, v1 = a[1] * 3, v2 = a[2] * 3, v3 = a[3] * 3;
+        int v4 = a[4] * 3, v5 = a[5] * 3, v6 = a[6] * 3, v7 = a[7] * 3;
+        int v8 = a[8] * 3, v9 = a[9] * 3, v10 = a[10] * 3;
+        int v11 = a[11] * 3, v12 = a[12] * 3, v13 = a[13] * 3;
+        int v14 = a[14] * 3, v15 = a[15] * 3, v16 = a[16] * 3;
+        int v17 = a[17] * 3, v18 = a[18] * 3, v19 = a[19] * 3;
+
+        return v19 - (v18 - (v17 - (v16 - (v15 - (v14 - (v13 - (v12
+                - (v11 - (v10 - (v9 - (v8 - (v7 - (v6 - (v5 - (v4
+                - (v3 - (v2 - (v1 - v0))))))))))))))))));
+    }
+
+    public static long testWide(long a, long b, int n) {
+        long x = a;
+        long y = b;
+        for (int i = 0; i < n; i++) {
+            long t = x + y;
+            x = y;
+            y = t;
+        }
+        return x;
+    }
+
+    public static int testCoalesce(int n) {
+        int sum = 0;
+        int i = 0;
+        while (i < n) {
+            int next = i + 1;
+            sum += next;
+            i = next;
+        }
+        return sum;
+    }
+
+    public static int testRange(int a, int b, int c, int d, int e, int f) {
+        return range(f, e, d, c, b, a) + range(a, b, c, d, e, f);
+    }
+
+    private static int range(int a, int b, int c, int d, int e, int f) {
+        return a - b + c - d + e - f;
+    }
+}
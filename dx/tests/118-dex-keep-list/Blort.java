@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.AbstractList;
+
+public class Blort {
+    public static int run() {
+        Shape[] shapes = { new Circle(), new Square() };
+        int total = 0;
+        for (Shape s : shapes) {
+            total += s.area();
+        }
+        return total + new Numbers().size();
+    }
+}
+
+interface Shape {
+    int area();
+    int perimeter();
+}
+
+class Circle implements Shape {
+    public int area() {
+        return 3;
+    }
+
+    public int perimeter() {
+        return 6;
+    }
+
+    public int radius() {
+        return 1;
+    }
+}
+
+class Square implements Shape {
+    public int area() {
+        return 4;
+    }
+
+    public int perimeter() {
+        return 8;
+    }
+}
+
+class Numbers extends AbstractList<Integer> {
+    public Integer get(int index) {
+        return index;
+    }
+
+    public int size() {
+        return helper();
+    }
+
+    public int unusedVirtual() {
+        return 0;
+    }
+
+    private int helper() {
+        return 10;
+    }
+
+    private int unusedDirect() {
+        return 0;
+    }
+}
+
+class Named {
+    public static int count;
+    public static int other;
+
+    public static int count() {
+        return count;
+    }
+
+    public static int unused() {
+        return other;
+    }
+}
+
+class Annotated {
+    @Keep
+    public static int kept() {
+        return 1;
+    }
+
+    public static int dropped() {
+        return 2;
+    }
+}
+
+@Keep
+class AnnotatedWhole {
+    public int one() {
+        return 1;
+    }
+
+    private int two() {
+        return 2;
+    }
+}
+
+class Unused {
+    public int nothing() {
+        return 0;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+public class Blort {
+    public static void main(String[] args) {
+        new Cyan().start();
+    }
+
+    public static void unused() {
+    }
+}
+
+class Amber {
+    public void start() {
+        System.out.println("amber");
+    }
+
+    public void stop() {
+        System.out.println("stop");
+    }
+}
+
+class Cyan extends Bronze {
+    public void start() {
+        super.start();
+        System.out.println("cyan");
+    }
+}
+
+class Bronze extends Amber {
+    public void start() {
+        super.start();
+        System.out.println("bronze");
+    }
+}
+
+class Delta {
+    public void run() {
+        System.out.println("delta");
+    }
+}
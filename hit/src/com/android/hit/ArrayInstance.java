@@ -16,22 +16,22 @@
 
 package com.android.hit;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.util.Set;
 
 public class ArrayInstance extends Instance {
     private int mType;
     private int mNumEntries;
-    private byte[] mData;
+
+    //  Offset of the elements of this array in the dump
+    private long mDataOffset;
     
     public ArrayInstance(long id, StackTrace stack, int type, int numEntries, 
-            byte[] data) {
+            long dataOffset) {
         mId = id;
         mStack = stack;
         mType = type;
         mNumEntries = numEntries;
-        mData = data;
+        mDataOffset = dataOffset;
     }
 
     public final void resolveReferences(State state) {
@@ -40,39 +40,26 @@ public class ArrayInstance extends Instance {
         }
         
         /*
-         * mData holds a stream of object instance ids
+         * The elements are a stream of object instance ids
          * Spin through them all and list ourselves as a reference holder.
          */
+        HprofBuffer buffer = state.mBuffer;
         int idSize = Types.getTypeSize(mType);
         final int N = mNumEntries;
         
-        ByteArrayInputStream bais = new ByteArrayInputStream(mData);
-        DataInputStream dis = new DataInputStream(bais);
-        
         for (int i = 0; i < N; i++) {
-            long id;
-
-            try {
-                if (idSize == 4) {
-                    id = dis.readInt();
-                } else {
-                    id = dis.readLong();
-                }
+            long id = buffer.getId(mDataOffset + (long) i * idSize);
+            Instance instance = state.findReference(id);
 
-                Instance instance = state.findReference(id);
-                
-                if (instance != null) {
-                    instance.addParent(this);
-                }
-            } catch (java.io.IOException e) {
-                e.printStackTrace();
+            if (instance != null) {
+                instance.addParent(this);
             }
         }
     }
 
     @Override
     public final int getSize() {
-        return mData.length;
+        return mNumEntries * Types.getTypeSize(mType);
     }
 
     @Override
@@ -95,33 +82,20 @@ public class ArrayInstance extends Instance {
         }
         
         /*
-         * mData holds a stream of object instance ids
+         * The elements are a stream of object instance ids
          * Spin through them all and visit them
          */
+        State state = mHeap.mState;
+        HprofBuffer buffer = state.mBuffer;
         int idSize = Types.getTypeSize(mType);
         final int N = mNumEntries;
         
-        ByteArrayInputStream bais = new ByteArrayInputStream(mData);
-        DataInputStream dis = new DataInputStream(bais);
-        State state = mHeap.mState;
-        
         for (int i = 0; i < N; i++) {
-            long id;
-            
-            try {
-                if (idSize == 4) {
-                    id = dis.readInt();
-                } else {
-                    id = dis.readLong();
-                }
-                
-                Instance instance = state.findReference(id);
-                
-                if (instance != null) {
-                    instance.visit(resultSet, filter);
-                }
-            } catch (java.io.IOException e) {
-                e.printStackTrace();
+            long id = buffer.getId(mDataOffset + (long) i * idSize);
+            Instance instance = state.findReference(id);
+
+            if (instance != null) {
+                instance.visit(resultSet, filter);
             }
         }
     }
@@ -135,6 +109,26 @@ public class ArrayInstance extends Instance {
         return String.format("%s@0x08x", getTypeName(), mId);
     }
 
+    /*
+     * Arrays are decoded from the dump each time they are looked up, so
+     * two are the same object if they have the same id in the same heap.
+     */
+    @Override
+    public final boolean equals(Object o) {
+        if (!(o instanceof ArrayInstance)) {
+            return false;
+        }
+
+        ArrayInstance other = (ArrayInstance) o;
+
+        return (mId == other.mId) && (mHeap == other.mHeap);
+    }
+
+    @Override
+    public final int hashCode() {
+        return (int) (mId ^ (mId >>> 32));
+    }
+
     @Override
     public String describeReferenceTo(long referent) {
         //  If this isn't an object array then we can't refer to an object
@@ -142,38 +136,27 @@ public class ArrayInstance extends Instance {
             return super.describeReferenceTo(referent);
         }
         
+        HprofBuffer buffer = mHeap.mState.mBuffer;
         int idSize = Types.getTypeSize(mType);
         final int N = mNumEntries;
         int numRefs = 0;
         StringBuilder result = new StringBuilder("Elements [");
-        ByteArrayInputStream bais = new ByteArrayInputStream(mData);
-        DataInputStream dis = new DataInputStream(bais);
         
         /*
          * Spin through all the objects and build up a string describing
          * all of the array elements that refer to the target object.
          */
         for (int i = 0; i < N; i++) {
-            long id;
-            
-            try {
-                if (idSize == 4) {
-                    id = dis.readInt();
-                } else {
-                    id = dis.readLong();
-                }
+            long id = buffer.getId(mDataOffset + (long) i * idSize);
+
+            if (id == referent) {
+                numRefs++;
                 
-                if (id == referent) {
-                    numRefs++;
-                    
-                    if (numRefs > 1) {
-                        result.append(", ");
-                    }
-                    
-                    result.append(i);
+                if (numRefs > 1) {
+                    result.append(", ");
                 }
-            } catch (java.io.IOException e) {
-                e.printStackTrace();
+                
+                result.append(i);
             }
         }
         
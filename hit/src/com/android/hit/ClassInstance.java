@@ -16,69 +16,52 @@
 
 package com.android.hit;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.util.Set;
 
 public class ClassInstance extends Instance {
-    private byte[] mFieldValues;
+    //  Offset of the field values of this object in the dump
+    private long mFieldsOffset;
 
-    public ClassInstance(long id, StackTrace stack, long classId) {
+    public ClassInstance(long id, StackTrace stack, long classId,
+            long fieldsOffset) {
         mId = id;
         mStack = stack;
         mClassId = classId;
-    }
-    
-    public final void loadFieldData(DataInputStream in, int numBytes)
-            throws IOException {
-        mFieldValues = new byte[numBytes];
-        in.readFully(mFieldValues);
+        mFieldsOffset = fieldsOffset;
     }
 
+    /*
+     * The field values are those of this object's class, followed by those
+     * of each of its superclasses in turn.
+     */
     @Override
     public void resolveReferences(State state) {
-        ClassObj isa = mHeap.mState.findClass(mClassId);
-
-        resolve(state, isa, isa.mStaticFieldTypes, isa.mStaticFieldValues);
-        resolve(state, isa, isa.mFieldTypes, mFieldValues);
-    }
-
-    private void resolve(State state, ClassObj isa, int[] types, 
-            byte[] values) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(values);
-        DataInputStream dis = new DataInputStream(bais);
-        final int N = types.length;
+        HprofBuffer buffer = state.mBuffer;
+        long offset = mFieldsOffset;
 
         /*
          * Spin through the list of fields, find all object references,
          * and list ourselves as a reference holder.
          */
-        try {
+        for (ClassObj isa = mHeap.mState.findClass(mClassId); isa != null;
+                isa = isa.mSuperclass) {
+            int[] types = isa.mFieldTypes;
+            final int N = types.length;
+
             for (int i = 0; i < N; i++) {
                 int type = types[i];
-                int size = Types.getTypeSize(type);
-
-                    if (type == Types.OBJECT) {
-                        long id;
-                        
-                        if (size == 4) {
-                            id = dis.readInt();
-                        } else {
-                            id = dis.readLong();
-                        }
-                        
-                        Instance instance = state.findReference(id);
-                        
-                        if (instance != null) {
-                            instance.addParent(this);
-                        }
-                    } else {
-                        dis.skipBytes(size);
+
+                if (type == Types.OBJECT) {
+                    long id = buffer.getId(offset);
+                    Instance instance = state.findReference(id);
+
+                    if (instance != null) {
+                        instance.addParent(this);
                     }
+                }
+
+                offset += Types.getTypeSize(type);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -104,41 +87,32 @@ public class ClassInstance extends Instance {
         }
 
         State state = mHeap.mState;
-        ClassObj isa = state.findClass(mClassId);
-        int[] types = isa.mFieldTypes;
-        ByteArrayInputStream bais = new ByteArrayInputStream(mFieldValues);
-        DataInputStream dis = new DataInputStream(bais);
-        final int N = types.length;
+        HprofBuffer buffer = state.mBuffer;
+        long offset = mFieldsOffset;
         
         /*
          * Spin through the list of fields, find all object references,
-         * and list ourselves as a reference holder.
+         * and visit them.
          */
-        try {
+        for (ClassObj isa = state.findClass(mClassId); isa != null;
+                isa = isa.mSuperclass) {
+            int[] types = isa.mFieldTypes;
+            final int N = types.length;
+
             for (int i = 0; i < N; i++) {
                 int type = types[i];
-                int size = Types.getTypeSize(type);
-                
+
                 if (type == Types.OBJECT) {
-                    long id;
-                    
-                    if (size == 4) {
-                        id = dis.readInt();
-                    } else {
-                        id = dis.readLong();
-                    }
-                    
+                    long id = buffer.getId(offset);
                     Instance instance = state.findReference(id);
-                    
+
                     if (instance != null) {
                         instance.visit(resultSet, filter);
                     }
-                } else {
-                    dis.skipBytes(size);
                 }
+
+                offset += Types.getTypeSize(type);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
@@ -153,14 +127,63 @@ public class ClassInstance extends Instance {
         return String.format("%s@0x%08x", getTypeName(), mId);
     }
 
+    /*
+     * Instances are decoded from the dump each time they are looked up, so
+     * two are the same object if they have the same id in the same heap.
+     */
+    @Override
+    public final boolean equals(Object o) {
+        if (!(o instanceof ClassInstance)) {
+            return false;
+        }
+
+        ClassInstance other = (ClassInstance) o;
+
+        return (mId == other.mId) && (mHeap == other.mHeap);
+    }
+
+    @Override
+    public final int hashCode() {
+        return (int) (mId ^ (mId >>> 32));
+    }
+
+    /*
+     * Whether this object refers to the given one other than through the
+     * referent field of java.lang.ref.Reference, which is how weak, soft
+     * and phantom references are held.
+     */
+    public final boolean hasStrongReferenceTo(long referent) {
+        HprofBuffer buffer = mHeap.mState.mBuffer;
+        long offset = mFieldsOffset;
+
+        for (ClassObj isa = mHeap.mState.findClass(mClassId); isa != null;
+                isa = isa.mSuperclass) {
+            int[] types = isa.mFieldTypes;
+            boolean isReference =
+                isa.toString().equals(ClassObj.REFERENCE_CLASS);
+            final int N = types.length;
+
+            for (int i = 0; i < N; i++) {
+                int type = types[i];
+
+                if ((type == Types.OBJECT)
+                        && (buffer.getId(offset) == referent)
+                        && !(isReference
+                            && isa.mFieldNames[i].equals("referent"))) {
+                    return true;
+                }
+
+                offset += Types.getTypeSize(type);
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public String describeReferenceTo(long referent) {
-        ClassObj isa = mHeap.mState.findClass(mClassId);
-        int[] types = isa.mFieldTypes;
-        String[] fieldNames = isa.mFieldNames;
-        ByteArrayInputStream bais = new ByteArrayInputStream(mFieldValues);
-        DataInputStream dis = new DataInputStream(bais);
-        final int N = types.length;
+        HprofBuffer buffer = mHeap.mState.mBuffer;
+        long offset = mFieldsOffset;
         StringBuilder result = new StringBuilder("Referenced in field(s):");
         int numReferences = 0;
         
@@ -168,31 +191,24 @@ public class ClassInstance extends Instance {
          * Spin through the list of fields, add info about the field
          * references to the output text.
          */
-        try {
+        for (ClassObj isa = mHeap.mState.findClass(mClassId); isa != null;
+                isa = isa.mSuperclass) {
+            int[] types = isa.mFieldTypes;
+            String[] fieldNames = isa.mFieldNames;
+            final int N = types.length;
+
             for (int i = 0; i < N; i++) {
                 int type = types[i];
-                int size = Types.getTypeSize(type);
-                
-                if (type == Types.OBJECT) {
-                    long id;
-                    
-                    if (size == 4) {
-                        id = dis.readInt();
-                    } else {
-                        id = dis.readLong();
-                    }
-                    
-                    if (id == referent) {
-                        numReferences++;
-                        result.append("\n    ");
-                        result.append(fieldNames[i]);
-                    }
-                } else {
-                    dis.skipBytes(size);
+
+                if ((type == Types.OBJECT)
+                        && (buffer.getId(offset) == referent)) {
+                    numReferences++;
+                    result.append("\n    ");
+                    result.append(fieldNames[i]);
                 }
+
+                offset += Types.getTypeSize(type);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
         /*
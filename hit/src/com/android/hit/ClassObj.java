@@ -23,9 +23,15 @@ import java.util.HashSet;
 import java.util.Set;
 
 public class ClassObj extends Instance implements Comparable<ClassObj> {
+    //  The class whose referent field holds weak, soft and phantom refs
+    static final String REFERENCE_CLASS = "java.lang.ref.Reference";
+
     String mClassName;
     long mSuperclassId;
 
+    //  Set from mSuperclassId when references are resolved
+    ClassObj mSuperclass;
+
     String[] mFieldNames;
     int[] mFieldTypes;
 
@@ -33,7 +39,10 @@ public class ClassObj extends Instance implements Comparable<ClassObj> {
     int[] mStaticFieldTypes;
     byte[] mStaticFieldValues;
 
-    ArrayList<Instance> mInstances = new ArrayList<Instance>();
+    //  Indices of the instances of this class in the State's object table
+    int[] mInstances = new int[4];
+    int mInstanceCount;
+
     Set<ClassObj> mSubclasses = new HashSet<ClassObj>();
 
     int mSize;
@@ -125,7 +134,58 @@ public class ClassObj extends Instance implements Comparable<ClassObj> {
     }
 
     public final void addInstance(Instance instance) {
-        mInstances.add(instance);
+        addInstance(instance.mObjectIndex);
+    }
+
+    final void addInstance(int index) {
+        if (mInstanceCount == mInstances.length) {
+            int[] grown = new int[mInstanceCount * 2];
+
+            System.arraycopy(mInstances, 0, grown, 0, mInstanceCount);
+            mInstances = grown;
+        }
+
+        mInstances[mInstanceCount++] = index;
+    }
+
+    /*
+     * Return the instances of this class.  They are decoded from the dump
+     * by this call.
+     */
+    public final ArrayList<Instance> getInstances() {
+        State state = mHeap.mState;
+        ArrayList<Instance> result = new ArrayList<Instance>(mInstanceCount);
+
+        for (int i = 0; i < mInstanceCount; i++) {
+            result.add(state.getObject(mInstances[i]));
+        }
+
+        return result;
+    }
+
+    /*
+     * The size that the instances of this class retain between them; see
+     * Dominators.getInstancesRetainedSize.  This is as opposed to
+     * getRetainedSize, which is what the class object itself retains,
+     * through its static fields.
+     */
+    public final long getInstancesRetainedSize() {
+        return mHeap.mState.getDominators().getInstancesRetainedSize(this);
+    }
+
+    /*
+     * Whether this is java.lang.ref.Reference or one of its subclasses.
+     * Only meaningful once references are resolved.
+     */
+    public final boolean isReferenceClass() {
+        for (ClassObj theClass = this; theClass != null;
+                theClass = theClass.mSuperclass) {
+            if (theClass.toString().equals(REFERENCE_CLASS)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     public final void setSuperclassId(long id) {
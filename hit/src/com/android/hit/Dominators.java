@@ -0,0 +1,576 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hit;
+
+import java.util.ArrayList;
+
+/*
+ * The dominator tree of the objects in a State, and the size that each
+ * object retains: its own size plus that of every object it dominates,
+ * which is what would be freed if it were.
+ *
+ * The graph has one extra node, the root, that refers to the target of
+ * every RootObj and to every class object; the runtime keeps loaded
+ * classes alive.  Static fields are followed from their class, so
+ * JAVA_STATIC roots are left out, or no class would retain its statics.
+ *
+ * This is the Lengauer-Tarjan algorithm with path compression, which runs
+ * in O(E log N) time.  Everything is kept in int arrays indexed by object
+ * index or by DFS number, and nothing recurses, so it copes with tens of
+ * millions of objects.
+ */
+public class Dominators {
+    //  Dominator of the objects that only the roots dominate
+    public static final int ROOTS = -1;
+
+    //  Dominator of the objects that can't be reached from the roots
+    public static final int UNREACHABLE = -2;
+
+    //  Immediate dominator of each object, by object index
+    private final int[] mDominators;
+
+    //  Retained size of each object, by object index
+    private final long[] mRetainedSizes;
+
+    //  Slot of each class, by the object index of its class object
+    private final LongIntMap mClassSlots = new LongIntMap();
+
+    //  Retained size of all of the instances of each class, by slot
+    private final long[] mClassRetainedSizes;
+
+    /*
+     * These are only needed while computing the tree, and are indexed by
+     * DFS number.  Number 1 is the root.
+     */
+    private int mCount;
+    private int[] mVertex;
+    private int[] mParent;
+    private int[] mSemi;
+    private int[] mLabel;
+    private int[] mAncestor;
+    private int[] mIdom;
+    private int[] mStack;
+
+    public Dominators(State state) {
+        final int N = state.mObjectCount;
+        ArrayList<ClassObj> classes = new ArrayList<ClassObj>();
+        int[] classOf = new int[N];
+
+        for (int i = 0; i < N; i++) {
+            classOf[i] = -1;
+        }
+
+        for (Heap heap: state.mHeapList) {
+            for (ClassObj theClass: heap.mClassesById.values()) {
+                int slot = classes.size();
+
+                classes.add(theClass);
+                mClassSlots.put(theClass.mObjectIndex, slot);
+
+                for (int i = 0; i < theClass.mInstanceCount; i++) {
+                    classOf[theClass.mInstances[i]] = slot;
+                }
+            }
+        }
+
+        int[] roots = getRoots(state, classes);
+        int[] dfnum = search(state, roots);
+
+        computeDominators(state, roots, dfnum);
+
+        //  Add each object's retained size to that of its dominator
+        long[] sizes = getSizes(state, classes, classOf);
+        long[] retained = new long[mCount + 1];
+
+        for (int w = 2; w <= mCount; w++) {
+            retained[w] = sizes[mVertex[w]];
+        }
+
+        for (int w = mCount; w >= 2; w--) {
+            retained[mIdom[w]] += retained[w];
+        }
+
+        mDominators = new int[N];
+        mRetainedSizes = new long[N];
+
+        for (int i = 0; i < N; i++) {
+            int w = dfnum[i];
+
+            if (w == 0) {
+                mDominators[i] = UNREACHABLE;
+            } else if (mIdom[w] == 1) {
+                mDominators[i] = ROOTS;
+                mRetainedSizes[i] = retained[w];
+            } else {
+                mDominators[i] = mVertex[mIdom[w]];
+                mRetainedSizes[i] = retained[w];
+            }
+        }
+
+        mClassRetainedSizes = getClassSizes(classes.size(), classOf, retained);
+
+        mVertex = mParent = mIdom = null;
+    }
+
+    public final int getDominator(int index) {
+        return mDominators[index];
+    }
+
+    public final long getRetainedSize(int index) {
+        return mRetainedSizes[index];
+    }
+
+    /*
+     * The total retained size of the instances of the given class, not
+     * counting again those that another instance of the class dominates.
+     * This is a lower bound on what freeing all of the instances would
+     * free: it leaves out objects that only several of them together keep
+     * alive, which would take a search per class to find.
+     */
+    public final long getInstancesRetainedSize(ClassObj theClass) {
+        int slot = mClassSlots.get(theClass.mObjectIndex);
+
+        if (slot == LongIntMap.NOT_FOUND) {
+            return 0;
+        }
+
+        return mClassRetainedSizes[slot];
+    }
+
+    /*
+     * Return the indices of the count objects that retain the most, most
+     * first.  Ties go to the lower index.
+     */
+    public final int[] getTopRetainers(int count) {
+        final int N = mRetainedSizes.length;
+        int[] heap = new int[Math.max(Math.min(count, N), 0)];
+        int size = 0;
+
+        //  heap is a min-heap of the largest retainers seen so far
+        for (int i = 0; i < N && heap.length > 0; i++) {
+            if (size < heap.length) {
+                heap[size] = i;
+                siftUp(heap, size++);
+            } else if (isSmaller(heap[0], i)) {
+                heap[0] = i;
+                siftDown(heap, size);
+            }
+        }
+
+        int[] result = new int[size];
+
+        while (size > 0) {
+            result[--size] = heap[0];
+            heap[0] = heap[size];
+            siftDown(heap, size);
+        }
+
+        return result;
+    }
+
+    private boolean isSmaller(int a, int b) {
+        long sizeA = mRetainedSizes[a];
+        long sizeB = mRetainedSizes[b];
+
+        return (sizeA < sizeB) || ((sizeA == sizeB) && (a > b));
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+
+            if (!isSmaller(heap[i], heap[parent])) {
+                break;
+            }
+
+            int swap = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = swap;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if ((child + 1 < size) && isSmaller(heap[child + 1], heap[child])) {
+                child++;
+            }
+
+            if (!isSmaller(heap[child], heap[i])) {
+                break;
+            }
+
+            int swap = heap[i];
+            heap[i] = heap[child];
+            heap[child] = swap;
+            i = child;
+        }
+    }
+
+    /*
+     * Number the objects in depth-first order from the root, filling in
+     * mVertex and mParent, and return the number of each object by its
+     * index, or 0 for those that can't be reached.
+     */
+    private int[] search(State state, int[] roots) {
+        final int N = state.mObjectCount;
+        final int ROOT = N;
+
+        //  Each object's references, the reverse of its parents
+        int[] start = new int[N + 2];
+        int[] parents = state.mParentIndices;
+        int[] parentStarts = state.mParentStarts;
+
+        for (int j = 0; j < parents.length; j++) {
+            start[parents[j] + 1]++;
+        }
+
+        start[ROOT + 1] = roots.length;
+
+        for (int i = 0; i <= N; i++) {
+            start[i + 1] += start[i];
+        }
+
+        int[] next = new int[N + 1];
+        int[] edges = new int[start[N + 1]];
+
+        System.arraycopy(start, 0, next, 0, N + 1);
+
+        for (int i = 0; i < N; i++) {
+            for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+                edges[next[parents[j]]++] = i;
+            }
+        }
+
+        System.arraycopy(roots, 0, edges, start[ROOT], roots.length);
+
+        //  Walk them, with next as the position in each node's references
+        int[] dfnum = new int[N + 1];
+        int[] stack = new int[N + 1];
+        int sp = 0;
+
+        mVertex = new int[N + 2];
+        mParent = new int[N + 2];
+        mCount = 1;
+        mVertex[1] = ROOT;
+        dfnum[ROOT] = 1;
+        next[ROOT] = start[ROOT];
+        stack[sp++] = ROOT;
+
+        while (sp > 0) {
+            int v = stack[sp - 1];
+
+            if (next[v] == start[v + 1]) {
+                sp--;
+                continue;
+            }
+
+            int w = edges[next[v]++];
+
+            if (dfnum[w] == 0) {
+                dfnum[w] = ++mCount;
+                mVertex[mCount] = w;
+                mParent[mCount] = dfnum[v];
+                next[w] = start[w];
+                stack[sp++] = w;
+            }
+        }
+
+        return dfnum;
+    }
+
+    /*
+     * The object indices of the targets of the roots, and of the classes.
+     */
+    private int[] getRoots(State state, ArrayList<ClassObj> classes) {
+        int[] roots = new int[classes.size()];
+        int count = 0;
+
+        for (ClassObj theClass: classes) {
+            roots[count++] = theClass.mObjectIndex;
+        }
+
+        for (Heap heap: state.mHeapList) {
+            for (RootObj root: heap.mRoots) {
+                int index = state.mObjectIndex.get(root.mId);
+
+                if ((root.mType == RootType.JAVA_STATIC)
+                        || (index == LongIntMap.NOT_FOUND)) {
+                    continue;
+                }
+
+                if (count == roots.length) {
+                    int[] grown = new int[count * 2 + 16];
+
+                    System.arraycopy(roots, 0, grown, 0, count);
+                    roots = grown;
+                }
+
+                roots[count++] = index;
+            }
+        }
+
+        int[] result = new int[count];
+
+        System.arraycopy(roots, 0, result, 0, count);
+
+        return result;
+    }
+
+    /*
+     * Fill in mIdom, the immediate dominator of each DFS number, from the
+     * semidominators, as in Lengauer and Tarjan's "A Fast Algorithm for
+     * Finding Dominators in a Flowgraph".
+     */
+    private void computeDominators(State state, int[] roots, int[] dfnum) {
+        final int R = mCount;
+        int[] bucket = new int[R + 1];
+        int[] bucketNext = new int[R + 1];
+
+        //  The objects that the root refers to, which it is a parent of
+        boolean[] rooted = new boolean[state.mObjectCount];
+        int[] parents = state.mParentIndices;
+        int[] parentStarts = state.mParentStarts;
+
+        for (int i = 0; i < roots.length; i++) {
+            rooted[roots[i]] = true;
+        }
+
+        mSemi = new int[R + 1];
+        mLabel = new int[R + 1];
+        mAncestor = new int[R + 1];
+        mIdom = new int[R + 1];
+        mStack = new int[R + 1];
+
+        for (int v = 1; v <= R; v++) {
+            mSemi[v] = v;
+            mLabel[v] = v;
+        }
+
+        for (int w = R; w >= 2; w--) {
+            int node = mVertex[w];
+            final int P = parentStarts[node + 1];
+
+            if (rooted[node]) {
+                mSemi[w] = 1;
+            }
+
+            for (int j = parentStarts[node]; j < P; j++) {
+                int v = dfnum[parents[j]];
+
+                if (v != 0) {
+                    int u = eval(v);
+
+                    if (mSemi[u] < mSemi[w]) {
+                        mSemi[w] = mSemi[u];
+                    }
+                }
+            }
+
+            bucketNext[w] = bucket[mSemi[w]];
+            bucket[mSemi[w]] = w;
+
+            int p = mParent[w];
+
+            mAncestor[w] = p;
+
+            for (int v = bucket[p]; v != 0; v = bucketNext[v]) {
+                int u = eval(v);
+
+                mIdom[v] = (mSemi[u] < mSemi[v]) ? u : p;
+            }
+
+            bucket[p] = 0;
+        }
+
+        for (int w = 2; w <= R; w++) {
+            if (mIdom[w] != mSemi[w]) {
+                mIdom[w] = mIdom[mIdom[w]];
+            }
+        }
+
+        mIdom[1] = 0;
+        mSemi = mLabel = mAncestor = mStack = null;
+    }
+
+    /*
+     * Return the vertex with the least semidominator on the path from v up
+     * to the root of its tree in the forest, compressing the path.
+     */
+    private int eval(int v) {
+        if (mAncestor[v] == 0) {
+            return v;
+        }
+
+        int[] ancestor = mAncestor;
+        int[] label = mLabel;
+        int sp = 0;
+
+        for (int u = v; ancestor[ancestor[u]] != 0; u = ancestor[u]) {
+            mStack[sp++] = u;
+        }
+
+        while (sp > 0) {
+            int u = mStack[--sp];
+            int a = ancestor[u];
+
+            if (mSemi[label[a]] < mSemi[label[u]]) {
+                label[u] = label[a];
+            }
+
+            ancestor[u] = ancestor[a];
+        }
+
+        return label[v];
+    }
+
+    /*
+     * The shallow size of each object, by object index.  A class object's
+     * size is that of its static field values.
+     */
+    private long[] getSizes(State state, ArrayList<ClassObj> classes,
+            int[] classOf) {
+        final int N = state.mObjectCount;
+        HprofBuffer buffer = state.mBuffer;
+        int idSize = buffer.getIdSize();
+        long[] sizes = new long[N + 1];
+
+        for (int i = 0; i < N; i++) {
+            long offset = state.mObjectOffsets[i];
+
+            //  Each record starts with the id and the stack serial number
+            switch (buffer.getUnsignedByte(offset - 1)) {
+                case HprofParser.ROOT_CLASS_DUMP: {
+                    ClassObj theClass = classes.get(mClassSlots.get(i));
+
+                    sizes[i] = theClass.mStaticFieldValues.length;
+                    break;
+                }
+
+                case HprofParser.ROOT_INSTANCE_DUMP: {
+                    ClassObj theClass;
+
+                    //  Only instances of classes in their own heap have one
+                    if (classOf[i] >= 0) {
+                        theClass = classes.get(classOf[i]);
+                    } else {
+                        long classId = buffer.getId(offset + idSize + 4);
+
+                        theClass = state.findClass(classId);
+                    }
+
+                    if (theClass != null) {
+                        sizes[i] = theClass.getSize();
+                    }
+                    break;
+                }
+
+                case HprofParser.ROOT_OBJECT_ARRAY_DUMP:
+                    sizes[i] = (long) buffer.getInt(offset + idSize + 4)
+                        * idSize;
+                    break;
+
+                case HprofParser.ROOT_PRIMITIVE_ARRAY_DUMP: {
+                    int type = buffer.getUnsignedByte(offset + idSize + 8);
+
+                    sizes[i] = (long) buffer.getInt(offset + idSize + 4)
+                        * Types.getTypeSize(type);
+                    break;
+                }
+            }
+        }
+
+        return sizes;
+    }
+
+    /*
+     * Walk the dominator tree, adding each instance's retained size to
+     * its class's unless another instance of the class dominates it.
+     */
+    private long[] getClassSizes(int numClasses, int[] classOf,
+            long[] retained) {
+        final int R = mCount;
+        final int N = classOf.length;
+        long[] result = new long[numClasses];
+        int[] active = new int[numClasses];
+
+        //  The children of each DFS number in the dominator tree
+        int[] start = new int[R + 2];
+        int[] children = new int[R + 1];
+
+        for (int w = 2; w <= R; w++) {
+            start[mIdom[w] + 1]++;
+        }
+
+        for (int v = 1; v <= R; v++) {
+            start[v + 1] += start[v];
+        }
+
+        int[] next = new int[R + 2];
+
+        System.arraycopy(start, 0, next, 0, R + 2);
+
+        for (int w = 2; w <= R; w++) {
+            children[next[mIdom[w]]++] = w;
+        }
+
+        //  Walk it, with next as the position in each vertex's children
+        int[] stack = new int[R + 1];
+        int sp = 0;
+
+        System.arraycopy(start, 0, next, 0, R + 2);
+        stack[sp++] = 1;
+
+        while (sp > 0) {
+            int v = stack[sp - 1];
+            int node = mVertex[v];
+            int slot = (node < N) ? classOf[node] : -1;
+
+            if (next[v] == start[v]) {
+                //  First visit
+                if (slot >= 0) {
+                    if (active[slot] == 0) {
+                        result[slot] += retained[v];
+                    }
+
+                    active[slot]++;
+                }
+            }
+
+            if (next[v] == start[v + 1]) {
+                if (slot >= 0) {
+                    active[slot]--;
+                }
+
+                sp--;
+                continue;
+            }
+
+            stack[sp++] = children[next[v]++];
+        }
+
+        return result;
+    }
+}
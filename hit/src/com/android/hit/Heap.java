@@ -38,12 +38,12 @@ public class Heap {
     HashMap<Long, ClassObj> mClassesById = new HashMap<Long, ClassObj>();
     HashMap<String, ClassObj> mClassesByName = new HashMap<String, ClassObj>();
 
-    //  List of instances of above class definitions
-    HashMap<Long, Instance> mInstances = new HashMap<Long, Instance>();
-
-    //  The super-state that this heap is part of
+    //  The super-state that this heap is part of, which keeps the instances
     State mState;
 
+    //  Index of this heap in the state's list of heaps
+    int mOrdinal;
+
     public Heap(String name) {
         mName = name;
     }
@@ -88,12 +88,40 @@ public class Heap {
         return mThreads.get(serialNumber);
     }
 
-    public final void addInstance(long id, Instance instance) {
-        mInstances.put(id, instance);
-    }
-    
     public final Instance getInstance(long id) {
-        return mInstances.get(id);
+        int index = mState.mObjectIndex.get(id);
+
+        if ((index == LongIntMap.NOT_FOUND)
+                || (mState.mObjectHeaps[index] != mOrdinal)) {
+            return null;
+        }
+
+        Instance instance = mState.getObject(index);
+
+        //  Class objects aren't instances
+        return (instance instanceof ClassObj) ? null : instance;
+    }
+
+    /*
+     * Return all of the instances in this heap.  They are decoded from the
+     * dump by this call, so avoid it on large heaps where possible.
+     */
+    public final ArrayList<Instance> getInstances() {
+        ArrayList<Instance> result = new ArrayList<Instance>();
+        State state = mState;
+        final int N = state.mObjectCount;
+
+        for (int i = 0; i < N; i++) {
+            if (state.mObjectHeaps[i] == mOrdinal) {
+                Instance instance = state.getObject(i);
+
+                if (!(instance instanceof ClassObj)) {
+                    result.add(instance);
+                }
+            }
+        }
+
+        return result;
     }
 
     public final void addClass(long id, ClassObj theClass) {
@@ -111,7 +139,7 @@ public class Heap {
 
     public final void dumpInstanceCounts() {
         for (ClassObj theClass: mClassesById.values()) {
-            int count = theClass.mInstances.size();
+            int count = theClass.mInstanceCount;
             
             if (count > 0) {
                 System.out.println(theClass + ": " + count);
@@ -134,7 +162,7 @@ public class Heap {
         for (ClassObj theClass: mClassesById.values()) {
             int size = 0;
             
-            for (Instance instance: theClass.mInstances) {
+            for (Instance instance: theClass.getInstances()) {
                 size += instance.getCompositeSize();
             }
 
@@ -145,32 +173,6 @@ public class Heap {
         }
     }
     
-    /*
-     * Spin through all of the class instances and link them to their
-     * parent class definition objects.  Then have each instance resolve
-     * its own internal object references.
-     */
-    public final void resolveInstanceRefs(State state) {
-        for (Instance instance : mInstances.values()) {
-            ClassObj theClass = mClassesById.get(instance.mClassId);
-
-            if (theClass == null) {
-                continue;
-            }
-
-            String name = theClass.mClassName;
-            String superclassName = "none";
-            ClassObj superClass = mClassesById.get(theClass.mSuperclassId);
-            
-            if (superClass != null) {
-                superclassName = superClass.mClassName;
-            }
-            
-            theClass.addInstance(instance);
-            instance.resolveReferences(state);
-        }
-    }
-
     public final void resolveClassStatics(State state) {
         for (ClassObj theClass: mClassesById.values()) {
             theClass.resolveReferences(state);
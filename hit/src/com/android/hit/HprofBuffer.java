@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Random access to the bytes of an HPROF file, by absolute offset.  The
+ * heap model keeps the offset of each object's record rather than a copy
+ * of its fields, and decodes them from here when asked, so the dump is
+ * normally mapped rather than read into the Java heap.
+ *
+ * A ByteBuffer can't span more than 2 GB, so larger files are mapped as a
+ * series of windows.  Each window overlaps the next by OVERLAP bytes, so
+ * that any single value starting in a window can be read from it alone.
+ */
+public class HprofBuffer {
+    //  Each window starts at a multiple of WINDOW_SIZE bytes into the file
+    private static final int WINDOW_SHIFT = 30;
+    private static final long WINDOW_SIZE = 1L << WINDOW_SHIFT;
+    private static final int WINDOW_MASK = (int) (WINDOW_SIZE - 1);
+
+    //  Big enough for the widest value read in one call, a long or an id
+    private static final int OVERLAP = 8;
+
+    private final ByteBuffer[] mWindows;
+    private final long mSize;
+    private int mIdSize = 4;
+
+    public HprofBuffer(ByteBuffer buffer) {
+        mWindows = new ByteBuffer[] { buffer };
+        mSize = buffer.limit();
+    }
+
+    private HprofBuffer(ByteBuffer[] windows, long size) {
+        mWindows = windows;
+        mSize = size;
+    }
+
+    /*
+     * Map the given file read-only, in as many windows as it takes.
+     */
+    public static HprofBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int count = (int) ((size + WINDOW_SIZE - 1) >>> WINDOW_SHIFT);
+            ByteBuffer[] windows = new ByteBuffer[Math.max(count, 1)];
+
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << WINDOW_SHIFT;
+                long length = Math.min(WINDOW_SIZE + OVERLAP, size - start);
+
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, Math.max(length, 0));
+            }
+
+            return new HprofBuffer(windows, size);
+        } finally {
+            //  The mappings stay valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /*
+     * Read all of the given stream into memory, for dumps that don't come
+     * from a file.
+     */
+    public static HprofBuffer read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+
+        return new HprofBuffer(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    public final void setIdSize(int size) {
+        mIdSize = size;
+    }
+
+    public final int getIdSize() {
+        return mIdSize;
+    }
+
+    public final long size() {
+        return mSize;
+    }
+
+    private ByteBuffer window(long offset) {
+        return mWindows[(int) (offset >>> WINDOW_SHIFT)];
+    }
+
+    public final int getByte(long offset) {
+        return window(offset).get((int) offset & WINDOW_MASK);
+    }
+
+    public final int getUnsignedByte(long offset) {
+        return window(offset).get((int) offset & WINDOW_MASK) & 0xff;
+    }
+
+    public final int getUnsignedShort(long offset) {
+        return window(offset).getShort((int) offset & WINDOW_MASK) & 0xffff;
+    }
+
+    public final int getInt(long offset) {
+        return window(offset).getInt((int) offset & WINDOW_MASK);
+    }
+
+    public final long getLong(long offset) {
+        return window(offset).getLong((int) offset & WINDOW_MASK);
+    }
+
+    public final long getId(long offset) {
+        switch (mIdSize) {
+            case 1: return getUnsignedByte(offset);
+            case 2: return getUnsignedShort(offset);
+            case 4: return ((long) getInt(offset)) & 0x00000000ffffffffL;
+            case 8: return getLong(offset);
+        }
+
+        throw new IllegalArgumentException("ID Length must be 1, 2, 4, or 8");
+    }
+
+    public final void get(long offset, byte[] dst, int start, int length) {
+        while (length > 0) {
+            ByteBuffer view = window(offset).duplicate();
+            int position = (int) offset & WINDOW_MASK;
+            int count = (int) Math.min(length, WINDOW_SIZE - position);
+
+            view.position(position);
+            view.get(dst, start, count);
+
+            offset += count;
+            start += count;
+            length -= count;
+        }
+    }
+}
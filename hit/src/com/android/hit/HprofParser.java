@@ -18,10 +18,13 @@ package com.android.hit;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.InputStream;
-import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class HprofParser
 {
@@ -49,10 +52,10 @@ public class HprofParser
     private static final int ROOT_THREAD_BLOCK          =   0x06;
     private static final int ROOT_MONITOR_USED          =   0x07;
     private static final int ROOT_THREAD_OBJECT         =   0x08;
-    private static final int ROOT_CLASS_DUMP            =   0x20;
-    private static final int ROOT_INSTANCE_DUMP         =   0x21;
-    private static final int ROOT_OBJECT_ARRAY_DUMP     =   0x22;
-    private static final int ROOT_PRIMITIVE_ARRAY_DUMP  =   0x23;
+    static final int ROOT_CLASS_DUMP                    =   0x20;
+    static final int ROOT_INSTANCE_DUMP                 =   0x21;
+    static final int ROOT_OBJECT_ARRAY_DUMP             =   0x22;
+    static final int ROOT_PRIMITIVE_ARRAY_DUMP          =   0x23;
     
     /**
      * Android format addition
@@ -79,10 +82,15 @@ public class HprofParser
     private static final int ROOT_UNREACHABLE           =   0x90;
     private static final int ROOT_PRIMITIVE_ARRAY_NODATA=   0xc3;
 
-    DataInputStream mInput;
+    DataInputStream mStream;
+    HprofBuffer mInput;
+    long mPosition;
     int mIdSize;
     State mState;
 
+    //  Number of threads to parse and resolve references with
+    int mThreadCount = Runtime.getRuntime().availableProcessors();
+
     byte[] mFieldBuffer = new byte[8];
 
     /*
@@ -92,31 +100,106 @@ public class HprofParser
     HashMap<Long, String> mStrings = new HashMap<Long, String>();
     HashMap<Long, String> mClassNames = new HashMap<Long, String>();
 
+    /*
+     * Where the UTF-8 bytes of each string are in the dump, by string id.
+     * Most strings name methods and fields that nothing ever asks about, so
+     * they are only decoded, into mStrings, when they are first looked up.
+     */
+    LongIntMap mStringIndex = new LongIntMap();
+    long[] mStringOffsets = new long[1024];
+    int[] mStringLengths = new int[1024];
+    int mStringCount;
+
+    /*
+     * Parse a dump read from a stream.  The whole dump is read into memory,
+     * since the parsed objects refer to it; prefer parsing a mapped file.
+     */
     public HprofParser(DataInputStream in) {
-        mInput = in;
+        mStream = in;
+    }
+
+    public HprofParser(HprofBuffer buffer) {
+        mInput = buffer;
+    }
+
+    /*
+     * A parser for scanning one heap dump segment, on its own thread.  It
+     * shares everything but its position with the given parser.
+     */
+    private HprofParser(HprofParser parser, long position) {
+        mInput = parser.mInput;
+        mPosition = position;
+        mIdSize = parser.mIdSize;
+        mState = parser.mState;
+        mStrings = parser.mStrings;
+        mClassNames = parser.mClassNames;
+        mStringIndex = parser.mStringIndex;
+        mStringOffsets = parser.mStringOffsets;
+        mStringLengths = parser.mStringLengths;
+        mStringCount = parser.mStringCount;
+    }
+
+    /*
+     * The sub-records of one heap dump segment, as found by scanHeapDump.
+     * Only the class dumps are decoded by the scan; the rest are noted by
+     * the offset just past their tag, and loaded by loadHeapDump.
+     */
+    private static class Segment {
+        long[] mOffsets = new long[256];
+        int mCount;
+        ArrayList<ClassObj> mClasses = new ArrayList<ClassObj>();
+
+        final void add(long offset) {
+            if (mCount == mOffsets.length) {
+                long[] grown = new long[mCount * 2];
+
+                System.arraycopy(mOffsets, 0, grown, 0, mCount);
+                mOffsets = grown;
+            }
+
+            mOffsets[mCount++] = offset;
+        }
+    }
+
+    public final void setThreadCount(int count) {
+        mThreadCount = Math.max(count, 1);
     }
 
     public final State parse() {
         State state = new State();
         mState = state;
+        state.setThreadCount(mThreadCount);
 
         try {
+            if (mInput == null) {
+                mInput = HprofBuffer.read(mStream);
+            }
+
+            state.mBuffer = mInput;
+
             String  s = readNullTerminatedString();
-            DataInputStream in = mInput;
             
-            mIdSize = in.readInt();
+            mIdSize = readInt();
             Types.setIdSize(mIdSize);
+            mInput.setIdSize(mIdSize);
             
-            in.readLong();  //  Timestamp, ignored for now
+            readLong();  //  Timestamp, ignored for now
+
+            /*
+             * Heap dump segments are only noted on this pass, and scanned
+             * once the strings and class names they refer to are all known.
+             */
+            ArrayList<Long> segmentOffsets = new ArrayList<Long>();
+            ArrayList<Integer> segmentLengths = new ArrayList<Integer>();
             
-            while (true) {
-                int tag = in.readUnsignedByte();
-                int timestamp = in.readInt();
-                int length = in.readInt();
+            while (mPosition < mInput.size()) {
+                int tag = readUnsignedByte();
+                int timestamp = readInt();
+                int length = readInt();
 
                 switch (tag) {
                     case STRING_IN_UTF8:
-                        loadString(length - 4);
+                        loadString(length - mIdSize);
                         break;
                     
                     case LOAD_CLASS:
@@ -132,13 +215,10 @@ public class HprofParser
                         break;
 
                     case HEAP_DUMP:
-                        loadHeapDump(length);
-                        mState.setToDefaultHeap();
-                        break;
-                        
                     case HEAP_DUMP_SEGMENT:
-                        loadHeapDump(length);
-                        mState.setToDefaultHeap();
+                        segmentOffsets.add(mPosition);
+                        segmentLengths.add(length);
+                        skipFully(length);
                         break;
 
                     default:
@@ -146,8 +226,8 @@ public class HprofParser
                 }
 
             }
-        } catch (EOFException eof) {
-            //  this is fine
+
+            loadHeapDumps(segmentOffsets, segmentLengths);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -159,58 +239,118 @@ public class HprofParser
 
     private String readNullTerminatedString() throws IOException {
         StringBuilder s = new StringBuilder();
-        DataInputStream in = mInput;
 
-        for (int c = in.read(); c != 0; c = in.read()) {
+        for (int c = readUnsignedByte(); c != 0; c = readUnsignedByte()) {
             s.append((char) c);
         }
         
         return s.toString();
     }
 
-    private long readId() throws IOException {
-        switch (mIdSize) {
-            case 1: return mInput.readUnsignedByte();
-            case 2: return mInput.readUnsignedShort();
-            case 4: return ((long) mInput.readInt()) & 0x00000000ffffffffL;
-            case 8: return mInput.readLong();
-        }
-        
-        throw new IllegalArgumentException("ID Length must be 1, 2, 4, or 8");
+    private int readUnsignedByte() {
+        return mInput.getUnsignedByte(mPosition++);
     }
 
-    private String readUTF8(int length) throws IOException {
-        byte[] b = new byte[length];
-        
-        mInput.read(b);
+    private int readByte() {
+        return mInput.getByte(mPosition++);
+    }
+
+    private int readUnsignedShort() {
+        int value = mInput.getUnsignedShort(mPosition);
+
+        mPosition += 2;
+        return value;
+    }
+
+    private int readInt() {
+        int value = mInput.getInt(mPosition);
+
+        mPosition += 4;
+        return value;
+    }
+
+    private long readLong() {
+        long value = mInput.getLong(mPosition);
+
+        mPosition += 8;
+        return value;
+    }
+
+    private long readId() throws IOException {
+        long value = mInput.getId(mPosition);
+
+        mPosition += mIdSize;
+        return value;
+    }
 
-        return new String(b, "utf-8");
+    private void readFully(byte[] b, int start, int length) {
+        mInput.get(mPosition, b, start, length);
+        mPosition += length;
     }
 
     private void loadString(int length) throws IOException {
         long id = readId();
-        String string = readUTF8(length);
-        
-        mStrings.put(id, string);
+
+        if (mStringCount == mStringOffsets.length) {
+            int capacity = mStringCount * 2;
+            long[] offsets = new long[capacity];
+            int[] lengths = new int[capacity];
+
+            System.arraycopy(mStringOffsets, 0, offsets, 0, mStringCount);
+            System.arraycopy(mStringLengths, 0, lengths, 0, mStringCount);
+            mStringOffsets = offsets;
+            mStringLengths = lengths;
+        }
+
+        mStringOffsets[mStringCount] = mPosition;
+        mStringLengths[mStringCount] = length;
+        mStringIndex.put(id, mStringCount++);
+
+        skipFully(length);
+    }
+
+    /*
+     * Segment scans look strings up on several threads at once, so the
+     * cache is locked.
+     */
+    private String getString(long id) throws IOException {
+        synchronized (mStrings) {
+            String string = mStrings.get(id);
+
+            if (string == null) {
+                int index = mStringIndex.get(id);
+
+                if (index == LongIntMap.NOT_FOUND) {
+                    return null;
+                }
+
+                byte[] b = new byte[mStringLengths[index]];
+
+                mInput.get(mStringOffsets[index], b, 0, b.length);
+                string = new String(b, "utf-8");
+                mStrings.put(id, string);
+            }
+
+            return string;
+        }
     }
 
     private void loadClass() throws IOException {
-        DataInputStream in = mInput;
-        int serial = in.readInt();
+        int serial = readInt();
         long id = readId();
-        int stackTrace = in.readInt();              //  unused
-        String name = mStrings.get(readId());
+        int stackTrace = readInt();              //  unused
+        String name = getString(readId());
         
         mClassNames.put(id, name);
     }
 
     private void loadStackFrame() throws IOException {
         long id = readId();
-        String methodName = mStrings.get(readId());
-        String methodSignature = mStrings.get(readId());
-        String sourceFile = mStrings.get(readId());
-        int serial = mInput.readInt();
-        int lineNumber = mInput.readInt();
+        String methodName = getString(readId());
+        String methodSignature = getString(readId());
+        String sourceFile = getString(readId());
+        int serial = readInt();
+        int lineNumber = readInt();
         
         StackFrame frame = new StackFrame(id, methodName, methodSignature, 
             sourceFile, serial, lineNumber);
@@ -219,9 +359,9 @@ public class HprofParser
     }
 
     private void loadStackTrace() throws IOException {
-        int serialNumber = mInput.readInt();
-        int threadSerialNumber = mInput.readInt();
-        final int numFrames = mInput.readInt();
+        int serialNumber = readInt();
+        int threadSerialNumber = readInt();
+        final int numFrames = readInt();
         StackFrame[] frames = new StackFrame[numFrames];
         
         for (int i = 0; i < numFrames; i++) {
@@ -234,125 +374,228 @@ public class HprofParser
         mState.addStackTrace(trace);
     }
 
-    private void loadHeapDump(int length) throws IOException {
-        DataInputStream in = mInput;
-        
-        while (length > 0) {
-            int tag = in.readUnsignedByte();
-            length--;
+    /*
+     * Scan the heap dump segments in parallel, then load them one at a
+     * time in the order they are in the dump, so that the objects get the
+     * same indices however the scans ran.  Each segment starts out in the
+     * default heap.
+     */
+    private void loadHeapDumps(ArrayList<Long> offsets,
+            ArrayList<Integer> lengths) throws Exception {
+        ExecutorService executor =
+            Executors.newFixedThreadPool(mThreadCount);
+        ArrayList<Future<Segment>> segments = new ArrayList<Future<Segment>>();
+        final int N = offsets.size();
+
+        try {
+            for (int i = 0; i < N; i++) {
+                final HprofParser scanner =
+                    new HprofParser(this, offsets.get(i));
+                final int length = lengths.get(i);
+
+                segments.add(executor.submit(new Callable<Segment>() {
+                    public Segment call() throws IOException {
+                        return scanner.scanHeapDump(length);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < N; i++) {
+                loadHeapDump(State.getResult(segments.get(i)));
+                mState.setToDefaultHeap();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Find the sub-records of the heap dump segment of the given length
+     * that starts at the current position.  Nothing is added to the State.
+     */
+    private Segment scanHeapDump(int length) throws IOException {
+        Segment segment = new Segment();
+        long end = mPosition + length;
+
+        while (mPosition < end) {
+            int tag = readUnsignedByte();
+
+            segment.add(mPosition);
+            
+            switch (tag) {
+                case ROOT_CLASS_DUMP:
+                    segment.mClasses.add(loadClassDump());
+                    break;
+                    
+                case ROOT_INSTANCE_DUMP:
+                    skipInstanceDump();
+                    break;
+                    
+                case ROOT_OBJECT_ARRAY_DUMP:
+                    skipObjectArrayDump();
+                    break;
+                    
+                case ROOT_PRIMITIVE_ARRAY_DUMP:
+                    skipPrimitiveArrayDump();
+                    break;
+
+                case ROOT_PRIMITIVE_ARRAY_NODATA:
+                    throw new IllegalArgumentException(
+                        "Don't know how to load a nodata array");
+
+                default:
+                    skipFully(getRootSize(tag));
+            }
+        }
+
+        return segment;
+    }
+
+    /*
+     * The size of each fixed-size sub-record, after its tag.
+     */
+    private int getRootSize(int tag) {
+        switch (tag) {
+            case ROOT_UNKNOWN:
+            case ROOT_STICKY_CLASS:
+            case ROOT_MONITOR_USED:
+            case ROOT_INTERNED_STRING:
+            case ROOT_FINALIZING:
+            case ROOT_DEBUGGER:
+            case ROOT_REFERENCE_CLEANUP:
+            case ROOT_VM_INTERNAL:
+            case ROOT_UNREACHABLE:
+                return mIdSize;
+
+            case ROOT_JNI_GLOBAL:
+                return mIdSize + mIdSize;
+
+            case ROOT_NATIVE_STACK:
+            case ROOT_THREAD_BLOCK:
+            case ROOT_HEAP_DUMP_INFO:
+                return mIdSize + 4;
+
+            case ROOT_JNI_LOCAL:
+            case ROOT_JAVA_FRAME:
+            case ROOT_THREAD_OBJECT:
+            case ROOT_JNI_MONITOR:
+                return mIdSize + 4 + 4;
+        }
+
+        throw new IllegalArgumentException(
+            "loadHeapDump loop with unknown tag " + tag 
+            + " with " + (mInput.size() - mPosition)
+            + " bytes possibly remaining");
+    }
+
+    /*
+     * Add the sub-records of a scanned segment to the State, in order.
+     */
+    private void loadHeapDump(Segment segment) throws IOException {
+        final int N = segment.mCount;
+        int nextClass = 0;
+
+        for (int i = 0; i < N; i++) {
+            long offset = segment.mOffsets[i];
+            int tag = mInput.getUnsignedByte(offset - 1);
+
+            mPosition = offset;
             
             switch (tag) {
                 case ROOT_UNKNOWN:
-                    length -= loadBasicObj(RootType.UNKNOWN);
+                    loadBasicObj(RootType.UNKNOWN);
                     break;
                     
                 case ROOT_JNI_GLOBAL:
-                    length -= loadBasicObj(RootType.NATIVE_STATIC);
-                    readId();   //  ignored
-                    length -= mIdSize;
+                    loadBasicObj(RootType.NATIVE_STATIC);
                     break;
                     
                 case ROOT_JNI_LOCAL:
-                    length -= loadJniLocal();
+                    loadJniLocal();
                     break;
                     
                 case ROOT_JAVA_FRAME:
-                    length -= loadJavaFrame();
+                    loadJavaFrame();
                     break;
                     
                 case ROOT_NATIVE_STACK:
-                    length -= loadNativeStack();
+                    loadNativeStack();
                     break;
                     
                 case ROOT_STICKY_CLASS:
-                    length -= loadBasicObj(RootType.SYSTEM_CLASS);
+                    loadBasicObj(RootType.SYSTEM_CLASS);
                     break;
                     
                 case ROOT_THREAD_BLOCK:
-                    length -= loadThreadBlock();
+                    loadThreadBlock();
                     break;
                     
                 case ROOT_MONITOR_USED:
-                    length -= loadBasicObj(RootType.BUSY_MONITOR);
+                    loadBasicObj(RootType.BUSY_MONITOR);
                     break;
                     
                 case ROOT_THREAD_OBJECT:
-                    length -= loadThreadObject();
+                    loadThreadObject();
                     break;
                     
                 case ROOT_CLASS_DUMP:
-                    length -= loadClassDump();
+                    ClassObj theClass = segment.mClasses.get(nextClass++);
+
+                    readId();
+                    theClass.mStack = mState.getStackTrace(readInt());
+                    theClass.setHeap(mState.mCurrentHeap);
+                    mState.addClass(theClass.mId, offset, theClass);
                     break;
                     
                 case ROOT_INSTANCE_DUMP:
-                    length -= loadInstanceDump();
-                    break;
-                    
                 case ROOT_OBJECT_ARRAY_DUMP:
-                    length -= loadObjectArrayDump();
-                    break;
-                    
                 case ROOT_PRIMITIVE_ARRAY_DUMP:
-                    length -= loadPrimitiveArrayDump();
+                    mState.addInstance(readId(), offset);
                     break;
-
-                case ROOT_PRIMITIVE_ARRAY_NODATA:
-                    System.err.println("+--- PRIMITIVE ARRAY NODATA DUMP");
-                    length -= loadPrimitiveArrayDump();
-
-                    throw new IllegalArgumentException(
-                        "Don't know how to load a nodata array");
                 
                 case ROOT_HEAP_DUMP_INFO:
-                    int heapId = mInput.readInt();
+                    int heapId = readInt();
                     long heapNameId = readId();
-                    String heapName = mStrings.get(heapNameId);
+                    String heapName = getString(heapNameId);
                     
                     mState.setHeapTo(heapId, heapName);
-                    length -= 4 + mIdSize;
                     break;
                 
                 case ROOT_INTERNED_STRING:
-                    length -= loadBasicObj(RootType.INTERNED_STRING);
+                    loadBasicObj(RootType.INTERNED_STRING);
                     break;
                     
                 case ROOT_FINALIZING:
-                    length -= loadBasicObj(RootType.FINALIZING);
+                    loadBasicObj(RootType.FINALIZING);
                     break;
                     
                 case ROOT_DEBUGGER:
-                    length -= loadBasicObj(RootType.DEBUGGER);
+                    loadBasicObj(RootType.DEBUGGER);
                     break;
                     
                 case ROOT_REFERENCE_CLEANUP:
-                    length -= loadBasicObj(RootType.REFERENCE_CLEANUP);
+                    loadBasicObj(RootType.REFERENCE_CLEANUP);
                     break;
                     
                 case ROOT_VM_INTERNAL:
-                    length -= loadBasicObj(RootType.VM_INTERNAL);
+                    loadBasicObj(RootType.VM_INTERNAL);
                     break;
                     
                 case ROOT_JNI_MONITOR:
-                    length -= loadJniMonitor();
+                    loadJniMonitor();
                     break;
                     
                 case ROOT_UNREACHABLE:
-                    length -= loadBasicObj(RootType.UNREACHABLE);
+                    loadBasicObj(RootType.UNREACHABLE);
                     break;
-                    
-                default:
-                    throw new IllegalArgumentException(
-                        "loadHeapDump loop with unknown tag " + tag 
-                        + " with " + mInput.available() 
-                        + " bytes possibly remaining");
             }
         }
     }
     
-    private int loadJniLocal() throws IOException {
+    private void loadJniLocal() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
-        int stackFrameNumber = mInput.readInt();
+        int threadSerialNumber = readInt();
+        int stackFrameNumber = readInt();
         ThreadObj thread = mState.getThread(threadSerialNumber);
         StackTrace trace = mState.getStackTraceAtDepth(thread.mStackTrace, 
             stackFrameNumber);
@@ -361,14 +604,12 @@ public class HprofParser
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize + 4 + 4;
     }
 
-    private int loadJavaFrame() throws IOException {
+    private void loadJavaFrame() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
-        int stackFrameNumber = mInput.readInt();
+        int threadSerialNumber = readInt();
+        int stackFrameNumber = readInt();
         ThreadObj thread = mState.getThread(threadSerialNumber);
         StackTrace trace = mState.getStackTraceAtDepth(thread.mStackTrace, 
             stackFrameNumber);
@@ -377,13 +618,11 @@ public class HprofParser
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize + 4 + 4;
     }
     
-    private int loadNativeStack() throws IOException {
+    private void loadNativeStack() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
+        int threadSerialNumber = readInt();
         ThreadObj thread = mState.getThread(threadSerialNumber);
         StackTrace trace = mState.getStackTrace(thread.mStackTrace);
         RootObj root = new RootObj(RootType.NATIVE_STACK, id, 
@@ -391,23 +630,19 @@ public class HprofParser
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize + 4;
     }
 
-    private int loadBasicObj(RootType type) throws IOException {
+    private void loadBasicObj(RootType type) throws IOException {
         long id = readId();
         RootObj root = new RootObj(type, id);
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize;
     }
 
-    private int loadThreadBlock() throws IOException {
+    private void loadThreadBlock() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
+        int threadSerialNumber = readInt();
         ThreadObj thread = mState.getThread(threadSerialNumber);
         StackTrace stack = mState.getStackTrace(thread.mStackTrace);
         RootObj root = new RootObj(RootType.THREAD_BLOCK, id, 
@@ -415,49 +650,42 @@ public class HprofParser
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize + 4;
     }
 
-    private int loadThreadObject() throws IOException {
+    private void loadThreadObject() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
-        int stackSerialNumber = mInput.readInt();
+        int threadSerialNumber = readInt();
+        int stackSerialNumber = readInt();
         ThreadObj thread = new ThreadObj(id, stackSerialNumber);
         
         mState.addThread(thread, threadSerialNumber);
-        
-        return mIdSize + 4 + 4;
     }
 
-    private int loadClassDump() throws IOException {
-        int bytesRead = 0;
-        DataInputStream in = mInput;
+    /*
+     * Decode a class dump.  The class's stack and heap are set when the
+     * segment is loaded.
+     */
+    private ClassObj loadClassDump() throws IOException {
         long id = readId();
-        int stackSerialNumber = in.readInt();
-        StackTrace stack = mState.getStackTrace(stackSerialNumber);
+        int stackSerialNumber = readInt();
         long superClassId = readId();
         long classLoaderId = readId();
         long signersId = readId();
         long protectionDomainId = readId();
         long reserved1 = readId();
         long reserved2 = readId();
-        int instanceSize = in.readInt();
-
-        bytesRead = (7 * mIdSize) + 4 + 4;
+        int instanceSize = readInt();
 
         //  Skip over the constant pool
-        int numEntries = in.readUnsignedShort();
-        bytesRead += 2;
+        int numEntries = readUnsignedShort();
         
         for (int i = 0; i < numEntries; i++) {
-            in.readUnsignedShort();
-            bytesRead += 2 + skipValue();
+            readUnsignedShort();
+            skipValue();
         }
 
         //  Static fields
-        numEntries = in.readUnsignedShort();
-        bytesRead += 2;
+        numEntries = readUnsignedShort();
 
         String[] staticFieldNames = new String[numEntries];
         int[] staticFieldTypes = new int[numEntries];
@@ -465,36 +693,31 @@ public class HprofParser
         byte[] buffer = mFieldBuffer;
         
         for (int i = 0; i < numEntries; i++) {
-            staticFieldNames[i] = mStrings.get(readId());
+            staticFieldNames[i] = getString(readId());
 
-            int fieldType = in.readByte();
+            int fieldType = readByte();
             int fieldSize = Types.getTypeSize(fieldType);
             staticFieldTypes[i] = fieldType;
 
-            in.readFully(buffer, 0, fieldSize);
+            readFully(buffer, 0, fieldSize);
             staticFieldValues.write(buffer, 0, fieldSize);
-
-            bytesRead += mIdSize + 1 + fieldSize;
         }
         
         //  Instance fields
-        numEntries = in.readUnsignedShort();
-        bytesRead += 2;
+        numEntries = readUnsignedShort();
         
         String[] names = new String[numEntries];
         int[] types = new int[numEntries];
         
         for (int i = 0; i < numEntries; i++) {
             long fieldName = readId();
-            int type = in.readUnsignedByte();
+            int type = readUnsignedByte();
 
-            names[i] = mStrings.get(fieldName);
+            names[i] = getString(fieldName);
             types[i] = type;
-
-            bytesRead += mIdSize + 1;
         }
         
-        ClassObj theClass = new ClassObj(id, stack, mClassNames.get(id));
+        ClassObj theClass = new ClassObj(id, null, mClassNames.get(id));
 
         theClass.setStaticFieldNames(staticFieldNames);
         theClass.setStaticFieldTypes(staticFieldTypes);
@@ -505,75 +728,45 @@ public class HprofParser
         theClass.setFieldTypes(types);
         theClass.setSize(instanceSize);
         
-        theClass.setHeap(mState.mCurrentHeap);
-
-        mState.addClass(id, theClass);
-        
-        return bytesRead;
+        return theClass;
     }
 
-    private int loadInstanceDump() throws IOException {
+    /*
+     * Instances and arrays are only skipped over here; State.getObject
+     * decodes them from their records when they are asked for.
+     */
+    private void skipInstanceDump() throws IOException {
         long id = readId();
-        int stackId = mInput.readInt();
-        StackTrace stack = mState.getStackTrace(stackId);
+        int stackId = readInt();
         long classId = readId();
-        int remaining = mInput.readInt();
-        ClassInstance instance = new ClassInstance(id, stack, classId);
+        int remaining = readInt();
 
-        instance.loadFieldData(mInput, remaining);
-        instance.setHeap(mState.mCurrentHeap);
-        mState.addInstance(id, instance);
-        
-        return mIdSize + 4 + mIdSize + 4 + remaining;
+        skipFully(remaining);
     }
 
-    private int loadObjectArrayDump() throws IOException {
+    private void skipObjectArrayDump() throws IOException {
         long id = readId();
-        int stackId = mInput.readInt();
-        StackTrace stack = mState.getStackTrace(stackId);
-        int numElements = mInput.readInt();
+        int stackId = readInt();
+        int numElements = readInt();
         long classId = readId();
-        int totalBytes = numElements * mIdSize;
-        byte[] data = new byte[totalBytes];
-        String className = mClassNames.get(classId);
-        
-        mInput.readFully(data);
-
-        ArrayInstance array = new ArrayInstance(id, stack, Types.OBJECT, 
-            numElements, data);
         
-        array.mClassId = classId;
-        array.setHeap(mState.mCurrentHeap);
-        mState.addInstance(id, array);
-
-        return mIdSize + 4 + 4 + mIdSize + totalBytes;
+        skipFully((long) numElements * mIdSize);
     }
     
-    private int loadPrimitiveArrayDump() throws IOException {
+    private void skipPrimitiveArrayDump() throws IOException {
         long id = readId();
-        int stackId = mInput.readInt();
-        StackTrace stack = mState.getStackTrace(stackId);
-        int numElements = mInput.readInt();
-        int type = mInput.readUnsignedByte();
+        int stackId = readInt();
+        int numElements = readInt();
+        int type = readUnsignedByte();
         int size = Types.getTypeSize(type);
-        int totalBytes = numElements * size;
-        byte[] data = new byte[totalBytes];
         
-        mInput.readFully(data);
-
-        ArrayInstance array = new ArrayInstance(id, stack, type, numElements, 
-            data);
-        
-        array.setHeap(mState.mCurrentHeap);
-        mState.addInstance(id, array);
-        
-        return mIdSize + 4 + 4 + 1 + totalBytes;
+        skipFully((long) numElements * size);
     }
 
-    private int loadJniMonitor() throws IOException {
+    private void loadJniMonitor() throws IOException {
         long id = readId();
-        int threadSerialNumber = mInput.readInt();
-        int stackDepth = mInput.readInt();
+        int threadSerialNumber = readInt();
+        int stackDepth = readInt();
         ThreadObj thread = mState.getThread(threadSerialNumber);
         StackTrace trace = mState.getStackTraceAtDepth(thread.mStackTrace, 
             stackDepth);
@@ -582,30 +775,15 @@ public class HprofParser
         
         root.setHeap(mState.mCurrentHeap);
         mState.addRoot(root);
-        
-        return mIdSize + 4 + 4;
     }
 
-    private int skipValue() throws IOException {
-        int type = mInput.readUnsignedByte();
-        int size = Types.getTypeSize(type);
+    private void skipValue() throws IOException {
+        int type = readUnsignedByte();
         
-        skipFully(size);
-
-        return size + 1;
+        skipFully(Types.getTypeSize(type));
     }
 
-    /*
-     * BufferedInputStream will not skip(int) the entire requested number
-     * of bytes if it extends past the current buffer boundary.  So, this
-     * routine is needed to actually skip over the requested number of bytes
-     * using as many iterations as needed.
-     */
     private void skipFully(long numBytes) throws IOException {
-        while (numBytes > 0) {
-            long skipped = mInput.skip(numBytes);
-            
-            numBytes -= skipped;
-        }
+        mPosition += numBytes;
     }
 }
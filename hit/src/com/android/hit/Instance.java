@@ -35,11 +35,18 @@ public abstract class Instance {
     //  The size of this object
     int mSize;
 
+    //  Index of this object in the State's object table, or -1 if none
+    int mObjectIndex = -1;
+
     public interface Filter {
         public boolean accept(Instance instance);
     }
 
-    //  List of all objects that hold a live reference to this object
+    /*
+     * List of all objects that hold a live reference to this object, for
+     * objects that aren't in the State's object table; the State keeps the
+     * parents of the ones that are.
+     */
     private ArrayList<Instance> mParents;
     
     /*
@@ -92,6 +99,16 @@ public abstract class Instance {
     
     //  Add to the list of objects that have a hard reference to this Instance
     public void addParent(Instance parent) {
+        if (mObjectIndex >= 0) {
+            if (parent.mObjectIndex < 0) {
+                throw new IllegalArgumentException(
+                    "Parent isn't in the object table: " + parent);
+            }
+
+            mHeap.mState.addParent(mObjectIndex, parent.mObjectIndex);
+            return;
+        }
+
         if (mParents == null) {
             mParents = new ArrayList<Instance>();
         }
@@ -100,6 +117,10 @@ public abstract class Instance {
     }
     
     public ArrayList<Instance> getParents() {
+        if (mObjectIndex >= 0) {
+            return mHeap.mState.getParents(mObjectIndex);
+        }
+
         if (mParents == null) {
             mParents = new ArrayList<Instance>();
         }
@@ -107,6 +128,41 @@ public abstract class Instance {
         return mParents;
     }
 
+    /*
+     * The size of this object and of every object that can only be reached
+     * through it, which would be freed along with it.  The first call on
+     * any object computes the dominator tree of the whole State.  Objects
+     * that aren't in the State's object table, such as roots, retain
+     * nothing.
+     */
+    public final long getRetainedSize() {
+        if (mObjectIndex < 0) {
+            return 0;
+        }
+
+        return mHeap.mState.getDominators().getRetainedSize(mObjectIndex);
+    }
+
+    /*
+     * The object that every path from the roots to this one goes through,
+     * or null if only the roots themselves do, or if this object can't be
+     * reached from them.
+     */
+    public final Instance getImmediateDominator() {
+        if (mObjectIndex < 0) {
+            return null;
+        }
+
+        State state = mHeap.mState;
+        int dominator = state.getDominators().getDominator(mObjectIndex);
+
+        if (dominator < 0) {
+            return null;
+        }
+
+        return state.getObject(dominator);
+    }
+
     /*
      * If this object has a reference to the object identified by id, return
      * a String describing the reference in detail.
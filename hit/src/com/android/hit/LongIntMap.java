@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hit;
+
+/*
+ * Map from long keys to non-negative int values, kept in two primitive
+ * arrays with open addressing and linear probing, so that mapping the ids
+ * of millions of objects doesn't cost an entry, a Long and an Integer
+ * apiece.
+ */
+public final class LongIntMap {
+    //  Value returned for keys that aren't in the map
+    public static final int NOT_FOUND = -1;
+
+    //  Largest fraction of the slots used before the table grows
+    private static final float LOAD_FACTOR = 0.6f;
+
+    //  Key that marks an empty slot; mapped through mHasZero instead
+    private static final long EMPTY = 0;
+
+    long[] mKeys;
+    int[] mValues;
+    int mSize;
+    int mGrowAt;
+
+    boolean mHasZero;
+    int mZeroValue;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = 16;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+    }
+
+    public final int size() {
+        return mSize + (mHasZero ? 1 : 0);
+    }
+
+    public final int get(long key) {
+        if (key == EMPTY) {
+            return mHasZero ? mZeroValue : NOT_FOUND;
+        }
+
+        long[] keys = mKeys;
+        int mask = keys.length - 1;
+
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = keys[i];
+
+            if (k == key) {
+                return mValues[i];
+            } else if (k == EMPTY) {
+                return NOT_FOUND;
+            }
+        }
+    }
+
+    public final void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0");
+        }
+
+        if (key == EMPTY) {
+            mHasZero = true;
+            mZeroValue = value;
+            return;
+        }
+
+        long[] keys = mKeys;
+        int mask = keys.length - 1;
+        int i;
+
+        for (i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                mValues[i] = value;
+                return;
+            }
+        }
+
+        keys[i] = key;
+        mValues[i] = value;
+
+        if (++mSize >= mGrowAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mGrowAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        final int N = oldKeys.length;
+
+        allocate(capacity);
+
+        long[] keys = mKeys;
+        int[] values = mValues;
+        int mask = capacity - 1;
+
+        for (int j = 0; j < N; j++) {
+            long key = oldKeys[j];
+
+            if (key != EMPTY) {
+                int i = hash(key) & mask;
+
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /*
+     * Object ids are addresses, so their low bits are mostly zero; mix
+     * all of the bits down before masking.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+
+        return (int) key;
+    }
+}
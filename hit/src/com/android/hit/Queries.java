@@ -17,6 +17,7 @@
 package com.android.hit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -40,6 +41,7 @@ public class Queries {
      * object                   findObject
      * showRoots                getRoots
      * newInstances             newInstances
+     * (none)                   topRetainers
      *
      * reachableFrom            make a call to findObject to get the target
      *                          parent object, this will give you an Instance.
@@ -48,11 +50,8 @@ public class Queries {
      *
      * rootsTo                  make a call to findObject on the leaf node
      *                          in question, this will give you an Instance.
-     *                          Instances have an ArrayList of all of the
-     *                          parent objects that refer to it.  You can
-     *                          follow those parent links until you hit an
-     *                          object whose parent is null or a ThreadObj.
-     *                          You've not successfully traced the paths to
+     *                          Then call pathsToRoots with it to get the
+     *                          shortest chains of references to it from
      *                          the roots.
      */
 
@@ -140,9 +139,10 @@ public class Queries {
                 + baseClassName);
          }
          
-         Instance[] instances = new Instance[theClass.mInstances.size()];
+         ArrayList<Instance> instanceList = theClass.getInstances();
+         Instance[] instances = new Instance[instanceList.size()];
          
-         return theClass.mInstances.toArray(instances);
+         return instanceList.toArray(instances);
      }
 
     /*
@@ -165,7 +165,7 @@ public class Queries {
         ArrayList<Instance> instanceList = new ArrayList<Instance>();
         
         for (ClassObj someClass: classList) {
-            instanceList.addAll(someClass.mInstances);
+            instanceList.addAll(someClass.getInstances());
         }
         
         Instance[] result = new Instance[instanceList.size()];
@@ -206,6 +206,170 @@ public class Queries {
         return result;
     }
 
+    /*
+     * Return the count objects that retain the most memory, most first.
+     * This computes the dominator tree of the whole state the first time
+     * it is called.
+     */
+    public static Instance[] topRetainers(State state, int count) {
+        int[] indices = state.getDominators().getTopRetainers(count);
+        Instance[] result = new Instance[indices.length];
+
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = state.getObject(indices[i]);
+        }
+
+        return result;
+    }
+
+    /*
+     * Return the shortest chains of references that keep the given object
+     * alive, at most maxPaths of them, shortest first.  Each chain is a
+     * RootObj, then each object on the way from it down to the target.
+     * There is one chain for each of the nearest roots; no chain goes on
+     * past an object that a root refers to.  If excludeWeak is set, the
+     * referent fields of java.lang.ref.Reference objects, which hold weak,
+     * soft and phantom references, aren't followed.
+     *
+     * This is a breadth first search from the target back along the
+     * State's parent index.  It takes two ints per object in the State.
+     */
+    public static Instance[][] pathsToRoots(State state, Instance target,
+            int maxPaths, boolean excludeWeak) {
+        ArrayList<Instance[]> result = new ArrayList<Instance[]>();
+        int index = target.mObjectIndex;
+
+        if ((index < 0) || (state.mParentStarts == null)) {
+            return new Instance[0][];
+        }
+
+        //  The roots that refer to each object, chained through rootNext
+        ArrayList<RootObj> roots = new ArrayList<RootObj>();
+        LongIntMap firstRoot = new LongIntMap();
+
+        for (Heap heap: state.mHeaps.values()) {
+            roots.addAll(heap.mRoots);
+        }
+
+        int[] rootNext = new int[roots.size()];
+
+        for (int i = roots.size() - 1; i >= 0; i--) {
+            int rooted = state.mObjectIndex.get(roots.get(i).mId);
+
+            if (rooted != LongIntMap.NOT_FOUND) {
+                rootNext[i] = firstRoot.get(rooted);
+                firstRoot.put(rooted, i);
+            }
+        }
+
+        //  The class objects of the subclasses of java.lang.ref.Reference
+        LongIntMap referenceClasses = new LongIntMap();
+
+        if (excludeWeak) {
+            for (Heap heap: state.mHeaps.values()) {
+                for (ClassObj theClass: heap.mClassesById.values()) {
+                    if (theClass.isReferenceClass()) {
+                        referenceClasses.put(theClass.mObjectIndex, 1);
+                    }
+                }
+            }
+        }
+
+        /*
+         * next holds the object one step nearer the target, for each object
+         * that the search has reached, and -1 for the rest.
+         */
+        final int N = state.mObjectCount;
+        int[] starts = state.mParentStarts;
+        int[] parents = state.mParentIndices;
+        int[] next = new int[N];
+        int[] queue = new int[N];
+        int head = 0;
+        int tail = 0;
+
+        Arrays.fill(next, -1);
+        next[index] = index;
+        queue[tail++] = index;
+
+        while ((head < tail) && (result.size() < maxPaths)) {
+            int v = queue[head++];
+            int root = firstRoot.get(v);
+
+            if (root != LongIntMap.NOT_FOUND) {
+                for (; (root != -1) && (result.size() < maxPaths);
+                        root = rootNext[root]) {
+                    result.add(getPath(state, roots.get(root), v, next));
+                }
+
+                continue;
+            }
+
+            for (int j = starts[v]; j < starts[v + 1]; j++) {
+                int p = parents[j];
+
+                if ((next[p] != -1) || (excludeWeak
+                        && isWeakReference(state, p, v, referenceClasses))) {
+                    continue;
+                }
+
+                next[p] = v;
+                queue[tail++] = p;
+            }
+        }
+
+        Instance[][] resultArray = new Instance[result.size()][];
+
+        return result.toArray(resultArray);
+    }
+
+    private static Instance[] getPath(State state, RootObj root, int first,
+            int[] next) {
+        ArrayList<Instance> path = new ArrayList<Instance>();
+
+        path.add(root);
+
+        for (int v = first; ; v = next[v]) {
+            path.add(state.getObject(v));
+
+            if (next[v] == v) {
+                break;
+            }
+        }
+
+        Instance[] result = new Instance[path.size()];
+
+        return path.toArray(result);
+    }
+
+    /*
+     * Whether the only references from the object with index parent to the
+     * one with index child are the referent of a java.lang.ref.Reference.
+     */
+    private static boolean isWeakReference(State state, int parent, int child,
+            LongIntMap referenceClasses) {
+        HprofBuffer buffer = state.mBuffer;
+        long offset = state.mObjectOffsets[parent];
+
+        if (buffer.getUnsignedByte(offset - 1)
+                != HprofParser.ROOT_INSTANCE_DUMP) {
+            return false;
+        }
+
+        //  The record is the id, stack serial number and class id
+        long classId = buffer.getId(offset + buffer.getIdSize() + 4);
+        int classIndex = state.mObjectIndex.get(classId);
+
+        if ((classIndex == LongIntMap.NOT_FOUND)
+                || (referenceClasses.get(classIndex) == LongIntMap.NOT_FOUND)) {
+            return false;
+        }
+
+        ClassInstance instance = (ClassInstance) state.getObject(parent);
+        long childId = buffer.getId(state.mObjectOffsets[child]);
+
+        return !instance.hasStrongReferenceTo(childId);
+    }
+
     public static final Instance[] newInstances(State older, State newer) {
         ArrayList<Instance> resultList = new ArrayList<Instance>();
         
@@ -216,7 +380,7 @@ public class Queries {
                 continue;
             }
             
-            for (Instance instance: newHeap.mInstances.values()) {
+            for (Instance instance: newHeap.getInstances()) {
                 Instance oldInstance = oldHeap.getInstance(instance.mId);
                 
                 /*
@@ -17,7 +17,14 @@
 package com.android.hit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /*
  * State is a snapshot of all of the heaps, and related meta-data, for
@@ -27,14 +34,84 @@ import java.util.HashMap;
  * is being referenced.
  */
 public class State {
+    //  Number of objects whose references one task resolves at a time
+    private static final int RESOLVE_CHUNK = 16384;
+
     HashMap<Integer, Heap> mHeaps;
     Heap mCurrentHeap;
 
+    //  Heaps in order of creation, by their mOrdinal
+    ArrayList<Heap> mHeapList = new ArrayList<Heap>();
+
+    //  The dump that the objects below are records in
+    HprofBuffer mBuffer;
+
+    /*
+     * Every instance and class in the dump, by a dense index.  Rather than
+     * keeping an Instance for each, only the offset of its record (just
+     * past the tag) and its heap are kept, and instances are decoded from
+     * mBuffer each time they are asked for.
+     */
+    LongIntMap mObjectIndex = new LongIntMap();
+    long[] mObjectOffsets = new long[1024];
+    byte[] mObjectHeaps = new byte[1024];
+    int mObjectCount;
+
+    /*
+     * The indices of the objects that hold a reference to each object, in
+     * compressed sparse row form: the parents of object i are the entries
+     * of mParentIndices from mParentStarts[i] up to mParentStarts[i + 1],
+     * in index order, with one entry per reference.  Built once, at the
+     * end of resolveReferences, so it costs four bytes per reference and
+     * per object.
+     */
+    int[] mParentStarts;
+    int[] mParentIndices;
+
+    /*
+     * While references are being resolved, each thread notes the ones it
+     * finds in its own list, which mReferences hands out and mReferenceLists
+     * keeps track of.
+     */
+    private ThreadLocal<ReferenceList> mReferences;
+    private ArrayList<ReferenceList> mReferenceLists;
+
+    //  Number of threads to resolve references with
+    int mThreadCount = Runtime.getRuntime().availableProcessors();
+
+    //  Made by getDominators when it is first called
+    private Dominators mDominators;
+
     public State() {
         mHeaps = new HashMap<Integer, Heap>();
         setToDefaultHeap();
     }
 
+    /*
+     * References found by one thread, each packed into a long as the index
+     * of the referent in the high half and of its parent in the low half.
+     */
+    private static class ReferenceList {
+        long[] mReferences = new long[1024];
+        int mCount;
+
+        final void add(int index, int parentIndex) {
+            if (mCount == mReferences.length) {
+                long[] grown = new long[mCount * 2];
+
+                System.arraycopy(mReferences, 0, grown, 0, mCount);
+                mReferences = grown;
+            }
+
+            mReferences[mCount++] =
+                ((long) index << 32) | (parentIndex & 0xffffffffL);
+        }
+    }
+
+    public final void setThreadCount(int count) {
+        mThreadCount = Math.max(count, 1);
+    }
+
     public Heap setToDefaultHeap() {
         return setHeapTo(0, "default");
     }
@@ -45,7 +122,9 @@ public class State {
         if (heap == null) {
             heap = new Heap(name);
             heap.mState = this;
+            heap.mOrdinal = mHeapList.size();
             mHeaps.put(id, heap);
+            mHeapList.add(heap);
         }
         
         mCurrentHeap = heap;
@@ -100,25 +179,146 @@ public class State {
         return mCurrentHeap.getThread(serialNumber);
     }
     
-    public final void addInstance(long id, Instance instance) {
-        mCurrentHeap.addInstance(id, instance);
+    /*
+     * Add the instance whose record starts at the given offset of the
+     * dump, just past its tag, to the current heap.
+     */
+    public final void addInstance(long id, long offset) {
+        addObject(id, offset);
     }
-    
-    public final void addClass(long id, ClassObj theClass) {
+
+    public final void addClass(long id, long offset, ClassObj theClass) {
         mCurrentHeap.addClass(id, theClass);
+        theClass.mObjectIndex = addObject(id, offset);
     }
 
-    public final Instance findReference(long id) {
-        for (Heap heap: mHeaps.values()) {
-            Instance instance = heap.getInstance(id);
-            
-            if (instance != null) {
-                return instance;
+    private int addObject(long id, long offset) {
+        int index = mObjectCount;
+
+        if (index == mObjectOffsets.length) {
+            int capacity = index * 2;
+            long[] offsets = new long[capacity];
+            byte[] heaps = new byte[capacity];
+
+            System.arraycopy(mObjectOffsets, 0, offsets, 0, index);
+            System.arraycopy(mObjectHeaps, 0, heaps, 0, index);
+            mObjectOffsets = offsets;
+            mObjectHeaps = heaps;
+        }
+
+        mObjectOffsets[index] = offset;
+        mObjectHeaps[index] = (byte) mCurrentHeap.mOrdinal;
+        mObjectIndex.put(id, index);
+        mObjectCount = index + 1;
+
+        return index;
+    }
+
+    public final int getObjectCount() {
+        return mObjectCount;
+    }
+
+    /*
+     * Decode the instance or class with the given index.  Instances are
+     * made anew each time, but compare equal to each other.
+     */
+    public final Instance getObject(int index) {
+        HprofBuffer buffer = mBuffer;
+        long offset = mObjectOffsets[index];
+        Heap heap = mHeapList.get(mObjectHeaps[index]);
+        int idSize = buffer.getIdSize();
+        long id = buffer.getId(offset);
+        StackTrace stack;
+        Instance instance;
+
+        //  Every record starts with the id and stack serial number
+        offset += idSize;
+        stack = heap.getStackTrace(buffer.getInt(offset));
+        offset += 4;
+
+        switch (buffer.getUnsignedByte(mObjectOffsets[index] - 1)) {
+            case HprofParser.ROOT_CLASS_DUMP:
+                return heap.getClass(id);
+
+            case HprofParser.ROOT_INSTANCE_DUMP: {
+                long classId = buffer.getId(offset);
+
+                offset += idSize + 4;
+                instance = new ClassInstance(id, stack, classId, offset);
+                break;
+            }
+
+            case HprofParser.ROOT_OBJECT_ARRAY_DUMP: {
+                int numElements = buffer.getInt(offset);
+                long classId = buffer.getId(offset + 4);
+
+                offset += 4 + idSize;
+                instance = new ArrayInstance(id, stack, Types.OBJECT,
+                    numElements, offset);
+                instance.mClassId = classId;
+                break;
             }
+
+            case HprofParser.ROOT_PRIMITIVE_ARRAY_DUMP: {
+                int numElements = buffer.getInt(offset);
+                int type = buffer.getUnsignedByte(offset + 4);
+
+                offset += 4 + 1;
+                instance = new ArrayInstance(id, stack, type, numElements,
+                    offset);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("No object at offset "
+                    + mObjectOffsets[index]);
         }
-        
-        //  Couldn't find an instance of a class, look for a class object
-        return findClass(id);
+
+        instance.mObjectIndex = index;
+        instance.setHeap(heap);
+
+        return instance;
+    }
+
+    public final Instance findReference(long id) {
+        int index = mObjectIndex.get(id);
+
+        if (index == LongIntMap.NOT_FOUND) {
+            return null;
+        }
+
+        //  This is either an instance or a class object
+        return getObject(index);
+    }
+
+    /*
+     * Note that the object with index parentIndex refers to the one with
+     * index index.  This may only be called while references are being
+     * resolved, but may be called by several threads at once.
+     */
+    public final void addParent(int index, int parentIndex) {
+        if (mReferences == null) {
+            throw new IllegalStateException(
+                "Parents can only be added by resolveReferences");
+        }
+
+        mReferences.get().add(index, parentIndex);
+    }
+
+    public final ArrayList<Instance> getParents(int index) {
+        if (mParentStarts == null) {
+            return new ArrayList<Instance>();
+        }
+
+        final int start = mParentStarts[index];
+        final int end = mParentStarts[index + 1];
+        ArrayList<Instance> result = new ArrayList<Instance>(end - start);
+
+        for (int i = start; i < end; i++) {
+            result.add(getObject(mParentIndices[i]));
+        }
+
+        return result;
     }
     
     public final ClassObj findClass(long id) {
@@ -169,11 +369,177 @@ public class State {
         }
     }
     
+    /*
+     * The instances are resolved in parallel, in ranges of indices.  The
+     * tasks only read the heaps' tables, and note the references they find
+     * in lists of their own; once they are done, each class's instances are
+     * added in index order, and the parents are indexed in index order, so
+     * the result doesn't depend on how the tasks ran.
+     */
     public final void resolveReferences() {
+        final int N = mObjectCount;
+        final ClassObj[] classes = new ClassObj[N];
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        mReferenceLists = new ArrayList<ReferenceList>();
+        mReferences = new ThreadLocal<ReferenceList>() {
+            protected ReferenceList initialValue() {
+                ReferenceList list = new ReferenceList();
+
+                synchronized (mReferenceLists) {
+                    mReferenceLists.add(list);
+                }
+
+                return list;
+            }
+        };
+
+        //  Instances hold the fields of their superclasses too
+        for (Heap heap: mHeaps.values()) {
+            for (ClassObj theClass: heap.mClassesById.values()) {
+                theClass.mSuperclass = findClass(theClass.mSuperclassId);
+            }
+        }
+
+        for (int start = 0; start < N; start += RESOLVE_CHUNK) {
+            final int first = start;
+            final int last = Math.min(start + RESOLVE_CHUNK, N);
+
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    resolveInstanceRefs(first, last, classes);
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+
+        try {
+            for (Future<Object> future: executor.invokeAll(tasks)) {
+                getResult(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < N; i++) {
+            if (classes[i] != null) {
+                classes[i].addInstance(i);
+            }
+        }
+
         for (Heap heap: mHeaps.values()) {
-            heap.resolveInstanceRefs(this);
             heap.resolveClassStatics(this);
             heap.resolveRoots(this);
         }
+
+        mReferences.remove();
+        mReferences = null;
+        indexParents();
+        mReferenceLists = null;
+    }
+
+    /*
+     * Build mParentStarts and mParentIndices from the reference lists, by
+     * counting sort on the referent.  Each list is let go of once it has
+     * been copied, to keep the peak down on large dumps.
+     */
+    private void indexParents() {
+        final int N = mObjectCount;
+        int[] starts = new int[N + 1];
+
+        for (ReferenceList list: mReferenceLists) {
+            for (int i = 0; i < list.mCount; i++) {
+                starts[(int) (list.mReferences[i] >>> 32) + 1]++;
+            }
+        }
+
+        for (int i = 0; i < N; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] parents = new int[starts[N]];
+        int[] next = new int[N];
+
+        System.arraycopy(starts, 0, next, 0, N);
+
+        for (ReferenceList list: mReferenceLists) {
+            for (int i = 0; i < list.mCount; i++) {
+                long reference = list.mReferences[i];
+
+                parents[next[(int) (reference >>> 32)]++] = (int) reference;
+            }
+
+            list.mReferences = null;
+        }
+
+        for (int i = 0; i < N; i++) {
+            if (starts[i + 1] - starts[i] > 1) {
+                Arrays.sort(parents, starts[i], starts[i + 1]);
+            }
+        }
+
+        mParentStarts = starts;
+        mParentIndices = parents;
+    }
+
+    /*
+     * Link each instance with an index in [first, last) to its class, by
+     * noting the class in classes, and have it resolve its own internal
+     * object references.  Classes are only looked up in the instance's
+     * own heap.
+     */
+    private void resolveInstanceRefs(int first, int last, ClassObj[] classes) {
+        for (int i = first; i < last; i++) {
+            Instance instance = getObject(i);
+
+            if (instance instanceof ClassObj) {
+                continue;
+            }
+
+            ClassObj theClass = instance.mHeap.getClass(instance.mClassId);
+
+            if (theClass == null) {
+                continue;
+            }
+
+            classes[i] = theClass;
+            instance.resolveReferences(this);
+        }
+    }
+
+    /*
+     * Return the dominator tree of the objects, and what they retain.  It
+     * is computed when this is first called, once references are resolved.
+     */
+    public final synchronized Dominators getDominators() {
+        if (mDominators == null) {
+            mDominators = new Dominators(this);
+        }
+
+        return mDominators;
+    }
+
+    /*
+     * Wait for a task and return its result, rethrowing whatever it threw.
+     */
+    static <T> T getResult(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new RuntimeException(cause);
+        }
     }
 }